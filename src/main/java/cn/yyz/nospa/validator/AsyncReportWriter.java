@@ -0,0 +1,175 @@
+package cn.yyz.nospa.validator;
+
+import org.slf4j.Logger;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A writer of the validation report running on a thread of its own. The
+ * records of the report are put into a bounded queue, either lines or
+ * violations which are only formatted into lines by the writer thread, and
+ * the writer takes them in batches and writes the lines of a batch to the
+ * log as a single message and to a report writer. Whoever puts a record
+ * waits when the queue is full, so that the records never pile up in memory
+ * when the writer falls behind. The report writer is flushed whenever the
+ * queue has been emptied, and closing waits until all records have been
+ * written. If a record cannot be formatted, nothing after it is written and
+ * the failure is thrown by the next record put or by closing.
+ */
+public class AsyncReportWriter {
+    private static final int BATCH_SIZE = 1024;
+    private static final Object END_OF_RECORDS = new Object();
+    private BlockingQueue<Object> queue;
+    private Logger logger;
+    private PrintWriter writer;
+    private Thread thread;
+    private volatile RuntimeException failure;
+
+    /**
+     * A violation in the report, formatted into lines by the writer thread
+     */
+    public interface Record {
+
+        /**
+         * Formats the record into lines of the report
+         * @param lines the list receiving the lines
+         */
+        public void format(List<String> lines);
+    }
+
+    /**
+     * Constructor of a report writer, which is started at once
+     * @param logger the logger receiving the lines as debug messages, or null
+     * @param writer the writer receiving the lines, or null
+     * @param capacity the number of records the queue holds at most
+     */
+    public AsyncReportWriter(Logger logger, PrintWriter writer, int capacity) {
+        this.logger = logger;
+        this.writer = writer;
+        queue = new ArrayBlockingQueue<Object>(Math.max(capacity, 1));
+        thread = new Thread(new Runnable() {
+            public void run() {
+                drain();
+            }
+        }, "nospa-report-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Puts a record into the queue, waiting for room if it is full
+     * @param record a line or a violation record
+     * @throws IllegalStateException if a record could not be written
+     */
+    public void write(Object record) {
+        checkFailure();
+        boolean isInterrupted = false;
+        while (true) {
+            try {
+                queue.put(record);
+                break;
+            } catch (InterruptedException ie) {
+                isInterrupted = true;
+            }
+        }
+        if (isInterrupted) Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Waits until all records have been written and stops the writer thread
+     * @throws IllegalStateException if a record could not be written
+     */
+    public void close() {
+        write(END_OF_RECORDS);
+        boolean isInterrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException ie) {
+                isInterrupted = true;
+            }
+        }
+        if (isInterrupted) Thread.currentThread().interrupt();
+        checkFailure();
+    }
+
+    /**
+     * Throws the failure of the writer thread, if any
+     */
+    private void checkFailure() {
+        if (failure != null) throw new IllegalStateException("The report could not be written", failure);
+    }
+
+    /**
+     * Writes the lines of a record at once on the calling thread
+     * @param record a line or a violation record
+     * @param logger the logger receiving the lines as debug messages, or null
+     * @param writer the writer receiving the lines, or null
+     */
+    public static void writeLines(Object record, Logger logger, PrintWriter writer) {
+        List<String> lines = new ArrayList<String>();
+        format(record, lines);
+        for (String line : lines) {
+            if (logger != null) logger.debug(line);
+            if (writer != null) writer.println(line);
+        }
+    }
+
+    /**
+     * Formats a record into lines
+     * @param record a line or a violation record
+     * @param lines the list receiving the lines
+     */
+    private static void format(Object record, List<String> lines) {
+        if (record instanceof Record) ((Record) record).format(lines);
+        else lines.add(String.valueOf(record));
+    }
+
+    /**
+     * Takes the records in batches and writes them until the end of the
+     * records. After a failure the records are only taken, so that nobody
+     * waits for room in the queue.
+     */
+    private void drain() {
+        String lineSeparator = System.getProperty("line.separator");
+        List<Object> batch = new ArrayList<Object>(BATCH_SIZE);
+        List<String> lines = new ArrayList<String>();
+        StringBuilder message = new StringBuilder();
+        boolean isEnd = false;
+        while (!isEnd) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException ie) {
+                continue;
+            }
+            queue.drainTo(batch, BATCH_SIZE - 1);
+            for (Object record : batch) {
+                if (record == END_OF_RECORDS) {
+                    isEnd = true;
+                    break;
+                }
+                if (failure != null) continue;
+                try {
+                    format(record, lines);
+                } catch (RuntimeException re) {
+                    failure = re;
+                }
+            }
+            batch.clear();
+            for (int i = 0; i < lines.size(); i++) {
+                String line = lines.get(i);
+                if (i > 0) message.append(lineSeparator);
+                message.append(line);
+                if (writer != null) writer.println(line);
+            }
+            if (logger != null && !lines.isEmpty()) logger.debug(message.toString());
+            lines.clear();
+            message.setLength(0);
+            if (writer != null && (isEnd || queue.isEmpty())) writer.flush();
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package cn.yyz.nospa.validator;
+
+import cn.yyz.nospa.validator.nonsparql.NospaValidator;
+import cn.yyz.nospa.validator.nonsparql.SchemaContext;
+import com.hp.hpl.jena.rdf.model.*;
+import com.hp.hpl.jena.util.FileManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Validates many cube files in one JVM on a pool of worker threads, each file
+ * with a single thread. Every file is split into its observations and the
+ * rest, i.e., the structure definitions, code lists, datasets and slices. The
+ * rest is compiled into a context which is shared by all files with the same
+ * rest, identified by a hash ignoring blank node labels and confirmed by an
+ * isomorphism check, so that only the observations of each file are
+ * normalized and validated. A report is written for each file into an output
+ * directory, along with a summary of all files.
+ */
+public class BatchValidator {
+    public static final String SUMMARY = "summary.md";
+    private Logger logger = LoggerFactory.getLogger(BatchValidator.class);
+    private File outputDir;
+    private int threads;
+    private final Map<String, CachedContext> contextByHash;
+    private final Set<String> reportNameSet = new HashSet<String>();
+
+    /**
+     * Constructor of a batch validator
+     * @param outputDir the directory receiving the reports
+     * @param threads the number of files validated concurrently
+     * @param cacheSize the maximum number of compiled contexts kept
+     */
+    public BatchValidator(File outputDir, int threads, final int cacheSize) {
+        this.outputDir = outputDir;
+        this.threads = threads;
+        contextByHash = new LinkedHashMap<String, CachedContext>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, CachedContext> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Validates cube files and writes their reports and the summary
+     * @param pathList the paths of the cube files
+     * @return the number of files which are not valid or failed to validate
+     * @throws IOException if the output directory or the summary cannot be
+     * written
+     */
+    public int validate(List<String> pathList) throws IOException {
+        if (!outputDir.isDirectory() && !outputDir.mkdirs())
+            throw new IOException("Directory " + outputDir + " cannot be created");
+        logger.info("Validating " + pathList.size() + " files with " + threads + " threads ...");
+        long start = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<String>> futureList = new ArrayList<Future<String>>();
+        for (final String path : pathList) {
+            futureList.add(executor.submit(new Callable<String>() {
+                public String call() {
+                    return validateFile(path);
+                }
+            }));
+        }
+        executor.shutdown();
+        List<String> resultList = new ArrayList<String>();
+        int failures = 0;
+        for (int i = 0; i < pathList.size(); i++) {
+            String result;
+            try {
+                result = futureList.get(i).get();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                executor.shutdownNow();
+                throw new IOException("Interrupted while validating " + pathList.get(i));
+            } catch (ExecutionException ee) {
+                result = "Error: " + ee.getCause();
+            }
+            if (!result.equals("Pass.")) failures++;
+            resultList.add(result);
+        }
+        long time = System.currentTimeMillis() - start;
+        String rate = String.format("%.2f", pathList.size() * 1000.0 / Math.max(time, 1));
+        writeSummary(pathList, resultList, failures, time, rate);
+        logger.info("Validated " + pathList.size() + " files in " + time + "ms, " + rate +
+                " files/s, " + failures + " not valid");
+        return failures;
+    }
+
+    /**
+     * Validates a cube file and writes its report
+     * @param path the path of the cube file
+     * @return "Pass." if the cube is valid, otherwise a short description of
+     * the violations or the error
+     */
+    private String validateFile(String path) {
+        String format = Main.getFormat(path);
+        if (format == null) return "Error: File path or filename is not valid";
+        InputStream inputStream = FileManager.get().open(path);
+        if (inputStream == null) return "Error: File " + path + " not found";
+        Model model = ModelFactory.createDefaultModel();
+        try {
+            model.read(inputStream, null, format);
+        } catch (RuntimeException re) {
+            return "Error: File " + path + " is not valid: " + re.getMessage();
+        } finally {
+            try {
+                inputStream.close();
+            } catch (IOException ioe) {
+                logger.warn("Failed to close " + path);
+            }
+        }
+        Model obsModel = SchemaContext.extractObservations(model);
+        File reportFile = new File(outputDir, getReportName(path));
+        PrintWriter writer;
+        try {
+            writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(reportFile), "utf-8")));
+        } catch (IOException ioe) {
+            return "Error: Report " + reportFile + " cannot be written: " + ioe.getMessage();
+        }
+        try {
+            writer.println("RDF Cube Validation Result");
+            writer.println("==========================");
+            writer.println();
+            writer.println("Validator: NoSPA");
+            writer.println(new Date().toString());
+            writer.println(path);
+            writer.println();
+            NospaValidator validator = new NospaValidator(obsModel, getContext(model));
+            validator.setParallelism(1);
+            validator.setReportLogged(false);
+            validator.setReportWriter(writer);
+            validator.normalize();
+            validator.freeze();
+            validator.validateAll();
+            int failureCount = validator.getFailureCount();
+            return failureCount == 0 ? "Pass." : failureCount + " constraints violated";
+        } catch (RuntimeException re) {
+            logger.error("Validation of " + path + " failed", re);
+            writer.println("Error: Validation failed: " + re.getMessage());
+            return "Error: Validation failed: " + re.getMessage();
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Gets the compiled context of the structures of a cube from the cache,
+     * or compiles it. A context is compiled outside the lock of the cache,
+     * and concurrent files with the same structures wait for the same
+     * compilation. Structures sharing a hash with cached but different ones
+     * are compiled without being cached.
+     * @param structureModel the structures of a cube, which may be normalized
+     *                       in place
+     * @return the compiled context
+     */
+    private SchemaContext getContext(final Model structureModel) {
+        String hash = hash(structureModel);
+        CachedContext cached;
+        FutureTask<SchemaContext> task = null;
+        synchronized (contextByHash) {
+            cached = contextByHash.get(hash);
+            if (cached == null) {
+                task = new FutureTask<SchemaContext>(new Callable<SchemaContext>() {
+                    public SchemaContext call() {
+                        return new SchemaContext(structureModel);
+                    }
+                });
+                cached = new CachedContext(
+                        ModelFactory.createDefaultModel().add(structureModel), task);
+                contextByHash.put(hash, cached);
+            }
+        }
+        if (task != null) task.run();
+        else if (!cached.structureModel.isIsomorphicWith(structureModel))
+            return new SchemaContext(structureModel);
+        try {
+            return cached.future.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while compiling the structures");
+        } catch (ExecutionException ee) {
+            synchronized (contextByHash) {
+                if (contextByHash.get(hash) == cached) contextByHash.remove(hash);
+            }
+            if (ee.getCause() instanceof RuntimeException) throw (RuntimeException) ee.getCause();
+            throw new RuntimeException(ee.getCause());
+        }
+    }
+
+    /**
+     * Writes the summary of a batch
+     * @param pathList the paths of the cube files
+     * @param resultList the result of each file
+     * @param failures the number of files which are not valid
+     * @param time the validation time in milliseconds
+     * @param rate the number of files validated per second
+     * @throws IOException if the summary cannot be written
+     */
+    private void writeSummary(List<String> pathList, List<String> resultList, int failures,
+                              long time, String rate) throws IOException {
+        PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(new File(outputDir, SUMMARY)), "utf-8")));
+        try {
+            writer.println("RDF Cube Batch Validation Summary");
+            writer.println("=================================");
+            writer.println();
+            writer.println(new Date().toString());
+            writer.println("Files: " + pathList.size());
+            writer.println("Not valid: " + failures);
+            writer.println("Time: " + time + "ms");
+            writer.println("Throughput: " + rate + " files/s");
+            writer.println();
+            for (int i = 0; i < pathList.size(); i++) {
+                writer.println(pathList.get(i));
+                writer.println("    " + resultList.get(i));
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Gets a unique name of the report of a cube file, made of the name of the
+     * file
+     * @param path the path of the cube file
+     * @return the name of the report
+     */
+    private String getReportName(String path) {
+        String name = new File(path).getName();
+        synchronized (reportNameSet) {
+            String reportName = name + ".md";
+            for (int i = 2; !reportNameSet.add(reportName) || reportName.equals(SUMMARY); i++)
+                reportName = name + "-" + i + ".md";
+            return reportName;
+        }
+    }
+
+    /**
+     * Computes a hash of a model which is the same for isomorphic models, by
+     * hashing its sorted triples with the labels of blank nodes left out
+     * @param model an RDF model
+     * @return the hash in hex
+     */
+    private String hash(Model model) {
+        List<String> tripleList = new ArrayList<String>();
+        StmtIterator stmtIter = model.listStatements();
+        while (stmtIter.hasNext()) {
+            Statement statement = stmtIter.nextStatement();
+            tripleList.add(toKey(statement.getSubject()) + " " + statement.getPredicate() +
+                    " " + toKey(statement.getObject()));
+        }
+        Collections.sort(tripleList);
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String triple : tripleList) {
+                digest.update(triple.getBytes("utf-8"));
+                digest.update((byte) '\n');
+            }
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest.digest()) sb.append(String.format("%02x", b));
+            return sb.toString();
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new IllegalStateException(nsae);
+        } catch (UnsupportedEncodingException uee) {
+            throw new IllegalStateException(uee);
+        }
+    }
+
+    /**
+     * @param node an RDF node
+     * @return the node as a string, or "_" for a blank node
+     */
+    private String toKey(RDFNode node) {
+        if (node.isAnon()) return "_";
+        if (node.isLiteral()) return "\"" + node.asLiteral().getLexicalForm() + "\"^^" +
+                node.asLiteral().getDatatypeURI() + "@" + node.asLiteral().getLanguage();
+        return "<" + node.toString() + ">";
+    }
+
+    /**
+     * Lists the cube files of a directory and its subdirectories, or the
+     * paths given by the lines of a list file
+     * @param path a directory, or a file with a path on each line
+     * @return the paths of the cube files in order
+     * @throws IOException if the directory or the file cannot be read
+     */
+    public static List<String> listFiles(String path) throws IOException {
+        List<String> pathList = new ArrayList<String>();
+        File file = new File(path);
+        if (file.isDirectory()) {
+            listFiles(file, pathList);
+            return pathList;
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), "utf-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().length() > 0) pathList.add(line.trim());
+            }
+        } finally {
+            reader.close();
+        }
+        return pathList;
+    }
+
+    /**
+     * This function is a subtask to list the cube files of a directory
+     * @param dir a directory
+     * @param pathList the list receiving the paths
+     */
+    private static void listFiles(File dir, List<String> pathList) {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        Arrays.sort(files);
+        for (File file : files) {
+            if (file.isDirectory()) listFiles(file, pathList);
+            else if (Main.getFormat(file.getPath()) != null) pathList.add(file.getPath());
+        }
+    }
+
+    /**
+     * A compiled context with a copy of the structures it was compiled from
+     */
+    private static class CachedContext {
+        private Model structureModel;
+        private Future<SchemaContext> future;
+
+        CachedContext(Model structureModel, Future<SchemaContext> future) {
+            this.structureModel = structureModel;
+            this.future = future;
+        }
+    }
+}
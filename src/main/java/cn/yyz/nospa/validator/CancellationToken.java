@@ -0,0 +1,70 @@
+package cn.yyz.nospa.validator;
+
+/**
+ * A token checked by validators in their loops to stop cooperatively. A token
+ * is cancelled explicitly, by the cancellation of its parent token, or when
+ * its time limit has passed. The time limit of a token counts from the first
+ * time it is checked, i.e., from the moment a validator starts using it.
+ */
+public class CancellationToken {
+    private final CancellationToken parent;
+    private final long timeLimitNanos;
+    private volatile long deadlineNanos;
+    private volatile boolean started = false;
+    private volatile boolean cancelled = false;
+
+    /**
+     * Constructor of a token without a time limit
+     */
+    public CancellationToken() {
+        this(null, 0);
+    }
+
+    private CancellationToken(CancellationToken parent, long timeLimitNanos) {
+        this.parent = parent;
+        this.timeLimitNanos = timeLimitNanos;
+    }
+
+    /**
+     * Create a child token which is also cancelled when its time limit passes
+     * @param timeLimitMillis the time limit in milliseconds, or 0 for none
+     * @return a new token depending on this one
+     */
+    public CancellationToken withTimeLimit(long timeLimitMillis) {
+        if (timeLimitMillis < 0)
+            throw new IllegalArgumentException("A time limit must not be negative");
+        return new CancellationToken(this, timeLimitMillis * 1000000L);
+    }
+
+    /**
+     * Cancel this token and all tokens depending on it
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Check if the work guarded by this token should stop
+     * @return true if the token is cancelled or its time limit has passed
+     */
+    public boolean isCancelled() {
+        if (cancelled) return true;
+        if (parent != null && parent.isCancelled()) return true;
+        if (timeLimitNanos > 0) {
+            if (!started) start();
+            else if (System.nanoTime() - deadlineNanos >= 0) cancelled = true;
+        }
+        return cancelled;
+    }
+
+    /**
+     * Sets the deadline once, even if several threads check the token for
+     * the first time at once. The deadline is written before the flag, so a
+     * thread seeing the flag sees the deadline.
+     */
+    private synchronized void start() {
+        if (started) return;
+        deadlineNanos = System.nanoTime() + timeLimitNanos;
+        started = true;
+    }
+}
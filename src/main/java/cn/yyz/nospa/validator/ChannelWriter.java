@@ -0,0 +1,76 @@
+package cn.yyz.nospa.validator;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.Charset;
+
+/**
+ * A writer encoding text in UTF-8 into a direct buffer which is written to a
+ * file channel whenever it is full, so that many short records cost a few
+ * large writes. The first failure is kept and thrown when closing, since the
+ * sinks writing records cannot throw. It is not thread-safe.
+ */
+class ChannelWriter {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private FileChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private CharsetEncoder encoder = Charset.forName("utf-8").newEncoder();
+    private IOException error;
+
+    /**
+     * Constructor of a writer into a file, which is overwritten
+     * @param file the file to be written
+     * @throws IOException if the file cannot be opened
+     */
+    ChannelWriter(File file) throws IOException {
+        channel = new FileOutputStream(file).getChannel();
+    }
+
+    /**
+     * Writes some text
+     * @param text the text to be written
+     */
+    void write(CharSequence text) {
+        if (error != null) return;
+        CharBuffer chars = CharBuffer.wrap(text);
+        while (encoder.encode(chars, buffer, true) == CoderResult.OVERFLOW) {
+            drain();
+            if (error != null) return;
+        }
+        encoder.reset();
+    }
+
+    /**
+     * Writes the buffered bytes to the channel
+     */
+    void drain() {
+        if (error != null) return;
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) channel.write(buffer);
+        } catch (IOException e) {
+            error = e;
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Writes the buffered bytes and closes the channel
+     * @throws IOException if any text could not be written
+     */
+    void close() throws IOException {
+        drain();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            if (error == null) error = e;
+        }
+        if (error != null) throw error;
+    }
+}
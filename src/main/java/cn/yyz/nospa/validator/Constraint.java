@@ -0,0 +1,43 @@
+package cn.yyz.nospa.validator;
+
+/**
+ * The integrity constraints of the RDF Data Cube vocabulary
+ */
+public enum Constraint {
+    IC1("Unique DataSet"),
+    IC2("Unique DSD"),
+    IC3("DSD Includes Measure"),
+    IC4("Dimensions Have Range"),
+    IC5("Concept Dimensions Have Code Lists"),
+    IC6("Only Attributes May Be Optional"),
+    IC7("Slice Keys Must Be Declared"),
+    IC8("Slice Keys Consistent With DSD"),
+    IC9("Unique Slice Structure"),
+    IC10("Slice Dimensions Complete"),
+    IC11("All Dimensions Required"),
+    IC12("No Duplicate Observations"),
+    IC13("Required Attributes"),
+    IC14("All Measures Present"),
+    IC15("Measure Dimension Consistent"),
+    IC16("Single Measure On Measure Dimension Observation"),
+    IC17("All Measures Present In Measures Dimension Cube"),
+    IC18("Consistent Dataset Links"),
+    IC19("Codes From Code List"),
+    IC20("Codes From Hierarchy"),
+    IC21("Codes From Hierarchy (Inverse)");
+
+    private final String name;
+
+    private Constraint(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Get the name of the constraint as used in the validation report
+     * @return the name of the constraint, e.g., "Integrity Constraint 1:
+     * Unique DataSet"
+     */
+    public String getName() {
+        return "Integrity Constraint " + (ordinal() + 1) + ": " + name;
+    }
+}
@@ -0,0 +1,56 @@
+package cn.yyz.nospa.validator;
+
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.rdf.model.Resource;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A result sink counting the violations of each constraint, optionally
+ * passing them on to another sink
+ */
+public class CountingSink implements ValidationResultSink {
+    private AtomicLongArray countByConstraint = new AtomicLongArray(Constraint.values().length);
+    private ValidationResultSink next;
+
+    /**
+     * Constructor of a counting sink which keeps no violations
+     */
+    public CountingSink() {
+        this(null);
+    }
+
+    /**
+     * Constructor of a counting sink passing the violations on
+     * @param next the sink receiving the counted violations, or null
+     */
+    public CountingSink(ValidationResultSink next) {
+        this.next = next;
+    }
+
+    public void violation(Constraint constraint, Resource dataset, RDFNode node, Object detail) {
+        countByConstraint.incrementAndGet(constraint.ordinal());
+        if (next != null) next.violation(constraint, dataset, node, detail);
+    }
+
+    public void completed(Constraint constraint, boolean isIncomplete, long time) {
+        if (next != null) next.completed(constraint, isIncomplete, time);
+    }
+
+    /**
+     * @param constraint an integrity constraint
+     * @return the number of violations of the constraint received
+     */
+    public long getCount(Constraint constraint) {
+        return countByConstraint.get(constraint.ordinal());
+    }
+
+    /**
+     * @return the number of violations of all constraints received
+     */
+    public long getTotal() {
+        long total = 0;
+        for (int i = 0; i < countByConstraint.length(); i++) total += countByConstraint.get(i);
+        return total;
+    }
+}
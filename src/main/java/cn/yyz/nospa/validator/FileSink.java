@@ -0,0 +1,60 @@
+package cn.yyz.nospa.validator;
+
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.rdf.model.Resource;
+
+import java.io.*;
+import java.util.Collection;
+
+/**
+ * A result sink streaming the violations into a file as they are received,
+ * one violation per line: the constraint, the violating node and the
+ * properties or values involved, separated by tabs. The end of each
+ * constraint is written as a line with the constraint, "completed" or
+ * "incomplete" and the time spent validating it if measured.
+ */
+public class FileSink implements ValidationResultSink {
+    private PrintWriter writer;
+
+    /**
+     * Constructor of a sink writing into a file, which is overwritten
+     * @param file the file receiving the violations
+     * @throws IOException if the file cannot be written
+     */
+    public FileSink(File file) throws IOException {
+        writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file), "utf-8")));
+    }
+
+    public synchronized void violation(Constraint constraint, Resource dataset, RDFNode node, Object detail) {
+        writer.print(constraint.name());
+        writer.print('\t');
+        writer.print(node.toString());
+        if (detail instanceof Collection) {
+            for (Object value : (Collection) detail) {
+                writer.print('\t');
+                writer.print(value.toString());
+            }
+        }
+        else if (detail != null) {
+            writer.print('\t');
+            writer.print(detail.toString());
+        }
+        writer.println();
+    }
+
+    public synchronized void completed(Constraint constraint, boolean isIncomplete, long time) {
+        writer.println(constraint.name() + "\t" + (isIncomplete ? "incomplete" : "completed") +
+                (time < 0 ? "" : "\t" + time + "ms"));
+        writer.flush();
+    }
+
+    /**
+     * Flushes and closes the file
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized void close() throws IOException {
+        writer.close();
+        if (writer.checkError()) throw new IOException("The violations could not be written");
+    }
+}
@@ -0,0 +1,208 @@
+package cn.yyz.nospa.validator;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.sparql.util.NodeFactoryExtra;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A reader of the violations written by a JsonLinesSink, replaying them into
+ * another result sink, e.g., to merge the results of several validations.
+ * A summary is replayed as the end of its constraint, and the total is
+ * skipped. Nodes are read into a model, IRIs as resources and anything else
+ * in N-Triples syntax, and numbers are read as longs.
+ */
+public class JsonLinesReader {
+    private Model model;
+    private String line;
+    private int pos;
+
+    /**
+     * Constructor of a reader
+     * @param model the model of the nodes read
+     */
+    public JsonLinesReader(Model model) {
+        this.model = model;
+    }
+
+    /**
+     * Reads a file of JSON Lines and replays its records into a sink
+     * @param file a file written by a JsonLinesSink
+     * @param sink the sink receiving the violations and the ends of the
+     *             constraints
+     * @throws IOException if the file cannot be read or has a line which is
+     * not a record
+     */
+    public void replay(File file, ValidationResultSink sink) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), "utf-8"));
+        try {
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().length() == 0) continue;
+                try {
+                    pos = 0;
+                    replay(readObject(), sink);
+                } catch (RuntimeException re) {
+                    throw new IOException("Line " + lineNumber + " of " + file + " is not valid: " +
+                            re.getMessage());
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Replays a record into a sink
+     * @param record the fields of a record
+     * @param sink the sink receiving the record
+     */
+    private void replay(Map<String, Object> record, ValidationResultSink sink) {
+        Object type = record.get("type");
+        if (!"violation".equals(type) && !"summary".equals(type)) return;
+        Constraint constraint = Constraint.valueOf((String) record.get("constraint"));
+        if (type.equals("summary")) {
+            Object time = record.get("timeMs");
+            sink.completed(constraint, Boolean.TRUE.equals(record.get("incomplete")),
+                    time instanceof Long ? (Long) time : -1);
+            return;
+        }
+        Object detail = null;
+        if (record.containsKey("values")) {
+            Set<Object> valueSet = new LinkedHashSet<Object>();
+            for (Object value : (List<?>) record.get("values")) valueSet.add(toValue(value));
+            detail = valueSet;
+        }
+        else if (record.containsKey("value")) detail = toValue(record.get("value"));
+        Object dataset = record.get("dataset");
+        sink.violation(constraint, dataset == null ? null : toNode((String) dataset).asResource(),
+                toNode((String) record.get("node")), detail);
+    }
+
+    /**
+     * @param value a string or a number
+     * @return the node of a string, or the number
+     */
+    private Object toValue(Object value) {
+        return value instanceof String ? toNode((String) value) : value;
+    }
+
+    /**
+     * @param token an IRI, or a blank node or a literal in N-Triples syntax
+     * @return the node
+     */
+    private RDFNode toNode(String token) {
+        if (token.startsWith("\"") || token.startsWith("_:"))
+            return model.asRDFNode(NodeFactoryExtra.parseNode(token));
+        return model.createResource(token);
+    }
+
+    /**
+     * Reads a JSON object at the current position
+     * @return the fields of the object
+     */
+    private Map<String, Object> readObject() {
+        Map<String, Object> fieldMap = new HashMap<String, Object>();
+        expect('{');
+        if (peek() == '}') {
+            pos++;
+            return fieldMap;
+        }
+        while (true) {
+            String name = readString();
+            expect(':');
+            fieldMap.put(name, readValue());
+            if (peek() == '}') {
+                pos++;
+                return fieldMap;
+            }
+            expect(',');
+        }
+    }
+
+    /**
+     * Reads a JSON string, number, boolean, null or array of these at the
+     * current position
+     * @return the value, with a number as a long and an array as a list
+     */
+    private Object readValue() {
+        char c = peek();
+        if (c == '"') return readString();
+        if (c == '[') {
+            pos++;
+            List<Object> valueList = new ArrayList<Object>();
+            if (peek() == ']') {
+                pos++;
+                return valueList;
+            }
+            while (true) {
+                valueList.add(readValue());
+                if (peek() == ']') {
+                    pos++;
+                    return valueList;
+                }
+                expect(',');
+            }
+        }
+        int start = pos;
+        while (pos < line.length() && ",}] ".indexOf(line.charAt(pos)) < 0) pos++;
+        String literal = line.substring(start, pos);
+        if (literal.equals("true")) return Boolean.TRUE;
+        if (literal.equals("false")) return Boolean.FALSE;
+        if (literal.equals("null")) return null;
+        return Long.valueOf(literal);
+    }
+
+    /**
+     * Reads a JSON string at the current position
+     * @return the unescaped string
+     */
+    private String readString() {
+        expect('"');
+        StringBuilder text = new StringBuilder();
+        while (true) {
+            char c = line.charAt(pos++);
+            if (c == '"') return text.toString();
+            if (c != '\\') {
+                text.append(c);
+                continue;
+            }
+            c = line.charAt(pos++);
+            switch (c) {
+                case 'n': text.append('\n'); break;
+                case 'r': text.append('\r'); break;
+                case 't': text.append('\t'); break;
+                case 'b': text.append('\b'); break;
+                case 'f': text.append('\f'); break;
+                case 'u':
+                    text.append((char) Integer.parseInt(line.substring(pos, pos + 4), 16));
+                    pos += 4;
+                    break;
+                default: text.append(c);
+            }
+        }
+    }
+
+    /**
+     * Skips the white space at the current position
+     * @return the next character
+     */
+    private char peek() {
+        while (pos < line.length() && Character.isWhitespace(line.charAt(pos))) pos++;
+        if (pos == line.length()) throw new IllegalArgumentException("unexpected end of line");
+        return line.charAt(pos);
+    }
+
+    /**
+     * Skips a character expected at the current position
+     * @param c the expected character
+     */
+    private void expect(char c) {
+        if (peek() != c) throw new IllegalArgumentException("'" + c + "' expected at " + pos);
+        pos++;
+    }
+}
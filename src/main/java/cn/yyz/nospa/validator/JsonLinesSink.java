@@ -0,0 +1,144 @@
+package cn.yyz.nospa.validator;
+
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.rdf.model.Resource;
+import org.apache.jena.riot.out.NodeFmtLib;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * A result sink streaming the violations into a file as JSON Lines, one
+ * object per line, through a buffered file channel. A violation is written
+ * as
+ * {"type":"violation","constraint":"IC11","dataset":"...","node":"...",
+ * "values":["..."]}, without "dataset" if it is not known, and with "value"
+ * instead of "values" for a single resource or number. The end
+ * of each constraint is written as
+ * {"type":"summary","constraint":"IC11","name":"...","violations":3,
+ * "incomplete":false,"timeMs":12}, and the end of the validation as
+ * {"type":"total","violations":3,"failedConstraints":1,"timeMs":150} when
+ * the sink is closed. Nodes are written as IRIs, and blank nodes and
+ * literals in N-Triples syntax. The records can be read back with a
+ * JsonLinesReader.
+ */
+public class JsonLinesSink implements ValidationResultSink {
+    private ChannelWriter writer;
+    private StringBuilder line = new StringBuilder();
+    private long[] countByConstraint = new long[Constraint.values().length];
+    private long startTime = System.nanoTime();
+
+    /**
+     * Constructor of a sink writing into a file, which is overwritten
+     * @param file the file receiving the violations
+     * @throws IOException if the file cannot be written
+     */
+    public JsonLinesSink(File file) throws IOException {
+        writer = new ChannelWriter(file);
+    }
+
+    public synchronized void violation(Constraint constraint, Resource dataset, RDFNode node, Object detail) {
+        countByConstraint[constraint.ordinal()]++;
+        line.setLength(0);
+        line.append("{\"type\":\"violation\",\"constraint\":\"").append(constraint.name()).append('"');
+        if (dataset != null) {
+            line.append(",\"dataset\":");
+            appendString(formatNode(dataset));
+        }
+        line.append(",\"node\":");
+        appendString(formatNode(node));
+        if (detail instanceof Collection) {
+            line.append(",\"values\":[");
+            boolean isFirst = true;
+            for (Object value : (Collection) detail) {
+                if (!isFirst) line.append(',');
+                appendValue(value);
+                isFirst = false;
+            }
+            line.append(']');
+        }
+        else if (detail != null) {
+            line.append(",\"value\":");
+            appendValue(detail);
+        }
+        line.append("}\n");
+        writer.write(line);
+    }
+
+    public synchronized void completed(Constraint constraint, boolean isIncomplete, long time) {
+        line.setLength(0);
+        line.append("{\"type\":\"summary\",\"constraint\":\"").append(constraint.name());
+        line.append("\",\"name\":");
+        appendString(constraint.getName());
+        line.append(",\"violations\":").append(countByConstraint[constraint.ordinal()]);
+        line.append(",\"incomplete\":").append(isIncomplete);
+        if (time >= 0) line.append(",\"timeMs\":").append(time);
+        line.append("}\n");
+        writer.write(line);
+    }
+
+    /**
+     * Writes the total number of violations, flushes and closes the file
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized void close() throws IOException {
+        long total = 0;
+        int numOfFailed = 0;
+        for (long count : countByConstraint) {
+            total += count;
+            if (count > 0) numOfFailed++;
+        }
+        line.setLength(0);
+        line.append("{\"type\":\"total\",\"violations\":").append(total);
+        line.append(",\"failedConstraints\":").append(numOfFailed);
+        line.append(",\"timeMs\":").append((System.nanoTime() - startTime) / 1000000);
+        line.append("}\n");
+        writer.write(line);
+        writer.close();
+    }
+
+    /**
+     * Appends a value of a violation, a number as a JSON number and anything
+     * else as a string
+     * @param value a node, a number or another object
+     */
+    private void appendValue(Object value) {
+        if (value instanceof Number) line.append(value.toString());
+        else if (value instanceof RDFNode) appendString(formatNode((RDFNode) value));
+        else appendString(String.valueOf(value));
+    }
+
+    /**
+     * Formats a node as its IRI, or in N-Triples syntax if it is a blank node
+     * or a literal
+     * @param node a node
+     * @return the formatted node
+     */
+    static String formatNode(RDFNode node) {
+        if (node.isURIResource()) return node.asResource().getURI();
+        return NodeFmtLib.str(node.asNode());
+    }
+
+    /**
+     * Appends a JSON string with the quotes and control characters escaped
+     * @param text the text of the string
+     */
+    private void appendString(String text) {
+        line.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"': line.append("\\\""); break;
+                case '\\': line.append("\\\\"); break;
+                case '\n': line.append("\\n"); break;
+                case '\r': line.append("\\r"); break;
+                case '\t': line.append("\\t"); break;
+                default:
+                    if (c < 0x20) line.append(String.format("\\u%04x", (int) c));
+                    else line.append(c);
+            }
+        }
+        line.append('"');
+    }
+}
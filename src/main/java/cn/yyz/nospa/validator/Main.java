@@ -1,13 +1,22 @@
 package cn.yyz.nospa.validator;
 
 import cn.yyz.nospa.validator.nonsparql.NospaValidator;
+import cn.yyz.nospa.validator.nonsparql.ShardedValidator;
+import cn.yyz.nospa.validator.nonsparql.StreamingValidator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Properties;
 
 /**
@@ -18,25 +27,83 @@ public class Main {
         SimpleDateFormat dateFormat = new SimpleDateFormat("yyyyMMddHHmmss");
         System.setProperty("current.timestamp", dateFormat.format(new Date()));
     }
-    public static void main(String[] args) {
-        Logger logger = LoggerFactory.getLogger(Main.class);
-        HashMap<String, String> rdfFileExt = new HashMap<String, String>();
+    private static final int PATTERN_SAMPLE_SIZE = 3;
+    private static final HashMap<String, String> rdfFileExt = new HashMap<String, String>();
+    static {
         rdfFileExt.put("xml", "RDF/XML");
         rdfFileExt.put("rdf", "RDF/XML");
         rdfFileExt.put("nt", "N-TRIPLE");
         rdfFileExt.put("ttl", "TURTLE");
         rdfFileExt.put("n3", "N3");
+    }
 
+    public static void main(String[] args) {
+        Logger logger = LoggerFactory.getLogger(Main.class);
         String inputPath, inputFormat, validatorType;
         System.out.println("===NoSPA RDF Data Cube Validator===");
-        if (args.length != 2) {
+        if (args.length > 0 && args[0].equals("--daemon")) {
+            runDaemon(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--server")) {
+            runServer(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--batch")) {
+            runBatch(args);
+            return;
+        }
+        if (args.length > 0 && (args[0].equals("--stream") || args[0].equals("--two-pass"))) {
+            runStream(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--shards")) {
+            runShards(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--report")) {
+            runReport(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--patterns")) {
+            runPatterns(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--count")) {
+            runCount(args);
+            return;
+        }
+        if (args.length == 5 && args[0].equals("--shard-worker")) {
+            try {
+                ShardedValidator.runWorker(args[1], new File(args[2]), Integer.parseInt(args[3]),
+                        Integer.parseInt(args[4]));
+            } catch (IOException ioe) {
+                logger.error("Shard worker failed", ioe);
+                System.exit(1);
+            }
+            return;
+        }
+        EnumSet<Constraint> constraintSet = EnumSet.allOf(Constraint.class);
+        if (args.length != 2 && args.length != 3) {
             System.out.println("Error: Missing arguments");
-            System.out.println("Usage: java -jar jar-name.jar <cube-file.(xml|rdf|nt|n3|ttl)> <(nospa|sparql)>");
+            System.out.println("Usage: java -jar jar-name.jar <cube-file.(xml|rdf|nt|n3|ttl)> <(nospa|sparql)> " +
+                    "[constraints, e.g., IC1,IC11,IC12]");
+            System.out.println("       java -jar jar-name.jar --daemon <cube-file.(xml|rdf|nt|n3|ttl)> <port> [retain]");
+            System.out.println("       java -jar jar-name.jar --server <port> [threads] [root-directory]");
+            System.out.println("       java -jar jar-name.jar --batch <directory|list-file> <output-directory> [threads]");
+            System.out.println("       java -jar jar-name.jar --stream <subject-grouped-cube-file.nt> [chunk-size] [queue-capacity]");
+            System.out.println("       java -jar jar-name.jar --two-pass <cube-file.(xml|rdf|nt|n3|ttl)> [chunk-size] [queue-capacity]");
+            System.out.println("       java -jar jar-name.jar --shards <cube-file.(xml|rdf|nt|n3|ttl)> <workers> [work-directory]");
+            System.out.println("       java -jar jar-name.jar --report <cube-file.(xml|rdf|nt|n3|ttl)> " +
+                    "<report-file.(jsonl|nt)> [constraints]");
+            System.out.println("       java -jar jar-name.jar --patterns <cube-file.(xml|rdf|nt|n3|ttl)> " +
+                    "<report-file> [constraints]");
+            System.out.println("       java -jar jar-name.jar --count <cube-file.(xml|rdf|nt|n3|ttl)> [constraints]");
             return;
         }
         else {
             inputPath = args[0];
-            inputFormat = rdfFileExt.get(inputPath.substring(inputPath.lastIndexOf('.') + 1).toLowerCase());
+            inputFormat = getFormat(inputPath);
             if (inputFormat == null) {
                 System.out.println("Error: File path or filename is not valid");
                 return;
@@ -46,14 +113,350 @@ public class Main {
                 System.out.println("Error: Validator type is not supported");
                 return;
             }
+            if (args.length == 3) {
+                constraintSet = parseConstraints(args[2]);
+                if (constraintSet == null) {
+                    System.out.println("Error: Constraints are not valid");
+                    return;
+                }
+            }
         }
 
         long start = System.currentTimeMillis();
         Validator validator = ValidatorFactory.createValidator(validatorType, inputPath, inputFormat);
         validator.normalize();
-        validator.validateAll();
+        validator.validate(constraintSet);
         long end = System.currentTimeMillis();
         //validator.exportModel(outputPath, outputFormat);
         logger.info("The validation task completed in " + Long.toString(end - start) + "ms");
     }
+
+    /**
+     * Starts a validation daemon with the arguments given after --daemon
+     * @param args the command line arguments
+     */
+    private static void runDaemon(String[] args) {
+        if (args.length != 3 && !(args.length == 4 && args[3].equals("retain"))) {
+            System.out.println("Error: Missing arguments");
+            System.out.println("Usage: java -jar jar-name.jar --daemon <cube-file.(xml|rdf|nt|n3|ttl)> <port> [retain]");
+            return;
+        }
+        String inputFormat = getFormat(args[1]);
+        if (inputFormat == null) {
+            System.out.println("Error: File path or filename is not valid");
+            return;
+        }
+        int port;
+        try {
+            port = Integer.parseInt(args[2]);
+        } catch (NumberFormatException nfe) {
+            System.out.println("Error: Port is not valid");
+            return;
+        }
+        try {
+            new ValidationDaemon(args[1], inputFormat, args.length == 4).serve(port);
+        } catch (IOException ioe) {
+            System.out.println("Error: " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * Starts a validation server with the arguments given after --server
+     * @param args the command line arguments
+     */
+    private static void runServer(String[] args) {
+        if (args.length < 2 || args.length > 4) {
+            System.out.println("Error: Missing arguments");
+            System.out.println("Usage: java -jar jar-name.jar --server <port> [threads] [root-directory]");
+            return;
+        }
+        int port, threads = Runtime.getRuntime().availableProcessors();
+        try {
+            port = Integer.parseInt(args[1]);
+            if (args.length >= 3) threads = Integer.parseInt(args[2]);
+        } catch (NumberFormatException nfe) {
+            System.out.println("Error: Port or number of threads is not valid");
+            return;
+        }
+        try {
+            File root = new File(args.length == 4 ? args[3] : ".");
+            new ValidationServer(port, threads, 16, root).start();
+        } catch (IOException ioe) {
+            System.out.println("Error: " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * Validates many cube files with the arguments given after --batch
+     * @param args the command line arguments
+     */
+    private static void runBatch(String[] args) {
+        if (args.length != 3 && args.length != 4) {
+            System.out.println("Error: Missing arguments");
+            System.out.println("Usage: java -jar jar-name.jar --batch <directory|list-file> <output-directory> [threads]");
+            return;
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+        try {
+            if (args.length == 4) threads = Integer.parseInt(args[3]);
+        } catch (NumberFormatException nfe) {
+            System.out.println("Error: Number of threads is not valid");
+            return;
+        }
+        try {
+            List<String> pathList = BatchValidator.listFiles(args[1]);
+            new BatchValidator(new File(args[2]), threads, 64).validate(pathList);
+        } catch (IOException ioe) {
+            System.out.println("Error: " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * Validates a cube file grouped by subject as a stream with the arguments
+     * given after --stream, or any cube file in two passes with the arguments
+     * given after --two-pass. The stages run as a pipeline if a queue
+     * capacity is given.
+     * @param args the command line arguments
+     */
+    private static void runStream(String[] args) {
+        boolean twoPass = args[0].equals("--two-pass");
+        if (args.length < 2 || args.length > 4) {
+            System.out.println("Error: Missing arguments");
+            if (twoPass)
+                System.out.println("Usage: java -jar jar-name.jar --two-pass <cube-file.(xml|rdf|nt|n3|ttl)> [chunk-size] [queue-capacity]");
+            else
+                System.out.println("Usage: java -jar jar-name.jar --stream <subject-grouped-cube-file.nt> [chunk-size] [queue-capacity]");
+            return;
+        }
+        String inputFormat = getFormat(args[1]);
+        if (inputFormat == null) {
+            System.out.println("Error: File path or filename is not valid");
+            return;
+        }
+        int chunkSize = 1000, queueCapacity = 0;
+        try {
+            if (args.length >= 3) chunkSize = Integer.parseInt(args[2]);
+            if (args.length == 4) queueCapacity = Integer.parseInt(args[3]);
+        } catch (NumberFormatException nfe) {
+            System.out.println("Error: Chunk size or queue capacity is not valid");
+            return;
+        }
+        Logger logger = LoggerFactory.getLogger(Main.class);
+        long start = System.currentTimeMillis();
+        if (twoPass) NospaValidator.validateInTwoPasses(args[1], inputFormat, chunkSize, queueCapacity);
+        else {
+            StreamingValidator validator = new StreamingValidator(chunkSize);
+            validator.setQueueCapacity(queueCapacity);
+            validator.validate(args[1], inputFormat);
+        }
+        long end = System.currentTimeMillis();
+        logger.info("The validation task completed in " + Long.toString(end - start) + "ms");
+    }
+
+    /**
+     * Validates a cube file in shards on local worker processes with the
+     * arguments given after --shards
+     * @param args the command line arguments
+     */
+    private static void runShards(String[] args) {
+        if (args.length != 3 && args.length != 4) {
+            System.out.println("Error: Missing arguments");
+            System.out.println("Usage: java -jar jar-name.jar --shards <cube-file.(xml|rdf|nt|n3|ttl)> <workers> [work-directory]");
+            return;
+        }
+        String inputFormat = getFormat(args[1]);
+        if (inputFormat == null) {
+            System.out.println("Error: File path or filename is not valid");
+            return;
+        }
+        int workers;
+        try {
+            workers = Integer.parseInt(args[2]);
+        } catch (NumberFormatException nfe) {
+            System.out.println("Error: Number of workers is not valid");
+            return;
+        }
+        File workDir = new File(args.length == 4 ? args[3] :
+                "nospa_shards_" + System.getProperty("current.timestamp"));
+        Logger logger = LoggerFactory.getLogger(Main.class);
+        long start = System.currentTimeMillis();
+        try {
+            new ShardedValidator(workDir, workers).validate(args[1], inputFormat);
+        } catch (IOException ioe) {
+            System.out.println("Error: " + ioe.getMessage());
+            return;
+        }
+        long end = System.currentTimeMillis();
+        logger.info("The validation task completed in " + Long.toString(end - start) + "ms");
+    }
+
+    /**
+     * Validates a cube file with NoSPA and streams the violations into a
+     * JSON Lines file or a SHACL validation report in N-Triples, depending
+     * on its extension, with the arguments given after --report
+     * @param args the command line arguments
+     */
+    private static void runReport(String[] args) {
+        if (args.length != 3 && args.length != 4) {
+            System.out.println("Error: Missing arguments");
+            System.out.println("Usage: java -jar jar-name.jar --report <cube-file.(xml|rdf|nt|n3|ttl)> " +
+                    "<report-file.(jsonl|nt)> [constraints]");
+            return;
+        }
+        String inputFormat = getFormat(args[1]);
+        if (inputFormat == null) {
+            System.out.println("Error: File path or filename is not valid");
+            return;
+        }
+        boolean isShacl = args[2].toLowerCase().endsWith(".nt");
+        if (!isShacl && !args[2].toLowerCase().endsWith(".jsonl")) {
+            System.out.println("Error: Report file must end with .jsonl or .nt");
+            return;
+        }
+        EnumSet<Constraint> constraintSet = EnumSet.allOf(Constraint.class);
+        if (args.length == 4) {
+            constraintSet = parseConstraints(args[3]);
+            if (constraintSet == null) {
+                System.out.println("Error: Constraints are not valid");
+                return;
+            }
+        }
+        Logger logger = LoggerFactory.getLogger(Main.class);
+        long start = System.currentTimeMillis();
+        File reportFile = new File(args[2]);
+        try {
+            JsonLinesSink jsonSink = null;
+            ShaclReportSink shaclSink = null;
+            try {
+                if (isShacl) shaclSink = new ShaclReportSink(reportFile);
+                else jsonSink = new JsonLinesSink(reportFile);
+                NospaValidator validator = new NospaValidator(args[1], inputFormat, true);
+                validator.setResultSink(isShacl ? shaclSink : jsonSink);
+                validator.normalize();
+                validator.freeze();
+                validator.validate(constraintSet);
+            } finally {
+                if (shaclSink != null) shaclSink.close();
+                if (jsonSink != null) jsonSink.close();
+            }
+        } catch (IOException ioe) {
+            System.out.println("Error: " + ioe.getMessage());
+            return;
+        }
+        long end = System.currentTimeMillis();
+        logger.info("The validation task completed in " + Long.toString(end - start) + "ms");
+    }
+
+    /**
+     * Validates a cube file with NoSPA and writes its violations grouped into
+     * patterns, with the arguments given after --patterns
+     * @param args the command line arguments
+     */
+    private static void runPatterns(String[] args) {
+        if (args.length != 3 && args.length != 4) {
+            System.out.println("Error: Missing arguments");
+            System.out.println("Usage: java -jar jar-name.jar --patterns <cube-file.(xml|rdf|nt|n3|ttl)> " +
+                    "<report-file> [constraints]");
+            return;
+        }
+        String inputFormat = getFormat(args[1]);
+        if (inputFormat == null) {
+            System.out.println("Error: File path or filename is not valid");
+            return;
+        }
+        EnumSet<Constraint> constraintSet = EnumSet.allOf(Constraint.class);
+        if (args.length == 4) {
+            constraintSet = parseConstraints(args[3]);
+            if (constraintSet == null) {
+                System.out.println("Error: Constraints are not valid");
+                return;
+            }
+        }
+        Logger logger = LoggerFactory.getLogger(Main.class);
+        long start = System.currentTimeMillis();
+        PatternSink patternSink = new PatternSink(PATTERN_SAMPLE_SIZE);
+        NospaValidator validator = new NospaValidator(args[1], inputFormat, true);
+        validator.setResultSink(patternSink);
+        validator.normalize();
+        validator.freeze();
+        validator.validate(constraintSet);
+        try {
+            PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(args[2]), "utf-8")));
+            try {
+                patternSink.write(writer);
+            } finally {
+                writer.close();
+            }
+            if (writer.checkError()) throw new IOException("The patterns could not be written");
+        } catch (IOException ioe) {
+            System.out.println("Error: " + ioe.getMessage());
+            return;
+        }
+        long end = System.currentTimeMillis();
+        logger.info("The validation task completed in " + Long.toString(end - start) + "ms");
+    }
+
+    /**
+     * Validates a cube file with NoSPA counting the violations of each
+     * constraint only, with the arguments given after --count
+     * @param args the command line arguments
+     */
+    private static void runCount(String[] args) {
+        if (args.length != 2 && args.length != 3) {
+            System.out.println("Error: Missing arguments");
+            System.out.println("Usage: java -jar jar-name.jar --count <cube-file.(xml|rdf|nt|n3|ttl)> [constraints]");
+            return;
+        }
+        String inputFormat = getFormat(args[1]);
+        if (inputFormat == null) {
+            System.out.println("Error: File path or filename is not valid");
+            return;
+        }
+        EnumSet<Constraint> constraintSet = EnumSet.allOf(Constraint.class);
+        if (args.length == 3) {
+            constraintSet = parseConstraints(args[2]);
+            if (constraintSet == null) {
+                System.out.println("Error: Constraints are not valid");
+                return;
+            }
+        }
+        Logger logger = LoggerFactory.getLogger(Main.class);
+        long start = System.currentTimeMillis();
+        NospaValidator validator = new NospaValidator(args[1], inputFormat, true);
+        validator.setCountOnly(true);
+        validator.normalize();
+        validator.freeze();
+        validator.validate(constraintSet);
+        long end = System.currentTimeMillis();
+        logger.info("The validation task completed in " + Long.toString(end - start) + "ms");
+    }
+
+    /**
+     * Gets the RDF serialization format of a file from its extension
+     * @param path the path of an RDF file
+     * @return the name of the format, or null if the extension is unknown
+     */
+    static String getFormat(String path) {
+        return rdfFileExt.get(path.substring(path.lastIndexOf('.') + 1).toLowerCase());
+    }
+
+    /**
+     * Parses a comma separated list of constraints, e.g., "IC1,IC11,12"
+     * @param arg the list of constraints given on the command line
+     * @return a set of constraints, or null if the list is not valid
+     */
+    static EnumSet<Constraint> parseConstraints(String arg) {
+        EnumSet<Constraint> constraintSet = EnumSet.noneOf(Constraint.class);
+        for (String name : arg.split(",")) {
+            name = name.trim().toUpperCase();
+            if (!name.startsWith("IC")) name = "IC" + name;
+            try {
+                constraintSet.add(Constraint.valueOf(name));
+            } catch (IllegalArgumentException iae) {
+                return null;
+            }
+        }
+        return constraintSet;
+    }
 }
@@ -0,0 +1,154 @@
+package cn.yyz.nospa.validator;
+
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.rdf.model.Resource;
+
+import java.io.PrintWriter;
+import java.util.*;
+
+/**
+ * A result sink grouping the violations of each constraint into patterns as
+ * they are received, so that a systematic fault breaking many observations
+ * in the same way is reported once. A pattern is the dataset of the
+ * violating observation together with the properties or values involved,
+ * e.g., the missing dimensions of IC-11 or the code lists of IC-19, and it
+ * keeps the number of its violations and the first few distinct violating
+ * nodes as samples. The dataset is the one supplied by the validator with
+ * each violation, so that no lookup is made while the sink is locked. The
+ * memory depends on the number of patterns rather than of violations.
+ */
+public class PatternSink implements ValidationResultSink {
+    private int sampleSize;
+    private Map<Constraint, Map<Pattern, Pattern>> patternsByConstraint =
+            new EnumMap<Constraint, Map<Pattern, Pattern>>(Constraint.class);
+    private Map<Constraint, Boolean> completedByConstraint =
+            new EnumMap<Constraint, Boolean>(Constraint.class);
+
+    /**
+     * Constructor of a sink grouping the violations into patterns
+     * @param sampleSize the number of violating nodes kept for each pattern
+     */
+    public PatternSink(int sampleSize) {
+        this.sampleSize = Math.max(sampleSize, 0);
+    }
+
+    public synchronized void violation(Constraint constraint, Resource dataset, RDFNode node, Object detail) {
+        Map<Pattern, Pattern> patternMap = patternsByConstraint.get(constraint);
+        if (patternMap == null) {
+            patternMap = new HashMap<Pattern, Pattern>();
+            patternsByConstraint.put(constraint, patternMap);
+        }
+        Pattern key = new Pattern(dataset, detail);
+        Pattern pattern = patternMap.get(key);
+        if (pattern == null) {
+            pattern = key;
+            pattern.sampleList = new ArrayList<RDFNode>(sampleSize);
+            patternMap.put(pattern, pattern);
+        }
+        pattern.count++;
+        if (pattern.sampleList.contains(node)) return;
+        if (pattern.sampleList.size() < sampleSize) pattern.sampleList.add(node);
+        else pattern.hasMore = true;
+    }
+
+    public synchronized void completed(Constraint constraint, boolean isIncomplete, long time) {
+        completedByConstraint.put(constraint, isIncomplete);
+    }
+
+    /**
+     * @param constraint an integrity constraint
+     * @return the number of patterns of the constraint
+     */
+    public synchronized int getNumOfPatterns(Constraint constraint) {
+        Map<Pattern, Pattern> patternMap = patternsByConstraint.get(constraint);
+        return patternMap == null ? 0 : patternMap.size();
+    }
+
+    /**
+     * Writes the patterns of each validated constraint, the most frequent
+     * first, in the layout of the validation report
+     * @param writer the writer receiving the patterns
+     */
+    public synchronized void write(PrintWriter writer) {
+        for (Constraint constraint : Constraint.values()) {
+            Map<Pattern, Pattern> patternMap = patternsByConstraint.get(constraint);
+            Boolean isIncomplete = completedByConstraint.get(constraint);
+            if (patternMap == null && isIncomplete == null) continue;
+            String title = constraint.getName();
+            writer.println(title);
+            writer.println(title.replaceAll(".", "-"));
+            if (patternMap == null) {
+                writer.println("Pass.");
+                writer.println();
+                continue;
+            }
+            List<Pattern> patternList = new ArrayList<Pattern>(patternMap.values());
+            Collections.sort(patternList);
+            long numOfViolations = 0;
+            for (Pattern pattern : patternList) numOfViolations += pattern.count;
+            writer.println(numOfViolations + " violations in " + patternList.size() + " patterns" +
+                    (Boolean.TRUE.equals(isIncomplete) ? ", stopped before all violations were found." : "."));
+            for (Pattern pattern : patternList) pattern.write(writer);
+            writer.println();
+        }
+        writer.flush();
+    }
+
+    /**
+     * A pattern of violations, equal to another if it has the same dataset
+     * and detail, ordered by its number of violations
+     */
+    private static class Pattern implements Comparable<Pattern> {
+        private Resource dataset;
+        private Object detail;
+        private long count = 0;
+        private List<RDFNode> sampleList;
+        private boolean hasMore = false;
+
+        Pattern(Resource dataset, Object detail) {
+            this.dataset = dataset;
+            this.detail = detail instanceof Collection && !(detail instanceof Set) ?
+                    new HashSet<Object>((Collection<?>) detail) : detail;
+        }
+
+        /**
+         * Writes the pattern with its samples
+         * @param writer the writer receiving the pattern
+         */
+        void write(PrintWriter writer) {
+            writer.print(count + " violations");
+            if (dataset != null) writer.print(" in " + dataset);
+            if (detail == null || detail instanceof Collection && ((Collection<?>) detail).isEmpty())
+                writer.println(": ");
+            else writer.println(" with the following properties or values: ");
+            if (detail instanceof Collection) {
+                for (Object value : (Collection<?>) detail) writer.println("    " + value);
+            }
+            else if (detail != null) writer.println("    " + detail);
+            if (sampleList.isEmpty()) return;
+            StringBuilder samples = new StringBuilder("  e.g., ");
+            for (int i = 0; i < sampleList.size(); i++) {
+                if (i > 0) samples.append(", ");
+                samples.append(sampleList.get(i));
+            }
+            if (hasMore) samples.append(", ...");
+            writer.println(samples);
+        }
+
+        public int compareTo(Pattern other) {
+            if (count != other.count) return count > other.count ? -1 : 1;
+            return 0;
+        }
+
+        public boolean equals(Object object) {
+            if (!(object instanceof Pattern)) return false;
+            Pattern other = (Pattern) object;
+            return (dataset == null ? other.dataset == null : dataset.equals(other.dataset)) &&
+                    (detail == null ? other.detail == null : detail.equals(other.detail));
+        }
+
+        public int hashCode() {
+            return (dataset == null ? 0 : dataset.hashCode()) * 31 + (detail == null ? 0 : detail.hashCode());
+        }
+    }
+}
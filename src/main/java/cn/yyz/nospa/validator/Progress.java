@@ -0,0 +1,226 @@
+package cn.yyz.nospa.validator;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The progress of a long running stage, e.g., loading a cube or sweeping its
+ * observations. A stage only increments an atomic counter in its loop, and a
+ * background reporter prints the count, the rate, the percentage and the
+ * estimated remaining time of all running stages on one console line at a
+ * fixed interval, so that stages running in parallel share the line. The
+ * reporter runs while any stage runs. Nothing is printed unless the output is
+ * a terminal, which can be overridden by the system property nospa.progress
+ * set to "on" or "off".
+ */
+public class Progress {
+    private static final long INTERVAL = 1000;
+    private static final boolean isEnabled = detectTerminal();
+    private static final List<Progress> runningList = new ArrayList<Progress>();
+    private static Thread reporter;
+    private static int lineLength = 0;
+    private String name;
+    private String unit;
+    private AtomicLong count = new AtomicLong();
+    private AtomicLong total = new AtomicLong();
+    private long startTime = System.nanoTime();
+
+    private Progress(String name, String unit, long total) {
+        this.name = name;
+        this.unit = unit;
+        this.total.set(Math.max(total, 0));
+    }
+
+    /**
+     * Starts reporting the progress of a stage
+     * @param name the name of the stage, e.g., "Sweeping observations"
+     * @param unit the name of the items counted, or "bytes" to count bytes
+     *             printed in megabytes
+     * @param total the number of items to be processed, or 0 if unknown
+     * @return the progress of the stage, which has to be stopped by done()
+     */
+    public static Progress start(String name, String unit, long total) {
+        Progress progress = new Progress(name, unit, total);
+        if (!isEnabled) return progress;
+        synchronized (runningList) {
+            runningList.add(progress);
+            if (reporter == null) {
+                reporter = new Thread(new Runnable() {
+                    public void run() {
+                        report();
+                    }
+                }, "nospa-progress");
+                reporter.setDaemon(true);
+                reporter.start();
+            }
+        }
+        return progress;
+    }
+
+    /**
+     * Counts a processed item
+     */
+    public void increment() {
+        count.incrementAndGet();
+    }
+
+    /**
+     * Counts processed items
+     * @param numOfItems the number of items
+     */
+    public void add(long numOfItems) {
+        count.addAndGet(numOfItems);
+    }
+
+    /**
+     * Adds items to be processed, e.g., once a stage knows the items of its
+     * next part
+     * @param numOfItems the number of items
+     */
+    public void addTotal(long numOfItems) {
+        total.addAndGet(numOfItems);
+    }
+
+    /**
+     * @return the number of items processed so far
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Stops reporting the progress of the stage. The line is cleared once no
+     * stage runs.
+     */
+    public void done() {
+        if (!isEnabled) return;
+        synchronized (runningList) {
+            runningList.remove(this);
+            if (runningList.isEmpty()) {
+                clearLine();
+                runningList.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Counts the bytes read from a stream, e.g., to report the progress of
+     * loading a file
+     * @param inputStream a stream
+     * @return a stream reading from the given one
+     */
+    public InputStream track(InputStream inputStream) {
+        return new FilterInputStream(inputStream) {
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) count.incrementAndGet();
+                return b;
+            }
+
+            public int read(byte[] b, int off, int len) throws IOException {
+                int numOfBytes = super.read(b, off, len);
+                if (numOfBytes > 0) count.addAndGet(numOfBytes);
+                return numOfBytes;
+            }
+
+            public long skip(long n) throws IOException {
+                long numOfBytes = super.skip(n);
+                if (numOfBytes > 0) count.addAndGet(numOfBytes);
+                return numOfBytes;
+            }
+        };
+    }
+
+    /**
+     * Formats the progress of the stage, e.g., "Sweeping observations 6000
+     * of 20000 (30.0%), 2000 observations/s, 7s left"
+     * @return the progress of the stage
+     */
+    public String toString() {
+        boolean isBytes = unit.equals("bytes");
+        long numOfItems = count.get();
+        long numOfAll = total.get();
+        double seconds = Math.max((System.nanoTime() - startTime) / 1e9, 1e-3);
+        double rate = numOfItems / seconds;
+        StringBuilder line = new StringBuilder(name).append(' ').append(format(numOfItems, isBytes));
+        if (numOfAll > 0) {
+            line.append(" of ").append(format(numOfAll, isBytes));
+            line.append(String.format(" (%.1f%%)", Math.min(numOfItems * 100.0 / numOfAll, 100.0)));
+        }
+        if (isBytes) line.append(String.format(", %.1f MB/s", rate / (1 << 20)));
+        else line.append(String.format(", %.0f %s/s", rate, unit));
+        if (numOfAll > numOfItems && rate > 0)
+            line.append(", ").append((long) Math.ceil((numOfAll - numOfItems) / rate)).append("s left");
+        return line.toString();
+    }
+
+    /**
+     * Formats a number of items, or of bytes in megabytes
+     * @param numOfItems the number of items
+     * @param isBytes whether the items are bytes
+     * @return the formatted number
+     */
+    private static String format(long numOfItems, boolean isBytes) {
+        return isBytes ? String.format("%.1f MB", numOfItems / (double) (1 << 20)) : Long.toString(numOfItems);
+    }
+
+    /**
+     * Prints the progress of the running stages at a fixed interval until
+     * none runs
+     */
+    private static void report() {
+        synchronized (runningList) {
+            while (!runningList.isEmpty()) {
+                try {
+                    runningList.wait(INTERVAL);
+                } catch (InterruptedException ie) {
+                    break;
+                }
+                if (runningList.isEmpty()) break;
+                StringBuilder line = new StringBuilder("    ");
+                for (Progress progress : runningList) {
+                    if (line.length() > 4) line.append(" | ");
+                    line.append(progress.toString());
+                }
+                int length = line.length();
+                while (line.length() < lineLength) line.append(' ');
+                lineLength = length;
+                System.out.print(line.append('\r'));
+                System.out.flush();
+            }
+            reporter = null;
+        }
+    }
+
+    /**
+     * Clears the progress line
+     */
+    private static void clearLine() {
+        if (lineLength == 0) return;
+        System.out.print(new String(new char[lineLength]).replace("\0", " ") + "\r");
+        System.out.flush();
+        lineLength = 0;
+    }
+
+    /**
+     * Checks if the progress should be printed, i.e., if the output is a
+     * terminal unless the system property nospa.progress says otherwise. The
+     * console is looked up reflectively since it is not available on Java 5,
+     * which never prints the progress unless asked to.
+     * @return true if the progress is printed
+     */
+    private static boolean detectTerminal() {
+        String setting = System.getProperty("nospa.progress");
+        if ("on".equalsIgnoreCase(setting)) return true;
+        if ("off".equalsIgnoreCase(setting)) return false;
+        try {
+            return System.class.getMethod("console").invoke(null) != null;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
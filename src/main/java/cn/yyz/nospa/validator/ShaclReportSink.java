@@ -0,0 +1,110 @@
+package cn.yyz.nospa.validator;
+
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.rdf.model.Resource;
+import org.apache.jena.riot.out.NodeFmtLib;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * A result sink streaming the violations into a file as a SHACL validation
+ * report in N-Triples, through a buffered file channel. Each violation is a
+ * sh:ValidationResult of the report with the violating node as focus node,
+ * the properties or values involved as values, and the name of the
+ * constraint as message. The constraints of the RDF Data Cube vocabulary
+ * are SPARQL constraints, and each is identified as the source shape
+ * urn:nospa:IC-n. Whether the cube conforms is written when the sink is
+ * closed. The counts and times of the constraints are not part of the
+ * vocabulary and are left out.
+ */
+public class ShaclReportSink implements ValidationResultSink {
+    private static final String RDF_type = "<http://www.w3.org/1999/02/22-rdf-syntax-ns#type>";
+    private static final String SH = "http://www.w3.org/ns/shacl#";
+    private static final String XSD = "http://www.w3.org/2001/XMLSchema#";
+    private static final String REPORT = "_:report";
+    private ChannelWriter writer;
+    private StringBuilder lines = new StringBuilder();
+    private long numOfResults = 0;
+
+    /**
+     * Constructor of a sink writing into a file, which is overwritten
+     * @param file the file receiving the validation report
+     * @throws IOException if the file cannot be written
+     */
+    public ShaclReportSink(File file) throws IOException {
+        writer = new ChannelWriter(file);
+        lines.setLength(0);
+        appendTriple(REPORT, RDF_type, "<" + SH + "ValidationReport>");
+        writer.write(lines);
+    }
+
+    public synchronized void violation(Constraint constraint, Resource dataset, RDFNode node, Object detail) {
+        numOfResults++;
+        String result = "_:r" + numOfResults;
+        lines.setLength(0);
+        appendTriple(REPORT, "<" + SH + "result>", result);
+        appendTriple(result, RDF_type, "<" + SH + "ValidationResult>");
+        appendTriple(result, "<" + SH + "focusNode>", NodeFmtLib.str(node.asNode()));
+        appendTriple(result, "<" + SH + "resultSeverity>", "<" + SH + "Violation>");
+        appendTriple(result, "<" + SH + "sourceConstraintComponent>",
+                "<" + SH + "SPARQLConstraintComponent>");
+        appendTriple(result, "<" + SH + "sourceShape>", "<urn:nospa:IC-" + (constraint.ordinal() + 1) + ">");
+        appendTriple(result, "<" + SH + "resultMessage>", formatString(constraint.getName()));
+        if (detail instanceof Collection) {
+            for (Object value : (Collection) detail)
+                appendTriple(result, "<" + SH + "value>", formatValue(value));
+        }
+        else if (detail != null) appendTriple(result, "<" + SH + "value>", formatValue(detail));
+        writer.write(lines);
+    }
+
+    public void completed(Constraint constraint, boolean isIncomplete, long time) {
+    }
+
+    /**
+     * Writes whether the cube conforms, flushes and closes the file
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized void close() throws IOException {
+        lines.setLength(0);
+        appendTriple(REPORT, "<" + SH + "conforms>",
+                "\"" + (numOfResults == 0) + "\"^^<" + XSD + "boolean>");
+        writer.write(lines);
+        writer.close();
+    }
+
+    /**
+     * Appends a triple in N-Triples syntax
+     * @param subject the subject
+     * @param predicate the predicate
+     * @param object the object
+     */
+    private void appendTriple(String subject, String predicate, String object) {
+        lines.append(subject).append(' ').append(predicate).append(' ').append(object).append(" .\n");
+    }
+
+    /**
+     * Formats a value of a violation, a node as itself, an integral number as
+     * an xsd:integer and anything else as a string
+     * @param value a node, a number or another object
+     * @return the value in N-Triples syntax
+     */
+    private String formatValue(Object value) {
+        if (value instanceof RDFNode) return NodeFmtLib.str(((RDFNode) value).asNode());
+        if (value instanceof Integer || value instanceof Long)
+            return "\"" + value + "\"^^<" + XSD + "integer>";
+        return formatString(String.valueOf(value));
+    }
+
+    /**
+     * Formats a string literal in N-Triples syntax
+     * @param text the text of the literal
+     * @return the literal
+     */
+    private String formatString(String text) {
+        return "\"" + text.replace("\\", "\\\\").replace("\"", "\\\"")
+                .replace("\n", "\\n").replace("\r", "\\r") + "\"";
+    }
+}
@@ -0,0 +1,98 @@
+package cn.yyz.nospa.validator;
+
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.rdf.model.Resource;
+
+import java.util.*;
+
+/**
+ * A result sink keeping a bounded number of violations of each constraint:
+ * those with the largest details, i.e., the most properties or values
+ * involved or the largest number, and the earliest among equal ones. The
+ * other violations are only counted, so that the memory does not depend on
+ * the number of violations.
+ */
+public class TopViolationsSink implements ValidationResultSink {
+    private int limit;
+    private Map<Constraint, PriorityQueue<Violation>> topByConstraint =
+            new EnumMap<Constraint, PriorityQueue<Violation>>(Constraint.class);
+    private Map<Constraint, Long> countByConstraint = new EnumMap<Constraint, Long>(Constraint.class);
+
+    /**
+     * Constructor of a sink keeping the top violations
+     * @param limit the number of violations kept for each constraint
+     */
+    public TopViolationsSink(int limit) {
+        this.limit = Math.max(limit, 1);
+    }
+
+    public synchronized void violation(Constraint constraint, Resource dataset, RDFNode node, Object detail) {
+        Long count = countByConstraint.get(constraint);
+        count = count == null ? 1 : count + 1;
+        countByConstraint.put(constraint, count);
+        PriorityQueue<Violation> top = topByConstraint.get(constraint);
+        if (top == null) {
+            top = new PriorityQueue<Violation>();
+            topByConstraint.put(constraint, top);
+        }
+        Violation violation = new Violation(node, detail, count);
+        if (top.size() < limit) top.add(violation);
+        else if (violation.compareTo(top.peek()) > 0) {
+            top.poll();
+            top.add(violation);
+        }
+    }
+
+    public void completed(Constraint constraint, boolean isIncomplete, long time) {
+    }
+
+    /**
+     * @param constraint an integrity constraint
+     * @return the number of violations of the constraint received
+     */
+    public synchronized long getCount(Constraint constraint) {
+        Long count = countByConstraint.get(constraint);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * @param constraint an integrity constraint
+     * @return the top violations of the constraint as a map of violating
+     * nodes with their details, the largest first
+     */
+    public synchronized Map<RDFNode, Object> getTop(Constraint constraint) {
+        Map<RDFNode, Object> detailByNode = new LinkedHashMap<RDFNode, Object>();
+        PriorityQueue<Violation> top = topByConstraint.get(constraint);
+        if (top == null) return detailByNode;
+        List<Violation> violationList = new ArrayList<Violation>(top);
+        Collections.sort(violationList, Collections.reverseOrder());
+        for (Violation violation : violationList) detailByNode.put(violation.node, violation.detail);
+        return detailByNode;
+    }
+
+    /**
+     * A received violation, ordered by the size of its detail and then
+     * inversely by its arrival
+     */
+    private static class Violation implements Comparable<Violation> {
+        private RDFNode node;
+        private Object detail;
+        private long size;
+        private long sequence;
+
+        Violation(RDFNode node, Object detail, long sequence) {
+            this.node = node;
+            this.detail = detail;
+            this.sequence = sequence;
+            if (detail instanceof Collection) size = ((Collection) detail).size();
+            else if (detail instanceof Number) size = ((Number) detail).longValue();
+            else size = detail == null ? 0 : 1;
+        }
+
+        public int compareTo(Violation other) {
+            if (size != other.size) return size < other.size ? -1 : 1;
+            if (sequence != other.sequence) return sequence > other.sequence ? -1 : 1;
+            return 0;
+        }
+    }
+}
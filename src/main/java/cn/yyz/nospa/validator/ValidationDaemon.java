@@ -0,0 +1,142 @@
+package cn.yyz.nospa.validator;
+
+import cn.yyz.nospa.validator.nonsparql.NospaValidator;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.util.FileManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * A long-lived validator which loads and normalizes a cube with the structure
+ * definitions, code lists and datasets once, and then validates observation
+ * batch files sent over a local socket against it. Each batch is validated
+ * incrementally as a delta of the cube, so that the structures, the code sets
+ * of hierarchical code lists and the compiled code stay warm between batches.
+ * A client sends the path of a batch file as a line and receives the
+ * validation report, ending with a line starting with "The validation task
+ * completed". The line STOP stops the daemon. Batches are validated one at a
+ * time in the order they arrive.
+ */
+public class ValidationDaemon {
+    public static final String STOP = "STOP";
+    private Logger logger = LoggerFactory.getLogger(ValidationDaemon.class);
+    private NospaValidator validator;
+    private boolean retain;
+    private volatile boolean running = false;
+
+    /**
+     * Constructor of a daemon for a cube
+     * @param schemaPath complete path of the cube file with the structures
+     * @param schemaFormat RDF serialization format of the cube file
+     * @param retain whether validated batches are kept in the cube, so that
+     *               the duplicates of IC-12 and the measure groups of IC-17
+     *               are checked across batches, or discarded after each batch
+     */
+    public ValidationDaemon(String schemaPath, String schemaFormat, boolean retain) {
+        this.retain = retain;
+        validator = new NospaValidator(schemaPath, schemaFormat);
+        validator.normalize();
+        validator.setParallelism(1);
+        validator.validateAll();
+    }
+
+    /**
+     * Accepts connections on a port of the loopback interface until a client
+     * sends STOP
+     * @param port a TCP port
+     * @throws IOException if the port cannot be listened on
+     */
+    public void serve(int port) throws IOException {
+        ServerSocket server = new ServerSocket(port, 50, InetAddress.getByName("127.0.0.1"));
+        logger.info("Listening for observation batches on port " + port);
+        running = true;
+        try {
+            while (running) {
+                Socket socket = server.accept();
+                try {
+                    handle(socket);
+                } catch (IOException ioe) {
+                    logger.error("Connection failed: " + ioe.getMessage());
+                } finally {
+                    socket.close();
+                }
+            }
+        } finally {
+            server.close();
+        }
+        logger.info("Validation daemon stopped");
+    }
+
+    /**
+     * Reads a request from a client and writes back the response
+     * @param socket the socket of a client
+     * @throws IOException if the client cannot be read or written
+     */
+    private void handle(Socket socket) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                socket.getInputStream(), "utf-8"));
+        PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+                socket.getOutputStream(), "utf-8")));
+        String line = reader.readLine();
+        if (line == null) return;
+        line = line.trim();
+        if (line.equals(STOP)) {
+            running = false;
+            writer.println("Stopping");
+        }
+        else validateBatch(line, writer);
+        writer.flush();
+    }
+
+    /**
+     * Validates an observation batch file against the cube
+     * @param batchPath complete path of the batch file
+     * @param writer the writer receiving the validation report
+     */
+    public void validateBatch(String batchPath, PrintWriter writer) {
+        String batchFormat = Main.getFormat(batchPath);
+        if (batchFormat == null) {
+            writer.println("Error: File path or filename is not valid");
+            return;
+        }
+        InputStream inputStream = FileManager.get().open(batchPath);
+        if (inputStream == null) {
+            writer.println("Error: File " + batchPath + " not found");
+            return;
+        }
+        long start = System.currentTimeMillis();
+        Model batchModel = ModelFactory.createDefaultModel();
+        try {
+            batchModel.read(inputStream, null, batchFormat);
+        } catch (RuntimeException re) {
+            writer.println("Error: File " + batchPath + " is not valid: " + re.getMessage());
+            return;
+        } finally {
+            try {
+                inputStream.close();
+            } catch (IOException ioe) {
+                logger.warn("Failed to close " + batchPath);
+            }
+        }
+        logger.info("Validating batch " + batchPath + " ...");
+        validator.setReportWriter(writer);
+        try {
+            validator.validateDelta(batchModel, ModelFactory.createDefaultModel());
+            if (!retain) validator.discard(batchModel);
+        } catch (RuntimeException re) {
+            logger.error("Validation of " + batchPath + " failed", re);
+            writer.println("Error: Validation failed: " + re.getMessage());
+            return;
+        } finally {
+            validator.setReportWriter(null);
+        }
+        long end = System.currentTimeMillis();
+        writer.println("The validation task completed in " + Long.toString(end - start) + "ms");
+    }
+}
@@ -0,0 +1,39 @@
+package cn.yyz.nospa.validator;
+
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.rdf.model.Resource;
+
+/**
+ * A receiver of the violations found by a validator. The violations of the
+ * observations are pushed as soon as they are found, so that they are never
+ * held together in memory, and the other violations once their constraint is
+ * validated. Violations of different constraints may be pushed by several
+ * threads at once and in any order, so a sink must be thread-safe.
+ */
+public interface ValidationResultSink {
+
+    /**
+     * Receives a violation of a constraint
+     * @param constraint the violated constraint
+     * @param dataset the dataset of the violating node, or null if the node
+     *                belongs to no dataset or the constraint is not checked
+     *                per dataset
+     * @param node the node violating the constraint, e.g., an observation
+     * @param detail the properties or values involved as a set, which may be
+     *               empty, or a single resource or number, as listed in the
+     *               validation report
+     */
+    public void violation(Constraint constraint, Resource dataset, RDFNode node, Object detail);
+
+    /**
+     * Receives the end of the validation of a constraint, after all its
+     * violations
+     * @param constraint the validated constraint
+     * @param isIncomplete whether the validation was stopped before all
+     *                     violations were found
+     * @param time the time in milliseconds spent validating the constraint,
+     *             including its share of the observation sweep, or -1 if it
+     *             was not measured
+     */
+    public void completed(Constraint constraint, boolean isIncomplete, long time);
+}
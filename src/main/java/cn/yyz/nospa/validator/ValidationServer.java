@@ -0,0 +1,443 @@
+package cn.yyz.nospa.validator;
+
+import cn.yyz.nospa.validator.nonsparql.NospaValidator;
+import cn.yyz.nospa.validator.nonsparql.SchemaContext;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * An embeddable HTTP endpoint validating cubes against compiled structures.
+ * A cube is either uploaded as the body of a POST request to /validate, with
+ * its RDF format given by the parameter "format", or read from the file given
+ * by the parameter "path" of a GET request. The parameter "schema" is the path
+ * of a file with the structure definitions, code lists, datasets and slices
+ * the cube is validated against, and the optional parameter "constraints" is
+ * a comma separated list of constraints. Both paths are resolved against a
+ * root directory and canonicalized, and a file outside the root directory is
+ * refused, so that a request cannot read any other file. The structures are compiled into a
+ * context once and kept in an LRU cache keyed by the SHA-256 hash of the
+ * content of the schema file, so that requests against the same structures
+ * only normalize and validate their own observations. The response is a JSON
+ * object built from the violations received by a result sink, with the
+ * violating nodes of each constraint and whether its validation was stopped
+ * before all violations were found.
+ */
+public class ValidationServer {
+    public static final String PATH = "/validate";
+    private Logger logger = LoggerFactory.getLogger(ValidationServer.class);
+    private HttpServer server;
+    private ExecutorService executor;
+    private final Map<String, Future<SchemaContext>> contextByHash;
+    private File root;
+
+    /**
+     * Constructor of a server
+     * @param port a TCP port of the loopback interface
+     * @param threads the number of requests handled concurrently
+     * @param cacheSize the maximum number of compiled contexts kept
+     * @param root the directory of the files which can be read by requests
+     * @throws IOException if the port cannot be listened on, or the root
+     * directory cannot be resolved
+     */
+    public ValidationServer(int port, int threads, final int cacheSize, File root) throws IOException {
+        this.root = root.getCanonicalFile();
+        if (!this.root.isDirectory()) throw new IOException("Directory " + root + " not found");
+        contextByHash = new LinkedHashMap<String, Future<SchemaContext>>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, Future<SchemaContext>> eldest) {
+                return size() > cacheSize;
+            }
+        };
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port), 50);
+        server.createContext(PATH, new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                ValidationServer.this.handle(exchange);
+            }
+        });
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+    }
+
+    /**
+     * Starts accepting requests
+     */
+    public void start() {
+        server.start();
+        logger.info("Listening for validation requests on port " + server.getAddress().getPort() +
+                ", serving files under " + root);
+    }
+
+    /**
+     * Stops accepting requests and waits for the running ones to complete
+     * @param delay the maximum time in seconds to wait
+     */
+    public void stop(int delay) {
+        server.stop(delay);
+        executor.shutdown();
+        logger.info("Validation server stopped");
+    }
+
+    /**
+     * Handles a request and writes back the response
+     * @param exchange an HTTP request and response
+     * @throws IOException if the response cannot be written
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        int status = 200;
+        String body;
+        try {
+            body = validate(exchange);
+        } catch (RequestException re) {
+            status = re.getStatus();
+            body = "{\"error\":" + quote(re.getMessage()) + "}";
+        } catch (RuntimeException re) {
+            logger.error("Validation request failed", re);
+            status = 500;
+            body = "{\"error\":" + quote("Validation failed: " + re.getMessage()) + "}";
+        }
+        byte[] bytes = body.getBytes("utf-8");
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream outputStream = exchange.getResponseBody();
+        try {
+            outputStream.write(bytes);
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    /**
+     * Validates the cube of a request
+     * @param exchange an HTTP request
+     * @return the validation result as a JSON object
+     * @throws IOException if the request cannot be read
+     */
+    private String validate(HttpExchange exchange) throws IOException {
+        Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+        String method = exchange.getRequestMethod();
+        EnumSet<Constraint> constraintSet = EnumSet.allOf(Constraint.class);
+        if (params.containsKey("constraints")) {
+            constraintSet = Main.parseConstraints(params.get("constraints"));
+            if (constraintSet == null) throw new RequestException(400, "Constraints are not valid");
+        }
+        String schemaPath = params.get("schema");
+        if (schemaPath == null) throw new RequestException(400, "Missing parameter schema");
+        long start = System.currentTimeMillis();
+        SchemaContext context = getContext(schemaPath);
+        Model cubeModel = ModelFactory.createDefaultModel();
+        if (method.equals("POST")) {
+            String format = params.get("format");
+            if (format == null) throw new RequestException(400, "Missing parameter format");
+            read(cubeModel, exchange.getRequestBody(), format, "Request body");
+        }
+        else if (method.equals("GET")) {
+            String path = params.get("path");
+            if (path == null) throw new RequestException(400, "Missing parameter path");
+            read(cubeModel, path);
+        }
+        else throw new RequestException(405, "Method " + method + " is not allowed");
+
+        ResponseSink sink = new ResponseSink();
+        NospaValidator validator = new NospaValidator(cubeModel, context);
+        validator.setParallelism(1);
+        validator.setReportWriter(new PrintWriter(new StringWriter()));
+        validator.setResultSink(sink);
+        validator.normalize();
+        validator.freeze();
+        validator.validate(constraintSet);
+        long end = System.currentTimeMillis();
+        return sink.toJson(end - start);
+    }
+
+    /**
+     * Gets the compiled context of a schema file from the cache, or compiles
+     * it. A context is compiled outside the lock of the cache, and concurrent
+     * requests for the same content wait for the same compilation.
+     * @param schemaPath the path of a schema file
+     * @return the compiled context
+     * @throws IOException if the schema file cannot be read
+     */
+    private SchemaContext getContext(final String schemaPath) throws IOException {
+        final String format = Main.getFormat(schemaPath);
+        if (format == null) throw new RequestException(400, "Schema path or filename is not valid");
+        File schemaFile = resolve(schemaPath);
+        final byte[] content = readBytes(schemaFile);
+        String hash = hash(content);
+        FutureTask<SchemaContext> task = null;
+        Future<SchemaContext> future;
+        synchronized (contextByHash) {
+            future = contextByHash.get(hash);
+            if (future == null) {
+                task = new FutureTask<SchemaContext>(new Callable<SchemaContext>() {
+                    public SchemaContext call() {
+                        logger.info("Compiling context of " + schemaPath + " ...");
+                        Model schemaModel = ModelFactory.createDefaultModel();
+                        read(schemaModel, new ByteArrayInputStream(content), format, "File " + schemaPath);
+                        return new SchemaContext(schemaModel);
+                    }
+                });
+                future = task;
+                contextByHash.put(hash, future);
+            }
+        }
+        if (task != null) task.run();
+        try {
+            return future.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RequestException(500, "Interrupted while compiling the context");
+        } catch (ExecutionException ee) {
+            synchronized (contextByHash) {
+                if (contextByHash.get(hash) == future) contextByHash.remove(hash);
+            }
+            if (ee.getCause() instanceof RuntimeException) throw (RuntimeException) ee.getCause();
+            throw new RuntimeException(ee.getCause());
+        }
+    }
+
+    /**
+     * Resolves the path of a request against the root directory
+     * @param path a path relative to the root directory, or an absolute path
+     *             under it
+     * @return the canonical file
+     * @throws IOException if the path cannot be canonicalized
+     */
+    private File resolve(String path) throws IOException {
+        File file = new File(path);
+        if (!file.isAbsolute()) file = new File(root, path);
+        file = file.getCanonicalFile();
+        if (!file.getPath().startsWith(root.getPath() + File.separator))
+            throw new RequestException(403, "File " + path + " is outside the served directory");
+        if (!file.isFile()) throw new RequestException(404, "File " + path + " not found");
+        return file;
+    }
+
+    /**
+     * Reads a cube file into a model
+     * @param model an RDF model
+     * @param path the path of the cube file
+     * @throws IOException if the path cannot be canonicalized or the file
+     * cannot be opened
+     */
+    private void read(Model model, String path) throws IOException {
+        String format = Main.getFormat(path);
+        if (format == null) throw new RequestException(400, "File path or filename is not valid");
+        InputStream inputStream = new FileInputStream(resolve(path));
+        try {
+            read(model, inputStream, format, "File " + path);
+        } finally {
+            try {
+                inputStream.close();
+            } catch (IOException ioe) {
+                logger.warn("Failed to close " + path);
+            }
+        }
+    }
+
+    /**
+     * Reads RDF into a model
+     * @param model an RDF model
+     * @param inputStream the RDF content
+     * @param format the RDF serialization format
+     * @param source a description of the content for error messages
+     */
+    private void read(Model model, InputStream inputStream, String format, String source) {
+        try {
+            model.read(inputStream, null, format);
+        } catch (RuntimeException re) {
+            throw new RequestException(400, source + " is not valid: " + re.getMessage());
+        }
+    }
+
+    /**
+     * Quotes a string as a JSON string
+     * @param s a string
+     * @return the JSON string
+     */
+    static String quote(String s) {
+        if (s == null) return "null";
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * Parses the query string of a request
+     * @param query a raw query string, or null
+     * @return a map of parameters
+     * @throws UnsupportedEncodingException never, as utf-8 is supported
+     */
+    private Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+        Map<String, String> params = new HashMap<String, String>();
+        if (query == null) return params;
+        for (String param : query.split("&")) {
+            int index = param.indexOf('=');
+            if (index < 0) params.put(URLDecoder.decode(param, "utf-8"), "");
+            else params.put(URLDecoder.decode(param.substring(0, index), "utf-8"),
+                    URLDecoder.decode(param.substring(index + 1), "utf-8"));
+        }
+        return params;
+    }
+
+    /**
+     * Reads the content of a file
+     * @param file a file
+     * @return the bytes of the file
+     * @throws IOException if the file cannot be read
+     */
+    private byte[] readBytes(File file) throws IOException {
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[8192];
+            int length;
+            while ((length = inputStream.read(buffer)) > 0) outputStream.write(buffer, 0, length);
+            return outputStream.toByteArray();
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Computes the SHA-256 hash of a content
+     * @param content a content
+     * @return the hash in hex
+     */
+    private String hash(byte[] content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest) sb.append(String.format("%02x", b));
+            return sb.toString();
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new IllegalStateException(nsae);
+        }
+    }
+
+    /**
+     * A result sink collecting the violations of a request, which are
+     * converted into the JSON object of the response. A constraint passes if
+     * no violation was found and its validation was not stopped early.
+     */
+    private static class ResponseSink implements ValidationResultSink {
+        private Map<Constraint, StringBuilder> violationsByConstraint =
+                new EnumMap<Constraint, StringBuilder>(Constraint.class);
+        private long[] countByConstraint = new long[Constraint.values().length];
+        private Map<Constraint, Boolean> completedByConstraint =
+                new EnumMap<Constraint, Boolean>(Constraint.class);
+
+        public synchronized void violation(Constraint constraint, Resource dataset, RDFNode node,
+                                           Object detail) {
+            StringBuilder violations = violationsByConstraint.get(constraint);
+            if (violations == null) {
+                violations = new StringBuilder();
+                violationsByConstraint.put(constraint, violations);
+            }
+            else violations.append(',');
+            countByConstraint[constraint.ordinal()]++;
+            violations.append("{\"node\":").append(quote(JsonLinesSink.formatNode(node)));
+            if (dataset != null)
+                violations.append(",\"dataset\":").append(quote(JsonLinesSink.formatNode(dataset)));
+            if (detail instanceof Collection) {
+                violations.append(",\"values\":[");
+                boolean isFirst = true;
+                for (Object value : (Collection<?>) detail) {
+                    if (!isFirst) violations.append(',');
+                    violations.append(toJsonValue(value));
+                    isFirst = false;
+                }
+                violations.append(']');
+            }
+            else if (detail != null) violations.append(",\"value\":").append(toJsonValue(detail));
+            violations.append('}');
+        }
+
+        public synchronized void completed(Constraint constraint, boolean isIncomplete, long time) {
+            completedByConstraint.put(constraint, isIncomplete);
+        }
+
+        /**
+         * Converts the received violations into a JSON object
+         * @param time the validation time in milliseconds
+         * @return a JSON object
+         */
+        synchronized String toJson(long time) {
+            StringBuilder results = new StringBuilder();
+            boolean valid = true;
+            boolean incomplete = false;
+            for (Map.Entry<Constraint, Boolean> entry : completedByConstraint.entrySet()) {
+                Constraint constraint = entry.getKey();
+                long count = countByConstraint[constraint.ordinal()];
+                boolean isIncomplete = entry.getValue();
+                boolean passed = count == 0 && !isIncomplete;
+                valid = valid && passed;
+                incomplete = incomplete || isIncomplete;
+                if (results.length() > 0) results.append(',');
+                results.append("{\"constraint\":").append(quote(constraint.name()));
+                results.append(",\"name\":").append(quote(constraint.getName()));
+                results.append(",\"passed\":").append(passed);
+                results.append(",\"incomplete\":").append(isIncomplete);
+                results.append(",\"violations\":").append(count).append(",\"nodes\":[");
+                StringBuilder violations = violationsByConstraint.get(constraint);
+                if (violations != null) results.append(violations);
+                results.append("]}");
+            }
+            return "{\"valid\":" + valid + ",\"incomplete\":" + incomplete + ",\"timeMs\":" + time +
+                    ",\"results\":[" + results + "]}";
+        }
+
+        /**
+         * @param value a node, a number or another object of a violation
+         * @return the value as a JSON number or string
+         */
+        private String toJsonValue(Object value) {
+            if (value instanceof Number) return value.toString();
+            if (value instanceof RDFNode) return quote(JsonLinesSink.formatNode((RDFNode) value));
+            return quote(String.valueOf(value));
+        }
+    }
+
+    /**
+     * An error of a request, reported with an HTTP status
+     */
+    private static class RequestException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        private int status;
+
+        RequestException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+
+        int getStatus() {
+            return status;
+        }
+    }
+}
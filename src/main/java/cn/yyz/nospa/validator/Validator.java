@@ -1,5 +1,7 @@
 package cn.yyz.nospa.validator;
 
+import java.util.EnumSet;
+
 /**
  * Created by yyz on 11/7/14.
  */
@@ -21,4 +23,35 @@ public interface Validator {
      * A shortcut function to execute all constraint validations.
      */
     public void validateAll();
+
+    /**
+     * Validate the given constraints only. The intermediate results which
+     * are only needed by other constraints are not computed.
+     * @param constraintSet the constraints to be validated
+     */
+    public void validate(EnumSet<Constraint> constraintSet);
+
+    /**
+     * Set the time limit of every constraint. A constraint running out of
+     * time is reported as incomplete with the violations found so far, and
+     * the remaining constraints are still validated.
+     * @param timeLimit the time limit in milliseconds, or 0 for none
+     */
+    public void setTimeLimit(long timeLimit);
+
+    /**
+     * Set the time limit of a single constraint, overriding the time limit of
+     * every constraint
+     * @param constraint an integrity constraint
+     * @param timeLimit the time limit in milliseconds, or 0 for none
+     */
+    public void setTimeLimit(Constraint constraint, long timeLimit);
+
+    /**
+     * Set the token which stops the validation when it is cancelled. The
+     * constraints being validated are reported as incomplete and the
+     * remaining ones find no more violations.
+     * @param token a cancellation token
+     */
+    public void setCancellationToken(CancellationToken token);
 }
@@ -43,7 +43,7 @@ public class ValidatorFactory {
      */
     public static Validator createValidator(String validatorType, String filename, String format) {
         if (validatorType.equals("NOSPA")) {
-            return new NospaValidator(filename, format);
+            return new NospaValidator(filename, format, true);
         }
         else if (validatorType.equals("SPARQL"))
             return new SparqlValidator(filename, format);
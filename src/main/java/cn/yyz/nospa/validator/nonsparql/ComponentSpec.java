@@ -0,0 +1,65 @@
+package cn.yyz.nospa.validator.nonsparql;
+
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.rdf.model.Resource;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A compiled component specification of a data structure definition.
+ */
+public class ComponentSpec {
+    private Resource spec;
+    private Set<RDFNode> propSet = new HashSet<RDFNode>();
+    private Set<RDFNode> requiredSet = new HashSet<RDFNode>();
+    private Set<RDFNode> attachmentSet = new HashSet<RDFNode>();
+
+    /**
+     * Constructor of a component specification
+     * @param spec the resource of the component specification
+     */
+    public ComponentSpec(Resource spec) {
+        this.spec = spec;
+    }
+
+    /**
+     * @return the resource of the component specification
+     */
+    public Resource getSpec() {
+        return spec;
+    }
+
+    /**
+     * @return the values of qb:componentProperty
+     */
+    public Set<RDFNode> getProperties() {
+        return propSet;
+    }
+
+    /**
+     * @return the values of qb:componentRequired
+     */
+    public Set<RDFNode> getRequiredFlags() {
+        return requiredSet;
+    }
+
+    /**
+     * @return the values of qb:componentAttachment
+     */
+    public Set<RDFNode> getAttachments() {
+        return attachmentSet;
+    }
+
+    /**
+     * Checks if the component is flagged with a qb:componentRequired value
+     * @param flag a boolean literal
+     * @return a boolean value indicating if the component carries the flag
+     */
+    public boolean hasRequiredFlag(RDFNode flag) {
+        for (RDFNode required : requiredSet) {
+            if (required.asNode().sameValueAs(flag.asNode())) return true;
+        }
+        return false;
+    }
+}
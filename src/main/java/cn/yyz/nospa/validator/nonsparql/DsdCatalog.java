@@ -0,0 +1,261 @@
+package cn.yyz.nospa.validator.nonsparql;
+
+import com.hp.hpl.jena.rdf.model.*;
+
+import java.util.*;
+
+/**
+ * A catalog of data structure definitions compiled once from a model: the
+ * DSDs with their component specifications (property, role, required flag,
+ * attachment and code list), the datasets with their structures, and the
+ * slice keys and slices with their properties. Schema level constraints are
+ * checked as set operations on the catalog instead of querying the model
+ * again for every DSD.
+ */
+public class DsdCatalog extends ValidatorBase {
+    private Set<Resource> dsdSet;
+    private Set<Resource> datasetSet;
+    private Set<Resource> sliceKeySet;
+    private Set<Resource> sliceSet;
+    private Set<Resource> dimensionSet;
+    private Set<Resource> measureSet;
+    private Set<Resource> attributeSet;
+    private Map<Resource, Set<RDFNode>> structureByDataset;
+    private Map<Resource, Set<ComponentSpec>> specByDsd;
+    private Map<Resource, ComponentSpec> specByRes;
+    private Map<Resource, Set<RDFNode>> propByRes;
+    private Map<Resource, Set<RDFNode>> sliceKeyByDsd;
+    private Map<Resource, Set<RDFNode>> sliceStructureBySlice;
+    private Map<Resource, Set<RDFNode>> rangeByProp;
+    private Map<Resource, Set<RDFNode>> codeListByProp;
+
+    /**
+     * Constructor of a catalog, which compiles the structures of a model
+     * @param model an RDF model
+     */
+    public DsdCatalog(Model model) {
+        super(model);
+        dsdSet = model.listSubjectsWithProperty(RDF_type, QB_DataStructureDefinition).toSet();
+        datasetSet = model.listSubjectsWithProperty(RDF_type, QB_DataSet).toSet();
+        sliceKeySet = model.listSubjectsWithProperty(RDF_type, QB_SliceKey).toSet();
+        sliceSet = model.listSubjectsWithProperty(RDF_type, QB_Slice).toSet();
+        dimensionSet = model.listSubjectsWithProperty(RDF_type, QB_DimensionProperty).toSet();
+        measureSet = model.listSubjectsWithProperty(RDF_type, QB_MeasureProperty).toSet();
+        attributeSet = model.listSubjectsWithProperty(RDF_type, QB_AttributeProperty).toSet();
+        structureByDataset = objectSetBySubject(QB_structure);
+        propByRes = objectSetBySubject(QB_componentProperty);
+        sliceKeyByDsd = objectSetBySubject(QB_sliceKey);
+        sliceStructureBySlice = objectSetBySubject(QB_sliceStructure);
+        rangeByProp = objectSetBySubject(RDFS_range);
+        codeListByProp = objectSetBySubject(QB_codeList);
+
+        specByRes = new HashMap<Resource, ComponentSpec>();
+        specByDsd = new HashMap<Resource, Set<ComponentSpec>>();
+        Map<Resource, Set<RDFNode>> specNodeByDsd = objectSetBySubject(QB_component);
+        for (Resource dsd : specNodeByDsd.keySet()) {
+            Set<ComponentSpec> specSet = new HashSet<ComponentSpec>();
+            for (Resource specAsRes : nodeToResource(specNodeByDsd.get(dsd))) {
+                ComponentSpec spec = specByRes.get(specAsRes);
+                if (spec == null) {
+                    spec = new ComponentSpec(specAsRes);
+                    if (propByRes.containsKey(specAsRes))
+                        spec.getProperties().addAll(propByRes.get(specAsRes));
+                    specByRes.put(specAsRes, spec);
+                }
+                specSet.add(spec);
+            }
+            specByDsd.put(dsd, specSet);
+        }
+        StmtIterator stmtIter = model.listStatements(null, QB_componentRequired, (RDFNode) null);
+        while (stmtIter.hasNext()) {
+            Statement statement = stmtIter.nextStatement();
+            ComponentSpec spec = specByRes.get(statement.getSubject());
+            if (spec != null) spec.getRequiredFlags().add(statement.getObject());
+        }
+        stmtIter = model.listStatements(null, QB_componentAttachment, (RDFNode) null);
+        while (stmtIter.hasNext()) {
+            Statement statement = stmtIter.nextStatement();
+            ComponentSpec spec = specByRes.get(statement.getSubject());
+            if (spec != null) spec.getAttachments().add(statement.getObject());
+        }
+    }
+
+    /**
+     * Collects the objects of a property by subject with a single scan of
+     * the triples of the property
+     * @param property a property
+     * @return a map of subjects with the objects of the property
+     */
+    private Map<Resource, Set<RDFNode>> objectSetBySubject(Property property) {
+        Map<Resource, Set<RDFNode>> objectSetBySubject = new HashMap<Resource, Set<RDFNode>>();
+        StmtIterator stmtIter = model.listStatements(null, property, (RDFNode) null);
+        while (stmtIter.hasNext()) {
+            Statement statement = stmtIter.nextStatement();
+            Set<RDFNode> objectSet = objectSetBySubject.get(statement.getSubject());
+            if (objectSet == null) {
+                objectSet = new HashSet<RDFNode>();
+                objectSetBySubject.put(statement.getSubject(), objectSet);
+            }
+            objectSet.add(statement.getObject());
+        }
+        return objectSetBySubject;
+    }
+
+    /**
+     * Looks up a set in a map of sets
+     * @param setByKey a map of sets
+     * @param key a key
+     * @return the set of the key, or an empty set
+     */
+    private <T> Set<T> lookup(Map<Resource, Set<T>> setByKey, Resource key) {
+        Set<T> set = setByKey.get(key);
+        if (set == null) return Collections.emptySet();
+        return set;
+    }
+
+    /**
+     * @return the resources declared as qb:DataStructureDefinition
+     */
+    public Set<Resource> getDsdSet() {
+        return dsdSet;
+    }
+
+    /**
+     * @return the resources declared as qb:DataSet
+     */
+    public Set<Resource> getDatasetSet() {
+        return datasetSet;
+    }
+
+    /**
+     * @return the resources declared as qb:SliceKey
+     */
+    public Set<Resource> getSliceKeySet() {
+        return sliceKeySet;
+    }
+
+    /**
+     * @return the resources declared as qb:Slice
+     */
+    public Set<Resource> getSliceSet() {
+        return sliceSet;
+    }
+
+    /**
+     * @return the properties declared as qb:DimensionProperty
+     */
+    public Set<Resource> getDimensionSet() {
+        return dimensionSet;
+    }
+
+    /**
+     * @return the properties declared as qb:MeasureProperty
+     */
+    public Set<Resource> getMeasureSet() {
+        return measureSet;
+    }
+
+    /**
+     * @return the properties declared as qb:AttributeProperty
+     */
+    public Set<Resource> getAttributeSet() {
+        return attributeSet;
+    }
+
+    /**
+     * @return the subjects with qb:structure, which are the datasets with a
+     * structure
+     */
+    public Set<Resource> getStructuredDatasetSet() {
+        return structureByDataset.keySet();
+    }
+
+    /**
+     * @return the subjects with qb:sliceKey
+     */
+    public Set<Resource> getDsdWithSliceKeySet() {
+        return sliceKeyByDsd.keySet();
+    }
+
+    /**
+     * @return the subjects with qb:sliceStructure
+     */
+    public Set<Resource> getStructuredSliceSet() {
+        return sliceStructureBySlice.keySet();
+    }
+
+    /**
+     * @return all component specifications attached to a DSD by qb:component
+     */
+    public Collection<ComponentSpec> getComponentSpecs() {
+        return specByRes.values();
+    }
+
+    /**
+     * @param dataset a dataset
+     * @return the values of qb:structure of the dataset
+     */
+    public Set<RDFNode> getStructures(Resource dataset) {
+        return lookup(structureByDataset, dataset);
+    }
+
+    /**
+     * @param dsd a data structure definition
+     * @return the component specifications of the DSD
+     */
+    public Set<ComponentSpec> getComponentSpecs(Resource dsd) {
+        return lookup(specByDsd, dsd);
+    }
+
+    /**
+     * @param dsd a data structure definition
+     * @return the component properties of the DSD
+     */
+    public Set<RDFNode> getComponentProperties(Resource dsd) {
+        Set<RDFNode> compPropSet = new HashSet<RDFNode>();
+        for (ComponentSpec spec : getComponentSpecs(dsd)) {
+            compPropSet.addAll(spec.getProperties());
+        }
+        return compPropSet;
+    }
+
+    /**
+     * @param sliceKey a slice key
+     * @return the values of qb:componentProperty of the slice key
+     */
+    public Set<RDFNode> getSliceKeyProperties(Resource sliceKey) {
+        return lookup(propByRes, sliceKey);
+    }
+
+    /**
+     * @param dsd a data structure definition
+     * @return the values of qb:sliceKey of the DSD
+     */
+    public Set<RDFNode> getSliceKeys(Resource dsd) {
+        return lookup(sliceKeyByDsd, dsd);
+    }
+
+    /**
+     * @param slice a slice
+     * @return the values of qb:sliceStructure of the slice
+     */
+    public Set<RDFNode> getSliceStructures(Resource slice) {
+        return lookup(sliceStructureBySlice, slice);
+    }
+
+    /**
+     * @param property a component property
+     * @return the values of rdfs:range of the property
+     */
+    public Set<RDFNode> getRanges(Resource property) {
+        return lookup(rangeByProp, property);
+    }
+
+    /**
+     * @param property a component property
+     * @return the values of qb:codeList of the property
+     */
+    public Set<RDFNode> getCodeLists(Resource property) {
+        return lookup(codeListByProp, property);
+    }
+}
@@ -0,0 +1,67 @@
+package cn.yyz.nospa.validator.nonsparql;
+
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.rdf.model.Resource;
+
+import java.util.*;
+
+/**
+ * The observations of a dataset indexed by their values of all dimensions
+ * for IC-12. The key of an observation is the set of its first value of each
+ * dimension. Only an index whose observations can be removed again, e.g.,
+ * one kept between incremental validations, remembers the observations of
+ * each key; otherwise the keys seen so far are enough.
+ */
+public class DuplicateIndex {
+    private Set<Set<RDFNode>> keySet;
+    private Map<Set<RDFNode>, Set<Resource>> obsByKey;
+    private Map<Resource, Set<RDFNode>> keyByObs;
+
+    /**
+     * Constructor of an index
+     * @param isRemovable whether observations can be removed from the index
+     */
+    public DuplicateIndex(boolean isRemovable) {
+        if (isRemovable) {
+            obsByKey = new HashMap<Set<RDFNode>, Set<Resource>>();
+            keyByObs = new HashMap<Resource, Set<RDFNode>>();
+        }
+        else keySet = new HashSet<Set<RDFNode>>();
+    }
+
+    /**
+     * Adds an observation to the index, replacing its previous key if any
+     * and if observations can be removed
+     * @param obs an observation
+     * @param key the dimension values of the observation
+     * @return true if another observation has the same key
+     */
+    public boolean add(Resource obs, Set<RDFNode> key) {
+        if (keySet != null) return !keySet.add(key);
+        remove(obs);
+        Set<Resource> obsSet = obsByKey.get(key);
+        if (obsSet == null) {
+            obsSet = new HashSet<Resource>();
+            obsByKey.put(key, obsSet);
+        }
+        obsSet.add(obs);
+        keyByObs.put(obs, key);
+        return obsSet.size() > 1;
+    }
+
+    /**
+     * Removes an observation from the index, if it has been added
+     * @param obs an observation
+     * @throws UnsupportedOperationException if observations cannot be
+     * removed from the index
+     */
+    public void remove(Resource obs) {
+        if (keyByObs == null)
+            throw new UnsupportedOperationException("Observations cannot be removed from this index");
+        Set<RDFNode> key = keyByObs.remove(obs);
+        if (key == null) return;
+        Set<Resource> obsSet = obsByKey.get(key);
+        obsSet.remove(obs);
+        if (obsSet.isEmpty()) obsByKey.remove(key);
+    }
+}
@@ -0,0 +1,114 @@
+package cn.yyz.nospa.validator.nonsparql;
+
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.graph.TripleMatch;
+import com.hp.hpl.jena.graph.impl.GraphBase;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+import com.hp.hpl.jena.util.iterator.Filter;
+import com.hp.hpl.jena.util.iterator.WrappedIterator;
+
+import java.util.*;
+
+/**
+ * An immutable snapshot of a graph. All triples are copied into arrays which
+ * are indexed by subject, predicate and object once at construction time, so
+ * that any number of threads may query the snapshot without locks. Adding or
+ * deleting triples is denied.
+ */
+public class FrozenGraph extends GraphBase {
+    private static final Triple[] NO_TRIPLES = new Triple[0];
+    private final Triple[] triples;
+    private final Map<Node, Triple[]> bySubject;
+    private final Map<Node, Triple[]> byPredicate;
+    private final Map<Object, Triple[]> byObject;
+
+    /**
+     * Constructor of a snapshot copying all triples of a graph
+     * @param graph the graph to be frozen
+     */
+    public FrozenGraph(Graph graph) {
+        triples = graph.find(Node.ANY, Node.ANY, Node.ANY).toList().toArray(NO_TRIPLES);
+        Map<Node, List<Triple>> subjectIndex = new HashMap<Node, List<Triple>>();
+        Map<Node, List<Triple>> predicateIndex = new HashMap<Node, List<Triple>>();
+        Map<Object, List<Triple>> objectIndex = new HashMap<Object, List<Triple>>();
+        for (Triple triple : triples) {
+            index(subjectIndex, triple.getSubject(), triple);
+            index(predicateIndex, triple.getPredicate(), triple);
+            index(objectIndex, triple.getObject().getIndexingValue(), triple);
+        }
+        bySubject = toArrays(subjectIndex);
+        byPredicate = toArrays(predicateIndex);
+        byObject = toArrays(objectIndex);
+        getPrefixMapping().setNsPrefixes(graph.getPrefixMapping());
+        // initialize the lazily created handlers before the snapshot is shared
+        getEventManager();
+        getCapabilities();
+        getStatisticsHandler();
+    }
+
+    /**
+     * Freeze a model into a model backed by a snapshot of its graph
+     * @param model an RDF model
+     * @return a read-only model with the same statements and prefixes
+     */
+    public static Model freeze(Model model) {
+        return ModelFactory.createModelForGraph(new FrozenGraph(model.getGraph()));
+    }
+
+    /**
+     * Find the triples matching a pattern. The candidates are taken from the
+     * smallest index among the concrete nodes of the pattern and filtered by
+     * the remaining nodes, literal objects being matched by value like in the
+     * default in-memory graph.
+     * @param m a triple pattern
+     * @return an iterator of the matching triples
+     */
+    protected ExtendedIterator<Triple> graphBaseFind(TripleMatch m) {
+        final Triple pattern = m.asTriple();
+        Triple[] candidates = triples;
+        if (pattern.getSubject().isConcrete())
+            candidates = smaller(candidates, bySubject.get(pattern.getSubject()));
+        if (pattern.getObject().isConcrete())
+            candidates = smaller(candidates, byObject.get(pattern.getObject().getIndexingValue()));
+        if (pattern.getPredicate().isConcrete())
+            candidates = smaller(candidates, byPredicate.get(pattern.getPredicate()));
+        ExtendedIterator<Triple> iter = WrappedIterator.createNoRemove(Arrays.asList(candidates).iterator());
+        return iter.filterKeep(new Filter<Triple>() {
+            public boolean accept(Triple triple) {
+                return pattern.getSubject().matches(triple.getSubject()) &&
+                        pattern.getPredicate().matches(triple.getPredicate()) &&
+                        pattern.getObject().matches(triple.getObject());
+            }
+        });
+    }
+
+    protected int graphBaseSize() {
+        return triples.length;
+    }
+
+    private Triple[] smaller(Triple[] candidates, Triple[] indexed) {
+        if (indexed == null) return NO_TRIPLES;
+        return indexed.length < candidates.length ? indexed : candidates;
+    }
+
+    private static <K> void index(Map<K, List<Triple>> index, K key, Triple triple) {
+        List<Triple> list = index.get(key);
+        if (list == null) {
+            list = new ArrayList<Triple>();
+            index.put(key, list);
+        }
+        list.add(triple);
+    }
+
+    private static <K> Map<K, Triple[]> toArrays(Map<K, List<Triple>> index) {
+        Map<K, Triple[]> arrays = new HashMap<K, Triple[]>();
+        for (Map.Entry<K, List<Triple>> entry : index.entrySet()) {
+            arrays.put(entry.getKey(), entry.getValue().toArray(NO_TRIPLES));
+        }
+        return arrays;
+    }
+}
@@ -0,0 +1,173 @@
+package cn.yyz.nospa.validator.nonsparql;
+
+import cn.yyz.nospa.validator.Constraint;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.sparql.core.Quad;
+import org.apache.jena.riot.system.StreamRDF;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A listener which is attached to the parser while a cube file is loaded. It
+ * forwards every triple to the underlying sink and counts the values of
+ * qb:dataSet, qb:structure and qb:sliceStructure per subject on the way, so
+ * that the uniqueness constraints IC-1, IC-2 and IC-9 are answered without
+ * another pass over the model.
+ */
+public class LoadCounter extends ValidatorBase implements StreamRDF {
+    private StreamRDF sink;
+    private ObjectTally datasetByObs = new ObjectTally();
+    private ObjectTally structureByDataset = new ObjectTally();
+    private ObjectTally sliceStructureBySlice = new ObjectTally();
+    private Set<Node> typedObsSet = new HashSet<Node>();
+    private Set<Node> typedDatasetSet = new HashSet<Node>();
+    private Set<Node> typedSliceSet = new HashSet<Node>();
+    private Set<Node> impliedObsSet = new HashSet<Node>();
+    private Set<Node> impliedDatasetSet = new HashSet<Node>();
+    private Set<Node> impliedSliceSet = new HashSet<Node>();
+
+    /**
+     * Constructor of a listener
+     * @param model the model which the triples are loaded into
+     * @param sink the sink receiving the parsed triples
+     */
+    public LoadCounter(Model model, StreamRDF sink) {
+        super(model);
+        this.sink = sink;
+    }
+
+    public void start() {
+        sink.start();
+    }
+
+    public void triple(Triple triple) {
+        count(triple);
+        sink.triple(triple);
+    }
+
+    public void quad(Quad quad) {
+        if (quad.isDefaultGraph()) count(quad.asTriple());
+        sink.quad(quad);
+    }
+
+    public void base(String base) {
+        sink.base(base);
+    }
+
+    public void prefix(String prefix, String iri) {
+        sink.prefix(prefix, iri);
+    }
+
+    public void finish() {
+        sink.finish();
+    }
+
+    /**
+     * Apply the type closure of the normalization phase 1 to the counted
+     * resources: objects of qb:observation and subjects of qb:dataSet are
+     * observations, objects of qb:dataSet are datasets and objects of
+     * qb:slice are slices.
+     */
+    public void normalize() {
+        typedObsSet.addAll(impliedObsSet);
+        typedDatasetSet.addAll(impliedDatasetSet);
+        typedSliceSet.addAll(impliedSliceSet);
+    }
+
+    /**
+     * Get the result of IC-1 from the counted triples
+     * @return a map of observations with multiple datasets
+     */
+    public Map<Resource, Set<RDFNode>> getDatasetByObs() {
+        return datasetByObs.getNonUnique(typedObsSet, Constraint.IC1);
+    }
+
+    /**
+     * Get the result of IC-2 from the counted triples
+     * @return a map of datasets with multiple dsds
+     */
+    public Map<Resource, Set<RDFNode>> getStructureByDataset() {
+        return structureByDataset.getNonUnique(typedDatasetSet, Constraint.IC2);
+    }
+
+    /**
+     * Get the result of IC-9 from the counted triples
+     * @return a map of slices with multiple slice structures
+     */
+    public Map<Resource, Set<RDFNode>> getSliceStructureBySlice() {
+        return sliceStructureBySlice.getNonUnique(typedSliceSet, Constraint.IC9);
+    }
+
+    private void count(Triple triple) {
+        Node subject = triple.getSubject();
+        Node predicate = triple.getPredicate();
+        Node object = triple.getObject();
+        if (predicate.equals(QB_dataSet.asNode())) {
+            datasetByObs.add(subject, object);
+            impliedObsSet.add(subject);
+            if (!object.isLiteral()) impliedDatasetSet.add(object);
+        }
+        else if (predicate.equals(QB_structure.asNode()))
+            structureByDataset.add(subject, object);
+        else if (predicate.equals(QB_sliceStructure.asNode()))
+            sliceStructureBySlice.add(subject, object);
+        else if (predicate.equals(QB_observation.asNode())) {
+            if (!object.isLiteral()) impliedObsSet.add(object);
+        }
+        else if (predicate.equals(QB_slice.asNode())) {
+            if (!object.isLiteral()) impliedSliceSet.add(object);
+        }
+        else if (predicate.equals(RDF_type.asNode())) {
+            if (object.equals(QB_Observation.asNode())) typedObsSet.add(subject);
+            else if (object.equals(QB_DataSet.asNode())) typedDatasetSet.add(subject);
+            else if (object.equals(QB_Slice.asNode())) typedSliceSet.add(subject);
+        }
+    }
+
+    /**
+     * The values of a property per subject. Only the first value is kept for
+     * a subject unless another distinct value turns up, which keeps the tally
+     * at one map entry for the common case of a unique value.
+     */
+    private class ObjectTally {
+        private Map<Node, Node> firstBySubject = new HashMap<Node, Node>();
+        private Map<Node, Set<Node>> moreBySubject = new HashMap<Node, Set<Node>>();
+
+        void add(Node subject, Node object) {
+            Node first = firstBySubject.get(subject);
+            if (first == null) firstBySubject.put(subject, object);
+            else if (!first.equals(object)) {
+                Set<Node> moreSet = moreBySubject.get(subject);
+                if (moreSet == null) {
+                    moreSet = new HashSet<Node>();
+                    moreBySubject.put(subject, moreSet);
+                }
+                moreSet.add(object);
+            }
+        }
+
+        Map<Resource, Set<RDFNode>> getNonUnique(Set<Node> subjectSet, Constraint constraint) {
+            Map<Resource, Set<RDFNode>> objBySubject = new HashMap<Resource, Set<RDFNode>>();
+            for (Node subject : subjectSet) {
+                Node first = firstBySubject.get(subject);
+                Set<Node> moreSet = moreBySubject.get(subject);
+                if (first != null && moreSet == null) continue;
+                if (!spend(constraint)) break;
+                Set<RDFNode> objSet = new HashSet<RDFNode>();
+                if (first != null) objSet.add(model.asRDFNode(first));
+                if (moreSet != null) {
+                    for (Node object : moreSet) objSet.add(model.asRDFNode(object));
+                }
+                objBySubject.put(model.wrapAsResource(subject), objSet);
+            }
+            return objBySubject;
+        }
+    }
+}
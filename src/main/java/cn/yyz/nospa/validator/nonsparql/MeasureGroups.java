@@ -0,0 +1,194 @@
+package cn.yyz.nospa.validator.nonsparql;
+
+import com.hp.hpl.jena.rdf.model.Property;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.rdf.model.Resource;
+
+import java.util.*;
+
+/**
+ * The observations of a dataset using a measure dimension, grouped by their
+ * values of the non-measure dimensions for IC-17. Two observations share the
+ * same dimension values if their values are equal for every dimension on
+ * which both have exactly one value. Observations with exactly one value for
+ * every dimension are grouped by these values, so that counting the
+ * observations sharing their values takes a single lookup. The few others are
+ * kept apart and compared one by one.
+ */
+public class MeasureGroups {
+    private List<Property> dimList;
+    private int numOfMeasure;
+    private Map<List<RDFNode>, Set<Resource>> obsByKey = new HashMap<List<RDFNode>, Set<Resource>>();
+    private Map<Resource, List<RDFNode>> partialKeyByObs = new HashMap<Resource, List<RDFNode>>();
+    private Map<Resource, List<RDFNode>> keyByObs = new HashMap<Resource, List<RDFNode>>();
+
+    /**
+     * Constructor of empty groups
+     * @param dimSet the non-measure dimensions of the dataset
+     * @param numOfMeasure the number of measures of the dataset
+     */
+    public MeasureGroups(Set<Property> dimSet, int numOfMeasure) {
+        this.dimList = new ArrayList<Property>(dimSet);
+        this.numOfMeasure = numOfMeasure;
+    }
+
+    /**
+     * Adds an observation to its group
+     * @param record the observation with its property values
+     * @return the other observations sharing the same dimension values
+     */
+    public Set<Resource> add(ObservationRecord record) {
+        Resource obs = record.getObservation();
+        remove(obs);
+        List<RDFNode> key = new ArrayList<RDFNode>(dimList.size());
+        boolean isPartial = false;
+        for (Property dim : dimList) {
+            Set<RDFNode> valueSet = record.getValues(dim);
+            if (valueSet.size() == 1) key.add(valueSet.iterator().next());
+            else {
+                key.add(null);
+                isPartial = true;
+            }
+        }
+        Set<Resource> sharingSet = getSharing(null, key);
+        keyByObs.put(obs, key);
+        if (isPartial) partialKeyByObs.put(obs, key);
+        else {
+            Set<Resource> obsSet = obsByKey.get(key);
+            if (obsSet == null) {
+                obsSet = new HashSet<Resource>();
+                obsByKey.put(key, obsSet);
+            }
+            obsSet.add(obs);
+        }
+        return sharingSet;
+    }
+
+    /**
+     * Removes an observation from its group, if it has been added
+     * @param obs an observation
+     * @return the other observations which shared the same dimension values
+     */
+    public Set<Resource> remove(Resource obs) {
+        List<RDFNode> key = keyByObs.remove(obs);
+        if (key == null) return Collections.emptySet();
+        if (partialKeyByObs.remove(obs) == null) {
+            Set<Resource> obsSet = obsByKey.get(key);
+            obsSet.remove(obs);
+            if (obsSet.isEmpty()) obsByKey.remove(key);
+        }
+        return getSharing(null, key);
+    }
+
+    /**
+     * Checks an observation against IC-17
+     * @param obs an observation
+     * @return the number of observations not sharing the dimension values of
+     * the observation if it violates IC-17, otherwise null
+     */
+    public Integer getViolation(Resource obs) {
+        return getViolation(obs, keyByObs.size());
+    }
+
+    /**
+     * Checks an observation against IC-17 when only part of the observations
+     * of the dataset have been added, e.g., a shard of them, which must
+     * include all observations sharing its dimension values
+     * @param obs an observation
+     * @param numOfObs the number of observations of the dataset
+     * @return the number of observations not sharing the dimension values of
+     * the observation if it violates IC-17, otherwise null
+     */
+    public Integer getViolation(Resource obs, int numOfObs) {
+        List<RDFNode> key = keyByObs.get(obs);
+        if (key == null) return null;
+        int numOfSharing = getSharing(obs, key).size() + 1;
+        if (numOfSharing == numOfMeasure) return null;
+        return numOfObs - numOfSharing;
+    }
+
+    /**
+     * Checks if an observation does not have exactly one value for some
+     * dimension, in which case it may share its values with observations of
+     * any group
+     * @param obs an added observation
+     * @return a boolean value indicating if the key of the observation is
+     * partial
+     */
+    public boolean isPartial(Resource obs) {
+        return partialKeyByObs.containsKey(obs);
+    }
+
+    /**
+     * Counts the added observations sharing the dimension values of an
+     * observation, which is left out
+     * @param obs an added observation
+     * @param partial true to count the observations with partial keys only,
+     *                false to count the others only
+     * @return the number of observations
+     */
+    public int countSharing(Resource obs, boolean partial) {
+        List<RDFNode> key = keyByObs.get(obs);
+        if (key == null) return 0;
+        int count = 0;
+        for (Resource sharing : getSharing(obs, key)) {
+            if (partialKeyByObs.containsKey(sharing) == partial) count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of measures of the dataset
+     */
+    public int getNumOfMeasure() {
+        return numOfMeasure;
+    }
+
+    /**
+     * Gets all added observations
+     * @return a read-only set of observations
+     */
+    public Set<Resource> getObservations() {
+        return Collections.unmodifiableSet(keyByObs.keySet());
+    }
+
+    /**
+     * Searches the added observations sharing the given dimension values
+     * @param obs the observation having the values, which is left out, or null
+     * @param key the values of the dimensions, null for dimensions without
+     *            exactly one value
+     * @return a set of observations
+     */
+    private Set<Resource> getSharing(Resource obs, List<RDFNode> key) {
+        Set<Resource> sharingSet = new HashSet<Resource>();
+        if (key.contains(null)) {
+            for (List<RDFNode> groupKey : obsByKey.keySet()) {
+                if (isSharing(key, groupKey)) sharingSet.addAll(obsByKey.get(groupKey));
+            }
+        }
+        else {
+            Set<Resource> obsSet = obsByKey.get(key);
+            if (obsSet != null) sharingSet.addAll(obsSet);
+        }
+        for (Map.Entry<Resource, List<RDFNode>> entry : partialKeyByObs.entrySet()) {
+            if (isSharing(key, entry.getValue())) sharingSet.add(entry.getKey());
+        }
+        if (obs != null) sharingSet.remove(obs);
+        return sharingSet;
+    }
+
+    /**
+     * Checks if two observations share their dimension values
+     * @param key1 the dimension values of an observation
+     * @param key2 the dimension values of another observation
+     * @return true if the values are equal wherever both are given
+     */
+    private boolean isSharing(List<RDFNode> key1, List<RDFNode> key2) {
+        for (int index = 0; index < key1.size(); index++) {
+            RDFNode value1 = key1.get(index);
+            RDFNode value2 = key2.get(index);
+            if (value1 != null && value2 != null && !value1.equals(value2)) return false;
+        }
+        return true;
+    }
+}
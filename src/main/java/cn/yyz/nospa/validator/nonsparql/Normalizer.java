@@ -1,5 +1,6 @@
 package cn.yyz.nospa.validator.nonsparql;
 
+import cn.yyz.nospa.validator.Progress;
 import com.hp.hpl.jena.rdf.model.*;
 
 import java.util.*;
@@ -8,6 +9,8 @@ import java.util.*;
  * Created by yyz on 11/4/14.
  */
 public class Normalizer extends ValidatorBase {
+    private Progress progress;
+
     public Normalizer(Model model) {
         super(model);
     }
@@ -23,19 +26,27 @@ public class Normalizer extends ValidatorBase {
     public void normalizePhase1() {
         // Phase 1: Type and property closure
 
-        Set<RDFNode> obsSet = model.listObjectsOfProperty(QB_observation).toSet();
-        for (RDFNode obs : obsSet) {
-            if (obs.isResource())
-                model.add(obs.asResource(), RDF_type, QB_Observation);
-        }
+        progress = Progress.start("Normalizing cube at phase 1", "observations", 0);
+        try {
+            Set<RDFNode> obsSet = model.listObjectsOfProperty(QB_observation).toSet();
+            for (RDFNode obs : obsSet) {
+                if (obs.isResource())
+                    model.add(obs.asResource(), RDF_type, QB_Observation);
+                progress.increment();
+            }
 
-        StmtIterator stmtIter = model.listStatements(null, QB_dataSet, (RDFNode) null);
-        while (stmtIter.hasNext()) {
-            Statement statement = stmtIter.nextStatement();
-            RDFNode obj = statement.getObject();
-            if (obj.isResource())
-                model.add(obj.asResource(), RDF_type, QB_DataSet);
-            model.add(statement.getSubject(), RDF_type, QB_Observation);
+            StmtIterator stmtIter = model.listStatements(null, QB_dataSet, (RDFNode) null);
+            while (stmtIter.hasNext()) {
+                Statement statement = stmtIter.nextStatement();
+                RDFNode obj = statement.getObject();
+                if (obj.isResource())
+                    model.add(obj.asResource(), RDF_type, QB_DataSet);
+                model.add(statement.getSubject(), RDF_type, QB_Observation);
+                progress.increment();
+            }
+        } finally {
+            progress.done();
+            progress = null;
         }
 
         Set<RDFNode> sliceSet = model.listObjectsOfProperty(QB_slice).toSet();
@@ -43,7 +54,7 @@ public class Normalizer extends ValidatorBase {
             model.add(slice.asResource(), RDF_type, QB_Slice);
         }
 
-        stmtIter = model.listStatements(null, QB_dimension, (RDFNode) null);
+        StmtIterator stmtIter = model.listStatements(null, QB_dimension, (RDFNode) null);
         while (stmtIter.hasNext()) {
             Statement statement = stmtIter.nextStatement();
             RDFNode obj = statement.getObject();
@@ -79,9 +90,15 @@ public class Normalizer extends ValidatorBase {
      * corresponding observations.
      */
     public void normalizePhase2() {
-        pushDownDatasetAttachments();
-        pushDownSliceAttachments();
-        pushDownDimValOnSlice();
+        progress = Progress.start("Normalizing cube at phase 2", "values", 0);
+        try {
+            pushDownDatasetAttachments();
+            pushDownSliceAttachments();
+            pushDownDimValOnSlice();
+        } finally {
+            progress.done();
+            progress = null;
+        }
     }
 
     /**
@@ -188,6 +205,110 @@ public class Normalizer extends ValidatorBase {
         }
     }
 
+    /**
+     * This function normalizes the given observations only, for cubes which
+     * have been normalized before and have changed on these observations or
+     * their slices since. The observations are typed, and the values attached
+     * to their datasets and slices are pushed down to them, so that the cost
+     * depends on the number of observations rather than on the size of the
+     * cube. The structures of the cube are expected to be normalized already.
+     * @param obsSet a set of observations to be normalized
+     */
+    public void normalizeObservations(Set<Resource> obsSet) {
+        Map<Resource, Set<Property>> datasetCompByDataset = new HashMap<Resource, Set<Property>>();
+        Map<Resource, Set<Property>> sliceCompByDataset = new HashMap<Resource, Set<Property>>();
+        Map<Resource, Set<Property>> dimByDataset = new HashMap<Resource, Set<Property>>();
+        Progress progress = Progress.start("Normalizing observations", "observations", obsSet.size());
+        try {
+            normalizeEach(obsSet, datasetCompByDataset, sliceCompByDataset, dimByDataset, progress);
+        } finally {
+            progress.done();
+        }
+    }
+
+    /**
+     * Normalizes each of the given observations
+     * @param obsSet a set of observations to be normalized
+     * @param datasetCompByDataset a cache of the components attached to datasets
+     * @param sliceCompByDataset a cache of the components attached to slices
+     * @param dimByDataset a cache of the dimensions of each dataset
+     * @param progress the progress of the normalization
+     */
+    private void normalizeEach(Set<Resource> obsSet, Map<Resource, Set<Property>> datasetCompByDataset,
+                               Map<Resource, Set<Property>> sliceCompByDataset,
+                               Map<Resource, Set<Property>> dimByDataset, Progress progress) {
+        for (Resource obs : obsSet) {
+            progress.increment();
+            Set<Resource> sliceSet = model.listSubjectsWithProperty(QB_observation, obs).toSet();
+            Set<Resource> datasetSet = nodeToResource(
+                    model.listObjectsOfProperty(obs, QB_dataSet).toSet());
+            if (!sliceSet.isEmpty() || model.contains(obs, QB_dataSet))
+                model.add(obs, RDF_type, QB_Observation);
+            for (Resource dataset : datasetSet) {
+                model.add(dataset, RDF_type, QB_DataSet);
+                insertValueToObs(Collections.singleton(obs), getValueSetByComp(dataset,
+                        getComponents(datasetCompByDataset, dataset, QB_DataSet)));
+            }
+            for (Resource slice : sliceSet) {
+                for (Resource dataset : model.listSubjectsWithProperty(QB_slice, slice).toSet()) {
+                    model.add(slice, RDF_type, QB_Slice);
+                    insertValueToObs(Collections.singleton(obs), getValueSetByComp(slice,
+                            getComponents(sliceCompByDataset, dataset, QB_Slice)));
+                    insertValueToObs(Collections.singleton(obs), getValueSetByComp(slice,
+                            getComponents(dimByDataset, dataset, null)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Searches the component properties of the structure of a dataset,
+     * either those declared with an attachment level or all dimensions
+     * @param compByDataset a cache of components by dataset
+     * @param dataset a dataset
+     * @param attachment an attachment level, or null for the dimensions
+     * @return a set of component properties
+     */
+    private Set<Property> getComponents(Map<Resource, Set<Property>> compByDataset,
+                                        Resource dataset, Resource attachment) {
+        Set<Property> compSet = compByDataset.get(dataset);
+        if (compSet != null) return compSet;
+        Set<? extends RDFNode> specSet = searchByPathVisit(dataset,
+                Arrays.asList(QB_structure, QB_component), null).get(dataset);
+        Set<RDFNode> compNodeSet = new HashSet<RDFNode>();
+        for (RDFNode spec : specSet) {
+            if (!spec.isResource()) continue;
+            Resource specAsRes = spec.asResource();
+            if (attachment != null && !model.contains(specAsRes, QB_componentAttachment, attachment))
+                continue;
+            for (RDFNode comp : model.listObjectsOfProperty(specAsRes, QB_componentProperty).toSet()) {
+                if (attachment != null || (comp.isResource() && model.contains(
+                        comp.asResource(), RDF_type, QB_DimensionProperty))) compNodeSet.add(comp);
+            }
+        }
+        compSet = new HashSet<Property>();
+        for (RDFNode comp : compNodeSet) {
+            if (comp.isURIResource())
+                compSet.add(ResourceFactory.createProperty(comp.asResource().getURI()));
+        }
+        compByDataset.put(dataset, compSet);
+        return compSet;
+    }
+
+    /**
+     * Collects the values of some properties on a dataset or a slice
+     * @param resource a dataset or a slice
+     * @param compSet a set of component properties
+     * @return a map of properties with their values on the resource
+     */
+    private Map<Property, Set<RDFNode>> getValueSetByComp(Resource resource, Set<Property> compSet) {
+        Map<Property, Set<RDFNode>> valueSetByComp = new HashMap<Property, Set<RDFNode>>();
+        for (Property comp : compSet) {
+            valueSetByComp.put(comp, model.listObjectsOfProperty(resource, comp).toSet());
+        }
+        return valueSetByComp;
+    }
+
     /**
      * Insert statements to the model for the given observations.
      * @param obsSet a set of observations to be associated with new statements
@@ -202,6 +323,7 @@ public class Normalizer extends ValidatorBase {
                     model.add(obs, prop, obj);
                 }
             }
+            if (progress != null) progress.add((long) obsSet.size() * objSet.size());
         }
     }
 }
@@ -1,20 +1,64 @@
 package cn.yyz.nospa.validator.nonsparql;
 
+import cn.yyz.nospa.validator.AsyncReportWriter;
+import cn.yyz.nospa.validator.CancellationToken;
+import cn.yyz.nospa.validator.Constraint;
+import cn.yyz.nospa.validator.Progress;
+import cn.yyz.nospa.validator.CountingSink;
+import cn.yyz.nospa.validator.ValidationResultSink;
 import cn.yyz.nospa.validator.Validator;
 import com.hp.hpl.jena.rdf.model.*;
+import com.hp.hpl.jena.shared.Lock;
 import com.hp.hpl.jena.util.FileManager;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.RDFLanguages;
+import org.apache.jena.riot.system.StreamRDFLib;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The class for the entry point of a validator
  * Created by Yang Yuanzhe on 9/26/14.
  */
 public class NospaValidator implements Validator{
+    private static final String INCOMPLETE_MSG =
+            "Incomplete: the validation was stopped before all violations were found.";
+    private static final Object END_OF_TASK = new Object();
     private Logger logger = LoggerFactory.getLogger(NospaValidator.class);
     private Model model;
+    private DsdCatalog catalog;
+    private LoadCounter loadCounter;
+    private boolean frozen = false;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private ViolationBudget budget;
+    private boolean failFast = false;
+    private ObservationSample sample;
+    private EnumSet<Constraint> selection = EnumSet.allOf(Constraint.class);
+    private Set<Resource> scope;
+    private Map<Resource, DuplicateIndex> duplicateIndexByDataset;
+    private Map<Resource, MeasureGroups> measureGroupsByDataset;
+    private Map<Resource, Map<String, Set<RDFNode>>> codeSetByCodeList;
+    private PrintWriter reportWriter;
+    private boolean reportLogged = true;
+    private int reportQueueCapacity = 4096;
+    private AsyncReportWriter asyncWriter;
+    private ValidationResultSink userSink;
+    private CountingSink resultSink;
+    private boolean countOnly = false;
+    private AtomicInteger failureCount = new AtomicInteger();
+    private SchemaContext context;
+    private Model cubeModel;
+    private Set<Resource> contextObsSet;
+    private CancellationToken token = new CancellationToken();
+    private long timeLimit = 0;
+    private Map<Constraint, Long> timeLimitByConstraint = new EnumMap<Constraint, Long>(Constraint.class);
+    private ThreadLocal<ReportTask> currentTask = new ThreadLocal<ReportTask>();
+    private Thread reportingThread;
+    private Map<Constraint, Long> sweepTimeByConstraint = new EnumMap<Constraint, Long>(Constraint.class);
 
     /**
      * Constructor of a validator for an RDF model
@@ -24,12 +68,43 @@ public class NospaValidator implements Validator{
         this.model = model;
     }
 
+    /**
+     * Constructor of a validator for a cube validated against a compiled
+     * context of structures. The cube is read through a union with the
+     * context, and anything written by the validation goes to the cube. If
+     * the cube only adds observations to the context, only these observations
+     * are normalized, and the catalog and code sets of the context are used
+     * instead of being compiled again.
+     * @param model a Jena RDF model
+     * @param context a compiled context of structures
+     */
+    public NospaValidator(Model model, SchemaContext context) {
+        ObservationDelta delta = new ObservationDelta(context.getModel(), model,
+                ModelFactory.createDefaultModel());
+        this.model = ModelFactory.createUnion(model, context.getModel());
+        this.context = context;
+        cubeModel = model;
+        if (delta.isObservationOnly()) contextObsSet = delta.getObservations();
+    }
+
     /**
      * Constructor of a validator for a file
      * @param filename complete path of the cube file to be validated
      * @param format RDF serialization format of the cube file
      */
     public NospaValidator(String filename, String format) {
+        this(filename, format, false);
+    }
+
+    /**
+     * Constructor of a validator for a file, optionally counting the values of
+     * qb:dataSet, qb:structure and qb:sliceStructure while the file is parsed
+     * so that IC-1, IC-2 and IC-9 are ready when loading finishes
+     * @param filename complete path of the cube file to be validated
+     * @param format RDF serialization format of the cube file
+     * @param countOnLoad whether to attach a counting listener to the parser
+     */
+    public NospaValidator(String filename, String format, boolean countOnLoad) {
         logger.debug("RDF Cube Validation Result");
         logger.debug("==========================");
         logger.debug("");
@@ -45,7 +120,75 @@ public class NospaValidator implements Validator{
             logger.error(msg);
             throw new IllegalArgumentException(msg);
         }
-        model.read(inputStream, null, format);
+        Progress progress = Progress.start("Loading cube file", "bytes", new File(filename).length());
+        try {
+            if (countOnLoad) {
+                loadCounter = new LoadCounter(model, StreamRDFLib.graph(model.getGraph()));
+                RDFDataMgr.parse(loadCounter, progress.track(inputStream), RDFLanguages.nameToLang(format));
+            }
+            else model.read(progress.track(inputStream), null, format);
+        } finally {
+            progress.done();
+        }
+    }
+
+    /**
+     * Validate a cube file too large to be loaded, in two passes over the
+     * file. The first pass keeps the structure definitions, code lists,
+     * datasets and slices and counts the triples of each observation. The
+     * second pass holds the triples of each observation until all of them
+     * have been read, then normalizes and validates the observations in
+     * chunks against the structures of the first pass and discards them.
+     * The memory is bounded by the size of the structures plus the triple
+     * counts, the keys of IC-12 and IC-17 and the violations, and the
+     * observations whose triples are scattered across the file. Observations
+     * which are blank nodes cannot be matched between passes and are not
+     * validated.
+     * @param filename complete path of the cube file to be validated
+     * @param format RDF serialization format of the cube file
+     * @param chunkSize the number of complete observations validated at a time
+     */
+    public static void validateInTwoPasses(String filename, String format, int chunkSize) {
+        validateInTwoPasses(filename, format, chunkSize, 0);
+    }
+
+    /**
+     * Validate a cube file in two passes, with the stages of the second pass
+     * running as a pipeline connected by bounded queues
+     * @param filename complete path of the cube file to be validated
+     * @param format RDF serialization format of the cube file
+     * @param chunkSize the number of complete observations validated at a time
+     * @param queueCapacity the number of batches of triples and of chunks of
+     *                      observations each queue of the pipeline holds, or 0
+     *                      to run the stages one after another
+     */
+    public static void validateInTwoPasses(String filename, String format, int chunkSize,
+                                           int queueCapacity) {
+        Logger logger = LoggerFactory.getLogger(NospaValidator.class);
+        InputStream inputStream = FileManager.get().open(filename);
+        if (inputStream == null) {
+            String msg = "File " + filename + " not found";
+            logger.error(msg);
+            throw new IllegalArgumentException(msg);
+        }
+        logger.info("Collecting structures of cube file ...");
+        SchemaCollector collector = new SchemaCollector();
+        Progress progress = Progress.start("Collecting structures", "bytes", new File(filename).length());
+        try {
+            RDFDataMgr.parse(collector, progress.track(inputStream), RDFLanguages.nameToLang(format));
+        } finally {
+            progress.done();
+            try {
+                inputStream.close();
+            } catch (IOException ioe) {
+                logger.warn("Failed to close " + filename);
+            }
+        }
+        if (collector.getNumOfBlankObs() > 0)
+            logger.warn(collector.getNumOfBlankObs() + " observations are blank nodes and are not validated");
+        StreamingValidator validator = new StreamingValidator(chunkSize, collector);
+        validator.setQueueCapacity(queueCapacity);
+        validator.validate(filename, format);
     }
 
     /**
@@ -71,36 +214,756 @@ public class NospaValidator implements Validator{
      */
     public void normalize() {
         Normalizer normalizer = new Normalizer(model);
+        if (contextObsSet != null) {
+            logger.info("Normalizing observations against context ...");
+            normalizer.normalizeObservations(contextObsSet);
+            return;
+        }
         logger.info("Normalizing cube at phase 1 ...");
         normalizer.normalizePhase1();
         logger.info("Normalizing cube at phase 2 ...");
         normalizer.normalizePhase2();
+        if (loadCounter != null) loadCounter.normalize();
+        catalog = null;
+        duplicateIndexByDataset = null;
+        measureGroupsByDataset = null;
+        codeSetByCodeList = null;
+    }
+
+    /**
+     * Get the catalog of structure definitions, compiling it on first use
+     * @return the catalog compiled from the current model
+     */
+    private DsdCatalog getCatalog() {
+        if (catalog == null)
+            catalog = contextObsSet != null ? context.getCatalog() : new DsdCatalog(model);
+        return catalog;
+    }
+
+    /**
+     * Replace the model by an immutable, fully indexed snapshot which can be
+     * read by any number of threads without locks. The model cannot be
+     * modified any more, hence this should be done after normalization. The
+     * snapshot is a copy of the model, so the peak memory about doubles
+     * while it is taken; without it the threads of validate() read the live
+     * model under read locks. A cube validated against a compiled context
+     * only has its own triples copied, and is read through a union with the
+     * model of the context, which is frozen already.
+     */
+    public void freeze() {
+        if (frozen) return;
+        logger.info("Freezing cube ...");
+        if (context != null) {
+            cubeModel = FrozenGraph.freeze(cubeModel);
+            model = ModelFactory.createUnion(cubeModel, context.getModel());
+        }
+        else model = FrozenGraph.freeze(model);
+        catalog = null;
+        frozen = true;
+    }
+
+    /**
+     * Set the number of threads used by validateAll()
+     * @param parallelism the number of constraints validated concurrently
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Parallelism must be at least 1");
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Set the budget of violations recorded by the validators. Validators
+     * stop scanning once the budget of their constraints is exhausted, so
+     * the results are incomplete beyond the limits.
+     * @param budget a violation budget, or null for no limit
+     */
+    public void setViolationBudget(ViolationBudget budget) {
+        this.budget = budget;
+        if (loadCounter != null) loadCounter.setBudget(budget);
+    }
+
+    /**
+     * Set the fail-fast mode of validateAll(). In this mode the schema level
+     * constraints IC-2 to IC-10 are validated and reported first, and the
+     * validation stops after the first constraint having violations.
+     * @param failFast whether to stop at the first failing constraint
+     */
+    public void setFailFast(boolean failFast) {
+        this.failFast = failFast;
+    }
+
+    /**
+     * Set a sample of observations for validateAll(). With a sample, the
+     * schema level constraints are still validated exactly, while the
+     * violation rates of the observation level constraints are estimated
+     * from the sampled observations of each dataset. A sample is drawn by a
+     * single validation.
+     * @param sample an observation sample, or null to validate all
+     *               observations
+     */
+    public void setSample(ObservationSample sample) {
+        this.sample = sample;
+    }
+
+    public void setTimeLimit(long timeLimit) {
+        if (timeLimit < 0)
+            throw new IllegalArgumentException("A time limit must not be negative");
+        this.timeLimit = timeLimit;
+    }
+
+    public void setTimeLimit(Constraint constraint, long timeLimit) {
+        if (timeLimit < 0)
+            throw new IllegalArgumentException("A time limit must not be negative");
+        timeLimitByConstraint.put(constraint, timeLimit);
+    }
+
+    public void setCancellationToken(CancellationToken token) {
+        this.token = token;
+    }
+
+    /**
+     * Set a writer receiving a copy of the lines of the validation report,
+     * e.g., to return the results of a validation to a client.
+     * @param reportWriter a writer, or null to write the report to the log
+     *                     only
+     */
+    public void setReportWriter(PrintWriter reportWriter) {
+        this.reportWriter = reportWriter;
+    }
+
+    /**
+     * Set whether the lines of the validation report are written to the log.
+     * When many cubes are validated concurrently, each with its own report
+     * writer, the log would interleave their reports.
+     * @param reportLogged false to write the report to the report writer only
+     */
+    public void setReportLogged(boolean reportLogged) {
+        this.reportLogged = reportLogged;
+    }
+
+    /**
+     * Set the number of report records a validation may queue for the
+     * writer thread of the report, and a scheduled validation may buffer
+     * until its part of the report is written. The violations are queued as
+     * compact records and formatted into lines by the writer thread, and a
+     * validation waits when the queue or its buffer is full. The report is
+     * written on the validating thread if the capacity is 0, and the buffers
+     * then hold a single record.
+     * @param capacity the capacity of the queue, 4096 by default
+     */
+    public void setReportQueueCapacity(int capacity) {
+        reportQueueCapacity = capacity;
+    }
+
+    /**
+     * @return the number of constraints with violations reported by the last
+     * validation
+     */
+    public int getFailureCount() {
+        return failureCount.get();
+    }
+
+    /**
+     * Set a sink receiving the violations instead of the validation report.
+     * The violations of the observations are pushed into the sink as soon as
+     * they are found, so that they are never held together in memory, and
+     * the maps returned by the functions validating them stay empty. The
+     * other violations are pushed once their constraint is validated. The
+     * report only gives the number of violations of each constraint. The end
+     * of each constraint is pushed with the time spent on its report, plus
+     * the time the observation sweep spent in its check.
+     * @param sink a result sink, or null to collect the violations into the
+     *             result maps and list them in the report
+     */
+    public void setResultSink(ValidationResultSink sink) {
+        userSink = sink;
+        resultSink = sink == null && !countOnly ? null : new CountingSink(sink);
+    }
+
+    /**
+     * Set whether only the number of violations of each constraint is
+     * needed. The validators then count the violations instead of collecting
+     * the violating nodes into the result maps, and do not collect the
+     * properties or values involved, so that the memory does not grow with
+     * the number of violations. IC-19 to IC-21 still keep the distinct
+     * violating values to count each once. The report gives the number of
+     * violations of each constraint, which can also be read with
+     * getViolationCount(). A result sink set as well receives the violations
+     * with null details.
+     * @param countOnly true to count the violations only
+     */
+    public void setCountOnly(boolean countOnly) {
+        this.countOnly = countOnly;
+        setResultSink(userSink);
+    }
+
+    /**
+     * Get the number of violations of a constraint found by the last
+     * validation, when the violations are counted or sent to a result sink
+     * @param constraint an integrity constraint
+     * @return the number of violations, or -1 if they were collected into the
+     * result maps instead
+     */
+    public long getViolationCount(Constraint constraint) {
+        return resultSink == null ? -1 : resultSink.getCount(constraint);
     }
 
     /**
      * A shortcut function to execute all constraint validations.
      */
     public void validateAll() {
-        logger.info("Validating all constraints ...");
-        validateIC1();
-        validateIC2();
-        validateIC3();
-        validateIC4();
-        validateIC5();
-        validateIC6();
-        validateIC7();
-        validateIC8();
-        validateIC9();
-        validateIC10();
-        validateIC11_12();
-        validateIC13();
-        validateIC14();
-        validateIC15_16();
-        validateIC17();
-        validateIC18();
-        validateIC19();
-        validateIC20_21();
-    }    
+        validate(EnumSet.allOf(Constraint.class));
+    }
+
+    /**
+     * Validate the given constraints. The constraints are validated
+     * concurrently on a pool of threads reading the model: the structure
+     * catalog and the observation sweep are started first if any selected
+     * constraint needs them, the constraints depending on them wait for their
+     * completion, and the report is written in the order of the constraints.
+     * The sweep only feeds the checks of the selected constraints. The threads
+     * read the live model under read locks unless it has been frozen with
+     * freeze(). In fail-fast mode
+     * the schema level constraints are completed before the observation level
+     * ones are started. With a sample, the observation level constraints are
+     * estimated instead, and IC-1 is only reported if it was counted while
+     * loading.
+     * @param constraintSet the constraints to be validated
+     */
+    public void validate(EnumSet<Constraint> constraintSet) {
+        logger.info("Validating constraints " + constraintSet + " ...");
+        failureCount.set(0);
+        setResultSink(userSink);
+        selection = EnumSet.copyOf(constraintSet);
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        boolean isWriting = startWriter();
+        try {
+            if (sample != null && scope == null) {
+                List<ReportTask> schemaList = submitSchemaLevel(executor);
+                if (loadCounter != null && selection.contains(Constraint.IC1)) validateIC1();
+                if (writeReports(schemaList)) validateSample();
+                else logger.info("Validation stopped at the first failing constraint");
+            }
+            else if (failFast) {
+                if (!writeReports(submitSchemaLevel(executor)) ||
+                        !writeReports(submitObservationLevel(executor)))
+                    logger.info("Validation stopped at the first failing constraint");
+            }
+            else {
+                List<ReportTask> observationList = submitObservationLevel(executor);
+                List<ReportTask> schemaList = submitSchemaLevel(executor);
+                int numOfIC1 = selection.contains(Constraint.IC1) ? 1 : 0;
+                writeReports(observationList.subList(0, numOfIC1));
+                writeReports(schemaList);
+                writeReports(observationList.subList(numOfIC1, observationList.size()));
+            }
+        } finally {
+            executor.shutdownNow();
+            selection = EnumSet.allOf(Constraint.class);
+            if (isWriting) stopWriter();
+        }
+    }
+
+    /**
+     * Apply a delta of added and removed triples to a normalized cube and
+     * revalidate the observations it touches, so that the cost depends on
+     * the size of the delta rather than on the size of the cube. The touched
+     * observations are normalized, swept and reported for the observation
+     * level constraints, with the duplicate index of IC-12 and the measure
+     * groups of IC-17 kept between the calls and updated in place. IC-12 and
+     * IC-17 report the touched observations duplicating or missing others,
+     * as well as the other observations whose IC-17 groups have changed. The
+     * schema level constraints are validated again unless the delta only
+     * touches observations. A delta changing structures, or removing values
+     * of slices or datasets, cannot be applied incrementally, and the whole
+     * cube is normalized and validated again instead. An observation losing
+     * its last dataset, and not in a slice, is removed by the delta together
+     * with the values added by normalization. The indexes are built
+     * by the first call, and a frozen model is copied back into a modifiable
+     * one. A sample is not used by this validation.
+     * @param addedModel the triples to be added to the cube
+     * @param removedModel the triples to be removed from the cube
+     */
+    public void validateDelta(Model addedModel, Model removedModel) {
+        thaw();
+        setResultSink(userSink);
+        ObservationDelta delta = new ObservationDelta(model, addedModel, removedModel);
+        if (!delta.isStructural() &&
+                (duplicateIndexByDataset == null || measureGroupsByDataset == null)) buildIndexes();
+        model.remove(removedModel);
+        model.add(addedModel);
+        catalog = null;
+        loadCounter = null;
+        if (delta.isStructural()) {
+            logger.info("Delta of " + delta.size() + " triples changes structures, " +
+                    "validating the whole cube ...");
+            normalize();
+            validateAll();
+            return;
+        }
+        logger.info("Validating delta of " + delta.size() + " triples touching " +
+                delta.getObservations().size() + " observations ...");
+        for (Resource obs : delta.getObservations()) {
+            if (removedModel.contains(obs, ValidatorBase.QB_dataSet) &&
+                    !model.contains(obs, ValidatorBase.QB_dataSet) &&
+                    !model.contains(null, ValidatorBase.QB_observation, obs))
+                model.removeAll(obs, null, null);
+        }
+        new Normalizer(model).normalizeObservations(delta.getObservations());
+        EnumSet<Constraint> constraintSet = EnumSet.allOf(Constraint.class);
+        if (delta.isObservationOnly())
+            constraintSet.removeAll(EnumSet.range(Constraint.IC2, Constraint.IC10));
+        scope = delta.getObservations();
+        try {
+            validate(constraintSet);
+        } finally {
+            scope = null;
+        }
+    }
+
+    /**
+     * Remove triples from the cube without validating them, e.g., to drop an
+     * observation batch after it has been validated as a delta. All values of
+     * the observations among the subjects of the triples are removed as well,
+     * including the values pushed down by normalization, together with all
+     * links to these observations. The observations are removed from the
+     * indexes of incremental validation too.
+     * @param removedModel the triples to be removed from the cube
+     */
+    public void discard(Model removedModel) {
+        thaw();
+        ObservationDelta delta = new ObservationDelta(model,
+                ModelFactory.createDefaultModel(), removedModel);
+        for (Resource obs : delta.getObservations()) {
+            if (!removedModel.contains(obs, null)) continue;
+            model.removeAll(obs, null, null);
+            model.removeAll(null, null, obs);
+            if (duplicateIndexByDataset != null) {
+                for (DuplicateIndex index : duplicateIndexByDataset.values()) index.remove(obs);
+            }
+            if (measureGroupsByDataset != null) {
+                for (MeasureGroups groups : measureGroupsByDataset.values()) groups.remove(obs);
+            }
+        }
+        model.remove(removedModel);
+        catalog = null;
+        loadCounter = null;
+    }
+
+    /**
+     * Copies a frozen model back into a modifiable one
+     */
+    private void thaw() {
+        if (!frozen) return;
+        logger.info("Copying frozen cube for modification ...");
+        if (context != null) {
+            cubeModel = ModelFactory.createDefaultModel().add(cubeModel);
+            model = ModelFactory.createUnion(cubeModel, context.getModel());
+        }
+        else model = ModelFactory.createDefaultModel().add(model);
+        catalog = null;
+        frozen = false;
+    }
+
+    /**
+     * Builds the duplicate index of IC-12 and the measure groups of IC-17 of
+     * all observations for incremental validation.
+     */
+    private void buildIndexes() {
+        logger.info("Indexing observations for incremental validation ...");
+        duplicateIndexByDataset = new HashMap<Resource, DuplicateIndex>();
+        measureGroupsByDataset = new HashMap<Resource, MeasureGroups>();
+        codeSetByCodeList = new HashMap<Resource, Map<String, Set<RDFNode>>>();
+        ValidatorIC11_12 validatorIC11_12 = new ValidatorIC11_12(model);
+        validatorIC11_12.keepIndexes(duplicateIndexByDataset, null);
+        ValidatorIC17 validatorIC17 = new ValidatorIC17(model);
+        validatorIC17.keepGroups(measureGroupsByDataset, null);
+        ObservationSweep sweep = new ObservationSweep(model);
+        sweep.register(validatorIC11_12);
+        sweep.register(validatorIC17);
+        sweep.run();
+    }
+
+    /**
+     * Reports observation level constraints validated by checks which have
+     * been fed outside of this validator, e.g., from a stream of
+     * observations, and validates the selected schema level constraints of
+     * the model, in the usual order of the report.
+     * @param constraintSet the constraints to be reported
+     * @param checkList the checks, which have been prepared, fed and finished
+     */
+    void reportSwept(EnumSet<Constraint> constraintSet, List<ObservationCheck> checkList) {
+        logger.info("Validating constraints " + constraintSet + " ...");
+        failureCount.set(0);
+        selection = EnumSet.copyOf(constraintSet);
+        ExecutorService executor = Executors.newFixedThreadPool(1);
+        boolean isWriting = startWriter();
+        try {
+            for (ObservationCheck check : checkList) {
+                if (check instanceof ValidatorIC1 && isSelected(check))
+                    validateIC1((ValidatorIC1) check);
+            }
+            writeReports(submitSchemaLevel(executor));
+            for (ObservationCheck check : checkList) {
+                if (check instanceof ValidatorIC1 || !isSelected(check)) continue;
+                if (check instanceof ValidatorIC11_12) validateIC11_12((ValidatorIC11_12) check);
+                else if (check instanceof ValidatorIC13) validateIC13((ValidatorIC13) check);
+                else if (check instanceof ValidatorIC14) validateIC14((ValidatorIC14) check);
+                else if (check instanceof ValidatorIC15_16) validateIC15_16((ValidatorIC15_16) check);
+                else if (check instanceof ValidatorIC17) validateIC17((ValidatorIC17) check);
+                else if (check instanceof ValidatorIC18) validateIC18((ValidatorIC18) check);
+                else if (check instanceof ValidatorIC19) validateIC19((ValidatorIC19) check);
+                else if (check instanceof ValidatorIC20_21) validateIC20_21((ValidatorIC20_21) check);
+            }
+            if (reportWriter != null && asyncWriter == null) reportWriter.flush();
+        } finally {
+            executor.shutdownNow();
+            selection = EnumSet.allOf(Constraint.class);
+            if (isWriting) stopWriter();
+        }
+    }
+
+    /**
+     * Schedules the structure catalog and the selected schema level
+     * constraints among IC-2 to IC-10 depending on it. The catalog is only
+     * compiled if a selected constraint reads it.
+     * @param executor the executor of the scheduled validation
+     * @return a list of scheduled validations in the order of constraints
+     */
+    private List<ReportTask> submitSchemaLevel(ExecutorService executor) {
+        Set<Constraint> catalogUserSet = EnumSet.range(Constraint.IC2, Constraint.IC10);
+        if (loadCounter != null) catalogUserSet.removeAll(EnumSet.of(Constraint.IC2, Constraint.IC9));
+        catalogUserSet.retainAll(selection);
+        Future<?> catalogFuture = catalogUserSet.isEmpty() ? null :
+                submitReading(executor, new Runnable() {
+                    public void run() {
+                        getCatalog();
+                    }
+                });
+        List<ReportTask> reportList = new ArrayList<ReportTask>();
+        if (selection.contains(Constraint.IC2))
+            reportList.add(schedule(executor, new ReportTask(catalogFuture) {
+                void validate() { validateIC2(); }
+            }));
+        if (selection.contains(Constraint.IC3))
+            reportList.add(schedule(executor, new ReportTask(catalogFuture) {
+                void validate() { validateIC3(); }
+            }));
+        if (selection.contains(Constraint.IC4))
+            reportList.add(schedule(executor, new ReportTask(catalogFuture) {
+                void validate() { validateIC4(); }
+            }));
+        if (selection.contains(Constraint.IC5))
+            reportList.add(schedule(executor, new ReportTask(catalogFuture) {
+                void validate() { validateIC5(); }
+            }));
+        if (selection.contains(Constraint.IC6))
+            reportList.add(schedule(executor, new ReportTask(catalogFuture) {
+                void validate() { validateIC6(); }
+            }));
+        if (selection.contains(Constraint.IC7))
+            reportList.add(schedule(executor, new ReportTask(catalogFuture) {
+                void validate() { validateIC7(); }
+            }));
+        if (selection.contains(Constraint.IC8))
+            reportList.add(schedule(executor, new ReportTask(catalogFuture) {
+                void validate() { validateIC8(); }
+            }));
+        if (selection.contains(Constraint.IC9))
+            reportList.add(schedule(executor, new ReportTask(catalogFuture) {
+                void validate() { validateIC9(); }
+            }));
+        if (selection.contains(Constraint.IC10))
+            reportList.add(schedule(executor, new ReportTask(catalogFuture) {
+                void validate() { validateIC10(); }
+            }));
+        return reportList;
+    }
+
+    /**
+     * Schedules the observation sweep and the selected observation level
+     * constraints depending on it. Only the checks of the selected
+     * constraints are prepared and registered, and the sweep is skipped if
+     * none is selected.
+     * @param executor the executor of the scheduled validation
+     * @return a list of scheduled validations in the order of constraints
+     */
+    private List<ReportTask> submitObservationLevel(ExecutorService executor) {
+        final ValidatorIC1 validatorIC1 = configured(new ValidatorIC1(model), Constraint.IC1);
+        final ValidatorIC11_12 validatorIC11_12 = configured(new ValidatorIC11_12(model),
+                Constraint.IC11, Constraint.IC12);
+        final ValidatorIC13 validatorIC13 = configured(new ValidatorIC13(model), Constraint.IC13);
+        final ValidatorIC14 validatorIC14 = configured(new ValidatorIC14(model), Constraint.IC14);
+        final ValidatorIC15_16 validatorIC15_16 = configured(new ValidatorIC15_16(model),
+                Constraint.IC15, Constraint.IC16);
+        final ValidatorIC17 validatorIC17 = configured(new ValidatorIC17(model), Constraint.IC17);
+        final ValidatorIC18 validatorIC18 = configured(new ValidatorIC18(model), Constraint.IC18);
+        final ValidatorIC19 validatorIC19 = configured(new ValidatorIC19(model), Constraint.IC19);
+        final ValidatorIC20_21 validatorIC20_21 = configured(new ValidatorIC20_21(model),
+                Constraint.IC20, Constraint.IC21);
+        final ObservationSweep sweep = configured(new ObservationSweep(model));
+        if (scope != null) {
+            sweep.restrictTo(scope);
+            validatorIC11_12.keepIndexes(duplicateIndexByDataset, scope);
+            validatorIC17.keepGroups(measureGroupsByDataset, scope);
+            validatorIC18.restrictTo(scope);
+            validatorIC20_21.keepCodeSets(codeSetByCodeList);
+        }
+        else if (contextObsSet != null && !context.getCodeSets().isEmpty())
+            validatorIC20_21.keepCodeSets(context.getCodeSets());
+        sweep.setTimed(resultSink != null);
+        sweepTimeByConstraint = new EnumMap<Constraint, Long>(Constraint.class);
+        if (loadCounter == null) registerSelected(sweep, validatorIC1);
+        registerSelected(sweep, validatorIC11_12);
+        registerSelected(sweep, validatorIC13);
+        registerSelected(sweep, validatorIC14);
+        registerSelected(sweep, validatorIC15_16);
+        registerSelected(sweep, validatorIC17);
+        registerSelected(sweep, validatorIC18);
+        registerSelected(sweep, validatorIC19);
+        registerSelected(sweep, validatorIC20_21);
+        Future<?> sweepFuture = !sweep.hasChecks() ? null : submitReading(executor, new Runnable() {
+            public void run() {
+                logger.info("Sweeping observations for observation level constraints ...");
+                sweep.run();
+                keepSweepTimes(sweep, validatorIC1, validatorIC11_12, validatorIC13, validatorIC14,
+                        validatorIC15_16, validatorIC17, validatorIC18, validatorIC19, validatorIC20_21);
+            }
+        });
+        List<ReportTask> reportList = new ArrayList<ReportTask>();
+        if (selection.contains(Constraint.IC1))
+            reportList.add(schedule(executor, new ReportTask(sweepFuture) {
+                void validate() { validateIC1(validatorIC1); }
+            }));
+        if (isSelected(validatorIC11_12))
+            reportList.add(schedule(executor, new ReportTask(sweepFuture) {
+                void validate() { validateIC11_12(validatorIC11_12); }
+            }));
+        if (isSelected(validatorIC13))
+            reportList.add(schedule(executor, new ReportTask(sweepFuture) {
+                void validate() { validateIC13(validatorIC13); }
+            }));
+        if (isSelected(validatorIC14))
+            reportList.add(schedule(executor, new ReportTask(sweepFuture) {
+                void validate() { validateIC14(validatorIC14); }
+            }));
+        if (isSelected(validatorIC15_16))
+            reportList.add(schedule(executor, new ReportTask(sweepFuture) {
+                void validate() { validateIC15_16(validatorIC15_16); }
+            }));
+        if (isSelected(validatorIC17))
+            reportList.add(schedule(executor, new ReportTask(sweepFuture) {
+                void validate() { validateIC17(validatorIC17); }
+            }));
+        if (isSelected(validatorIC18))
+            reportList.add(schedule(executor, new ReportTask(sweepFuture) {
+                void validate() { validateIC18(validatorIC18); }
+            }));
+        if (isSelected(validatorIC19))
+            reportList.add(schedule(executor, new ReportTask(sweepFuture) {
+                void validate() { validateIC19(validatorIC19); }
+            }));
+        if (isSelected(validatorIC20_21))
+            reportList.add(schedule(executor, new ReportTask(sweepFuture) {
+                void validate() { validateIC20_21(validatorIC20_21); }
+            }));
+        return reportList;
+    }
+
+    /**
+     * Registers an observation check to a sweep if any of its constraints is
+     * selected
+     * @param sweep an observation sweep
+     * @param check an observation check
+     */
+    private void registerSelected(ObservationSweep sweep, ObservationCheck check) {
+        if (isSelected(check)) sweep.register(check);
+    }
+
+    /**
+     * Keeps the time a timed sweep has spent in each check for the
+     * constraints of the check, so that it is added to the time of their
+     * reports. The constraints of a check of two constraints share its time.
+     * @param sweep an observation sweep which has run
+     * @param checks the checks which may have been registered to the sweep
+     */
+    private void keepSweepTimes(ObservationSweep sweep, ObservationCheck... checks) {
+        for (ObservationCheck check : checks) {
+            for (Constraint constraint : check.getConstraints())
+                sweepTimeByConstraint.put(constraint, sweep.getTime(check));
+        }
+    }
+
+    /**
+     * Checks if any constraint of an observation check is selected
+     * @param check an observation check
+     * @return true if the check has to run
+     */
+    private boolean isSelected(ObservationCheck check) {
+        for (Constraint constraint : check.getConstraints()) {
+            if (selection.contains(constraint)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Writes the reports of scheduled validations in order
+     * @param reportList a list of scheduled validations
+     * @return false if the fail-fast mode stopped at a failing constraint
+     */
+    private boolean writeReports(List<ReportTask> reportList) {
+        reportingThread = Thread.currentThread();
+        for (ReportTask task : reportList) {
+            forward(task);
+            if (reportWriter != null && asyncWriter == null) reportWriter.flush();
+            if (failFast && task.failed) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Writes the part of the report of a scheduled validation. A validation
+     * which has not been started yet is run on this thread and writes its
+     * part directly, so that it never waits for validations reported after
+     * it, otherwise the records it buffers are passed on until it ends.
+     * @param task a scheduled validation, all preceding ones being written
+     * @return the finished validation
+     */
+    private ReportTask forward(ReportTask task) {
+        task.future.run();
+        while (true) {
+            Object record;
+            try {
+                record = task.buffer.take();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Validation was interrupted", ie);
+            }
+            if (record == END_OF_TASK) break;
+            writeLine(record);
+        }
+        return getScheduled(task.future);
+    }
+
+    /**
+     * Schedules a validation on the executor
+     * @param executor the executor of the scheduled validation
+     * @param task a validation
+     * @return the given validation
+     */
+    private ReportTask schedule(ExecutorService executor, ReportTask task) {
+        executor.execute(task.future);
+        return task;
+    }
+
+    /**
+     * Hands the violation budget and a cancellation token to a validator. The
+     * token of a validator of several constraints runs out with the shortest
+     * of their time limits.
+     * @param validator a validator
+     * @param constraints the constraints validated by the validator
+     * @param <T> the type of the validator
+     * @return the given validator
+     */
+    private <T extends ValidatorBase> T configured(T validator, Constraint... constraints) {
+        validator.setBudget(budget);
+        validator.setCancellationToken(tokenFor(constraints));
+        validator.setResultSink(resultSink == null ? null : new SelectedSink());
+        validator.setCountOnly(countOnly);
+        return validator;
+    }
+
+    /**
+     * Creates a cancellation token for a validator of some constraints
+     * @param constraints the constraints validated by the validator
+     * @return a token depending on the token of the whole validation
+     */
+    private CancellationToken tokenFor(Constraint... constraints) {
+        long shortestLimit = 0;
+        for (Constraint constraint : constraints) {
+            Long limit = timeLimitByConstraint.get(constraint);
+            if (limit == null) limit = timeLimit;
+            if (limit > 0 && (shortestLimit == 0 || limit < shortestLimit)) shortestLimit = limit;
+        }
+        return token.withTimeLimit(shortestLimit);
+    }
+
+    /**
+     * Waits for a scheduled validation and rethrows its failure, if any
+     * @param report the future of a scheduled validation
+     * @return the finished validation
+     */
+    private ReportTask getScheduled(Future<ReportTask> report) {
+        try {
+            return report.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Validation was interrupted", ie);
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            while (cause instanceof ExecutionException) cause = cause.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Estimate the violation rates of the observation level constraints
+     * IC-11, IC-13, IC-14, IC-15, IC-16, IC-19, IC-20 and IC-21 by
+     * validating the sampled observations of each dataset.
+     * @return a list of estimates ordered by constraint
+     */
+    public List<SampleEstimate> validateSample() {
+        if (sample == null) throw new IllegalStateException("No observation sample is set");
+        logger.info("Validating a sample of observations with seed " + sample.getSeed() + " ...");
+        ObservationSweep sweep = new ObservationSweep(model);
+        sweep.setSample(sample);
+        ValidatorIC11_12 validatorIC11_12 = new ValidatorIC11_12(model);
+        ValidatorIC13 validatorIC13 = new ValidatorIC13(model);
+        ValidatorIC14 validatorIC14 = new ValidatorIC14(model);
+        ValidatorIC15_16 validatorIC15_16 = new ValidatorIC15_16(model);
+        ValidatorIC19 validatorIC19 = new ValidatorIC19(model);
+        ValidatorIC20_21 validatorIC20_21 = new ValidatorIC20_21(model);
+        List<ValidatorBase> sampledList = Arrays.<ValidatorBase>asList(validatorIC11_12,
+                validatorIC13, validatorIC14, validatorIC15_16, validatorIC19, validatorIC20_21);
+        for (ValidatorBase validator : sampledList) {
+            if (!isSelected((ObservationCheck) validator)) continue;
+            validator.setSample(sample);
+            validator.setCancellationToken(tokenFor(((ObservationCheck) validator)
+                    .getConstraints().toArray(new Constraint[0])));
+            sweep.register((ObservationCheck) validator);
+        }
+        if (sweep.hasChecks()) sweep.run();
+        Set<Constraint> incompleteSet = EnumSet.noneOf(Constraint.class);
+        for (ValidatorBase validator : sampledList) {
+            if (validator.isIncomplete())
+                incompleteSet.addAll(((ObservationCheck) validator).getConstraints());
+        }
+        List<SampleEstimate> estimateList = sample.getEstimates();
+        Constraint constraint = null;
+        for (SampleEstimate estimate : estimateList) {
+            if (!selection.contains(estimate.getConstraint())) continue;
+            if (estimate.getConstraint() != constraint) {
+                if (constraint != null) {
+                    if (incompleteSet.contains(constraint)) report(INCOMPLETE_MSG);
+                    report("");
+                }
+                constraint = estimate.getConstraint();
+                String icName = constraint.getName() + " (Estimated)";
+                report(icName);
+                report(new String(new char[icName.length()]).replace("\0", "-"));
+                report("");
+            }
+            report(estimate.toString());
+        }
+        if (constraint != null) {
+            if (incompleteSet.contains(constraint)) report(INCOMPLETE_MSG);
+            report("");
+        }
+        return estimateList;
+    }
 
     /**
      * Validate IC-1 Unique DataSet: Every qb:Observation has exactly one
@@ -108,12 +971,20 @@ public class NospaValidator implements Validator{
      * @return a map of observations with multiple datasets
      */
     public Map<Resource, Set<RDFNode>> validateIC1() {
+        return validateIC1(configured(new ValidatorIC1(model), Constraint.IC1));
+    }
+
+    /**
+     * Validates IC-1 with a validator which may have been swept already
+     * @param validatorIC1 a validator of the constraint
+     * @return the validation result
+     */
+    private Map<Resource, Set<RDFNode>> validateIC1(ValidatorIC1 validatorIC1) {
         String icName = "Integrity Constraint 1: Unique DataSet";
         logger.info("Validating " + icName);
-        ValidatorIC1 validatorIC1 = new ValidatorIC1(model);
-        Map<Resource, Set<RDFNode>> datasetByObs = validatorIC1.validate();
-        String logMsg = " is associated to the following datasets: ";
-        logValidationResult(icName, datasetByObs, logMsg);
+        Map<Resource, Set<RDFNode>> datasetByObs = loadCounter == null ?
+                validatorIC1.validate() : loadCounter.getDatasetByObs();
+        reportResult(Constraint.IC1, datasetByObs, validatorIC1.isIncomplete());
         return datasetByObs;
     }
 
@@ -125,10 +996,17 @@ public class NospaValidator implements Validator{
     public Map<Resource, Set<RDFNode>> validateIC2() {
         String icName = "Integrity Constraint 2: Unique DSD";
         logger.info("Validating " + icName);
-        ValidatorIC2 validatorIC2 = new ValidatorIC2(model);
-        Map<Resource, Set<RDFNode>> dsdByDataset = validatorIC2.validate();
+        Map<Resource, Set<RDFNode>> dsdByDataset;
+        boolean isIncomplete = false;
+        if (loadCounter == null) {
+            ValidatorIC2 validatorIC2 = configured(new ValidatorIC2(model, getCatalog()),
+                    Constraint.IC2);
+            dsdByDataset = validatorIC2.validate();
+            isIncomplete = validatorIC2.isIncomplete();
+        }
+        else dsdByDataset = loadCounter.getStructureByDataset();
         String logMsg = " is associated to the following DSDs: ";
-        logValidationResult(icName, dsdByDataset, logMsg);
+        logValidationResult(icName, dsdByDataset, logMsg, isIncomplete);
         return dsdByDataset;
     }
 
@@ -140,10 +1018,10 @@ public class NospaValidator implements Validator{
     public Set<Resource> validateIC3() {
         String icName = "Integrity Constraint 3: DSD Includes Measure";
         logger.info("Validating " + icName);
-        ValidatorIC3 validatorIC3 = new ValidatorIC3(model);
+        ValidatorIC3 validatorIC3 = configured(new ValidatorIC3(model, getCatalog()), Constraint.IC3);
         Set<Resource> dsdWithoutMeasure = validatorIC3.validate();
         String logMsg = "The following DSDs do not include at least one declared measure: ";
-        logValidationResult(icName, dsdWithoutMeasure, logMsg);
+        logValidationResult(icName, dsdWithoutMeasure, logMsg, validatorIC3.isIncomplete());
         return dsdWithoutMeasure;
     }
 
@@ -155,10 +1033,10 @@ public class NospaValidator implements Validator{
     public Set<Resource> validateIC4() {
         String icName = "Integrity Constraint 4: Dimensions Have Range";
         logger.info("Validating " + icName);
-        ValidatorIC4 validatorIC4 = new ValidatorIC4(model);
+        ValidatorIC4 validatorIC4 = configured(new ValidatorIC4(model, getCatalog()), Constraint.IC4);
         Set<Resource> dimWithoutRangeSet = validatorIC4.validate();
         String logMsg = "The following dimensions do not have a declared rdfs:range: ";
-        logValidationResult(icName, dimWithoutRangeSet, logMsg);
+        logValidationResult(icName, dimWithoutRangeSet, logMsg, validatorIC4.isIncomplete());
         return dimWithoutRangeSet;
     }
 
@@ -170,10 +1048,10 @@ public class NospaValidator implements Validator{
     public Set<Resource> validateIC5() {
         String icName = "Integrity Constraint 5: Concept Dimensions Have Code Lists";
         logger.info("Validating " + icName);
-        ValidatorIC5 validatorIC5 = new ValidatorIC5(model);
+        ValidatorIC5 validatorIC5 = configured(new ValidatorIC5(model, getCatalog()), Constraint.IC5);
         Set<Resource> dimWithoutCodeList = validatorIC5.validate();
         String logMsg = "The following concept dimensions do not have a code list: ";
-        logValidationResult(icName, dimWithoutCodeList, logMsg);
+        logValidationResult(icName, dimWithoutCodeList, logMsg, validatorIC5.isIncomplete());
         return dimWithoutCodeList;
     }
 
@@ -186,10 +1064,10 @@ public class NospaValidator implements Validator{
     public Set<RDFNode> validateIC6() {
         String icName = "Integrity Constraint 6: Only Attributes May Be Optional";
         logger.info("Validating " + icName);
-        ValidatorIC6 validatorIC6 = new ValidatorIC6(model);
+        ValidatorIC6 validatorIC6 = configured(new ValidatorIC6(model, getCatalog()), Constraint.IC6);
         Set<RDFNode> compPropSet = validatorIC6.validate();
         String logMsg = "The following component properties are not delared as attributes: ";
-        logValidationResult(icName, compPropSet, logMsg);
+        logValidationResult(icName, compPropSet, logMsg, validatorIC6.isIncomplete());
         return compPropSet;
     }
 
@@ -201,10 +1079,10 @@ public class NospaValidator implements Validator{
     public Set<Resource> validateIC7() {
         String icName = "Integrity Constraint 7: Slice Keys Must Be Declared";
         logger.info("Validating " + icName);
-        ValidatorIC7 validatorIC7 = new ValidatorIC7(model);
+        ValidatorIC7 validatorIC7 = configured(new ValidatorIC7(model, getCatalog()), Constraint.IC7);
         Set<Resource> sliceKeySet = validatorIC7.validate();
         String logMsg = "The following slice keys are not associated with DSDs: ";
-        logValidationResult(icName, sliceKeySet, logMsg);
+        logValidationResult(icName, sliceKeySet, logMsg, validatorIC7.isIncomplete());
         return sliceKeySet;
     }
 
@@ -217,11 +1095,11 @@ public class NospaValidator implements Validator{
     public Set<RDFNode> validateIC8() {
         String icName = "Integrity Constraint 8: Slice Keys Consistent With DSD";
         logger.info("Validating " + icName);
-        ValidatorIC8 validatorIC8 = new ValidatorIC8(model);
+        ValidatorIC8 validatorIC8 = configured(new ValidatorIC8(model, getCatalog()), Constraint.IC8);
         Set<RDFNode> compWithoutDSD = validatorIC8.validate();
         String logMsg = "The following component properties on slice keys are" +
                 " not associated with DSDs: ";
-        logValidationResult(icName, compWithoutDSD, logMsg);
+        logValidationResult(icName, compWithoutDSD, logMsg, validatorIC8.isIncomplete());
         return compWithoutDSD;
     }
 
@@ -233,10 +1111,17 @@ public class NospaValidator implements Validator{
     public Map<Resource, Set<RDFNode>> validateIC9() {
         String icName = "Integrity Constraint 9: Unique Slice Structure";
         logger.info("Validating " + icName);
-        ValidatorIC9 validatorIC9 = new ValidatorIC9(model);
-        Map<Resource, Set<RDFNode>> structBySlice = validatorIC9.validate();
+        Map<Resource, Set<RDFNode>> structBySlice;
+        boolean isIncomplete = false;
+        if (loadCounter == null) {
+            ValidatorIC9 validatorIC9 = configured(new ValidatorIC9(model, getCatalog()),
+                    Constraint.IC9);
+            structBySlice = validatorIC9.validate();
+            isIncomplete = validatorIC9.isIncomplete();
+        }
+        else structBySlice = loadCounter.getSliceStructureBySlice();
         String logMsg = " is associated with the following slice structures: ";
-        logValidationResult(icName, structBySlice, logMsg);
+        logValidationResult(icName, structBySlice, logMsg, isIncomplete);
         return structBySlice;
     }
 
@@ -248,10 +1133,10 @@ public class NospaValidator implements Validator{
     public Map<Resource, Set<RDFNode>> validateIC10() {
         String icName = "Integrity Constraint 10: Slice Dimensions Complete";
         logger.info("Validating " + icName);
-        ValidatorIC10 validatorIC10 = new ValidatorIC10(model);
+        ValidatorIC10 validatorIC10 = configured(new ValidatorIC10(model, getCatalog()), Constraint.IC10);
         Map<Resource, Set<RDFNode>> dimBySliceWithoutVal = validatorIC10.validate();
         String logMsg = " does not have values for the following dimensions: ";
-        logValidationResult(icName, dimBySliceWithoutVal, logMsg);
+        logValidationResult(icName, dimBySliceWithoutVal, logMsg, validatorIC10.isIncomplete());
         return dimBySliceWithoutVal;
     }
 
@@ -264,24 +1149,29 @@ public class NospaValidator implements Validator{
      * duplicate values.
      */
     public Map<Resource, Set<RDFNode>> validateIC11_12() {
+        return validateIC11_12(configured(new ValidatorIC11_12(model), Constraint.IC11, Constraint.IC12));
+    }
+
+    /**
+     * Validates IC-11/12 with a validator which may have been swept already
+     * @param validatorIC11_12 a validator of the constraint
+     * @return the validation result
+     */
+    private Map<Resource, Set<RDFNode>> validateIC11_12(ValidatorIC11_12 validatorIC11_12) {
         String icName11 = "Integrity Constraint 11: All Dimensions Required";
         String icName12 = "Integrity Constraint 12: No Duplicate Observations";
         logger.info("Validating " + icName11 + " & " + icName12);
-        ValidatorIC11_12 validatorIC11_12 = new ValidatorIC11_12(model);
         Map<Resource, Set<RDFNode>> faultyObs = validatorIC11_12.validate();
-        Set<Resource> duplicateObsSet = new HashSet<Resource>();
+        Map<Resource, Set<RDFNode>> duplicateObs = new HashMap<Resource, Set<RDFNode>>();
+        Map<Resource, Set<RDFNode>> dimSetByObsWithoutVal = new HashMap<Resource, Set<RDFNode>>();
         for (Resource obs : faultyObs.keySet()) {
-            if (faultyObs.get(obs).isEmpty()) duplicateObsSet.add(obs);
-        }
-        Map<Resource, Set<RDFNode>> dimSetByObsWithoutVal =
-                new HashMap<Resource, Set<RDFNode>>(faultyObs);
-        for (Resource obs : duplicateObsSet) {
-            dimSetByObsWithoutVal.remove(obs);
+            if (faultyObs.get(obs).isEmpty()) duplicateObs.put(obs, faultyObs.get(obs));
+            else dimSetByObsWithoutVal.put(obs, faultyObs.get(obs));
         }
-        String logMsg11 = " does not have values for the following dimensions: ";
-        String logMsg12 = "The following observations has duplicated values: ";
-        logValidationResult(icName11, dimSetByObsWithoutVal, logMsg11);
-        logValidationResult(icName12, duplicateObsSet, logMsg12);
+        if (selection.contains(Constraint.IC11))
+            reportResult(Constraint.IC11, dimSetByObsWithoutVal, validatorIC11_12.isIncomplete());
+        if (selection.contains(Constraint.IC12))
+            reportResult(Constraint.IC12, duplicateObs, validatorIC11_12.isIncomplete());
         return faultyObs;
     }
 
@@ -292,12 +1182,19 @@ public class NospaValidator implements Validator{
      * @return a map of observations with attribute properties missing values
      */
     public Map<Resource, Set<RDFNode>> validateIC13() {
+        return validateIC13(configured(new ValidatorIC13(model), Constraint.IC13));
+    }
+
+    /**
+     * Validates IC-13 with a validator which may have been swept already
+     * @param validatorIC13 a validator of the constraint
+     * @return the validation result
+     */
+    private Map<Resource, Set<RDFNode>> validateIC13(ValidatorIC13 validatorIC13) {
         String icName = "Integrity Constraint 13: Required Attributes";
         logger.info("Validating " + icName);
-        ValidatorIC13 validatorIC13 = new ValidatorIC13(model);
         Map<Resource, Set<RDFNode>> obsWithoutAttribVal = validatorIC13.validate();
-        String logMsg = " does not have values for the following required attributes: ";
-        logValidationResult(icName, obsWithoutAttribVal, logMsg);
+        reportResult(Constraint.IC13, obsWithoutAttribVal, validatorIC13.isIncomplete());
         return obsWithoutAttribVal;
     }
 
@@ -309,12 +1206,19 @@ public class NospaValidator implements Validator{
      * @return a map of observations with a set of measures missing values.
      */
     public Map<Resource, Set<RDFNode>> validateIC14() {
+        return validateIC14(configured(new ValidatorIC14(model), Constraint.IC14));
+    }
+
+    /**
+     * Validates IC-14 with a validator which may have been swept already
+     * @param validatorIC14 a validator of the constraint
+     * @return the validation result
+     */
+    private Map<Resource, Set<RDFNode>> validateIC14(ValidatorIC14 validatorIC14) {
         String icName = "Integrity Constraint 14: All Measures Present";
         logger.info("Validating " + icName);
-        ValidatorIC14 validatorIC14 = new ValidatorIC14(model);
         Map<Resource, Set<RDFNode>> obsWithoutMeasureVal = validatorIC14.validate();
-        String logMsg = " does not have values for the following declared measures: ";
-        logValidationResult(icName, obsWithoutMeasureVal, logMsg);
+        reportResult(Constraint.IC14, obsWithoutMeasureVal, validatorIC14.isIncomplete());
         return obsWithoutMeasureVal;
     }
 
@@ -331,10 +1235,18 @@ public class NospaValidator implements Validator{
      * @return a map of faulty observations with measures missing values
      */
     public Map<Resource, Set<RDFNode>> validateIC15_16() {
+        return validateIC15_16(configured(new ValidatorIC15_16(model), Constraint.IC15, Constraint.IC16));
+    }
+
+    /**
+     * Validates IC-15/16 with a validator which may have been swept already
+     * @param validatorIC15_16 a validator of the constraint
+     * @return the validation result
+     */
+    private Map<Resource, Set<RDFNode>> validateIC15_16(ValidatorIC15_16 validatorIC15_16) {
         String icName15 = "Integrity Constraint 15: Measure Dimension Consistent";
         String icName16 = "Integrity Constraint 16: Single Measure On Measure Dimension Observation";
         logger.info("Validating " + icName15 + " & " + icName16);
-        ValidatorIC15_16 validatorIC15_16 = new ValidatorIC15_16(model);
         Map<Resource, Set<RDFNode>> obsWithFaultyMeasure = validatorIC15_16.validate();
         Map<Resource, Set<RDFNode>> obsWithoutMeasureVal =
                 new HashMap<Resource, Set<RDFNode>>(obsWithFaultyMeasure);
@@ -345,10 +1257,10 @@ public class NospaValidator implements Validator{
                 obsWithMultipleMeasure.remove(obs);
             else obsWithoutMeasureVal.remove(obs);
         }
-        String logMsg15 = " corresponds to a wrong measure or does not have a value on: ";
-        String logMsg16 = " has the following multiple measures: ";
-        logValidationResult(icName15, obsWithoutMeasureVal, logMsg15);
-        logValidationResult(icName16, obsWithMultipleMeasure, logMsg16);
+        if (selection.contains(Constraint.IC15))
+            reportResult(Constraint.IC15, obsWithoutMeasureVal, validatorIC15_16.isIncomplete());
+        if (selection.contains(Constraint.IC16))
+            reportResult(Constraint.IC16, obsWithMultipleMeasure, validatorIC15_16.isIncomplete());
         return obsWithFaultyMeasure;
     }
 
@@ -362,12 +1274,19 @@ public class NospaValidator implements Validator{
      * same dimension values.
      */
     public Map<Resource, Integer> validateIC17() {
+        return validateIC17(configured(new ValidatorIC17(model), Constraint.IC17));
+    }
+
+    /**
+     * Validates IC-17 with a validator which may have been swept already
+     * @param validatorIC17 a validator of the constraint
+     * @return the validation result
+     */
+    private Map<Resource, Integer> validateIC17(ValidatorIC17 validatorIC17) {
         String icName = "Integrity Constraint 17: All Measures Present In Measures Dimension Cube";
         logger.info("Validating " + icName);
-        ValidatorIC17 validatorIC17 = new ValidatorIC17(model);
         Map<Resource, Integer> numObs2ByObs1 = validatorIC17.validate();
-        String logMsg = " shares the same dimension values with the following number of observations";
-        logValidationResult(icName, numObs2ByObs1, logMsg);
+        reportResult(Constraint.IC17, numObs2ByObs1, validatorIC17.isIncomplete());
         return numObs2ByObs1;
     }
 
@@ -379,12 +1298,19 @@ public class NospaValidator implements Validator{
      * associated to.
      */
     public Map<Resource, Resource> validateIC18() {
+        return validateIC18(configured(new ValidatorIC18(model), Constraint.IC18));
+    }
+
+    /**
+     * Validates IC-18 with a validator which may have been swept already
+     * @param validatorIC18 a validator of the constraint
+     * @return the validation result
+     */
+    private Map<Resource, Resource> validateIC18(ValidatorIC18 validatorIC18) {
         String icName = "Integrity Constraint 18: Consistent Dataset Links";
         logger.info("Validating " + icName);
-        ValidatorIC18 validatorIC18 = new ValidatorIC18(model);
         Map<Resource, Resource> obsNotInDataset = validatorIC18.validate();
-        String logMsg = " should be associated to the following dataset: ";
-        logValidationResult(icName, obsNotInDataset, logMsg);
+        reportResult(Constraint.IC18, obsNotInDataset, validatorIC18.isIncomplete());
         return obsNotInDataset;
     }
 
@@ -396,12 +1322,19 @@ public class NospaValidator implements Validator{
      * values
      */
     public Map<RDFNode, Set<RDFNode>> validateIC19() {
+        return validateIC19(configured(new ValidatorIC19(model), Constraint.IC19));
+    }
+
+    /**
+     * Validates IC-19 with a validator which may have been swept already
+     * @param validatorIC19 a validator of the constraint
+     * @return the validation result
+     */
+    private Map<RDFNode, Set<RDFNode>> validateIC19(ValidatorIC19 validatorIC19) {
         String icName = "Integrity Constraint 19: Codes From Code List";
         logger.info("Validating " + icName);
-        ValidatorIC19 validatorIC19 = new ValidatorIC19(model);
         Map<RDFNode, Set<RDFNode>> valNotInCodeList = validatorIC19.validate();
-        String logMsg = " is not included in the following code lists: ";
-        logValidationResult(icName, valNotInCodeList, logMsg);
+        reportResult(Constraint.IC19, valNotInCodeList, validatorIC19.isIncomplete());
         return valNotInCodeList;
     }
 
@@ -421,39 +1354,90 @@ public class NospaValidator implements Validator{
      * including corresponding values with any parent child property along both
      * direct and inverse paths
      */
-    public List<Map<RDFNode, Set<RDFNode>>> validateIC20_21 () {
+    public List<Map<RDFNode, Set<RDFNode>>> validateIC20_21() {
+        return validateIC20_21(configured(new ValidatorIC20_21(model), Constraint.IC20, Constraint.IC21));
+    }
+
+    /**
+     * Validates IC-20/21 with a validator which may have been swept already
+     * @param validatorIC20_21 a validator of the constraint
+     * @return the validation result
+     */
+    private List<Map<RDFNode, Set<RDFNode>>> validateIC20_21(ValidatorIC20_21 validatorIC20_21) {
         String icName20 = "Integrity Constraint 20: Codes From Hierarchy";
         String icName21 = "Integrity Constraint 21: Codes From Hierarchy (Inverse)";
         logger.info("Validating " + icName20 + " & " +icName21);
-        ValidatorIC20_21 validatorIC20_21 = new ValidatorIC20_21(model);
         List<Map<RDFNode, Set<RDFNode>>> valNotInCodeListByPcp =
                 validatorIC20_21.validate();
-        String logMsg20 = " is not connected to the following code lists along a direct path: ";
-        String logMsg21 = " is not connected to the following code lists along an inverse path: ";
-        logValidationResult(icName20, valNotInCodeListByPcp.get(0), logMsg20);
-        logValidationResult(icName21, valNotInCodeListByPcp.get(1), logMsg21);
+        boolean isIncomplete = validatorIC20_21.isIncomplete();
+        if (selection.contains(Constraint.IC20))
+            reportResult(Constraint.IC20, valNotInCodeListByPcp.get(0), isIncomplete);
+        if (selection.contains(Constraint.IC21))
+            reportResult(Constraint.IC21, valNotInCodeListByPcp.get(1), isIncomplete);
         return valNotInCodeListByPcp;
     }
 
+    /**
+     * Reports the result of an observation level constraint, e.g., one
+     * merged from the partial results of shards
+     * @param constraint an observation level constraint, i.e., IC-1 or one of
+     *                   IC-11 to IC-21
+     * @param map a map of nodes with the properties or values violating the
+     *            constraint, or with empty sets for IC-12
+     * @param isIncomplete whether the validation was stopped early
+     */
+    void reportResult(Constraint constraint, Map<? extends RDFNode, ?> map, boolean isIncomplete) {
+        String msg;
+        switch (constraint) {
+            case IC1: msg = " is associated to the following datasets: "; break;
+            case IC11: msg = " does not have values for the following dimensions: "; break;
+            case IC12:
+                logValidationResult(constraint.getName(), map.keySet(),
+                        "The following observations has duplicated values: ", isIncomplete);
+                return;
+            case IC13: msg = " does not have values for the following required attributes: "; break;
+            case IC14: msg = " does not have values for the following declared measures: "; break;
+            case IC15: msg = " corresponds to a wrong measure or does not have a value on: "; break;
+            case IC16: msg = " has the following multiple measures: "; break;
+            case IC17: msg = " shares the same dimension values with the following number of observations"; break;
+            case IC18: msg = " should be associated to the following dataset: "; break;
+            case IC19: msg = " is not included in the following code lists: "; break;
+            case IC20: msg = " is not connected to the following code lists along a direct path: "; break;
+            case IC21: msg = " is not connected to the following code lists along an inverse path: "; break;
+            default: throw new IllegalArgumentException(constraint + " is not an observation level constraint");
+        }
+        logValidationResult(constraint.getName(), map, msg, isIncomplete);
+    }
+
     /**
      * Logs the results of a validation
      * @param icName name of the integrity constraint
      * @param set a set of objects violating the given constraint
      * @param msg a message describing validation conclusion
+     * @param isIncomplete whether the validation was stopped early
      * @param <T> an unknown type of the objects in the set
      */
-    private <T> void logValidationResult (String icName, Set<T> set, String msg) {
-        logger.debug(icName);
-        logger.debug(new String(new char[icName.length()]).replace("\0", "-"));
-        logger.debug("");
-        if (set.isEmpty()) logger.debug("Pass.");
-        else {
-            logger.debug(msg);
+    private <T> void logValidationResult (String icName, Set<T> set, String msg,
+                                          boolean isIncomplete) {
+        isIncomplete = isIncomplete || isTruncated(icName);
+        if (resultSink != null) {
+            Map<T, Set<RDFNode>> map = new LinkedHashMap<T, Set<RDFNode>>();
+            for (T obj : set) map.put(obj, Collections.<RDFNode>emptySet());
+            if (sendValidationResult(icName, map, isIncomplete)) return;
+        }
+        if (!set.isEmpty()) markFailed();
+        report(icName);
+        report(new String(new char[icName.length()]).replace("\0", "-"));
+        report("");
+        if (set.isEmpty() && !isIncomplete) report("Pass.");
+        else if (!set.isEmpty()) {
+            report(msg);
             for (T obj : set) {
-                logger.debug("    " + obj.toString());
+                report(new ViolationRecord(null, null, obj));
             }
         }
-        logger.debug("");
+        if (isIncomplete) report(INCOMPLETE_MSG);
+        report("");
     }
 
     /**
@@ -462,30 +1446,257 @@ public class NospaValidator implements Validator{
      * @param map a map of resources with properties or values violating the
      *            constraint
      * @param msg a message describing validation conclusion
+     * @param isIncomplete whether the validation was stopped early
      * @param <K> an unknown type of keys in the map
      * @param <V> an unknown type of values in the map
      */
     private <K, V> void logValidationResult (String icName,
-                            Map<K, V> map, String msg) {
-        logger.debug(icName);
-        logger.debug(new String(new char[icName.length()]).replace("\0", "-"));
-        logger.debug("");
-        if (map.isEmpty()) logger.debug("Pass.");
+                            Map<K, V> map, String msg, boolean isIncomplete) {
+        isIncomplete = isIncomplete || isTruncated(icName);
+        if (resultSink != null && sendValidationResult(icName, map, isIncomplete)) return;
+        if (!map.isEmpty()) markFailed();
+        report(icName);
+        report(new String(new char[icName.length()]).replace("\0", "-"));
+        report("");
+        if (map.isEmpty() && !isIncomplete) report("Pass.");
+        else if (!map.isEmpty()) {
+            for (Map.Entry<K, V> entry : map.entrySet()) {
+                report(new ViolationRecord(entry.getKey(), msg, entry.getValue()));
+            }
+        }
+        if (isIncomplete) report(INCOMPLETE_MSG);
+        report("");
+    }
+
+    /**
+     * Checks if the violations of a constraint were cut short by the
+     * violation budget
+     * @param icName name of the integrity constraint
+     * @return true if the budget refused a violation of the constraint or
+     * stopped the scan for them
+     */
+    private boolean isTruncated(String icName) {
+        Constraint constraint = constraintNamed(icName);
+        return budget != null && constraint != null && budget.isTruncated(constraint);
+    }
+
+    /**
+     * @param icName name of an integrity constraint
+     * @return the constraint of the name, or null if there is none
+     */
+    private Constraint constraintNamed(String icName) {
+        for (Constraint constraint : Constraint.values()) {
+            if (constraint.getName().equals(icName)) return constraint;
+        }
+        return null;
+    }
+
+    /**
+     * Pushes the results of a validation into the result sink, and reports
+     * the number of violations the sink has received for the constraint
+     * @param icName name of the integrity constraint
+     * @param map a map of nodes with properties or values violating the
+     *            constraint, which have not been pushed yet
+     * @param isIncomplete whether the validation was stopped early
+     * @return false if the name is not the name of a constraint
+     */
+    private boolean sendValidationResult(String icName, Map<?, ?> map, boolean isIncomplete) {
+        Constraint constraint = constraintNamed(icName);
+        if (constraint == null) return false;
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            if (entry.getKey() instanceof RDFNode)
+                resultSink.violation(constraint, null, (RDFNode) entry.getKey(), entry.getValue());
+        }
+        long count = resultSink.getCount(constraint);
+        if (count > 0) markFailed();
+        report(icName);
+        report(new String(new char[icName.length()]).replace("\0", "-"));
+        report("");
+        if (count == 0 && !isIncomplete) report("Pass.");
+        else if (count > 0 && userSink == null) report(count + " violations were found.");
+        else if (count > 0) report(count + " violations were sent to the result sink.");
+        if (isIncomplete) report(INCOMPLETE_MSG);
+        report("");
+        ReportTask task = currentTask.get();
+        long time = -1;
+        if (task != null) {
+            Long sweepTime = sweepTimeByConstraint.get(constraint);
+            time = (System.nanoTime() - task.startTime) / 1000000 + (sweepTime == null ? 0 : sweepTime);
+        }
+        resultSink.completed(constraint, isIncomplete, time);
+        return true;
+    }
+
+    /**
+     * Writes a line or a violation record of the validation report, either
+     * directly to the log or to the buffer of the current scheduled
+     * validation, waiting for room if it is full. A scheduled validation run
+     * by the reporting thread is the one being written.
+     * @param line a line or a violation record of the report
+     */
+    private void report(Object line) {
+        ReportTask task = currentTask.get();
+        if (task == null || Thread.currentThread() == reportingThread) writeLine(line);
         else {
-            for (K key : map.keySet()) {
-                logger.debug(key.toString() + msg);
-                V value = map.get(key);
-                // a value could be a set of properties or objects violating constraint
-                // for the subject represented by a key
-                if (value instanceof Set) {
-                    for (Object obj : (Set) value) {
-                        logger.debug("    " + obj.toString());
-                    }
+            try {
+                task.buffer.put(line);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Validation was interrupted", ie);
+            }
+        }
+    }
+
+    /**
+     * Writes a line or a violation record of the report to the log and to
+     * the report writer, through the writer thread while a validation runs
+     * @param line a line or a violation record of the report
+     */
+    private void writeLine(Object line) {
+        if (asyncWriter != null) asyncWriter.write(line);
+        else AsyncReportWriter.writeLines(line, reportLogged ? logger : null, reportWriter);
+    }
+
+    /**
+     * Starts the writer thread of the report unless it is running or the
+     * report is written on the validating thread
+     * @return true if the writer thread has been started by this call
+     */
+    private boolean startWriter() {
+        if (asyncWriter != null || reportQueueCapacity <= 0) return false;
+        asyncWriter = new AsyncReportWriter(reportLogged ? logger : null, reportWriter, reportQueueCapacity);
+        return true;
+    }
+
+    /**
+     * Waits until the writer thread has written the whole report and stops
+     * it
+     */
+    private void stopWriter() {
+        asyncWriter.close();
+        asyncWriter = null;
+    }
+
+    /**
+     * Marks the current scheduled validation as having violations
+     */
+    private void markFailed() {
+        failureCount.incrementAndGet();
+        ReportTask task = currentTask.get();
+        if (task != null) task.failed = true;
+    }
+
+    /**
+     * Runs a job on the executor, or on the first validation depending on
+     * it if it has not been started yet, while holding a read lock of the
+     * model, unless the model is frozen
+     * @param executor the executor of the scheduled validation
+     * @param job a job reading the model
+     * @return the future of the job
+     */
+    private Future<?> submitReading(ExecutorService executor, final Runnable job) {
+        FutureTask<Object> future = new FutureTask<Object>(new Runnable() {
+            public void run() {
+                if (!frozen) model.enterCriticalSection(Lock.READ);
+                try {
+                    job.run();
+                } finally {
+                    if (!frozen) model.leaveCriticalSection();
                 }
-                else
-                    logger.debug("    " + value.toString());
             }
+        }, null);
+        executor.execute(future);
+        return future;
+    }
+
+    /**
+     * The result sink of the validators, passing on the violations of the
+     * selected constraints only, since a validator of two constraints finds
+     * the violations of both even if one of them is not selected
+     */
+    private class SelectedSink implements ValidationResultSink {
+
+        public void violation(Constraint constraint, Resource dataset, RDFNode node, Object detail) {
+            if (selection.contains(constraint)) resultSink.violation(constraint, dataset, node, detail);
         }
-        logger.debug("");
+
+        public void completed(Constraint constraint, boolean isIncomplete, long time) {
+            if (selection.contains(constraint)) resultSink.completed(constraint, isIncomplete, time);
+        }
+    }
+
+    /**
+     * A violation in the report: a node with the message of its constraint,
+     * followed by the properties or values involved, one per line. A record
+     * without a node is a single value of a list of violating nodes.
+     */
+    private static class ViolationRecord implements AsyncReportWriter.Record {
+        private Object node;
+        private String msg;
+        private Object detail;
+
+        ViolationRecord(Object node, String msg, Object detail) {
+            this.node = node;
+            this.msg = msg;
+            this.detail = detail;
+        }
+
+        public void format(List<String> lines) {
+            if (node != null) lines.add(node.toString() + msg);
+            // a detail could be a set of properties or objects violating constraint
+            // for the node
+            if (detail instanceof Set) {
+                for (Object obj : (Set) detail) lines.add("    " + obj.toString());
+            }
+            else lines.add("    " + detail.toString());
+        }
+    }
+
+    /**
+     * A validation of one or two constraints scheduled on the executor. It
+     * runs or waits for the jobs it depends on, then validates while holding
+     * a read lock of the model (none is needed once it is frozen). Its part
+     * of the report goes through a bounded buffer, which is passed on once
+     * all preceding parts are written, and ends with a marker.
+     */
+    private abstract class ReportTask implements Callable<ReportTask> {
+        private Future<?>[] dependencies;
+        private FutureTask<ReportTask> future = new FutureTask<ReportTask>(this);
+        private BlockingQueue<Object> buffer =
+                new ArrayBlockingQueue<Object>(Math.max(reportQueueCapacity, 1));
+        private boolean failed = false;
+        private long startTime;
+
+        ReportTask(Future<?>... dependencies) {
+            this.dependencies = dependencies;
+        }
+
+        public ReportTask call() throws Exception {
+            try {
+                for (Future<?> dependency : dependencies) {
+                    if (dependency instanceof FutureTask) ((FutureTask<?>) dependency).run();
+                    if (dependency != null) dependency.get();
+                }
+                currentTask.set(this);
+                startTime = System.nanoTime();
+                if (!frozen) model.enterCriticalSection(Lock.READ);
+                try {
+                    validate();
+                } finally {
+                    if (!frozen) model.leaveCriticalSection();
+                    currentTask.remove();
+                }
+                return this;
+            } finally {
+                try {
+                    buffer.put(END_OF_TASK);
+                } catch (InterruptedException ie) {
+                    // the report was abandoned, nobody waits for the marker
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        abstract void validate();
     }
 }
@@ -0,0 +1,57 @@
+package cn.yyz.nospa.validator.nonsparql;
+
+import cn.yyz.nospa.validator.Constraint;
+import com.hp.hpl.jena.rdf.model.Resource;
+
+import java.util.Set;
+
+/**
+ * A per-observation check of an observation level constraint which can be
+ * registered to an observation sweep.
+ */
+public interface ObservationCheck {
+
+    /**
+     * Prepares the structural information needed by the check before the
+     * observations are swept.
+     */
+    public void prepare();
+
+    /**
+     * Indicates if the check needs the property values of each observation.
+     * A check only working on the presence index is never called per
+     * observation, and the sweep does not read any observation records if no
+     * registered check needs them.
+     * @return a boolean value indicating if check() should be called
+     */
+    public boolean needsRecord();
+
+    /**
+     * Gets the constraints validated by the check, so that the sweep can
+     * skip the check once their violation budgets are exhausted.
+     * @return a set of integrity constraints
+     */
+    public Set<Constraint> getConstraints();
+
+    /**
+     * Indicates if the check has been cancelled or has run out of time, so
+     * that the sweep stops feeding it. The results of a stopped check are
+     * partial.
+     * @return a boolean value indicating if the check should stop
+     */
+    public boolean shouldStop();
+
+    /**
+     * Checks a single observation.
+     * @param dataset the dataset being swept, or null for observations which
+     *                are not associated to any dataset
+     * @param record the observation with its property values
+     */
+    public void check(Resource dataset, ObservationRecord record);
+
+    /**
+     * Finalizes the check after all observations have been swept.
+     * @param presenceIndex the presence index of the swept observations
+     */
+    public void finish(PresenceIndex presenceIndex);
+}
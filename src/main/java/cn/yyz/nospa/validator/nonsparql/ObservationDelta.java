@@ -0,0 +1,194 @@
+package cn.yyz.nospa.validator.nonsparql;
+
+import com.hp.hpl.jena.rdf.model.*;
+
+import java.util.*;
+
+/**
+ * A set of added and removed triples classified by the observations they
+ * touch. Triples on observations touch these observations, triples on slices
+ * and datasets touch all their observations, and triples linking slices to
+ * observations touch the linked observations only. Any other change, as well
+ * as the removal of values of slices and datasets, is structural: it may
+ * affect any observation, and undoing the values pushed down by an earlier
+ * normalization is not possible, hence it requires a full validation.
+ * The classification has to be done before the triples are applied.
+ */
+public class ObservationDelta extends ValidatorBase {
+    private Model addedModel;
+    private Model removedModel;
+    private Set<Resource> obsSet = new LinkedHashSet<Resource>();
+    private boolean observationOnly = true;
+    private boolean structural = false;
+
+    /**
+     * Constructor of a classified delta
+     * @param model the RDF model before the delta is applied
+     * @param addedModel the triples to be added
+     * @param removedModel the triples to be removed
+     */
+    public ObservationDelta(Model model, Model addedModel, Model removedModel) {
+        super(model);
+        this.addedModel = addedModel;
+        this.removedModel = removedModel;
+        StmtIterator stmtIter = addedModel.listStatements();
+        while (stmtIter.hasNext() && !structural) classifyAdded(stmtIter.nextStatement());
+        stmtIter = removedModel.listStatements();
+        while (stmtIter.hasNext() && !structural) classifyRemoved(stmtIter.nextStatement());
+    }
+
+    /**
+     * @return the observations touched by the delta
+     */
+    public Set<Resource> getObservations() {
+        return obsSet;
+    }
+
+    /**
+     * @return true if the delta only contains triples on observations, so
+     * that the schema level constraints are not affected
+     */
+    public boolean isObservationOnly() {
+        return observationOnly;
+    }
+
+    /**
+     * @return true if the delta cannot be validated incrementally
+     */
+    public boolean isStructural() {
+        return structural;
+    }
+
+    /**
+     * @return the number of added and removed triples
+     */
+    public long size() {
+        return addedModel.size() + removedModel.size();
+    }
+
+    /**
+     * This function is a subtask to classify an added triple
+     * @param statement an added triple
+     */
+    private void classifyAdded(Statement statement) {
+        Resource subject = statement.getSubject();
+        Property predicate = statement.getPredicate();
+        RDFNode object = statement.getObject();
+        if (isObservation(subject)) {
+            obsSet.add(subject);
+            return;
+        }
+        observationOnly = false;
+        if (isSlice(subject)) {
+            if (predicate.equals(QB_observation) && object.isResource())
+                obsSet.add(object.asResource());
+            else addObservationsOfSlice(subject);
+        }
+        else if (isDataset(subject)) {
+            if (predicate.equals(QB_structure)) structural = true;
+            else if (predicate.equals(QB_slice) && object.isResource())
+                addObservationsOfSlice(object.asResource());
+            else obsSet.addAll(listSubjects(QB_dataSet, subject));
+        }
+        else structural = true;
+    }
+
+    /**
+     * This function is a subtask to classify a removed triple
+     * @param statement a removed triple
+     */
+    private void classifyRemoved(Statement statement) {
+        Resource subject = statement.getSubject();
+        RDFNode object = statement.getObject();
+        if (isObservation(subject)) obsSet.add(subject);
+        else if (isSlice(subject) && statement.getPredicate().equals(QB_observation) &&
+                object.isResource()) {
+            observationOnly = false;
+            obsSet.add(object.asResource());
+        }
+        else structural = true;
+    }
+
+    /**
+     * This function is a subtask to add all observations of a slice
+     * @param slice a slice
+     */
+    private void addObservationsOfSlice(Resource slice) {
+        for (RDFNode obs : listObjects(slice, QB_observation)) {
+            if (obs.isResource()) obsSet.add(obs.asResource());
+        }
+    }
+
+    /**
+     * Checks if a resource is used as an observation
+     * @param resource a resource
+     * @return a boolean value indicating if it is an observation
+     */
+    private boolean isObservation(Resource resource) {
+        return contains(resource, RDF_type, QB_Observation) ||
+                contains(resource, QB_dataSet, null) ||
+                contains(null, QB_observation, resource);
+    }
+
+    /**
+     * Checks if a resource is used as a slice
+     * @param resource a resource
+     * @return a boolean value indicating if it is a slice
+     */
+    private boolean isSlice(Resource resource) {
+        return contains(resource, RDF_type, QB_Slice) ||
+                contains(resource, QB_observation, null) ||
+                contains(resource, QB_sliceStructure, null) ||
+                contains(null, QB_slice, resource);
+    }
+
+    /**
+     * Checks if a resource is used as a dataset
+     * @param resource a resource
+     * @return a boolean value indicating if it is a dataset
+     */
+    private boolean isDataset(Resource resource) {
+        return contains(resource, RDF_type, QB_DataSet) ||
+                contains(resource, QB_structure, null) ||
+                contains(resource, QB_slice, null) ||
+                contains(null, QB_dataSet, resource);
+    }
+
+    /**
+     * Checks if a triple pattern matches the model or the added triples
+     * @param subject a subject, or null for any
+     * @param predicate a predicate
+     * @param object an object, or null for any
+     * @return true if a triple matches
+     */
+    private boolean contains(Resource subject, Property predicate, RDFNode object) {
+        return model.listStatements(subject, predicate, object).hasNext() ||
+                addedModel.listStatements(subject, predicate, object).hasNext();
+    }
+
+    /**
+     * Lists the subjects of a property with an object in the model or the
+     * added triples
+     * @param predicate a property
+     * @param object an object
+     * @return a set of subjects
+     */
+    private Set<Resource> listSubjects(Property predicate, RDFNode object) {
+        Set<Resource> subjectSet = model.listSubjectsWithProperty(predicate, object).toSet();
+        subjectSet.addAll(addedModel.listSubjectsWithProperty(predicate, object).toSet());
+        return subjectSet;
+    }
+
+    /**
+     * Lists the objects of a property of a subject in the model or the added
+     * triples
+     * @param subject a subject
+     * @param predicate a property
+     * @return a set of objects
+     */
+    private Set<RDFNode> listObjects(Resource subject, Property predicate) {
+        Set<RDFNode> objectSet = model.listObjectsOfProperty(subject, predicate).toSet();
+        objectSet.addAll(addedModel.listObjectsOfProperty(subject, predicate).toSet());
+        return objectSet;
+    }
+}
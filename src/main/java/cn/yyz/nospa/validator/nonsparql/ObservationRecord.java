@@ -0,0 +1,79 @@
+package cn.yyz.nospa.validator.nonsparql;
+
+import com.hp.hpl.jena.rdf.model.*;
+
+import java.util.*;
+
+/**
+ * An observation together with its property values, fetched once and shared
+ * by all checks of an observation sweep.
+ */
+public class ObservationRecord {
+    private Resource observation;
+    private Map<Property, Set<RDFNode>> valueSetByProp =
+            new HashMap<Property, Set<RDFNode>>();
+
+    /**
+     * Constructor of an empty observation record
+     * @param observation an observation
+     */
+    public ObservationRecord(Resource observation) {
+        this.observation = observation;
+    }
+
+    /**
+     * Constructor of an observation record with all property values of the
+     * observation in a model
+     * @param model an RDF model
+     * @param observation an observation
+     */
+    public ObservationRecord(Model model, Resource observation) {
+        this(observation);
+        StmtIterator stmtIter = model.listStatements(observation, null, (RDFNode) null);
+        while (stmtIter.hasNext()) {
+            Statement statement = stmtIter.nextStatement();
+            add(statement.getPredicate(), statement.getObject());
+        }
+    }
+
+    /**
+     * Adds a value of a property to the observation
+     * @param property a property
+     * @param value a value of the property
+     */
+    public void add(Property property, RDFNode value) {
+        Set<RDFNode> valueSet = valueSetByProp.get(property);
+        if (valueSet == null) {
+            valueSet = new LinkedHashSet<RDFNode>();
+            valueSetByProp.put(property, valueSet);
+        }
+        valueSet.add(value);
+    }
+
+    /**
+     * @return the observation of this record
+     */
+    public Resource getObservation() {
+        return observation;
+    }
+
+    /**
+     * Gets the values of a property in the order they were read
+     * @param property a property
+     * @return a read-only set of values, empty if the property has no value
+     */
+    public Set<RDFNode> getValues(Property property) {
+        Set<RDFNode> valueSet = valueSetByProp.get(property);
+        if (valueSet == null) return Collections.emptySet();
+        return Collections.unmodifiableSet(valueSet);
+    }
+
+    /**
+     * Checks if the observation has a value for a property
+     * @param property a property
+     * @return a boolean value indicating if there is a value
+     */
+    public boolean hasValue(Property property) {
+        return valueSetByProp.containsKey(property);
+    }
+}
@@ -0,0 +1,136 @@
+package cn.yyz.nospa.validator.nonsparql;
+
+import cn.yyz.nospa.validator.Constraint;
+import com.hp.hpl.jena.rdf.model.Resource;
+
+import java.util.*;
+
+/**
+ * A uniform random sample of the observations of each dataset, drawn with a
+ * fixed seed so that a sampled validation can be repeated. The sample keeps
+ * track of the sampled observations violating each observation level
+ * constraint, from which the violation rates of the whole datasets are
+ * estimated.
+ */
+public class ObservationSample {
+    /**
+     * The constraints whose violation rates are estimated from a sample.
+     * IC-12, IC-17 and IC-18 relate observations to each other and IC-1 is
+     * answered exactly, so they are not estimated.
+     */
+    public static final Set<Constraint> ESTIMATED_CONSTRAINTS = Collections.unmodifiableSet(
+            EnumSet.of(Constraint.IC11, Constraint.IC13, Constraint.IC14, Constraint.IC15,
+                    Constraint.IC16, Constraint.IC19, Constraint.IC20, Constraint.IC21));
+    private int size;
+    private double fraction;
+    private long seed;
+    private Map<Resource, Integer> sampleSizeByDataset = new LinkedHashMap<Resource, Integer>();
+    private Map<Resource, Integer> populationSizeByDataset = new HashMap<Resource, Integer>();
+    private Map<Constraint, Map<Resource, Set<Resource>>> violatingObsByConstraint =
+            new EnumMap<Constraint, Map<Resource, Set<Resource>>>(Constraint.class);
+
+    private ObservationSample(int size, double fraction, long seed) {
+        this.size = size;
+        this.fraction = fraction;
+        this.seed = seed;
+        for (Constraint constraint : ESTIMATED_CONSTRAINTS) {
+            violatingObsByConstraint.put(constraint, new HashMap<Resource, Set<Resource>>());
+        }
+    }
+
+    /**
+     * Create a sample of a fixed number of observations per dataset
+     * @param size the number of observations sampled from each dataset
+     * @param seed the seed of the random selection
+     * @return an empty sample
+     */
+    public static ObservationSample ofSize(int size, long seed) {
+        if (size < 1)
+            throw new IllegalArgumentException("A sample size must be at least 1");
+        return new ObservationSample(size, 0, seed);
+    }
+
+    /**
+     * Create a sample of a fraction of the observations of each dataset
+     * @param fraction the fraction of observations sampled, between 0 and 1
+     * @param seed the seed of the random selection
+     * @return an empty sample
+     */
+    public static ObservationSample ofFraction(double fraction, long seed) {
+        if (fraction <= 0 || fraction > 1)
+            throw new IllegalArgumentException("A sample fraction must be in (0, 1]");
+        return new ObservationSample(0, fraction, seed);
+    }
+
+    /**
+     * Draw the sample of a dataset by reservoir sampling. The selection only
+     * depends on the seed, the dataset and the observations, not on the order
+     * in which datasets are drawn.
+     * @param dataset a dataset
+     * @param obsSet the observations of the dataset
+     * @return a list of sampled observations
+     */
+    public List<Resource> draw(Resource dataset, Collection<Resource> obsSet) {
+        int populationSize = obsSet.size();
+        int sampleSize = size > 0 ? Math.min(size, populationSize) :
+                (int) Math.min(populationSize, Math.ceil(fraction * populationSize));
+        Random random = new Random(seed ^ dataset.toString().hashCode());
+        List<Resource> sampleList = new ArrayList<Resource>(sampleSize);
+        int index = 0;
+        for (Resource obs : obsSet) {
+            if (index < sampleSize) sampleList.add(obs);
+            else {
+                int slot = random.nextInt(index + 1);
+                if (slot < sampleSize) sampleList.set(slot, obs);
+            }
+            index++;
+        }
+        sampleSizeByDataset.put(dataset, sampleSize);
+        populationSizeByDataset.put(dataset, populationSize);
+        return sampleList;
+    }
+
+    /**
+     * Record a sampled observation violating a constraint
+     * @param constraint the violated constraint
+     * @param dataset the dataset of the observation
+     * @param obs the observation
+     */
+    public void addViolation(Constraint constraint, Resource dataset, Resource obs) {
+        Map<Resource, Set<Resource>> obsByDataset = violatingObsByConstraint.get(constraint);
+        if (obsByDataset == null || dataset == null) return;
+        Set<Resource> obsSet = obsByDataset.get(dataset);
+        if (obsSet == null) {
+            obsSet = new HashSet<Resource>();
+            obsByDataset.put(dataset, obsSet);
+        }
+        obsSet.add(obs);
+    }
+
+    /**
+     * Get the estimated violation rates of every estimated constraint in
+     * every sampled dataset
+     * @return a list of estimates ordered by constraint
+     */
+    public List<SampleEstimate> getEstimates() {
+        List<SampleEstimate> estimateList = new ArrayList<SampleEstimate>();
+        for (Constraint constraint : ESTIMATED_CONSTRAINTS) {
+            Map<Resource, Set<Resource>> obsByDataset = violatingObsByConstraint.get(constraint);
+            for (Resource dataset : sampleSizeByDataset.keySet()) {
+                Set<Resource> obsSet = obsByDataset.get(dataset);
+                estimateList.add(new SampleEstimate(constraint, dataset,
+                        sampleSizeByDataset.get(dataset), populationSizeByDataset.get(dataset),
+                        obsSet == null ? 0 : obsSet.size()));
+            }
+        }
+        return estimateList;
+    }
+
+    /**
+     * Get the seed of the random selection
+     * @return the seed
+     */
+    public long getSeed() {
+        return seed;
+    }
+}
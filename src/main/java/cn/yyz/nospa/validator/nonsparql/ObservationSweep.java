@@ -0,0 +1,253 @@
+package cn.yyz.nospa.validator.nonsparql;
+
+import cn.yyz.nospa.validator.Constraint;
+import cn.yyz.nospa.validator.Progress;
+import com.hp.hpl.jena.rdf.model.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * A sweep engine which visits the observations of each dataset once and feeds
+ * every registered observation check with the same observation record, so
+ * that the property values of an observation are fetched only once for all
+ * observation level constraints.
+ */
+public class ObservationSweep extends ValidatorBase {
+    private Logger logger = LoggerFactory.getLogger(ObservationSweep.class);
+    private List<ObservationCheck> checkList = new ArrayList<ObservationCheck>();
+    private Set<Resource> scope;
+    private boolean timed = false;
+    private Map<ObservationCheck, Long> timeByCheck = new IdentityHashMap<ObservationCheck, Long>();
+    private long[] recordTimes;
+
+    public ObservationSweep(Model model) {
+        super(model);
+    }
+
+    /**
+     * Restricts the sweep to some observations, so that its cost depends on
+     * their number rather than on the size of the cube. The observations in
+     * the scope are swept with the datasets they are associated to, or
+     * without a dataset if they are typed as observations only.
+     * @param scope the observations to sweep, or null for all
+     */
+    public void restrictTo(Set<Resource> scope) {
+        this.scope = scope;
+    }
+
+    /**
+     * Measures the time spent in each registered check while sweeping, i.e.,
+     * in preparing, checking the observations and finalizing
+     * @param timed true to measure the time of each check
+     */
+    public void setTimed(boolean timed) {
+        this.timed = timed;
+    }
+
+    /**
+     * Gets the time spent in a check by the last timed sweep
+     * @param check a registered observation check
+     * @return the time in milliseconds, or 0 if the check was not timed
+     */
+    public long getTime(ObservationCheck check) {
+        Long time = timeByCheck.get(check);
+        return time == null ? 0 : time / 1000000;
+    }
+
+    /**
+     * Registers an observation check to be fed by this sweep
+     * @param check an observation check
+     */
+    public void register(ObservationCheck check) {
+        checkList.add(check);
+    }
+
+    /**
+     * Checks if any observation check has been registered
+     * @return false if there is nothing to sweep for
+     */
+    public boolean hasChecks() {
+        return !checkList.isEmpty();
+    }
+
+    /**
+     * Prepares all registered checks, sweeps the observations of every
+     * dataset and those not associated to any dataset, and finalizes the
+     * checks with the presence index built along the sweep. Checks whose
+     * violation budgets are exhausted or which have been stopped are not fed
+     * any more, and observation records are not read once this holds for all
+     * checks needing them. The sweep ends early once all checks are stopped.
+     * With a sample, only the sampled observations of each dataset are swept
+     * and observations without a dataset are skipped. With a scope, only the
+     * observations in the scope are swept. With a sample or a scope, the
+     * presence index looks up the swept observations one by one instead of
+     * scanning all triples of each property.
+     */
+    public void run() {
+        PresenceIndex presenceIndex = new PresenceIndex(model);
+        presenceIndex.setBudget(budget);
+        presenceIndex.setSample(sample);
+        presenceIndex.setDirectLookup(scope != null || sample != null);
+        List<ObservationCheck> recordCheckList = new ArrayList<ObservationCheck>();
+        timeByCheck.clear();
+        for (ObservationCheck check : checkList) {
+            long start = System.nanoTime();
+            check.prepare();
+            if (timed) addTime(check, System.nanoTime() - start);
+            if (check.needsRecord()) recordCheckList.add(check);
+        }
+        recordTimes = new long[recordCheckList.size()];
+        Map<Resource, Set<Resource>> scopeByDataset = scope == null ? null : groupScope();
+        Set<Resource> datasetSet;
+        if (scope != null) datasetSet = scopeByDataset.keySet();
+        else {
+            datasetSet = model.listSubjectsWithProperty(QB_structure).toSet();
+            datasetSet.addAll(nodeToResource(model.listObjectsOfProperty(QB_dataSet).toSet()));
+        }
+        Progress progress = Progress.start("Sweeping observations", "observations", 0);
+        try {
+            sweepDatasets(datasetSet, scopeByDataset, presenceIndex, recordCheckList, progress);
+        } finally {
+            progress.done();
+        }
+        if (scope != null) {
+            for (Resource obs : scope) {
+                if (isIdle(recordCheckList)) break;
+                if (!model.contains(obs, QB_dataSet) && model.contains(obs, RDF_type, QB_Observation))
+                    sweepObservation(recordCheckList, null, obs);
+            }
+        }
+        else if (sample == null && !isIdle(recordCheckList)) {
+            ResIterator obsIter = model.listSubjectsWithProperty(RDF_type, QB_Observation);
+            while (obsIter.hasNext() && !isIdle(recordCheckList)) {
+                Resource obs = obsIter.nextResource();
+                if (!model.contains(obs, QB_dataSet)) sweepObservation(recordCheckList, null, obs);
+            }
+        }
+        for (int i = 0; i < recordCheckList.size(); i++) {
+            if (timed) addTime(recordCheckList.get(i), recordTimes[i]);
+        }
+        for (ObservationCheck check : checkList) {
+            long start = System.nanoTime();
+            check.finish(presenceIndex);
+            if (timed) addTime(check, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Sweeps the observations of every dataset
+     * @param datasetSet the datasets to be swept
+     * @param scopeByDataset the observations in the scope of each dataset, or
+     *                       null to sweep all observations
+     * @param presenceIndex the presence index of the swept observations
+     * @param recordCheckList the checks needing observation records
+     * @param progress the progress of the sweep, counting the observations
+     */
+    private void sweepDatasets(Set<Resource> datasetSet, Map<Resource, Set<Resource>> scopeByDataset,
+                               PresenceIndex presenceIndex, List<ObservationCheck> recordCheckList,
+                               Progress progress) {
+        for (Resource dataset : datasetSet) {
+            if (isStopped(checkList)) break;
+            logger.info("    Validating dataset " + dataset.toString());
+            Collection<Resource> obsSet = scope != null ? scopeByDataset.get(dataset) :
+                    model.listSubjectsWithProperty(QB_dataSet, dataset).toSet();
+            if (sample != null) obsSet = sample.draw(dataset, obsSet);
+            progress.addTotal(obsSet.size());
+            for (Resource obs : obsSet) {
+                presenceIndex.addObservation(dataset, obs);
+                progress.increment();
+                if (isIdle(recordCheckList)) continue;
+                sweepObservation(recordCheckList, dataset, obs);
+            }
+        }
+    }
+
+    /**
+     * Adds up the time spent in a check
+     * @param check an observation check
+     * @param time the time in nanoseconds
+     */
+    private void addTime(ObservationCheck check, long time) {
+        Long sum = timeByCheck.get(check);
+        timeByCheck.put(check, sum == null ? time : sum + time);
+    }
+
+    /**
+     * Groups the observations in the scope by the datasets they are
+     * associated to
+     * @return a map of datasets with their observations in the scope
+     */
+    private Map<Resource, Set<Resource>> groupScope() {
+        Map<Resource, Set<Resource>> scopeByDataset = new LinkedHashMap<Resource, Set<Resource>>();
+        for (Resource obs : scope) {
+            for (Resource dataset : nodeToResource(model.listObjectsOfProperty(obs, QB_dataSet).toSet())) {
+                Set<Resource> obsSet = scopeByDataset.get(dataset);
+                if (obsSet == null) {
+                    obsSet = new LinkedHashSet<Resource>();
+                    scopeByDataset.put(dataset, obsSet);
+                }
+                obsSet.add(obs);
+            }
+        }
+        return scopeByDataset;
+    }
+
+    /**
+     * Checks if none of the given checks need to be fed any more
+     * @param checkList a list of checks
+     * @return true if all checks are stopped or their budgets are exhausted
+     */
+    private boolean isIdle(List<ObservationCheck> checkList) {
+        for (ObservationCheck check : checkList) {
+            if (!isIdle(check)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks if a check needs to be fed any more
+     * @param check an observation check
+     * @return true if the check is stopped or its budget is exhausted
+     */
+    private boolean isIdle(ObservationCheck check) {
+        if (check.shouldStop()) return true;
+        if (budget == null || !budget.isExhausted(check.getConstraints())) return false;
+        for (Constraint constraint : check.getConstraints()) budget.truncate(constraint);
+        return true;
+    }
+
+    /**
+     * Checks if all given checks have been stopped
+     * @param checkList a list of checks
+     * @return true if no check needs the sweep any more
+     */
+    private boolean isStopped(List<ObservationCheck> checkList) {
+        for (ObservationCheck check : checkList) {
+            if (!check.shouldStop()) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads the values of an observation once and feeds them to all checks
+     * @param recordCheckList a list of checks needing observation records
+     * @param dataset the dataset being swept
+     * @param obs an observation
+     */
+    private void sweepObservation(List<ObservationCheck> recordCheckList,
+                                  Resource dataset, Resource obs) {
+        ObservationRecord record = new ObservationRecord(model, obs);
+        for (int i = 0; i < recordCheckList.size(); i++) {
+            ObservationCheck check = recordCheckList.get(i);
+            if (isIdle(check)) continue;
+            if (!timed) check.check(dataset, record);
+            else {
+                long start = System.nanoTime();
+                check.check(dataset, record);
+                recordTimes[i] += System.nanoTime() - start;
+            }
+        }
+    }
+}
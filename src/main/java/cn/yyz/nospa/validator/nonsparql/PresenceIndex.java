@@ -0,0 +1,215 @@
+package cn.yyz.nospa.validator.nonsparql;
+
+import cn.yyz.nospa.validator.Constraint;
+import cn.yyz.nospa.validator.ValidationResultSink;
+import com.hp.hpl.jena.rdf.model.*;
+
+import java.util.*;
+
+/**
+ * A predicate-major index of the presence of property values on
+ * observations. Observations are indexed densely per dataset and the
+ * triples of each property are scanned only once to set one bit per
+ * observation in a per-property bitset, so that missing values of a set of
+ * properties are computed with word-level bitwise operations instead of one
+ * lookup per observation and property.
+ */
+public class PresenceIndex extends ValidatorBase {
+    private Map<Resource, List<Resource>> obsListByDataset =
+            new HashMap<Resource, List<Resource>>();
+    private Map<Resource, Slot> slotByObs = new HashMap<Resource, Slot>();
+    private Map<Property, Map<Resource, BitSet>> presenceByDatasetByProp =
+            new HashMap<Property, Map<Resource, BitSet>>();
+    private boolean directLookup = false;
+
+    public PresenceIndex(Model model) {
+        super(model);
+    }
+
+    /**
+     * Looks up the values of each indexed observation instead of scanning all
+     * triples of a property, which is faster when only a few observations of
+     * a large cube are indexed
+     * @param directLookup whether to look up observations one by one
+     */
+    public void setDirectLookup(boolean directLookup) {
+        this.directLookup = directLookup;
+    }
+
+    /**
+     * Assigns the next dense index of a dataset to an observation
+     * @param dataset a dataset
+     * @param obs an observation of the dataset
+     */
+    public void addObservation(Resource dataset, Resource obs) {
+        List<Resource> obsList = obsListByDataset.get(dataset);
+        if (obsList == null) {
+            obsList = new ArrayList<Resource>();
+            obsListByDataset.put(dataset, obsList);
+        }
+        slotByObs.put(obs, new Slot(dataset, obsList.size(), slotByObs.get(obs)));
+        obsList.add(obs);
+    }
+
+    /**
+     * Gets the bitset of the observations of a dataset having a value for a
+     * property. The triples of the property are scanned once for all
+     * datasets the first time the property is requested.
+     * @param dataset a dataset
+     * @param property a property
+     * @return a bitset indexed by the dense observation indices of the dataset
+     */
+    public BitSet getPresence(Resource dataset, Property property) {
+        Map<Resource, BitSet> presenceByDataset = presenceByDatasetByProp.get(property);
+        if (presenceByDataset == null) {
+            presenceByDataset = scanProperty(property);
+            presenceByDatasetByProp.put(property, presenceByDataset);
+        }
+        BitSet presence = presenceByDataset.get(dataset);
+        return presence == null ? new BitSet() : presence;
+    }
+
+    /**
+     * Searches the observations of a dataset missing values for a set of
+     * properties. Observations are added to the result while the budget of
+     * the given constraint is not exhausted.
+     * @param dataset a dataset
+     * @param propSet a set of properties
+     * @param constraint the constraint violated by missing values
+     * @param withDetails false to map the observations to null instead of the
+     *                    properties missing values
+     * @return a map of observations with the properties missing values
+     */
+    public Map<Resource, Set<RDFNode>> getMissingValues(Resource dataset,
+                                                        Set<Property> propSet,
+                                                        Constraint constraint,
+                                                        boolean withDetails) {
+        Map<Resource, Set<RDFNode>> propWithoutValByObs = new HashMap<Resource, Set<RDFNode>>();
+        List<Resource> obsList = obsListByDataset.get(dataset);
+        if (obsList == null) return propWithoutValByObs;
+        List<Property> propList = new ArrayList<Property>(propSet);
+        List<BitSet> missingList = new ArrayList<BitSet>(propList.size());
+        BitSet anyMissing = findMissing(dataset, obsList.size(), propList, missingList);
+        for (int index = anyMissing.nextSetBit(0); index >= 0;
+             index = anyMissing.nextSetBit(index + 1)) {
+            Resource obs = obsList.get(index);
+            tally(constraint, dataset, obs);
+            if (!spend(constraint)) continue;
+            propWithoutValByObs.put(obs, withDetails ? getMissingProps(index, propList, missingList) : null);
+        }
+        return propWithoutValByObs;
+    }
+
+    /**
+     * Sends the observations of a dataset missing values for a set of
+     * properties to a result sink one by one, so that they are never held
+     * together. Observations are sent while the budget of the given
+     * constraint is not exhausted.
+     * @param dataset a dataset
+     * @param propSet a set of properties
+     * @param constraint the constraint violated by missing values
+     * @param resultSink the sink receiving the observations with the
+     *                   properties missing values
+     * @param withDetails false to send the observations with null instead of
+     *                    the properties missing values
+     */
+    public void sendMissingValues(Resource dataset, Set<Property> propSet, Constraint constraint,
+                                  ValidationResultSink resultSink, boolean withDetails) {
+        List<Resource> obsList = obsListByDataset.get(dataset);
+        if (obsList == null) return;
+        List<Property> propList = new ArrayList<Property>(propSet);
+        List<BitSet> missingList = new ArrayList<BitSet>(propList.size());
+        BitSet anyMissing = findMissing(dataset, obsList.size(), propList, missingList);
+        for (int index = anyMissing.nextSetBit(0); index >= 0;
+             index = anyMissing.nextSetBit(index + 1)) {
+            Resource obs = obsList.get(index);
+            tally(constraint, dataset, obs);
+            if (!spend(constraint)) continue;
+            resultSink.violation(constraint, dataset, obs,
+                    withDetails ? getMissingProps(index, propList, missingList) : null);
+        }
+    }
+
+    /**
+     * Computes the observations of a dataset missing values for any of some
+     * properties, so that each of them is visited once
+     * @param dataset a dataset
+     * @param numOfObs the number of observations of the dataset
+     * @param propList a list of properties
+     * @param missingList the list receiving the bitset of the observations
+     *                    missing values for each property
+     * @return the bitset of the observations missing any value
+     */
+    private BitSet findMissing(Resource dataset, int numOfObs, List<Property> propList,
+                               List<BitSet> missingList) {
+        BitSet anyMissing = new BitSet(numOfObs);
+        for (Property property : propList) {
+            BitSet missing = new BitSet(numOfObs);
+            missing.set(0, numOfObs);
+            missing.andNot(getPresence(dataset, property));
+            missingList.add(missing);
+            anyMissing.or(missing);
+        }
+        return anyMissing;
+    }
+
+    /**
+     * Gets the properties an observation misses values for
+     * @param index the dense index of the observation
+     * @param propList a list of properties
+     * @param missingList the bitsets of the observations missing values for
+     *                    each property
+     * @return the set of properties without values
+     */
+    private Set<RDFNode> getMissingProps(int index, List<Property> propList, List<BitSet> missingList) {
+        Set<RDFNode> propWithoutValSet = new HashSet<RDFNode>();
+        for (int i = 0; i < propList.size(); i++) {
+            if (missingList.get(i).get(index)) propWithoutValSet.add(propList.get(i));
+        }
+        return propWithoutValSet;
+    }
+
+    /**
+     * Scans all triples of a property once and sets the bits of the
+     * observations in the datasets they are indexed in, or looks up each
+     * observation in the direct lookup mode
+     * @param property a property
+     * @return a map of datasets with the presence bitsets of the property
+     */
+    private Map<Resource, BitSet> scanProperty(Property property) {
+        Map<Resource, BitSet> presenceByDataset = new HashMap<Resource, BitSet>();
+        for (Resource dataset : obsListByDataset.keySet()) {
+            List<Resource> obsList = obsListByDataset.get(dataset);
+            BitSet presence = new BitSet(obsList.size());
+            presenceByDataset.put(dataset, presence);
+            if (!directLookup) continue;
+            for (int index = 0; index < obsList.size(); index++) {
+                if (model.contains(obsList.get(index), property)) presence.set(index);
+            }
+        }
+        if (directLookup) return presenceByDataset;
+        StmtIterator stmtIter = model.listStatements(null, property, (RDFNode) null);
+        while (stmtIter.hasNext()) {
+            Resource subject = stmtIter.nextStatement().getSubject();
+            for (Slot slot = slotByObs.get(subject); slot != null; slot = slot.next)
+                presenceByDataset.get(slot.dataset).set(slot.index);
+        }
+        return presenceByDataset;
+    }
+
+    /**
+     * The dense index of an observation in a dataset, linked to its index in
+     * another dataset if it is associated to several ones
+     */
+    private static class Slot {
+        private Resource dataset;
+        private int index;
+        private Slot next;
+
+        Slot(Resource dataset, int index, Slot next) {
+            this.dataset = dataset;
+            this.index = index;
+            this.next = next;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package cn.yyz.nospa.validator.nonsparql;
+
+import cn.yyz.nospa.validator.Constraint;
+import com.hp.hpl.jena.rdf.model.Resource;
+
+/**
+ * The estimated violation rate of a constraint in a dataset with its 95%
+ * confidence interval. The interval is a Wilson score interval whose sample
+ * size is corrected for sampling without replacement from a finite dataset,
+ * so that it collapses to the exact rate when every observation is sampled.
+ */
+public class SampleEstimate {
+    private static final double Z_95 = 1.959964;
+    private Constraint constraint;
+    private Resource dataset;
+    private int sampleSize;
+    private int populationSize;
+    private int violations;
+    private double lowerBound;
+    private double upperBound;
+
+    /**
+     * Constructor of an estimate
+     * @param constraint the estimated constraint
+     * @param dataset the sampled dataset
+     * @param sampleSize the number of sampled observations
+     * @param populationSize the number of observations in the dataset
+     * @param violations the number of sampled observations violating the
+     *                   constraint
+     */
+    public SampleEstimate(Constraint constraint, Resource dataset, int sampleSize,
+                          int populationSize, int violations) {
+        this.constraint = constraint;
+        this.dataset = dataset;
+        this.sampleSize = sampleSize;
+        this.populationSize = populationSize;
+        this.violations = violations;
+        double rate = getRate();
+        if (sampleSize == 0 || sampleSize >= populationSize) {
+            lowerBound = rate;
+            upperBound = rate;
+        }
+        else {
+            double n = (double) sampleSize * (populationSize - 1) / (populationSize - sampleSize);
+            double z2 = Z_95 * Z_95;
+            double center = (rate + z2 / (2 * n)) / (1 + z2 / n);
+            double halfWidth = Z_95 * Math.sqrt(rate * (1 - rate) / n + z2 / (4 * n * n)) /
+                    (1 + z2 / n);
+            lowerBound = Math.max(0, center - halfWidth);
+            upperBound = Math.min(1, center + halfWidth);
+        }
+    }
+
+    public Constraint getConstraint() {
+        return constraint;
+    }
+
+    public Resource getDataset() {
+        return dataset;
+    }
+
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+    public int getPopulationSize() {
+        return populationSize;
+    }
+
+    public int getViolations() {
+        return violations;
+    }
+
+    /**
+     * Get the estimated fraction of observations violating the constraint
+     * @return the violation rate of the sample
+     */
+    public double getRate() {
+        return sampleSize == 0 ? 0 : (double) violations / sampleSize;
+    }
+
+    public double getLowerBound() {
+        return lowerBound;
+    }
+
+    public double getUpperBound() {
+        return upperBound;
+    }
+
+    /**
+     * Get the estimated number of observations violating the constraint in
+     * the whole dataset
+     * @return the violation rate scaled to the dataset
+     */
+    public long getEstimatedViolations() {
+        return Math.round(getRate() * populationSize);
+    }
+
+    public String toString() {
+        return String.format("%s: %d of %d sampled observations (%.2f%%, 95%% CI %.2f%% - %.2f%%), " +
+                "about %d of %d observations", dataset, violations, sampleSize, 100 * getRate(),
+                100 * lowerBound, 100 * upperBound, getEstimatedViolations(), populationSize);
+    }
+}
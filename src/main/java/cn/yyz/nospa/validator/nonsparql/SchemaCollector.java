@@ -0,0 +1,93 @@
+package cn.yyz.nospa.validator.nonsparql;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.sparql.core.Quad;
+import org.apache.jena.riot.system.StreamRDF;
+
+import java.util.*;
+
+/**
+ * A listener for the first pass over a cube file too large to be loaded. It
+ * keeps the triples of anything but observations, i.e., the structure
+ * definitions, code lists, datasets and slices, and counts the triples of
+ * each observation, so that a second pass can tell when all triples of an
+ * observation have been read wherever they are in the file. Observations are
+ * the subjects of rdf:type qb:Observation and qb:dataSet and the objects of
+ * qb:observation. The triples of an observation read before it is known as
+ * one are kept until the end of the pass.
+ */
+public class SchemaCollector extends ValidatorBase implements StreamRDF {
+    private Set<Node> obsSet = new HashSet<Node>();
+    private Map<Node, Integer> tripleCountBySubject = new HashMap<Node, Integer>();
+    private Map<Node, Integer> tripleCountByObs;
+    private int numOfBlankObs = 0;
+
+    public SchemaCollector() {
+        super(ModelFactory.createDefaultModel());
+    }
+
+    /**
+     * @return the model with the triples of anything but observations
+     */
+    public Model getSchemaModel() {
+        return model;
+    }
+
+    /**
+     * @return a map of observations with the number of their triples
+     */
+    public Map<Node, Integer> getTripleCountByObs() {
+        return tripleCountByObs;
+    }
+
+    /**
+     * @return the number of observations which are blank nodes, whose labels
+     * are not kept between passes
+     */
+    public int getNumOfBlankObs() {
+        return numOfBlankObs;
+    }
+
+    public void start() {
+    }
+
+    public void triple(Triple triple) {
+        Node subject = triple.getSubject();
+        Node predicate = triple.getPredicate();
+        if (predicate.equals(QB_dataSet.asNode()) || (predicate.equals(RDF_type.asNode()) &&
+                triple.getObject().equals(QB_Observation.asNode()))) obsSet.add(subject);
+        if (predicate.equals(QB_observation.asNode())) obsSet.add(triple.getObject());
+        Integer count = tripleCountBySubject.get(subject);
+        tripleCountBySubject.put(subject, count == null ? 1 : count + 1);
+        if (!obsSet.contains(subject)) model.getGraph().add(triple);
+    }
+
+    public void quad(Quad quad) {
+        if (quad.isDefaultGraph()) triple(quad.asTriple());
+    }
+
+    public void base(String base) {
+    }
+
+    public void prefix(String prefix, String iri) {
+    }
+
+    /**
+     * Removes the triples of observations kept before they were known as
+     * observations, and keeps the triple counts of observations only
+     */
+    public void finish() {
+        tripleCountByObs = new HashMap<Node, Integer>();
+        for (Node obs : obsSet) {
+            if (obs.isBlank()) numOfBlankObs++;
+            model.getGraph().remove(obs, Node.ANY, Node.ANY);
+            Integer count = tripleCountBySubject.get(obs);
+            if (count != null) tripleCountByObs.put(obs, count);
+        }
+        tripleCountBySubject = null;
+        obsSet = null;
+    }
+}
@@ -0,0 +1,84 @@
+package cn.yyz.nospa.validator.nonsparql;
+
+import com.hp.hpl.jena.rdf.model.*;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The structures of a cube compiled once to validate any number of cubes
+ * holding observations against them: the normalized structure definitions,
+ * code lists, datasets and slices frozen into a read-only model, the catalog
+ * of structure definitions, and the code sets of the hierarchical code lists.
+ * A context is read-only once constructed, so that it can be shared by
+ * validators on any number of threads.
+ */
+public class SchemaContext {
+    private Model model;
+    private DsdCatalog catalog;
+    private Map<Resource, Map<String, Set<RDFNode>>> codeSetByCodeList;
+
+    /**
+     * Constructor of a context, which normalizes and compiles the structures
+     * @param schemaModel an RDF model with the structures of a cube, which
+     *                    is normalized in place
+     */
+    public SchemaContext(Model schemaModel) {
+        Normalizer normalizer = new Normalizer(schemaModel);
+        normalizer.normalizePhase1();
+        normalizer.normalizePhase2();
+        model = FrozenGraph.freeze(schemaModel);
+        catalog = new DsdCatalog(model);
+        ValidatorIC20_21 validatorIC20_21 = new ValidatorIC20_21(model);
+        codeSetByCodeList = validatorIC20_21.getCodeSetByCodeList(
+                validatorIC20_21.getPcpByCodeList());
+    }
+
+    /**
+     * Moves the triples of the observations of a cube into a new model, so
+     * that the remaining triples can be compiled into a context. Observations
+     * are the resources typed as qb:Observation, having a qb:dataSet, or
+     * linked by qb:observation.
+     * @param model an RDF model with a complete cube, which keeps everything
+     *              except the triples of observations
+     * @return a model with the triples of observations
+     */
+    public static Model extractObservations(Model model) {
+        Set<Resource> obsSet = new HashSet<Resource>();
+        obsSet.addAll(model.listSubjectsWithProperty(ValidatorBase.RDF_type,
+                ValidatorBase.QB_Observation).toSet());
+        obsSet.addAll(model.listSubjectsWithProperty(ValidatorBase.QB_dataSet).toSet());
+        for (RDFNode obs : model.listObjectsOfProperty(ValidatorBase.QB_observation).toSet()) {
+            if (obs.isResource()) obsSet.add(obs.asResource());
+        }
+        Model obsModel = ModelFactory.createDefaultModel();
+        for (Resource obs : obsSet) {
+            obsModel.add(model.listStatements(obs, null, (RDFNode) null));
+            model.removeAll(obs, null, null);
+        }
+        return obsModel;
+    }
+
+    /**
+     * @return the read-only model of the structures
+     */
+    public Model getModel() {
+        return model;
+    }
+
+    /**
+     * @return the catalog compiled from the structures
+     */
+    public DsdCatalog getCatalog() {
+        return catalog;
+    }
+
+    /**
+     * @return the code sets of the hierarchical code lists, which must not be
+     * modified
+     */
+    public Map<Resource, Map<String, Set<RDFNode>>> getCodeSets() {
+        return codeSetByCodeList;
+    }
+}
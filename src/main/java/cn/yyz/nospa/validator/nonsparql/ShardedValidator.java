@@ -0,0 +1,742 @@
+package cn.yyz.nospa.validator.nonsparql;
+
+import cn.yyz.nospa.validator.Constraint;
+import cn.yyz.nospa.validator.JsonLinesReader;
+import cn.yyz.nospa.validator.JsonLinesSink;
+import cn.yyz.nospa.validator.Progress;
+import cn.yyz.nospa.validator.ValidationResultSink;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.rdf.model.*;
+import com.hp.hpl.jena.sparql.core.Quad;
+import com.hp.hpl.jena.sparql.util.FmtUtils;
+import com.hp.hpl.jena.sparql.util.NodeFactoryExtra;
+import com.hp.hpl.jena.util.FileManager;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.RDFLanguages;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFLib;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+/**
+ * A validator splitting a cube too large for one JVM across local worker
+ * processes, which share nothing but files in a work directory. The
+ * coordinator collects the structure definitions, code lists, datasets and
+ * slices in a first pass over the cube file, and splits the observations
+ * into shards by the hash of the observation in a second pass. Each map
+ * worker validates the observation level constraints on one shard with a
+ * replica of the structures, in which slices only link the observations of
+ * the shard, and emits the dimension values of its observations to the
+ * reduce workers by the hash of their keys: the keys of IC-12 and the
+ * non-measure dimension values of IC-17, so that observations sharing a key
+ * meet on the same reducer. An observation of IC-17 without exactly one value
+ * for some dimension may share its values with observations of any key, and
+ * is sent to every reducer, each of which counts the observations sharing its
+ * values. The workers write their violations as JSON Lines, ending each
+ * constraint with a summary telling whether it is complete. The coordinator
+ * validates the schema level constraints itself, merges the records of all
+ * workers and reports them in the order of the constraints, as a validation
+ * in one JVM would.
+ * Observations which are blank nodes are not validated, as in two passes.
+ */
+public class ShardedValidator extends ValidatorBase {
+    private static final Set<Constraint> MAP_CONSTRAINTS = EnumSet.of(Constraint.IC1,
+            Constraint.IC11, Constraint.IC13, Constraint.IC14, Constraint.IC15, Constraint.IC16,
+            Constraint.IC18, Constraint.IC19, Constraint.IC20, Constraint.IC21);
+    private Logger logger = LoggerFactory.getLogger(ShardedValidator.class);
+    private File workDir;
+    private int numOfShards;
+    private PrintWriter reportWriter;
+
+    /**
+     * Constructor of a sharded validator
+     * @param workDir the directory receiving the shards and the partial
+     *                results, which must be accessible to the workers
+     * @param numOfShards the number of shards, i.e., of map and reduce workers
+     */
+    public ShardedValidator(File workDir, int numOfShards) {
+        super(ModelFactory.createDefaultModel());
+        this.workDir = workDir;
+        this.numOfShards = Math.max(numOfShards, 1);
+    }
+
+    /**
+     * Set a writer receiving a copy of the lines of the validation report
+     * @param reportWriter a writer, or null to write the report to the log
+     *                     only
+     */
+    public void setReportWriter(PrintWriter reportWriter) {
+        this.reportWriter = reportWriter;
+    }
+
+    /**
+     * Validates a cube file by splitting it into shards, validating the
+     * shards in worker processes and merging their results
+     * @param filename complete path of the cube file
+     * @param format RDF serialization format of the cube file
+     * @throws IOException if the work directory cannot be written
+     */
+    public void validate(String filename, String format) throws IOException {
+        if (!workDir.isDirectory() && !workDir.mkdirs())
+            throw new IOException("Directory " + workDir + " cannot be created");
+        logger.info("Collecting structures of cube file ...");
+        SchemaCollector collector = new SchemaCollector();
+        parse(filename, format, collector);
+        if (collector.getNumOfBlankObs() > 0)
+            logger.warn(collector.getNumOfBlankObs() + " observations are blank nodes and are not validated");
+        model = collector.getSchemaModel();
+        logger.info("Splitting " + collector.getTripleCountByObs().size() + " observations into " +
+                numOfShards + " shards ...");
+        Splitter splitter = new Splitter(collector.getTripleCountByObs().keySet());
+        parse(filename, format, splitter);
+        writeSchemas();
+        logger.info("Validating shards ...");
+        runWorkers("map");
+        logger.info("Validating keys of IC-12 and IC-17 ...");
+        runWorkers("reduce");
+        logger.info("Merging results ...");
+        MergeSink mergeSink = new MergeSink();
+        JsonLinesReader reader = new JsonLinesReader(model);
+        for (int i = 0; i < numOfShards; i++) {
+            reader.replay(new File(workDir, "report-map-" + i + ".jsonl"), mergeSink);
+            reader.replay(new File(workDir, "report-reduce-" + i + ".jsonl"), mergeSink);
+        }
+        NospaValidator validator = new NospaValidator(new SchemaContext(model).getModel());
+        StringWriter report = new StringWriter();
+        validator.setParallelism(1);
+        validator.setReportLogged(false);
+        validator.setReportWriter(new PrintWriter(report));
+        mergeSink.report(validator, Constraint.IC1);
+        int numOfFailed = validator.getFailureCount();
+        validator.validate(EnumSet.range(Constraint.IC2, Constraint.IC10));
+        for (Constraint constraint : EnumSet.range(Constraint.IC11, Constraint.IC21)) {
+            if (constraint == Constraint.IC17) validator.reportResult(constraint, mergeIC17(), false);
+            else mergeSink.report(validator, constraint);
+        }
+        numOfFailed += validator.getFailureCount();
+        writeLine("RDF Cube Validation Result");
+        writeLine("==========================");
+        writeLine("");
+        writeLine("Validator: NoSPA");
+        writeLine(new Date().toString());
+        writeLine(filename);
+        writeLine("");
+        BufferedReader reportReader = new BufferedReader(new StringReader(report.toString()));
+        String line;
+        while ((line = reportReader.readLine()) != null) writeLine(line);
+        logger.info("Validated " + collector.getTripleCountByObs().size() + " observations in " +
+                numOfShards + " shards, " + numOfFailed + " constraints violated");
+    }
+
+    /**
+     * Runs a worker of a sharded validation, which is started by the
+     * coordinator in a process of its own
+     * @param role "map" or "reduce"
+     * @param workDir the work directory of the validation
+     * @param index the index of the worker
+     * @param numOfShards the number of shards
+     * @throws IOException if the files of the work directory cannot be read
+     * or written
+     */
+    public static void runWorker(String role, File workDir, int index, int numOfShards)
+            throws IOException {
+        ShardedValidator validator = new ShardedValidator(workDir, numOfShards);
+        if (role.equals("map")) validator.map(index);
+        else if (role.equals("reduce")) validator.reduce(index);
+        else throw new IllegalArgumentException("Role " + role + " is not valid");
+    }
+
+    /**
+     * Validates the observation level constraints but IC-12 and IC-17 on a
+     * shard into a file of JSON Lines, and emits the keys of its observations
+     * to the reducers
+     * @param shard the index of the shard
+     * @throws IOException if the files of the work directory cannot be read
+     * or written
+     */
+    private void map(int shard) throws IOException {
+        model = ModelFactory.createDefaultModel();
+        read(model, "schema-" + shard + ".nt");
+        read(model, "shard-" + shard + ".nt");
+        NospaValidator validator = new NospaValidator(model);
+        validator.normalize();
+        JsonLinesSink sink = new JsonLinesSink(new File(workDir, "report-map-" + shard + ".jsonl"));
+        try {
+            validator.setParallelism(1);
+            validator.setReportLogged(false);
+            validator.setResultSink(sink);
+            validator.validate(EnumSet.copyOf(MAP_CONSTRAINTS));
+        } finally {
+            sink.close();
+        }
+        emitKeys(shard, new DsdCatalog(model));
+    }
+
+    /**
+     * This function is a subtask to write the dimension values of the
+     * observations of a shard into a file for each reducer, as N-Triples.
+     * An observation is sent for IC-12 with the first value of each dimension
+     * if it has values for all dimensions, and for IC-17 with all values of
+     * its non-measure dimensions if it has a measure type. The number of
+     * observations sent for IC-17 is counted for each dataset.
+     * @param shard the index of the shard
+     * @param catalog the catalog of the structures
+     * @throws IOException if a file cannot be written
+     */
+    private void emitKeys(int shard, DsdCatalog catalog) throws IOException {
+        List<Model> keys12List = new ArrayList<Model>();
+        List<Model> keys17List = new ArrayList<Model>();
+        for (int i = 0; i < numOfShards; i++) {
+            keys12List.add(ModelFactory.createDefaultModel());
+            keys17List.add(ModelFactory.createDefaultModel());
+        }
+        Map<Resource, Integer> numOfObsByDataset = new HashMap<Resource, Integer>();
+        for (Resource dataset : catalog.getStructuredDatasetSet()) {
+            Set<Property> dimSet = new HashSet<Property>();
+            for (RDFNode dsd : catalog.getStructures(dataset)) {
+                if (!dsd.isResource()) continue;
+                Set<RDFNode> compPropSet = catalog.getComponentProperties(dsd.asResource());
+                compPropSet.retainAll(catalog.getDimensionSet());
+                dimSet.addAll(nodeToProperty(compPropSet));
+            }
+            boolean hasMeasureType = dimSet.remove(QB_measureType);
+            for (Resource obs : model.listSubjectsWithProperty(QB_dataSet, dataset).toSet()) {
+                if (obs.isAnon()) continue;
+                ObservationRecord record = new ObservationRecord(model, obs);
+                emitKey12(obs, dataset, record, dimSet, hasMeasureType, keys12List);
+                if (record.hasValue(QB_measureType)) {
+                    emitKey17(obs, dataset, record, dimSet, keys17List);
+                    Integer count = numOfObsByDataset.get(dataset);
+                    numOfObsByDataset.put(dataset, count == null ? 1 : count + 1);
+                }
+            }
+        }
+        for (int i = 0; i < numOfShards; i++) {
+            write(keys12List.get(i), "keys12-" + shard + "-" + i + ".nt");
+            write(keys17List.get(i), "keys17-" + shard + "-" + i + ".nt");
+        }
+        PrintWriter writer = openWriter("count17-" + shard + ".txt");
+        try {
+            for (Resource dataset : numOfObsByDataset.keySet())
+                writer.println(toToken(dataset) + "\t" + numOfObsByDataset.get(dataset));
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * This function is a subtask to send the key of IC-12 of an observation
+     * to the reducer of the key
+     * @param obs an observation
+     * @param dataset the dataset of the observation
+     * @param record the observation with its property values
+     * @param dimSet the dimensions of the dataset but qb:measureType
+     * @param hasMeasureType whether the dataset has a measure dimension
+     * @param keysList the keys sent to each reducer
+     */
+    private void emitKey12(Resource obs, Resource dataset, ObservationRecord record,
+                           Set<Property> dimSet, boolean hasMeasureType, List<Model> keysList) {
+        Set<Property> keyDimSet = new HashSet<Property>(dimSet);
+        if (hasMeasureType) keyDimSet.add(QB_measureType);
+        Map<Property, RDFNode> valueByDim = new HashMap<Property, RDFNode>();
+        Set<String> tokenSet = new HashSet<String>();
+        for (Property dim : keyDimSet) {
+            Set<RDFNode> valueSet = record.getValues(dim);
+            if (valueSet.isEmpty()) return;
+            RDFNode value = valueSet.iterator().next();
+            valueByDim.put(dim, value);
+            tokenSet.add(toToken(value));
+        }
+        int hash = 0;
+        for (String token : tokenSet) hash += token.hashCode();
+        Model keys = keysList.get((hash & Integer.MAX_VALUE) % numOfShards);
+        keys.add(obs, QB_dataSet, dataset);
+        for (Property dim : valueByDim.keySet()) keys.add(obs, dim, valueByDim.get(dim));
+    }
+
+    /**
+     * This function is a subtask to send the non-measure dimension values of
+     * an observation with a measure type to the reducer of these values, or
+     * to every reducer if it does not have exactly one value for some
+     * dimension
+     * @param obs an observation
+     * @param dataset the dataset of the observation
+     * @param record the observation with its property values
+     * @param dimSet the non-measure dimensions of the dataset
+     * @param keysList the keys sent to each reducer
+     */
+    private void emitKey17(Resource obs, Resource dataset, ObservationRecord record,
+                              Set<Property> dimSet, List<Model> keysList) {
+        int hash = 0;
+        boolean isPartial = false;
+        for (Property dim : dimSet) {
+            Set<RDFNode> valueSet = record.getValues(dim);
+            if (valueSet.size() == 1)
+                hash = 31 * hash + (dim + "=" + toToken(valueSet.iterator().next())).hashCode();
+            else isPartial = true;
+        }
+        List<Model> targetList = isPartial ? keysList :
+                keysList.subList((hash & Integer.MAX_VALUE) % numOfShards,
+                        (hash & Integer.MAX_VALUE) % numOfShards + 1);
+        for (Model keys : targetList) {
+            keys.add(obs, QB_dataSet, dataset);
+            for (RDFNode measureType : record.getValues(QB_measureType))
+                keys.add(obs, QB_measureType, measureType);
+            for (Property dim : dimSet) {
+                for (RDFNode value : record.getValues(dim)) keys.add(obs, dim, value);
+            }
+        }
+    }
+
+    /**
+     * Validates IC-12 on the keys sent to a reducer into a file of JSON
+     * Lines, and counts the
+     * observations sharing the non-measure dimension values of the
+     * observations of IC-17 sent to it
+     * @param reducer the index of the reducer
+     * @throws IOException if the files of the work directory cannot be read
+     * or written
+     */
+    private void reduce(int reducer) throws IOException {
+        Model keys12Model = ModelFactory.createDefaultModel();
+        read(keys12Model, "schema.nt");
+        for (int i = 0; i < numOfShards; i++) read(keys12Model, "keys12-" + i + "-" + reducer + ".nt");
+        NospaValidator validator = new NospaValidator(keys12Model);
+        validator.normalize();
+        JsonLinesSink sink = new JsonLinesSink(new File(workDir, "report-reduce-" + reducer + ".jsonl"));
+        try {
+            validator.setParallelism(1);
+            validator.setReportLogged(false);
+            validator.setResultSink(sink);
+            validator.validate(EnumSet.of(Constraint.IC12));
+        } finally {
+            sink.close();
+        }
+        model = ModelFactory.createDefaultModel();
+        read(model, "schema.nt");
+        for (int i = 0; i < numOfShards; i++) read(model, "keys17-" + i + "-" + reducer + ".nt");
+        new NospaValidator(model).normalize();
+        Map<Resource, MeasureGroups> groupsByDataset = new HashMap<Resource, MeasureGroups>();
+        ValidatorIC17 validatorIC17 = new ValidatorIC17(model);
+        validatorIC17.keepGroups(groupsByDataset, null);
+        ObservationSweep sweep = new ObservationSweep(model);
+        sweep.register(validatorIC17);
+        sweep.run();
+        Map<Resource, Integer> numOfObsByDataset = readCounts();
+        PrintWriter writer = openWriter("ic17-" + reducer + ".txt");
+        try {
+            for (Resource dataset : groupsByDataset.keySet()) {
+                MeasureGroups groups = groupsByDataset.get(dataset);
+                int numOfObs = numOfObsByDataset.containsKey(dataset) ?
+                        numOfObsByDataset.get(dataset) : 0;
+                for (Resource obs : groups.getObservations()) {
+                    if (groups.isPartial(obs)) {
+                        writer.println("P\t" + toToken(obs) + "\t" + toToken(dataset) + "\t" +
+                                groups.countSharing(obs, false) + "\t" + groups.countSharing(obs, true) +
+                                "\t" + groups.getNumOfMeasure() + "\t" + numOfObs);
+                        continue;
+                    }
+                    Integer numOfObs2 = groups.getViolation(obs, numOfObs);
+                    if (numOfObs2 != null) writer.println("V\t" + toToken(obs) + "\t" + numOfObs2);
+                }
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Merges the IC-17 results of the reducers. The violations of the
+     * observations with exactly one value for each dimension are complete,
+     * and the observations sharing the values of the others are added up
+     * over the reducers.
+     * @return a map of observations with amount of other observations with
+     * same dimension values
+     * @throws IOException if a result file cannot be read
+     */
+    private Map<Resource, Integer> mergeIC17() throws IOException {
+        Map<Resource, Integer> numObs2ByObs1 = new LinkedHashMap<Resource, Integer>();
+        Map<List<String>, int[]> sharingByPartialObs = new LinkedHashMap<List<String>, int[]>();
+        for (int i = 0; i < numOfShards; i++) {
+            BufferedReader reader = openReader("ic17-" + i + ".txt");
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split("\t");
+                    if (fields[0].equals("V")) {
+                        numObs2ByObs1.put(toResource(fields[1]), Integer.valueOf(fields[2]));
+                        continue;
+                    }
+                    List<String> key = Arrays.asList(fields[1], fields[2]);
+                    int[] sharing = sharingByPartialObs.get(key);
+                    if (sharing == null) {
+                        sharing = new int[] {Integer.parseInt(fields[4]), Integer.parseInt(fields[5]),
+                                Integer.parseInt(fields[6])};
+                        sharingByPartialObs.put(key, sharing);
+                    }
+                    sharing[0] += Integer.parseInt(fields[3]);
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        for (List<String> key : sharingByPartialObs.keySet()) {
+            int[] sharing = sharingByPartialObs.get(key);
+            int numOfSharing = sharing[0] + 1;
+            if (numOfSharing != sharing[1])
+                numObs2ByObs1.put(toResource(key.get(0)), sharing[2] - numOfSharing);
+        }
+        return numObs2ByObs1;
+    }
+
+    /**
+     * Writes the replicas of the structures: one for each map worker, in
+     * which slices only link the observations of its shard, and one without
+     * any observation for the reduce workers
+     * @throws IOException if a file cannot be written
+     */
+    private void writeSchemas() throws IOException {
+        Model schemaModel = ModelFactory.createDefaultModel().add(model);
+        schemaModel.removeAll(null, QB_observation, null);
+        write(schemaModel, "schema.nt");
+        List<Model> linkModelList = new ArrayList<Model>();
+        for (int i = 0; i < numOfShards; i++) linkModelList.add(ModelFactory.createDefaultModel());
+        StmtIterator stmtIter = model.listStatements(null, QB_observation, (RDFNode) null);
+        while (stmtIter.hasNext()) {
+            Statement statement = stmtIter.nextStatement();
+            linkModelList.get(shardOf(statement.getObject().asNode())).add(statement);
+        }
+        for (int i = 0; i < numOfShards; i++)
+            write(schemaModel.union(linkModelList.get(i)), "schema-" + i + ".nt");
+    }
+
+    /**
+     * Starts a worker process for each shard and waits for all of them. The
+     * workers run the classpath and the memory and system property settings
+     * of the coordinator, each in a directory of its own receiving its logs
+     * and console output.
+     * @param role "map" or "reduce"
+     * @throws IOException if a worker cannot be started or fails
+     */
+    private void runWorkers(String role) throws IOException {
+        List<String> jvmArgList = new ArrayList<String>();
+        for (String arg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (arg.startsWith("-Xm") || arg.startsWith("-D")) jvmArgList.add(arg);
+        }
+        List<Process> processList = new ArrayList<Process>();
+        List<Thread> drainerList = new ArrayList<Thread>();
+        try {
+            for (int i = 0; i < numOfShards; i++) {
+                File dir = new File(workDir, role + "-" + i);
+                if (!dir.isDirectory() && !dir.mkdirs())
+                    throw new IOException("Directory " + dir + " cannot be created");
+                List<String> command = new ArrayList<String>();
+                command.add(System.getProperty("java.home") + File.separator + "bin" +
+                        File.separator + "java");
+                command.addAll(jvmArgList);
+                command.add("-cp");
+                command.add(System.getProperty("java.class.path"));
+                command.add("cn.yyz.nospa.validator.Main");
+                command.add("--shard-worker");
+                command.add(role);
+                command.add(workDir.getAbsolutePath());
+                command.add(Integer.toString(i));
+                command.add(Integer.toString(numOfShards));
+                ProcessBuilder builder = new ProcessBuilder(command);
+                builder.directory(dir);
+                builder.redirectErrorStream(true);
+                Process process = builder.start();
+                processList.add(process);
+                Thread drainer = new Thread(new Drainer(process.getInputStream(),
+                        new File(dir, "console.txt")));
+                drainer.start();
+                drainerList.add(drainer);
+            }
+            for (int i = 0; i < numOfShards; i++) {
+                int exitValue = processList.get(i).waitFor();
+                drainerList.get(i).join();
+                if (exitValue != 0)
+                    throw new IOException("Worker " + role + "-" + i + " failed, see " +
+                            new File(workDir, role + "-" + i));
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the workers");
+        } finally {
+            for (Process process : processList) process.destroy();
+        }
+    }
+
+    /**
+     * Reads the numbers of observations of IC-17 of each dataset counted by
+     * the map workers
+     * @return a map of datasets with their numbers of observations
+     * @throws IOException if a count file cannot be read
+     */
+    private Map<Resource, Integer> readCounts() throws IOException {
+        Map<Resource, Integer> numOfObsByDataset = new HashMap<Resource, Integer>();
+        for (int i = 0; i < numOfShards; i++) {
+            BufferedReader reader = openReader("count17-" + i + ".txt");
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split("\t");
+                    Resource dataset = toResource(fields[0]);
+                    Integer count = numOfObsByDataset.get(dataset);
+                    numOfObsByDataset.put(dataset, Integer.parseInt(fields[1]) +
+                            (count == null ? 0 : count));
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        return numOfObsByDataset;
+    }
+
+    /**
+     * @param node an RDF node
+     * @return the index of the shard of the node
+     */
+    private int shardOf(Node node) {
+        return (FmtUtils.stringForNode(node).hashCode() & Integer.MAX_VALUE) % numOfShards;
+    }
+
+    /**
+     * @param node an RDF node
+     * @return the node in the form of N-Triples
+     */
+    private String toToken(RDFNode node) {
+        return FmtUtils.stringForNode(node.asNode());
+    }
+
+    /**
+     * @param token a resource in the form of N-Triples
+     * @return the resource
+     */
+    private Resource toResource(String token) {
+        return (Resource) model.asRDFNode(NodeFactoryExtra.parseNode(token));
+    }
+
+    /**
+     * This function is a subtask to parse a cube file into a listener
+     * @param filename complete path of the cube file
+     * @param format RDF serialization format of the cube file
+     * @param sink the listener of the triples
+     */
+    private void parse(String filename, String format, StreamRDF sink) {
+        InputStream inputStream = FileManager.get().open(filename);
+        if (inputStream == null) {
+            String msg = "File " + filename + " not found";
+            logger.error(msg);
+            throw new IllegalArgumentException(msg);
+        }
+        Progress progress = Progress.start("Reading cube file", "bytes", new File(filename).length());
+        try {
+            RDFDataMgr.parse(sink, progress.track(inputStream), RDFLanguages.nameToLang(format));
+        } finally {
+            progress.done();
+            try {
+                inputStream.close();
+            } catch (IOException ioe) {
+                logger.warn("Failed to close " + filename);
+            }
+        }
+    }
+
+    /**
+     * This function is a subtask to read an N-Triples file of the work
+     * directory into a model
+     * @param target the model receiving the triples
+     * @param name the name of the file
+     * @throws IOException if the file cannot be read
+     */
+    private void read(Model target, String name) throws IOException {
+        InputStream inputStream = new BufferedInputStream(new FileInputStream(new File(workDir, name)));
+        try {
+            RDFDataMgr.read(target, inputStream, RDFLanguages.NTRIPLES);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * This function is a subtask to write a model into an N-Triples file of
+     * the work directory
+     * @param source the model to be written
+     * @param name the name of the file
+     * @throws IOException if the file cannot be written
+     */
+    private void write(Model source, String name) throws IOException {
+        OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(new File(workDir, name)));
+        try {
+            StreamRDF out = StreamRDFLib.writer(outputStream);
+            out.start();
+            Iterator<Triple> tripleIter = source.getGraph().find(Node.ANY, Node.ANY, Node.ANY);
+            while (tripleIter.hasNext()) out.triple(tripleIter.next());
+            out.finish();
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    /**
+     * @param name the name of a file of the work directory
+     * @return a reader of the file
+     * @throws IOException if the file cannot be read
+     */
+    private BufferedReader openReader(String name) throws IOException {
+        return new BufferedReader(new InputStreamReader(
+                new FileInputStream(new File(workDir, name)), "utf-8"));
+    }
+
+    /**
+     * @param name the name of a file of the work directory
+     * @return a writer of the file
+     * @throws IOException if the file cannot be written
+     */
+    private PrintWriter openWriter(String name) throws IOException {
+        return new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(new File(workDir, name)), "utf-8")));
+    }
+
+    /**
+     * Writes a line of the validation report
+     * @param line a line of the report
+     */
+    private void writeLine(String line) {
+        logger.debug(line);
+        if (reportWriter != null) reportWriter.println(line);
+    }
+
+    /**
+     * A listener for the second pass over the cube file, writing the triples
+     * of each observation into the file of its shard
+     */
+    private class Splitter implements StreamRDF {
+        private Set<Node> obsSet;
+        private List<OutputStream> outputStreamList = new ArrayList<OutputStream>();
+        private List<StreamRDF> outList = new ArrayList<StreamRDF>();
+
+        Splitter(Set<Node> obsSet) throws IOException {
+            this.obsSet = obsSet;
+            for (int i = 0; i < numOfShards; i++) {
+                OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(
+                        new File(workDir, "shard-" + i + ".nt")));
+                outputStreamList.add(outputStream);
+                outList.add(StreamRDFLib.writer(outputStream));
+            }
+        }
+
+        public void start() {
+            for (StreamRDF out : outList) out.start();
+        }
+
+        public void triple(Triple triple) {
+            Node subject = triple.getSubject();
+            if (!subject.isBlank() && obsSet.contains(subject))
+                outList.get(shardOf(subject)).triple(triple);
+        }
+
+        public void quad(Quad quad) {
+            if (quad.isDefaultGraph()) triple(quad.asTriple());
+        }
+
+        public void base(String base) {
+        }
+
+        public void prefix(String prefix, String iri) {
+        }
+
+        public void finish() {
+            for (StreamRDF out : outList) out.finish();
+            for (OutputStream outputStream : outputStreamList) {
+                try {
+                    outputStream.close();
+                } catch (IOException ioe) {
+                    throw new IllegalStateException("Failed to write a shard", ioe);
+                }
+            }
+        }
+    }
+
+    /**
+     * A result sink merging the records of the workers. The details of a node
+     * reported by several workers are merged, and a constraint is incomplete
+     * unless each of the map workers, or of the reduce workers for IC-12, has
+     * completed it.
+     */
+    private class MergeSink implements ValidationResultSink {
+        private Map<Constraint, Map<RDFNode, Set<Object>>> resultByConstraint =
+                new EnumMap<Constraint, Map<RDFNode, Set<Object>>>(Constraint.class);
+        private int[] numOfCompleted = new int[Constraint.values().length];
+        private Set<Constraint> incompleteSet = EnumSet.noneOf(Constraint.class);
+
+        public void violation(Constraint constraint, Resource dataset, RDFNode node, Object detail) {
+            Map<RDFNode, Set<Object>> result = resultByConstraint.get(constraint);
+            if (result == null) {
+                result = new LinkedHashMap<RDFNode, Set<Object>>();
+                resultByConstraint.put(constraint, result);
+            }
+            Set<Object> detailSet = result.get(node);
+            if (detailSet == null) {
+                detailSet = new LinkedHashSet<Object>();
+                result.put(node, detailSet);
+            }
+            if (detail instanceof Collection) detailSet.addAll((Collection<?>) detail);
+            else if (detail != null) detailSet.add(detail);
+        }
+
+        public void completed(Constraint constraint, boolean isIncomplete, long time) {
+            numOfCompleted[constraint.ordinal()]++;
+            if (isIncomplete) incompleteSet.add(constraint);
+        }
+
+        /**
+         * Reports the merged result of a constraint. A single value is
+         * reported as a set of one value, which reads the same.
+         * @param validator the validator writing the report
+         * @param constraint an observation level constraint
+         */
+        void report(NospaValidator validator, Constraint constraint) {
+            Map<RDFNode, Set<Object>> result = resultByConstraint.get(constraint);
+            boolean isIncomplete = incompleteSet.contains(constraint) ||
+                    numOfCompleted[constraint.ordinal()] < numOfShards;
+            validator.reportResult(constraint, result == null ?
+                    Collections.<RDFNode, Set<Object>>emptyMap() : result, isIncomplete);
+        }
+    }
+
+    /**
+     * Copies the console output of a worker into a file
+     */
+    private static class Drainer implements Runnable {
+        private InputStream inputStream;
+        private File file;
+
+        Drainer(InputStream inputStream, File file) {
+            this.inputStream = inputStream;
+            this.file = file;
+        }
+
+        public void run() {
+            byte[] buffer = new byte[8192];
+            try {
+                OutputStream outputStream = new FileOutputStream(file);
+                try {
+                    int length;
+                    while ((length = inputStream.read(buffer)) != -1)
+                        outputStream.write(buffer, 0, length);
+                } finally {
+                    outputStream.close();
+                }
+            } catch (IOException ioe) {
+                // the worker is gone, and its exit value tells if it failed
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package cn.yyz.nospa.validator.nonsparql;
+
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * The metrics of a stage of a pipeline: the number of items it has
+ * processed, the time it has spent working and waiting for the queues
+ * around it, and the depth of its output queue sampled whenever it hands
+ * over an item. A stage which is busy most of the time while the others
+ * wait is the bottleneck of the pipeline. The metrics are updated by the
+ * thread of the stage only, and read once it has stopped.
+ */
+public class StageMetrics {
+    private String name;
+    private String unit;
+    private int capacity;
+    private long numOfItems = 0;
+    private long startTime = 0;
+    private long stopTime = 0;
+    private long inputWaitTime = 0;
+    private long outputWaitTime = 0;
+    private long depthSum = 0;
+    private long numOfSamples = 0;
+    private int maxDepth = 0;
+
+    /**
+     * Constructor of the metrics of a stage
+     * @param name the name of the stage
+     * @param unit the name of the items counted
+     * @param capacity the capacity of the output queue, or 0 if there is none
+     */
+    public StageMetrics(String name, String unit, int capacity) {
+        this.name = name;
+        this.unit = unit;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Marks the start of the stage
+     */
+    void start() {
+        startTime = System.nanoTime();
+    }
+
+    /**
+     * Marks the stop of the stage
+     */
+    void stop() {
+        stopTime = System.nanoTime();
+    }
+
+    /**
+     * Counts processed items
+     * @param count the number of items
+     */
+    void count(int count) {
+        numOfItems += count;
+    }
+
+    /**
+     * Takes an item from the input queue of the stage, counting the time
+     * spent waiting for it
+     * @param queue the input queue
+     * @param <T> the type of the items
+     * @return the item
+     * @throws InterruptedException if the stage is interrupted while waiting
+     */
+    <T> T take(BlockingQueue<T> queue) throws InterruptedException {
+        long start = System.nanoTime();
+        T item = queue.take();
+        inputWaitTime += System.nanoTime() - start;
+        return item;
+    }
+
+    /**
+     * Puts an item into the output queue of the stage, sampling the depth of
+     * the queue and counting the time spent waiting for room
+     * @param queue the output queue
+     * @param item the item
+     * @param <T> the type of the items
+     * @throws InterruptedException if the stage is interrupted while waiting
+     */
+    <T> void put(BlockingQueue<T> queue, T item) throws InterruptedException {
+        int depth = queue.size();
+        depthSum += depth;
+        numOfSamples++;
+        maxDepth = Math.max(maxDepth, depth);
+        long start = System.nanoTime();
+        queue.put(item);
+        outputWaitTime += System.nanoTime() - start;
+    }
+
+    /**
+     * @return the name of the stage
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the number of items processed
+     */
+    public long getNumOfItems() {
+        return numOfItems;
+    }
+
+    /**
+     * @return the time in milliseconds from the start to the stop of the
+     * stage
+     */
+    public long getElapsedTime() {
+        return (stopTime - startTime) / 1000000;
+    }
+
+    /**
+     * @return the time in milliseconds spent waiting for the input queue
+     */
+    public long getInputWaitTime() {
+        return inputWaitTime / 1000000;
+    }
+
+    /**
+     * @return the time in milliseconds spent waiting for room in the output
+     * queue
+     */
+    public long getOutputWaitTime() {
+        return outputWaitTime / 1000000;
+    }
+
+    /**
+     * @return the time in milliseconds spent working
+     */
+    public long getBusyTime() {
+        return Math.max(getElapsedTime() - getInputWaitTime() - getOutputWaitTime(), 0);
+    }
+
+    /**
+     * @return the number of items processed per second of work
+     */
+    public double getThroughput() {
+        return numOfItems * 1000.0 / Math.max(getBusyTime(), 1);
+    }
+
+    /**
+     * @return the largest depth of the output queue sampled
+     */
+    public int getMaxQueueDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @return the mean depth of the output queue sampled
+     */
+    public double getMeanQueueDepth() {
+        return numOfSamples == 0 ? 0 : (double) depthSum / numOfSamples;
+    }
+
+    public String toString() {
+        String metrics = "Stage " + name + ": " + numOfItems + " " + unit + ", busy " +
+                getBusyTime() + "ms, waiting for input " + getInputWaitTime() +
+                "ms, waiting for output " + getOutputWaitTime() + "ms, " +
+                String.format("%.0f", getThroughput()) + " " + unit + "/s";
+        if (capacity == 0) return metrics;
+        return metrics + ", queue depth " + String.format("%.1f", getMeanQueueDepth()) +
+                " on average, " + maxDepth + " at most of " + capacity;
+    }
+}
@@ -0,0 +1,500 @@
+package cn.yyz.nospa.validator.nonsparql;
+
+import cn.yyz.nospa.validator.Constraint;
+import cn.yyz.nospa.validator.Progress;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.rdf.model.*;
+import com.hp.hpl.jena.sparql.core.Quad;
+import com.hp.hpl.jena.util.FileManager;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.RDFLanguages;
+import org.apache.jena.riot.system.StreamRDF;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A validator consuming a stream of triples grouped by subject, e.g., a
+ * subject-sorted N-Triples file, with bounded memory. The triples before the
+ * first observation, i.e., the structure definitions, code lists, datasets
+ * and slices, are kept and compiled into a schema context. From then on the
+ * triples of each observation are collected until its group completes, and
+ * observations are normalized and fed to the observation level checks in
+ * chunks, then discarded. Only the violations, the dimension keys of IC-12
+ * and the measure groups of IC-17 are kept across chunks, so that the peak
+ * memory does not depend on the number of observations except for these
+ * keys. The report is written once the stream ends, in the same form as the
+ * report of a NoSPA validator.
+ * The triples of a subject must be contiguous, and the triples of anything
+ * but observations must precede the first observation. Later triples of
+ * other subjects are ignored with a warning. Files in any order are validated
+ * in two passes instead, with the structures collected by a first pass.
+ * The stages may also run as a pipeline on threads of their own, connected
+ * by bounded queues: the parser pushes batches of triples to a stage which
+ * groups and normalizes observations into chunks, and a validation stage
+ * consumes the chunks, so that parsing and validating overlap while the
+ * queues hold back a stage running ahead of the next one.
+ */
+public class StreamingValidator extends ValidatorBase implements StreamRDF {
+    private static final int BATCH_SIZE = 1000;
+    private static final Chunk END_OF_CHUNKS = new Chunk(null, null);
+    private static final List<Triple> END_OF_TRIPLES = new ArrayList<Triple>();
+    private Logger logger = LoggerFactory.getLogger(StreamingValidator.class);
+    private Model chunkModel = ModelFactory.createDefaultModel();
+    private Model fillModel = chunkModel;
+    private SchemaContext context;
+    private int chunkSize;
+    private Node subject;
+    private List<Triple> tripleList = new ArrayList<Triple>();
+    private Set<Resource> chunkObsSet = new LinkedHashSet<Resource>();
+    private List<ObservationCheck> checkList;
+    private List<ObservationCheck> presenceCheckList;
+    private long numOfObs = 0;
+    private long numOfIgnored = 0;
+    private Map<Node, Integer> tripleCountByObs;
+    private Map<Node, List<Triple>> pendingTriplesByObs = new HashMap<Node, List<Triple>>();
+    private PrintWriter reportWriter;
+    private int queueCapacity = 0;
+    private BlockingQueue<Chunk> chunkQueue;
+    private List<StageMetrics> metricsList = new ArrayList<StageMetrics>();
+
+    /**
+     * Constructor of a streaming validator
+     * @param chunkSize the number of observations held at a time
+     */
+    public StreamingValidator(int chunkSize) {
+        super(ModelFactory.createDefaultModel());
+        this.chunkSize = Math.max(chunkSize, 1);
+    }
+
+    /**
+     * Constructor of a streaming validator for a second pass over a cube
+     * file, after a first pass has collected its structures and counted the
+     * triples of its observations. The triples of observations may then come
+     * in any order: those of each observation are held until all of them have
+     * been read, and all other triples are skipped.
+     * @param chunkSize the number of complete observations held at a time
+     * @param collector the listener of the first pass
+     */
+    public StreamingValidator(int chunkSize, SchemaCollector collector) {
+        this(chunkSize);
+        model = collector.getSchemaModel();
+        tripleCountByObs = collector.getTripleCountByObs();
+        compile();
+    }
+
+    /**
+     * Set a writer receiving a copy of the lines of the validation report
+     * @param reportWriter a writer, or null to write the report to the log
+     *                     only
+     */
+    public void setReportWriter(PrintWriter reportWriter) {
+        this.reportWriter = reportWriter;
+    }
+
+    /**
+     * Runs the stages as a pipeline on threads of their own, connected by
+     * bounded queues
+     * @param queueCapacity the number of batches of triples and of chunks of
+     *                      observations each queue holds, or 0 to run the
+     *                      stages one after another on the calling thread
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = Math.max(queueCapacity, 0);
+    }
+
+    /**
+     * @return the metrics of the stages of the last pipelined validation, in
+     * the order of the pipeline
+     */
+    public List<StageMetrics> getStageMetrics() {
+        return metricsList;
+    }
+
+    /**
+     * Streams a file through the validator
+     * @param filename complete path of the file
+     * @param format RDF serialization format of the file, which should be a
+     *               line based one such as N-TRIPLE
+     */
+    public void validate(String filename, String format) {
+        InputStream inputStream = FileManager.get().open(filename);
+        if (inputStream == null) {
+            String msg = "File " + filename + " not found";
+            logger.error(msg);
+            throw new IllegalArgumentException(msg);
+        }
+        logger.debug("RDF Cube Validation Result");
+        logger.debug("==========================");
+        logger.debug("");
+        logger.debug("Validator: NoSPA");
+        logger.debug(new Date().toString());
+        logger.debug(filename);
+        logger.debug("");
+        logger.info("Streaming cube file ...");
+        Progress progress = Progress.start("Streaming cube file", "bytes", new File(filename).length());
+        try {
+            if (queueCapacity > 0) runPipeline(progress.track(inputStream), format);
+            else RDFDataMgr.parse(this, progress.track(inputStream), RDFLanguages.nameToLang(format));
+        } finally {
+            progress.done();
+            try {
+                inputStream.close();
+            } catch (IOException ioe) {
+                logger.warn("Failed to close " + filename);
+            }
+        }
+    }
+
+    public void start() {
+    }
+
+    public void triple(Triple triple) {
+        if (tripleCountByObs != null) {
+            collect(triple);
+            return;
+        }
+        if (!triple.getSubject().equals(subject)) {
+            completeGroup();
+            subject = triple.getSubject();
+        }
+        tripleList.add(triple);
+    }
+
+    public void quad(Quad quad) {
+        if (quad.isDefaultGraph()) triple(quad.asTriple());
+    }
+
+    public void base(String base) {
+    }
+
+    public void prefix(String prefix, String iri) {
+    }
+
+    /**
+     * Validates the last chunk of observations and writes the report
+     */
+    public void finish() {
+        flush();
+        report();
+    }
+
+    /**
+     * Runs the parser, the grouping and normalizing stage and the validation
+     * stage on threads of their own. A failure of any stage stops the others.
+     * @param inputStream the input stream of the cube file
+     * @param format RDF serialization format of the cube file
+     */
+    private void runPipeline(final InputStream inputStream, final String format) {
+        final BlockingQueue<List<Triple>> tripleQueue =
+                new ArrayBlockingQueue<List<Triple>>(queueCapacity);
+        chunkQueue = new ArrayBlockingQueue<Chunk>(queueCapacity);
+        final StageMetrics parseMetrics = new StageMetrics("parse", "triples", queueCapacity);
+        final StageMetrics normalizeMetrics = new StageMetrics("normalize", "observations", queueCapacity);
+        final StageMetrics validateMetrics = new StageMetrics("validate", "observations", 0);
+        metricsList = Arrays.asList(parseMetrics, normalizeMetrics, validateMetrics);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        CompletionService<Void> completionService = new ExecutorCompletionService<Void>(executor);
+        completionService.submit(new Callable<Void>() {
+            public Void call() throws InterruptedException {
+                parseMetrics.start();
+                try {
+                    RDFDataMgr.parse(new BatchSink(tripleQueue, parseMetrics), inputStream,
+                            RDFLanguages.nameToLang(format));
+                } finally {
+                    parseMetrics.stop();
+                }
+                return null;
+            }
+        });
+        completionService.submit(new Callable<Void>() {
+            public Void call() throws InterruptedException {
+                normalizeMetrics.start();
+                try {
+                    List<Triple> batch;
+                    while ((batch = normalizeMetrics.take(tripleQueue)) != END_OF_TRIPLES) {
+                        for (Triple triple : batch) triple(triple);
+                    }
+                    flush();
+                    normalizeMetrics.put(chunkQueue, END_OF_CHUNKS);
+                } finally {
+                    normalizeMetrics.stop();
+                }
+                return null;
+            }
+        });
+        completionService.submit(new Callable<Void>() {
+            public Void call() throws InterruptedException {
+                validateMetrics.start();
+                try {
+                    Chunk chunk;
+                    while ((chunk = validateMetrics.take(chunkQueue)) != END_OF_CHUNKS) {
+                        checkChunk(chunk);
+                        validateMetrics.count(chunk.obsSet.size());
+                    }
+                } finally {
+                    validateMetrics.stop();
+                }
+                return null;
+            }
+        });
+        try {
+            for (int i = 0; i < 3; i++) completionService.take().get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while validating the stream");
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof RuntimeException) throw (RuntimeException) ee.getCause();
+            throw new IllegalStateException("Validation of the stream failed", ee.getCause());
+        } finally {
+            executor.shutdownNow();
+            chunkQueue = null;
+        }
+        for (StageMetrics metrics : metricsList) logger.info(metrics.toString());
+        report();
+    }
+
+    /**
+     * This function is a subtask to complete the last group and the
+     * observations still pending, and validate the last chunk
+     */
+    private void flush() {
+        completeGroup();
+        if (context == null) compile();
+        if (!pendingTriplesByObs.isEmpty()) {
+            logger.warn(pendingTriplesByObs.size() + " observations have fewer triples than counted");
+            for (Node obs : pendingTriplesByObs.keySet()) addObservation(obs, pendingTriplesByObs.get(obs));
+            pendingTriplesByObs.clear();
+        }
+        completeChunk();
+    }
+
+    /**
+     * This function is a subtask to finish the checks and write the report
+     * once all chunks have been validated
+     */
+    private void report() {
+        if (numOfIgnored > 0)
+            logger.warn(numOfIgnored + " triples following the first observation were ignored");
+        for (ObservationCheck check : checkList) check.finish(new PresenceIndex(model));
+        logger.info("Streamed " + numOfObs + " observations");
+        NospaValidator validator = new NospaValidator(context.getModel());
+        validator.setReportWriter(reportWriter);
+        validator.reportSwept(EnumSet.allOf(Constraint.class), checkList);
+    }
+
+    /**
+     * This function is a subtask to handle the triples of a subject once its
+     * group completes: they are kept with the schema before the first
+     * observation, added to the current chunk for an observation, and
+     * ignored otherwise
+     */
+    private void completeGroup() {
+        if (tripleList.isEmpty()) return;
+        boolean isObs = false;
+        for (Triple triple : tripleList) {
+            Node predicate = triple.getPredicate();
+            if (predicate.equals(QB_dataSet.asNode()) || (predicate.equals(RDF_type.asNode()) &&
+                    triple.getObject().equals(QB_Observation.asNode()))) isObs = true;
+        }
+        if (!isObs) isObs = (context == null ? model : context.getModel()).contains(
+                null, QB_observation, model.asRDFNode(subject));
+        if (isObs && context == null) compile();
+        if (isObs) addObservation(subject, tripleList);
+        else if (context == null) {
+            for (Triple triple : tripleList) model.getGraph().add(triple);
+        }
+        else numOfIgnored += tripleList.size();
+        tripleList.clear();
+    }
+
+    /**
+     * This function is a subtask to hold a triple of an observation in the
+     * second pass until all triples of the observation have been read
+     * @param triple a triple
+     */
+    private void collect(Triple triple) {
+        Node obs = triple.getSubject();
+        Integer count = tripleCountByObs.get(obs);
+        if (count == null) return;
+        List<Triple> pendingList = pendingTriplesByObs.get(obs);
+        if (pendingList == null) {
+            pendingList = new ArrayList<Triple>();
+            pendingTriplesByObs.put(obs, pendingList);
+        }
+        pendingList.add(triple);
+        if (count > 1) {
+            tripleCountByObs.put(obs, count - 1);
+            return;
+        }
+        tripleCountByObs.remove(obs);
+        pendingTriplesByObs.remove(obs);
+        addObservation(obs, pendingList);
+    }
+
+    /**
+     * This function is a subtask to add the triples of a complete
+     * observation to the current chunk, and validate the chunk once it is
+     * full
+     * @param obs an observation
+     * @param obsTripleList the triples of the observation
+     */
+    private void addObservation(Node obs, List<Triple> obsTripleList) {
+        for (Triple triple : obsTripleList) fillModel.getGraph().add(triple);
+        chunkObsSet.add((Resource) fillModel.asRDFNode(obs));
+        numOfObs++;
+        if (chunkObsSet.size() >= chunkSize) completeChunk();
+    }
+
+    /**
+     * Compiles the schema read so far into a context, and prepares the
+     * observation level checks on the union of the chunk and the context
+     */
+    private void compile() {
+        logger.info("Compiling structures of " + model.size() + " triples ...");
+        context = new SchemaContext(model);
+        model = ModelFactory.createUnion(chunkModel, context.getModel());
+        ValidatorIC11_12 validatorIC11_12 = new ValidatorIC11_12(model);
+        validatorIC11_12.keepIndexes(new HashMap<Resource, DuplicateIndex>(), null);
+        ValidatorIC20_21 validatorIC20_21 = new ValidatorIC20_21(model);
+        if (!context.getCodeSets().isEmpty()) validatorIC20_21.keepCodeSets(context.getCodeSets());
+        checkList = Arrays.<ObservationCheck>asList(new ValidatorIC1(model), validatorIC11_12,
+                new ValidatorIC13(model), new ValidatorIC14(model), new ValidatorIC15_16(model),
+                new ValidatorIC17(model), new ValidatorIC18(model), new ValidatorIC19(model),
+                validatorIC20_21);
+        presenceCheckList = checkList.subList(1, 4);
+        for (ObservationCheck check : checkList) check.prepare();
+        logger.info("Validating observations ...");
+    }
+
+    /**
+     * Normalizes the observations of the current chunk, then validates the
+     * chunk, or hands it over to the validation stage of a pipeline and starts
+     * a new chunk
+     */
+    private void completeChunk() {
+        if (chunkObsSet.isEmpty()) return;
+        new Normalizer(ModelFactory.createUnion(fillModel, context.getModel()))
+                .normalizeObservations(chunkObsSet);
+        Chunk chunk = new Chunk(fillModel, chunkObsSet);
+        if (chunkQueue == null) {
+            checkChunk(chunk);
+            chunkObsSet.clear();
+            return;
+        }
+        StageMetrics metrics = metricsList.get(1);
+        metrics.count(chunkObsSet.size());
+        try {
+            metrics.put(chunkQueue, chunk);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while handing over a chunk");
+        }
+        fillModel = ModelFactory.createDefaultModel();
+        chunkObsSet = new LinkedHashSet<Resource>();
+    }
+
+    /**
+     * Feeds the observations of a normalized chunk to the checks and discards
+     * them. The records of the observations are read from the model of the
+     * checks, into which the chunk is copied in a pipeline. The checks of missing values are finished on the presence index
+     * of the chunk, which adds up their results; the other checks are
+     * finished once the stream ends.
+     * @param chunk a normalized chunk
+     */
+    private void checkChunk(Chunk chunk) {
+        if (chunk.model != chunkModel) chunkModel.add(chunk.model);
+        PresenceIndex presenceIndex = new PresenceIndex(model);
+        presenceIndex.setDirectLookup(true);
+        for (Resource obs : chunk.obsSet) {
+            ObservationRecord record = new ObservationRecord(model, obs);
+            Set<RDFNode> datasetSet = record.getValues(QB_dataSet);
+            for (RDFNode dataset : datasetSet) {
+                if (!dataset.isResource()) continue;
+                presenceIndex.addObservation(dataset.asResource(), obs);
+                for (ObservationCheck check : checkList) check.check(dataset.asResource(), record);
+            }
+            if (datasetSet.isEmpty() && record.getValues(RDF_type).contains(QB_Observation)) {
+                for (ObservationCheck check : checkList) check.check(null, record);
+            }
+        }
+        for (ObservationCheck check : presenceCheckList) check.finish(presenceIndex);
+        chunkModel.removeAll();
+    }
+
+    /**
+     * A listener for the parser stage of a pipeline, pushing the triples in
+     * batches into the queue of the next stage
+     */
+    private class BatchSink implements StreamRDF {
+        private BlockingQueue<List<Triple>> tripleQueue;
+        private StageMetrics metrics;
+        private List<Triple> batch = new ArrayList<Triple>(BATCH_SIZE);
+
+        BatchSink(BlockingQueue<List<Triple>> tripleQueue, StageMetrics metrics) {
+            this.tripleQueue = tripleQueue;
+            this.metrics = metrics;
+        }
+
+        public void start() {
+        }
+
+        public void triple(Triple triple) {
+            batch.add(triple);
+            if (batch.size() >= BATCH_SIZE) push(null);
+        }
+
+        public void quad(Quad quad) {
+            if (quad.isDefaultGraph()) triple(quad.asTriple());
+        }
+
+        public void base(String base) {
+        }
+
+        public void prefix(String prefix, String iri) {
+        }
+
+        public void finish() {
+            push(END_OF_TRIPLES);
+        }
+
+        /**
+         * Pushes the current batch into the queue, followed by another item
+         * @param next the end of the triples to be pushed after the batch, or
+         *             null to push the batch only
+         */
+        private void push(List<Triple> next) {
+            try {
+                if (!batch.isEmpty()) {
+                    metrics.count(batch.size());
+                    metrics.put(tripleQueue, batch);
+                    batch = new ArrayList<Triple>(BATCH_SIZE);
+                }
+                if (next != null) metrics.put(tripleQueue, next);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while parsing");
+            }
+        }
+    }
+
+    /**
+     * A chunk of normalized observations handed over between the stages
+     */
+    private static class Chunk {
+        private Model model;
+        private Set<Resource> obsSet;
+
+        Chunk(Model model, Set<Resource> obsSet) {
+            this.model = model;
+            this.obsSet = obsSet;
+        }
+    }
+}
@@ -1,5 +1,8 @@
 package cn.yyz.nospa.validator.nonsparql;
 
+import cn.yyz.nospa.validator.CancellationToken;
+import cn.yyz.nospa.validator.Constraint;
+import cn.yyz.nospa.validator.ValidationResultSink;
 import com.hp.hpl.jena.rdf.model.*;
 
 import java.util.*;
@@ -11,6 +14,12 @@ import java.util.*;
  */
 public class ValidatorBase {
     protected Model model;
+    protected ViolationBudget budget;
+    protected ObservationSample sample;
+    protected CancellationToken token;
+    protected ValidationResultSink sink;
+    protected boolean countOnly = false;
+    private volatile boolean incomplete = false;
 
     /**
      * The constructor of a validator base
@@ -20,6 +29,157 @@ public class ValidatorBase {
         this.model = model;
     }
 
+    /**
+     * Set the budget of violations to be recorded by this validator
+     * @param budget a violation budget, or null for no limit
+     */
+    public void setBudget(ViolationBudget budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Set the sample of observations validated by this validator, if any
+     * @param sample an observation sample, or null to validate all
+     *               observations
+     */
+    public void setSample(ObservationSample sample) {
+        this.sample = sample;
+    }
+
+    /**
+     * Set the token which stops this validator when it is cancelled or its
+     * time limit has passed
+     * @param token a cancellation token, or null to run to completion
+     */
+    public void setCancellationToken(CancellationToken token) {
+        this.token = token;
+    }
+
+    /**
+     * Set the sink receiving the violations of the observations as soon as
+     * they are found, instead of the result maps of this validator
+     * @param sink a result sink, or null to collect the violations into the
+     *             result maps
+     */
+    public void setResultSink(ValidationResultSink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * Set whether only the violations are needed and not the properties or
+     * values involved, in which case the details are not collected and the
+     * violations are recorded with null details, e.g., to count them
+     * @param countOnly true to record the violations without details
+     */
+    public void setCountOnly(boolean countOnly) {
+        this.countOnly = countOnly;
+    }
+
+    /**
+     * Check if this validator stopped before completion, in which case its
+     * results are partial
+     * @return true if the validation was cancelled or timed out
+     */
+    public boolean isIncomplete() {
+        return incomplete;
+    }
+
+    /**
+     * Checks the cancellation token in a loop of the validation and marks the
+     * results as incomplete if it has to stop
+     * @return true if the validation should stop
+     */
+    public boolean shouldStop() {
+        if (incomplete) return true;
+        if (token == null || !token.isCancelled()) return false;
+        incomplete = true;
+        return true;
+    }
+
+    /**
+     * Records a sampled observation violating a constraint for the estimation
+     * of violation rates
+     * @param constraint the violated constraint
+     * @param dataset the dataset of the observation
+     * @param obs the observation
+     */
+    protected void tally(Constraint constraint, Resource dataset, Resource obs) {
+        if (sample != null) sample.addViolation(constraint, dataset, obs);
+    }
+
+    /**
+     * Records a violation of a constraint, either into the result sink or
+     * into a result map
+     * @param constraint the violated constraint
+     * @param dataset the dataset of the violating node, or null
+     * @param resultMap the map collecting the violations without a sink
+     * @param node the node violating the constraint
+     * @param detail the properties or values involved
+     * @param <K> the type of the violating nodes
+     * @param <V> the type of the details
+     */
+    protected <K extends RDFNode, V> void record(Constraint constraint, Resource dataset,
+                                                Map<K, V> resultMap, K node, V detail) {
+        if (sink != null) sink.violation(constraint, dataset, node, detail);
+        else resultMap.put(node, detail);
+    }
+
+    /**
+     * Records the observations of a dataset missing values for a set of
+     * properties, either into the result sink one by one or into a result map,
+     * without the properties if only the violations are needed
+     * @param presenceIndex the presence index of the swept observations
+     * @param dataset a dataset
+     * @param propSet a set of properties
+     * @param constraint the constraint violated by missing values
+     * @param resultMap the map collecting the violations without a sink
+     */
+    protected void recordMissingValues(PresenceIndex presenceIndex, Resource dataset,
+                                       Set<Property> propSet, Constraint constraint,
+                                       Map<Resource, Set<RDFNode>> resultMap) {
+        if (sink != null) presenceIndex.sendMissingValues(dataset, propSet, constraint, sink, !countOnly);
+        else resultMap.putAll(presenceIndex.getMissingValues(dataset, propSet, constraint, !countOnly));
+    }
+
+    /**
+     * Spends the budget for a violation of a constraint
+     * @param constraint the violated constraint
+     * @return true if the violation may be recorded
+     */
+    protected boolean spend(Constraint constraint) {
+        return budget == null || budget.spend(constraint);
+    }
+
+    /**
+     * Spends the budget for each violation in a set and keeps those which may
+     * be recorded
+     * @param constraint the violated constraint
+     * @param violationSet a set of violations
+     * @param <T> the type of the violations
+     * @return the given set, truncated if the budget is exhausted
+     */
+    protected <T> Set<T> spendAll(Constraint constraint, Set<T> violationSet) {
+        if (budget == null) return violationSet;
+        Set<T> admittedSet = new HashSet<T>();
+        for (T violation : violationSet) {
+            if (!budget.spend(constraint)) break;
+            admittedSet.add(violation);
+        }
+        return admittedSet;
+    }
+
+    /**
+     * Checks if no more violations of a constraint may be recorded, in which
+     * case the budget records that the scan for them stops
+     * @param constraint an integrity constraint
+     * @return true if the budget of the constraint is exhausted
+     */
+    protected boolean isExhausted(Constraint constraint) {
+        if (budget == null || !budget.isExhausted(constraint)) return false;
+        budget.truncate(constraint);
+        return true;
+    }
+
     /**
      * Searches resources and their corresponding values connected by a
      * property path (e.g.,
@@ -282,12 +442,15 @@ public class ValidatorBase {
         boolean isConnected = false;
         Set<RDFNode> objectSet = searchObjectsOfProperty(Collections.singleton(subject),
                 repProp);
-        while (!objectSet.isEmpty()) {
+        Set<RDFNode> visitedSet = new HashSet<RDFNode>();
+        while (!objectSet.isEmpty() && !shouldStop()) {
             if (objectSet.contains(object)) {
                 isConnected = true;
                 break;
             }
-            else objectSet = searchObjectsOfProperty(nodeToResource(objectSet), repProp);
+            visitedSet.addAll(objectSet);
+            objectSet = searchObjectsOfProperty(nodeToResource(objectSet), repProp);
+            objectSet.removeAll(visitedSet);
         }
         return isConnected;
     }
@@ -1,17 +1,23 @@
 package cn.yyz.nospa.validator.nonsparql;
 
+import cn.yyz.nospa.validator.Constraint;
 import com.hp.hpl.jena.rdf.model.Model;
 import com.hp.hpl.jena.rdf.model.RDFNode;
 import com.hp.hpl.jena.rdf.model.Resource;
 
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
 /**
  * Created by yyz on 11/4/14.
  */
-public class ValidatorIC1 extends ValidatorBase {
+public class ValidatorIC1 extends ValidatorBase implements ObservationCheck {
+    private Map<Resource, Set<RDFNode>> datasetByObs;
+    private boolean isSwept = false;
+
     public ValidatorIC1(Model model) {
         super(model);
     }
@@ -22,16 +28,53 @@ public class ValidatorIC1 extends ValidatorBase {
      * @return a map of observations with multiple datasets
      */
     public Map<Resource, Set<RDFNode>> validate() {
-        Map<Resource, Set<RDFNode>> datasetByObs =
-                new HashMap<Resource, Set<RDFNode>>();
-        Set<Resource> obsSet = model.listSubjectsWithProperty(
-                RDF_type, QB_Observation).toSet();
-        for (Resource obs : obsSet) {
-            Set<RDFNode> datasetSet = model.listObjectsOfProperty(obs, QB_dataSet).toSet();
-            if (datasetSet.size() != 1) {
-                datasetByObs.put(obs, datasetSet);
-            }
+        if (!isSwept) {
+            ObservationSweep sweep = new ObservationSweep(model);
+            sweep.setBudget(budget);
+            sweep.register(this);
+            sweep.run();
         }
         return datasetByObs;
     }
+
+    public void prepare() {
+        datasetByObs = new HashMap<Resource, Set<RDFNode>>();
+    }
+
+    public void check(Resource dataset, ObservationRecord record) {
+        if (shouldStop()) return;
+        if (!record.getValues(RDF_type).contains(QB_Observation)) return;
+        Set<RDFNode> datasetSet = record.getValues(QB_dataSet);
+        if (datasetSet.size() > 1 && !dataset.equals(firstResource(datasetSet))) return;
+        if (datasetSet.size() != 1 && spend(Constraint.IC1)) {
+            record(Constraint.IC1, dataset, datasetByObs, record.getObservation(),
+                    countOnly ? null : new HashSet<RDFNode>(datasetSet));
+        }
+    }
+
+    public boolean needsRecord() {
+        return true;
+    }
+
+    public Set<Constraint> getConstraints() {
+        return EnumSet.of(Constraint.IC1);
+    }
+
+    public void finish(PresenceIndex presenceIndex) {
+        isSwept = true;
+    }
+
+    /**
+     * This function is a subtask to find the dataset under which an
+     * observation with several datasets is checked, so that it is recorded
+     * once
+     * @param datasetSet the datasets of an observation
+     * @return the first dataset which is a resource, or null
+     */
+    private Resource firstResource(Set<RDFNode> datasetSet) {
+        for (RDFNode dataset : datasetSet) {
+            if (dataset.isResource()) return dataset.asResource();
+        }
+        return null;
+    }
 }
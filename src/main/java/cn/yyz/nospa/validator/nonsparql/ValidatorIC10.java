@@ -1,5 +1,6 @@
 package cn.yyz.nospa.validator.nonsparql;
 
+import cn.yyz.nospa.validator.Constraint;
 import com.hp.hpl.jena.rdf.model.*;
 
 import java.util.*;
@@ -8,8 +9,20 @@ import java.util.*;
  * Created by yyz on 11/4/14.
  */
 public class ValidatorIC10 extends ValidatorBase {
+    private DsdCatalog catalog;
+
     public ValidatorIC10(Model model) {
+        this(model, new DsdCatalog(model));
+    }
+
+    /**
+     * Constructor of a validator sharing a compiled catalog of structures
+     * @param model an RDF model
+     * @param catalog a catalog compiled from the model
+     */
+    public ValidatorIC10(Model model, DsdCatalog catalog) {
         super(model);
+        this.catalog = catalog;
     }
 
     /**
@@ -19,16 +32,17 @@ public class ValidatorIC10 extends ValidatorBase {
      */
     public Map<Resource, Set<RDFNode>> validate() {
         Map<Resource, Set<RDFNode>> dimBySliceWithoutVal = new HashMap<Resource, Set<RDFNode>>();
-        List<Property> propPath = Arrays.asList(QB_sliceStructure, QB_componentProperty);
-        Map<Resource, Set<? extends RDFNode>> dimBySlice = searchByPathVisit(null, propPath, null);
-        for (Resource slice : dimBySlice.keySet()) {
+        for (Resource slice : catalog.getStructuredSliceSet()) {
+            if (isExhausted(Constraint.IC10) || shouldStop()) break;
             Set<RDFNode> dimWithoutValSet = new HashSet<RDFNode>();
-            for (RDFNode dim : dimBySlice.get(slice)) {
-                Property dimAsProp = ResourceFactory.createProperty(dim.asResource().getURI());
-                NodeIterator valIter = model.listObjectsOfProperty(slice, dimAsProp);
-                if (!valIter.hasNext()) dimWithoutValSet.add(dim);
+            for (Resource sliceKey : nodeToResource(catalog.getSliceStructures(slice))) {
+                for (RDFNode dim : catalog.getSliceKeyProperties(sliceKey)) {
+                    Property dimAsProp = ResourceFactory.createProperty(dim.asResource().getURI());
+                    if (!model.contains(slice, dimAsProp)) dimWithoutValSet.add(dim);
+                }
             }
-            if (!dimWithoutValSet.isEmpty()) dimBySliceWithoutVal.put(slice, dimWithoutValSet);
+            if (!dimWithoutValSet.isEmpty() && spend(Constraint.IC10))
+                dimBySliceWithoutVal.put(slice, dimWithoutValSet);
         }
         return dimBySliceWithoutVal;
     }
@@ -1,19 +1,26 @@
 package cn.yyz.nospa.validator.nonsparql;
 
+import cn.yyz.nospa.validator.Constraint;
 import com.hp.hpl.jena.rdf.model.*;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import java.util.*;
 
 /**
  * Created by yyz on 11/4/14.
  */
-public class ValidatorIC11_12 extends ValidatorBase {
+public class ValidatorIC11_12 extends ValidatorBase implements ObservationCheck {
+    private Map<Resource, Set<RDFNode>> faultyObs;
+    private Map<Resource, Set<Property>> dimByDataset;
+    private Map<Resource, Property[]> dimArrayByDataset;
+    private Map<Resource, DuplicateIndex> indexByDataset;
+    private Set<Resource> scope;
+    private boolean isKept = false;
+    private boolean isSwept = false;
+
     public ValidatorIC11_12(Model model) {
         super(model);
     }
-    private Logger logger = LoggerFactory.getLogger(ValidatorIC11_12.class);
+
     /**
      * Validate IC-11 All dimensions required: Every qb:Observation has a value
      * for each dimension declared in its associated qb:DataStructureDefinition.
@@ -23,65 +30,104 @@ public class ValidatorIC11_12 extends ValidatorBase {
      * duplicate values.
      */
     public Map<Resource, Set<RDFNode>> validate() {
-        Map<Resource, Set<RDFNode>> faultyObs = new HashMap<Resource, Set<RDFNode>>();
-        Set<Resource> duplicateObsSet = new HashSet<Resource>();
-        Map<Resource, Set<Resource>> obsByDataset =
-                new HashMap<Resource, Set<Resource>>();
+        if (!isSwept) {
+            ObservationSweep sweep = new ObservationSweep(model);
+            sweep.setBudget(budget);
+            sweep.register(this);
+            sweep.run();
+        }
+        return faultyObs;
+    }
+
+    /**
+     * Keeps the duplicate indexes between incremental validations instead of
+     * building them from scratch. The observations in the scope are removed
+     * from the indexes before the sweep and added again as they are swept.
+     * @param indexByDataset the duplicate index of each dataset, filled in by
+     *                       the first validation
+     * @param scope the observations to revalidate, or null for all
+     */
+    public void keepIndexes(Map<Resource, DuplicateIndex> indexByDataset,
+                            Set<Resource> scope) {
+        this.indexByDataset = indexByDataset;
+        this.scope = scope;
+        this.isKept = true;
+    }
+
+    /**
+     * Collects the dimension properties of each dataset, also as an array to
+     * be walked for each observation, and removes the observations in the
+     * scope from the duplicate indexes.
+     */
+    public void prepare() {
+        faultyObs = new HashMap<Resource, Set<RDFNode>>();
+        dimByDataset = new HashMap<Resource, Set<Property>>();
+        dimArrayByDataset = new HashMap<Resource, Property[]>();
+        if (!isKept) indexByDataset = new HashMap<Resource, DuplicateIndex>();
         List<Property> propPath = Arrays.asList(QB_structure,
                 QB_component, QB_componentProperty);
-        Map<Resource, Set<? extends RDFNode>> dimByDataset = searchByPathVisit(
+        Map<Resource, Set<? extends RDFNode>> dimSetByDataset = searchByPathVisit(
                 null, propPath, null);
         Set<Resource> dimWithDef = model.listResourcesWithProperty(RDF_type,
                 QB_DimensionProperty).toSet();
-        for (Resource dataset : dimByDataset.keySet()) {
-            Set<? extends RDFNode> dimInDataset = dimByDataset.get(dataset);
+        for (Resource dataset : dimSetByDataset.keySet()) {
+            Set<? extends RDFNode> dimInDataset = dimSetByDataset.get(dataset);
             dimInDataset.retainAll(dimWithDef);
-            dimByDataset.put(dataset, dimInDataset);
-            obsByDataset.put(dataset,
-                    model.listSubjectsWithProperty(QB_dataSet, dataset).toSet());
+            Set<Property> dimAsPropSet = nodeToProperty(dimInDataset);
+            dimByDataset.put(dataset, dimAsPropSet);
+            dimArrayByDataset.put(dataset, dimAsPropSet.toArray(new Property[dimAsPropSet.size()]));
+            if (!indexByDataset.containsKey(dataset))
+                indexByDataset.put(dataset, new DuplicateIndex(isKept));
         }
-        for (Resource dataset : obsByDataset.keySet()) {
-            logger.info("    Validating dataset " + dataset.toString());
-            Set<Resource> obsSet = obsByDataset.get(dataset);
-            Set<? extends RDFNode> dimSet = dimByDataset.get(dataset);
-            faultyObs.putAll(dimValueCheck(obsSet, dimSet));
+        if (scope == null) return;
+        for (DuplicateIndex index : indexByDataset.values()) {
+            for (Resource obs : scope) index.remove(obs);
         }
-        return faultyObs;
+    }
+
+    public boolean needsRecord() {
+        return true;
+    }
+
+    public Set<Constraint> getConstraints() {
+        return EnumSet.of(Constraint.IC11, Constraint.IC12);
     }
 
     /**
-     * This function is a subtask to check the values of a set of
-     * observations for a set of dimensions.
-     * @param obsSet a set of observations
-     * @param dimSet a set of dimension properties
-     * @return a map of faulty observations with dimension property set missing
-     * corresponding values. If the set is empty then the observation is
-     * duplicated.
+     * This function is a subtask to check if an observation having values
+     * for all dimensions of the dataset duplicates another observation. A
+     * duplicated observation is recorded with an empty set.
+     * @param dataset the dataset being swept
+     * @param record the observation with its property values
      */
-    private Map<Resource, Set<RDFNode>> dimValueCheck (Set<Resource> obsSet,
-                                                       Set<? extends RDFNode> dimSet) {
-        int obsSize = obsSet.size();
-        Map<Resource, Set<RDFNode>> faultyObs = new HashMap<Resource, Set<RDFNode>>();
-        Set<Set<RDFNode>> obsValueSet = new HashSet<Set<RDFNode>>((int) (obsSize/0.75+1));
-        Set<Property> dimAsPropSet = nodeToProperty(dimSet);
-        int progress = 1;
-        for (Resource obs : obsSet) {
-            System.out.print("    Validating observation "+ progress + " of " + obsSize + "\r");
-            Set<RDFNode> valueSet = new HashSet<RDFNode>();
-            Set<RDFNode> dimWithoutValSet = new HashSet<RDFNode>();
-            for (Property dim : dimAsPropSet) {
-                NodeIterator valueIter = model.listObjectsOfProperty(obs, dim);
-                if (!valueIter.hasNext()) dimWithoutValSet.add(dim);
-                else valueSet.add(valueIter.next());
-            }
-            if (!dimWithoutValSet.isEmpty()) faultyObs.put(obs, dimWithoutValSet);
-            else {
-                if (!obsValueSet.add(valueSet))
-                    faultyObs.put(obs, dimWithoutValSet);
-            }
-            progress++;
+    public void check(Resource dataset, ObservationRecord record) {
+        Property[] dimAsPropArray = dimArrayByDataset.get(dataset);
+        if (dimAsPropArray == null || isExhausted(Constraint.IC12) || shouldStop()) return;
+        Set<RDFNode> valueSet = new HashSet<RDFNode>(dimAsPropArray.length * 2);
+        for (Property dim : dimAsPropArray) {
+            Set<RDFNode> dimValueSet = record.getValues(dim);
+            if (dimValueSet.isEmpty()) return;
+            valueSet.add(dimValueSet.iterator().next());
         }
-        return faultyObs;
+        if (indexByDataset.get(dataset).add(record.getObservation(), valueSet) &&
+                spend(Constraint.IC12))
+            record(Constraint.IC12, dataset, faultyObs, record.getObservation(),
+                    countOnly ? null : new HashSet<RDFNode>());
     }
 
+    /**
+     * This function is a subtask to check the values of the dimensions of
+     * each dataset for all its observations. An observation missing values
+     * is recorded with the dimension properties missing corresponding values.
+     * @param presenceIndex the presence index of the swept observations
+     */
+    public void finish(PresenceIndex presenceIndex) {
+        for (Resource dataset : dimByDataset.keySet()) {
+            if (shouldStop()) break;
+            recordMissingValues(presenceIndex, dataset, dimByDataset.get(dataset),
+                    Constraint.IC11, faultyObs);
+        }
+        if (!isKept) indexByDataset = null;
+        isSwept = true;
+    }
 }
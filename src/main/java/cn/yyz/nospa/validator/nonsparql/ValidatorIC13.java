@@ -1,5 +1,6 @@
 package cn.yyz.nospa.validator.nonsparql;
 
+import cn.yyz.nospa.validator.Constraint;
 import com.hp.hpl.jena.rdf.model.*;
 
 import java.util.*;
@@ -7,7 +8,11 @@ import java.util.*;
 /**
  * Created by yyz on 11/4/14.
  */
-public class ValidatorIC13 extends ValidatorBase {
+public class ValidatorIC13 extends ValidatorBase implements ObservationCheck {
+    private Map<Resource, Set<RDFNode>> obsWithoutAttribVal;
+    private Map<Resource, Set<Property>> attribByDataset;
+    private boolean isSwept = false;
+
     public ValidatorIC13(Model model) {
         super(model);
     }
@@ -18,8 +23,21 @@ public class ValidatorIC13 extends ValidatorBase {
      * @return a map of observations with attribute properties missing values
      */
     public Map<Resource, Set<RDFNode>> validate() {
-        Map<Resource, Set<RDFNode>> obsWithoutAttribVal =
-                new HashMap<Resource, Set<RDFNode>>();
+        if (!isSwept) {
+            ObservationSweep sweep = new ObservationSweep(model);
+            sweep.setBudget(budget);
+            sweep.register(this);
+            sweep.run();
+        }
+        return obsWithoutAttribVal;
+    }
+
+    /**
+     * Collects the required attribute properties of each dataset.
+     */
+    public void prepare() {
+        obsWithoutAttribVal = new HashMap<Resource, Set<RDFNode>>();
+        attribByDataset = new HashMap<Resource, Set<Property>>();
         List<Property> propPath = Arrays.asList(QB_structure, QB_component);
         Map<Resource, Set<? extends RDFNode>> compByDataset = searchByPathVisit(
                 null, propPath, null);
@@ -35,33 +53,37 @@ public class ValidatorIC13 extends ValidatorBase {
                 attribSet.addAll(attribByComp.get(component.asResource())
                         .get(QB_componentProperty));
             }
-            Set<Resource> obsSet = model.listSubjectsWithProperty(QB_dataSet, dataset).toSet();
-            obsWithoutAttribVal.putAll(attribValueCheck(obsSet, attribSet));
+            attribByDataset.put(dataset, nodeToProperty(attribSet));
         }
-        return obsWithoutAttribVal;
     }
 
     /**
-     * This function is a subtask to check the values of a set of attribute
-     * properties for a set of observations.
-     * @param obsSet a set of observations
-     * @param attribSet a set of attribute properties
-     * @return a map of observations with attribute properties missing values
+     * The values of the required attributes are checked on the presence
+     * index once all observations have been swept.
+     * @return false since no observation record is needed
      */
-    private Map<Resource, Set<RDFNode>> attribValueCheck (Set<Resource> obsSet,
-                                                          Set<RDFNode> attribSet) {
-        Map<Resource, Set<RDFNode>> obsWithoutAttribVal =
-                new HashMap<Resource, Set<RDFNode>>();
-        Set<Property> attribAsPropSet = nodeToProperty(attribSet);
-        for (Resource obs : obsSet) {
-            Set<RDFNode> attribPropWithoutValSet = new HashSet<RDFNode>();
-            for (Property attribProp : attribAsPropSet) {
-                if (!model.listObjectsOfProperty(obs, attribProp).hasNext())
-                    attribPropWithoutValSet.add(attribProp);
-            }
-            if (!attribPropWithoutValSet.isEmpty())
-                obsWithoutAttribVal.put(obs, attribPropWithoutValSet);
+    public boolean needsRecord() {
+        return false;
+    }
+
+    public Set<Constraint> getConstraints() {
+        return EnumSet.of(Constraint.IC13);
+    }
+
+    public void check(Resource dataset, ObservationRecord record) {
+    }
+
+    /**
+     * This function is a subtask to check the values of the required
+     * attribute properties of each dataset for all its observations.
+     * @param presenceIndex the presence index of the swept observations
+     */
+    public void finish(PresenceIndex presenceIndex) {
+        for (Resource dataset : attribByDataset.keySet()) {
+            if (shouldStop()) break;
+            recordMissingValues(presenceIndex, dataset, attribByDataset.get(dataset),
+                    Constraint.IC13, obsWithoutAttribVal);
         }
-        return obsWithoutAttribVal;
+        isSwept = true;
     }
 }
@@ -1,5 +1,6 @@
 package cn.yyz.nospa.validator.nonsparql;
 
+import cn.yyz.nospa.validator.Constraint;
 import com.hp.hpl.jena.rdf.model.*;
 
 import java.util.*;
@@ -7,7 +8,11 @@ import java.util.*;
 /**
  * Created by yyz on 11/4/14.
  */
-public class ValidatorIC14 extends ValidatorBase {
+public class ValidatorIC14 extends ValidatorBase implements ObservationCheck {
+    private Map<Resource, Set<RDFNode>> obsWithoutMeasureVal;
+    private Map<Resource, Set<Property>> measureByDataset;
+    private boolean isSwept = false;
+
     public ValidatorIC14(Model model) {
         super(model);
     }
@@ -19,8 +24,21 @@ public class ValidatorIC14 extends ValidatorBase {
      * @return a map of observations with a set of measures missing values.
      */
     public Map<Resource, Set<RDFNode>> validate() {
-        Map<Resource, Set<RDFNode>> obsWithoutMeasureVal =
-                new HashMap<Resource, Set<RDFNode>>();
+        if (!isSwept) {
+            ObservationSweep sweep = new ObservationSweep(model);
+            sweep.setBudget(budget);
+            sweep.register(this);
+            sweep.run();
+        }
+        return obsWithoutMeasureVal;
+    }
+
+    /**
+     * Collects the measures of each dataset.
+     */
+    public void prepare() {
+        obsWithoutMeasureVal = new HashMap<Resource, Set<RDFNode>>();
+        measureByDataset = new HashMap<Resource, Set<Property>>();
         List<Property> propPath = Arrays.asList(QB_structure, QB_component, QB_componentProperty);
         Map<Resource, Set<? extends RDFNode>> compPropSetByDataset = searchByPathVisit(null,
                 propPath, null);
@@ -31,33 +49,37 @@ public class ValidatorIC14 extends ValidatorBase {
             if (!compPropSet.contains(QB_measureType)) {
                 compPropSet.retainAll(measureSet);
             }
-            Set<Resource> obsSet = model.listSubjectsWithProperty(QB_dataSet, dataset).toSet();
-            obsWithoutMeasureVal.putAll(measureValueCheck(obsSet, compPropSet));
+            measureByDataset.put(dataset, nodeToProperty(compPropSet));
         }
-        return obsWithoutMeasureVal;
     }
 
     /**
-     * This function is a subtask to check the values of a set of measures
-     * for a set of observations.
-     * @param obsSet a set of observations
-     * @param measureSet a set of measures
-     * @return a map of observations with a set of measures missing values
+     * The values of the measures are checked on the presence index once all
+     * observations have been swept.
+     * @return false since no observation record is needed
      */
-    private Map<Resource, Set<RDFNode>> measureValueCheck (Set<Resource> obsSet,
-                                                           Set<? extends RDFNode> measureSet) {
-        Map<Resource, Set<RDFNode>> obsWithoutMeasureVal =
-                new HashMap<Resource, Set<RDFNode>>();
-        Set<Property> measureAsPropSet = nodeToProperty(measureSet);
-        for (Resource obs : obsSet) {
-            Set<RDFNode> measureWithoutValSet = new HashSet<RDFNode>();
-            for (Property measure : measureAsPropSet) {
-                if (!model.listObjectsOfProperty(obs, measure).hasNext())
-                    measureWithoutValSet.add(measure);
-            }
-            if (!measureWithoutValSet.isEmpty())
-                obsWithoutMeasureVal.put(obs, measureWithoutValSet);
+    public boolean needsRecord() {
+        return false;
+    }
+
+    public Set<Constraint> getConstraints() {
+        return EnumSet.of(Constraint.IC14);
+    }
+
+    public void check(Resource dataset, ObservationRecord record) {
+    }
+
+    /**
+     * This function is a subtask to check the values of the measures of each
+     * dataset for all its observations.
+     * @param presenceIndex the presence index of the swept observations
+     */
+    public void finish(PresenceIndex presenceIndex) {
+        for (Resource dataset : measureByDataset.keySet()) {
+            if (shouldStop()) break;
+            recordMissingValues(presenceIndex, dataset, measureByDataset.get(dataset),
+                    Constraint.IC14, obsWithoutMeasureVal);
         }
-        return obsWithoutMeasureVal;
+        isSwept = true;
     }
 }
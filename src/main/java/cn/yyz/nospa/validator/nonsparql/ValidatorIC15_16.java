@@ -1,5 +1,6 @@
 package cn.yyz.nospa.validator.nonsparql;
 
+import cn.yyz.nospa.validator.Constraint;
 import com.hp.hpl.jena.rdf.model.*;
 
 import java.util.*;
@@ -7,7 +8,11 @@ import java.util.*;
 /**
  * Created by yyz on 11/4/14.
  */
-public class ValidatorIC15_16 extends ValidatorBase {
+public class ValidatorIC15_16 extends ValidatorBase implements ObservationCheck {
+    private Map<Resource, Set<RDFNode>> obsWithFaultyMeasure;
+    private Map<Resource, Set<? extends RDFNode>> measureByDataset;
+    private boolean isSwept = false;
+
     public ValidatorIC15_16(Model model) {
         super(model);
     }
@@ -23,7 +28,21 @@ public class ValidatorIC15_16 extends ValidatorBase {
      * @return a map of faulty observations with measures missing values
      */
     public Map<Resource, Set<RDFNode>> validate() {
-        Map<Resource, Set<RDFNode>> obsWithFaultyMeasure = new HashMap<Resource, Set<RDFNode>>();
+        if (!isSwept) {
+            ObservationSweep sweep = new ObservationSweep(model);
+            sweep.setBudget(budget);
+            sweep.register(this);
+            sweep.run();
+        }
+        return obsWithFaultyMeasure;
+    }
+
+    /**
+     * Collects the measures of each dataset which uses a measure dimension.
+     */
+    public void prepare() {
+        obsWithFaultyMeasure = new HashMap<Resource, Set<RDFNode>>();
+        measureByDataset = new HashMap<Resource, Set<? extends RDFNode>>();
         List<Property> propPath = Arrays.asList(QB_structure, QB_component,
                 QB_componentProperty);
         Map<Resource, Set<? extends RDFNode>> compPropSetByDataset = searchByPathVisit(null,
@@ -34,38 +53,49 @@ public class ValidatorIC15_16 extends ValidatorBase {
             Set<? extends RDFNode> compPropSet = compPropSetByDataset.get(dataset);
             if (compPropSet.contains(QB_measureType)) {
                 compPropSet.retainAll(measurePropSet);
-                Set<Resource> obsSet = model.listSubjectsWithProperty(QB_dataSet, dataset).toSet();
-                obsWithFaultyMeasure.putAll(measureTypeValueCheck(obsSet, compPropSet));
+                measureByDataset.put(dataset, compPropSet);
             }
         }
-        return obsWithFaultyMeasure;
     }
 
     /**
-     * This function is a subtask to check values of a set of measures for
-     * a set of observations.
-     * @param obsSet a set of observations
-     * @param measureSet a set of measures
-     * @return a map of faulty observations with measures missing values
+     * This function is a subtask to check the measure values of an
+     * observation against its measure type.
+     * @param dataset the dataset being swept
+     * @param record the observation with its property values
      */
-    private Map<Resource, Set<RDFNode>> measureTypeValueCheck (Set<Resource> obsSet,
-                                                               Set<? extends RDFNode> measureSet) {
-        Map<Resource, Set<RDFNode>> obsWithFaultyMeasure = new HashMap<Resource, Set<RDFNode>>();
-        for (Resource obs : obsSet) {
-            Set<RDFNode> measurePropInObs = model.listObjectsOfProperty(obs,
-                    QB_measureType).toSet();
-            if (measurePropInObs.size() !=1) {
-                obsWithFaultyMeasure.put(obs, measurePropInObs);
-            }
-            else {
-                Property measureProp = ResourceFactory.createProperty(
-                        measurePropInObs.iterator().next().asResource().getURI());
-                Set<RDFNode> measurePropValSet =
-                        model.listObjectsOfProperty(obs, measureProp).toSet();
-                if (!measureSet.contains(measureProp) || measurePropValSet.size() != 1)
-                    obsWithFaultyMeasure.put(obs, measurePropInObs);
+    public void check(Resource dataset, ObservationRecord record) {
+        Set<? extends RDFNode> measureSet = measureByDataset.get(dataset);
+        if (measureSet == null || shouldStop()) return;
+        Set<RDFNode> measurePropInObs = record.getValues(QB_measureType);
+        if (measurePropInObs.size() !=1) {
+            tally(Constraint.IC16, dataset, record.getObservation());
+            if (spend(Constraint.IC16))
+                record(Constraint.IC16, dataset, obsWithFaultyMeasure, record.getObservation(),
+                        countOnly ? null : new HashSet<RDFNode>(measurePropInObs));
+        }
+        else {
+            Property measureProp = ResourceFactory.createProperty(
+                    measurePropInObs.iterator().next().asResource().getURI());
+            Set<RDFNode> measurePropValSet = record.getValues(measureProp);
+            if (!measureSet.contains(measureProp) || measurePropValSet.size() != 1) {
+                tally(Constraint.IC15, dataset, record.getObservation());
+                if (spend(Constraint.IC15))
+                    record(Constraint.IC15, dataset, obsWithFaultyMeasure, record.getObservation(),
+                            countOnly ? null : new HashSet<RDFNode>(measurePropInObs));
             }
         }
-        return obsWithFaultyMeasure;
+    }
+
+    public boolean needsRecord() {
+        return true;
+    }
+
+    public Set<Constraint> getConstraints() {
+        return EnumSet.of(Constraint.IC15, Constraint.IC16);
+    }
+
+    public void finish(PresenceIndex presenceIndex) {
+        isSwept = true;
     }
 }
@@ -1,5 +1,7 @@
 package cn.yyz.nospa.validator.nonsparql;
 
+import cn.yyz.nospa.validator.Constraint;
+import cn.yyz.nospa.validator.Progress;
 import com.hp.hpl.jena.rdf.model.*;
 
 import java.util.*;
@@ -7,7 +9,14 @@ import java.util.*;
 /**
  * Created by yyz on 11/4/14.
  */
-public class ValidatorIC17 extends ValidatorBase {
+public class ValidatorIC17 extends ValidatorBase implements ObservationCheck {
+    private Map<Resource, Integer> numObs2ByObs1;
+    private Map<Resource, MeasureGroups> groupsByDataset;
+    private Map<Resource, Set<Resource>> obsToCheckByDataset;
+    private Set<Resource> scope;
+    private boolean isKept = false;
+    private boolean isSwept = false;
+
     public ValidatorIC17(Model model) {
         super(model);
     }
@@ -22,7 +31,39 @@ public class ValidatorIC17 extends ValidatorBase {
      * same dimension values.
      */
     public Map<Resource, Integer> validate() {
-        Map<Resource, Integer> numObs2ByObs1 = new HashMap<Resource, Integer>();
+        if (!isSwept) {
+            ObservationSweep sweep = new ObservationSweep(model);
+            sweep.setBudget(budget);
+            sweep.register(this);
+            sweep.run();
+        }
+        return numObs2ByObs1;
+    }
+
+    /**
+     * Keeps the measure groups between incremental validations instead of
+     * building them from scratch. The groups are updated with the swept
+     * observations, and only the observations in the scope and those sharing
+     * dimension values with them before or after the update are checked.
+     * @param groupsByDataset the measure groups of each dataset, filled in by
+     *                        the first validation
+     * @param scope the observations to revalidate, or null for all
+     */
+    public void keepGroups(Map<Resource, MeasureGroups> groupsByDataset,
+                           Set<Resource> scope) {
+        this.groupsByDataset = groupsByDataset;
+        this.scope = scope;
+        this.isKept = true;
+    }
+
+    /**
+     * Collects the non-measure dimensions and the number of measures of each
+     * dataset, and withdraws the observations in the scope from their groups.
+     */
+    public void prepare() {
+        numObs2ByObs1 = new HashMap<Resource, Integer>();
+        if (!isKept) groupsByDataset = new HashMap<Resource, MeasureGroups>();
+        obsToCheckByDataset = new HashMap<Resource, Set<Resource>>();
         List<Property> propPath = Arrays.asList(QB_structure,
                 QB_component, QB_componentProperty);
         Map<Resource, Set<? extends RDFNode>> compPropByDataset = searchByPathVisit(
@@ -31,67 +72,79 @@ public class ValidatorIC17 extends ValidatorBase {
                 QB_MeasureProperty).toSet();
         Set<Resource> dimPropWithDef = model.listResourcesWithProperty(RDF_type,
                 QB_DimensionProperty).toSet();
-        Set<Resource> obsWithMeasure = model.listResourcesWithProperty(QB_measureType).toSet();
         for (Resource dataset : compPropByDataset.keySet()) {
+            obsToCheckByDataset.put(dataset, new HashSet<Resource>());
+            if (groupsByDataset.containsKey(dataset)) continue;
             Set<? extends RDFNode> compPropSet = compPropByDataset.get(dataset);
             Set<? extends RDFNode> dimPropSet = new HashSet<RDFNode>(compPropSet);
             compPropSet.retainAll(measPropWithDef);
-            int numOfMeasure = compPropSet.size();
-
-            Set<Resource> obsSet = model.listSubjectsWithProperty(QB_dataSet, dataset).toSet();
-            obsSet.retainAll(obsWithMeasure);
-            if (obsSet.size() == 0) continue;
-
             dimPropSet.retainAll(dimPropWithDef);
-            for (RDFNode dim : dimPropSet) {
-                if (dim.equals(QB_measureType)) dimPropSet.remove(dim);
-            }
-
-            Map<Resource, Set<Resource>> unqualifiedObsPair =
-                    unqualifiedObsPairCheck(obsSet, dimPropSet);
-            int numOfObs1 = unqualifiedObsPair.keySet().size();
-            for (Resource obs : unqualifiedObsPair.keySet()) {
-                int numOfObs2 = unqualifiedObsPair.get(obs).size();
-                if (numOfObs1 - numOfObs2 != numOfMeasure)
-                    numObs2ByObs1.put(obs, numOfObs2);
+            dimPropSet.remove(QB_measureType);
+            groupsByDataset.put(dataset, new MeasureGroups(nodeToProperty(dimPropSet),
+                    compPropSet.size()));
+        }
+        if (scope == null) return;
+        for (Resource dataset : groupsByDataset.keySet()) {
+            MeasureGroups groups = groupsByDataset.get(dataset);
+            for (Resource obs : scope) {
+                Set<Resource> obsToCheck = obsToCheckByDataset.get(dataset);
+                if (obsToCheck != null) obsToCheck.addAll(groups.remove(obs));
             }
         }
-        return numObs2ByObs1;
+    }
+
+    public boolean needsRecord() {
+        return true;
+    }
+
+    public Set<Constraint> getConstraints() {
+        return EnumSet.of(Constraint.IC17);
+    }
+
+    /**
+     * This function is a subtask to add an observation with a measure type
+     * to the group of its non-measure dimension values.
+     * @param dataset the dataset being swept
+     * @param record the observation with its property values
+     */
+    public void check(Resource dataset, ObservationRecord record) {
+        MeasureGroups groups = groupsByDataset.get(dataset);
+        if (groups == null || !record.hasValue(QB_measureType) || shouldStop()) return;
+        Set<Resource> sharingSet = groups.add(record);
+        if (scope == null) return;
+        Set<Resource> obsToCheck = obsToCheckByDataset.get(dataset);
+        obsToCheck.addAll(sharingSet);
+        obsToCheck.add(record.getObservation());
     }
 
     /**
-     * This function is a subtask to check observations with same dimension
-     * property structure as each observation given in the set
-     * @param obsSet a set of observations
-     * @param dimPropSet a set of dimension properties
-     * @return a map of observations with a set of corresponding observations
-     * with same dimension property structure
+     * This function is a subtask to check the number of observations sharing
+     * the non-measure dimension values of each grouped observation.
+     * @param presenceIndex the presence index of the swept observations
      */
-    public Map<Resource, Set<Resource>> unqualifiedObsPairCheck (
-            Set<Resource> obsSet,
-            Set<? extends RDFNode> dimPropSet) {
-        Set<Property> dimAsPropSet = nodeToProperty(dimPropSet);
-        Map<Resource, Set<Resource>> unqualifiedObsPair =
-                new HashMap<Resource, Set<Resource>>();
-        for (Resource obs1 : obsSet) {
-            Set<Resource> unqualifiedObsSet = new HashSet<Resource>();
-            for (Resource obs2 : obsSet) {
-                boolean isEqual = true;
-                for (Property dim : dimAsPropSet) {
-                    Set<RDFNode> valueSet1 = model.listObjectsOfProperty(obs1, dim).toSet();
-                    Set<RDFNode> valueSet2 = model.listObjectsOfProperty(obs2, dim).toSet();
-                    if (valueSet1.size() != 1 || valueSet2.size() != 1) continue;
-                    RDFNode value1 = valueSet1.iterator().next();
-                    RDFNode value2 = valueSet2.iterator().next();
-                    if (!value1.equals(value2)) {
-                        isEqual = false;
-                        break;
-                    }
+    public void finish(PresenceIndex presenceIndex) {
+        Progress progress = Progress.start("Checking IC-17 groups", "observations", 0);
+        try {
+            for (Resource dataset : obsToCheckByDataset.keySet()) {
+                if (isExhausted(Constraint.IC17) || shouldStop()) break;
+                MeasureGroups groups = groupsByDataset.get(dataset);
+                Collection<Resource> obsToCheck = scope == null ?
+                        groups.getObservations() : obsToCheckByDataset.get(dataset);
+                progress.addTotal(obsToCheck.size());
+                for (Resource obs : obsToCheck) {
+                    if (shouldStop()) break;
+                    progress.increment();
+                    Integer numOfObs2 = groups.getViolation(obs);
+                    if (numOfObs2 == null) continue;
+                    if (!spend(Constraint.IC17)) break;
+                    record(Constraint.IC17, dataset, numObs2ByObs1, obs, numOfObs2);
                 }
-                if (!isEqual) unqualifiedObsSet.add(obs2);
             }
-            unqualifiedObsPair.put(obs1, unqualifiedObsSet);
+        } finally {
+            progress.done();
         }
-        return unqualifiedObsPair;
+        if (!isKept) groupsByDataset = null;
+        obsToCheckByDataset = null;
+        isSwept = true;
     }
 }
@@ -1,5 +1,6 @@
 package cn.yyz.nospa.validator.nonsparql;
 
+import cn.yyz.nospa.validator.Constraint;
 import com.hp.hpl.jena.rdf.model.Model;
 import com.hp.hpl.jena.rdf.model.Property;
 import com.hp.hpl.jena.rdf.model.RDFNode;
@@ -10,7 +11,12 @@ import java.util.*;
 /**
  * Created by yyz on 11/4/14.
  */
-public class ValidatorIC18 extends ValidatorBase {
+public class ValidatorIC18 extends ValidatorBase implements ObservationCheck {
+    private Map<Resource, Resource> obsNotInDataset;
+    private Map<Resource, Set<Resource>> datasetByObsInSlice;
+    private Set<Resource> scope;
+    private boolean isSwept = false;
+
     public ValidatorIC18(Model model) {
         super(model);
     }
@@ -23,18 +29,94 @@ public class ValidatorIC18 extends ValidatorBase {
      * associated to.
      */
     public Map<Resource, Resource> validate() {
-        Map<Resource, Resource> obsNotInDataset = new HashMap<Resource, Resource>();
+        if (!isSwept) {
+            ObservationSweep sweep = new ObservationSweep(model);
+            sweep.setBudget(budget);
+            sweep.register(this);
+            sweep.run();
+        }
+        return obsNotInDataset;
+    }
+
+    /**
+     * Restricts the check to some observations, which must be the scope of
+     * the sweep feeding the check as well
+     * @param scope the observations to check, or null for all
+     */
+    public void restrictTo(Set<Resource> scope) {
+        this.scope = scope;
+    }
+
+    /**
+     * Collects the datasets that the observations in slices should be
+     * associated to.
+     */
+    public void prepare() {
+        obsNotInDataset = new HashMap<Resource, Resource>();
+        datasetByObsInSlice = new HashMap<Resource, Set<Resource>>();
+        if (scope != null) {
+            for (Resource obs : scope) {
+                Set<Resource> datasetSet = new HashSet<Resource>();
+                for (Resource slice : model.listSubjectsWithProperty(QB_observation, obs).toSet())
+                    datasetSet.addAll(model.listSubjectsWithProperty(QB_slice, slice).toSet());
+                if (!datasetSet.isEmpty()) datasetByObsInSlice.put(obs, datasetSet);
+            }
+            return;
+        }
         Property[] properties = {QB_slice, QB_observation};
         Map<Resource, Set<? extends RDFNode>> obsByDataset = searchByPathVisit(null,
                 Arrays.asList(properties), null);
         for (Resource dataset : obsByDataset.keySet()) {
-            Set<? extends RDFNode> obsSet = obsByDataset.get(dataset);
-            for (RDFNode obs : obsSet) {
+            for (RDFNode obs : obsByDataset.get(dataset)) {
                 Resource obsAsRes = obs.asResource();
-                if (!model.listStatements(obsAsRes, QB_dataSet, dataset).hasNext())
-                    obsNotInDataset.put(obsAsRes, dataset);
+                Set<Resource> datasetSet = datasetByObsInSlice.get(obsAsRes);
+                if (datasetSet == null) {
+                    datasetSet = new HashSet<Resource>();
+                    datasetByObsInSlice.put(obsAsRes, datasetSet);
+                }
+                datasetSet.add(dataset);
             }
         }
-        return obsNotInDataset;
+    }
+
+    /**
+     * This function is a subtask to check if an observation in slices is
+     * associated to the datasets of the slices.
+     * @param dataset the dataset being swept
+     * @param record the observation with its property values
+     */
+    public void check(Resource dataset, ObservationRecord record) {
+        Set<Resource> datasetSet = datasetByObsInSlice.remove(record.getObservation());
+        if (datasetSet == null || shouldStop()) return;
+        Resource faultyDataset = null;
+        for (Resource datasetOfSlice : datasetSet) {
+            if (!record.getValues(QB_dataSet).contains(datasetOfSlice)) faultyDataset = datasetOfSlice;
+        }
+        if (faultyDataset != null && spend(Constraint.IC18))
+            record(Constraint.IC18, dataset, obsNotInDataset, record.getObservation(), faultyDataset);
+    }
+
+    public boolean needsRecord() {
+        return true;
+    }
+
+    public Set<Constraint> getConstraints() {
+        return EnumSet.of(Constraint.IC18);
+    }
+
+    /**
+     * Observations in slices which have not been swept are not associated to
+     * any dataset at all.
+     * @param presenceIndex the presence index of the swept observations
+     */
+    public void finish(PresenceIndex presenceIndex) {
+        for (Resource obs : datasetByObsInSlice.keySet()) {
+            if (shouldStop() || !spend(Constraint.IC18)) break;
+            Resource faultyDataset = null;
+            for (Resource datasetOfSlice : datasetByObsInSlice.get(obs)) faultyDataset = datasetOfSlice;
+            if (faultyDataset != null) record(Constraint.IC18, null, obsNotInDataset, obs, faultyDataset);
+        }
+        datasetByObsInSlice = null;
+        isSwept = true;
     }
 }
@@ -1,5 +1,6 @@
 package cn.yyz.nospa.validator.nonsparql;
 
+import cn.yyz.nospa.validator.Constraint;
 import com.hp.hpl.jena.rdf.model.*;
 
 import java.util.*;
@@ -7,7 +8,13 @@ import java.util.*;
 /**
  * Created by yyz on 11/4/14.
  */
-public class ValidatorIC19 extends ValidatorBase {
+public class ValidatorIC19 extends ValidatorBase implements ObservationCheck {
+    private Map<RDFNode, Set<RDFNode>> valNotInCodeList;
+    private Set<RDFNode> sentValSet;
+    private Map<Resource, Map<Property, Set<RDFNode>>> conceptCLByDimByDataset;
+    private Map<Resource, Map<Property, Set<RDFNode>>> collectionCLByDimByDataset;
+    private boolean isSwept = false;
+
     public ValidatorIC19(Model model) {
         super(model);
     }
@@ -17,14 +24,29 @@ public class ValidatorIC19 extends ValidatorBase {
      * qb:codeList, then the value of the dimension property on every
      * qb:Observation must be in the code list.
      * @return a map of values with a set of code lists not including the
-     * values
+     * values, or with null if only the violations are needed, which is empty
+     * if the violations are sent to a result sink
      */
     public Map<RDFNode, Set<RDFNode>> validate() {
-        Map<RDFNode, Set<RDFNode>> valNotInCodeList = new HashMap<RDFNode, Set<RDFNode>>();
-        Map<RDFNode, Set<? extends RDFNode>> conceptCLByDim =
-                new HashMap<RDFNode, Set<? extends RDFNode>>();
-        Map<RDFNode, Set<? extends RDFNode>> collectionCLByDim =
-                new HashMap<RDFNode, Set<? extends RDFNode>>();
+        if (!isSwept) {
+            ObservationSweep sweep = new ObservationSweep(model);
+            sweep.setBudget(budget);
+            sweep.register(this);
+            sweep.run();
+        }
+        return valNotInCodeList;
+    }
+
+    /**
+     * Collects the dimensions with code lists of the ConceptScheme and the
+     * Collection type for each dataset, as properties so that they are
+     * looked up directly for each observation.
+     */
+    public void prepare() {
+        valNotInCodeList = new HashMap<RDFNode, Set<RDFNode>>();
+        sentValSet = new HashSet<RDFNode>();
+        conceptCLByDimByDataset = new HashMap<Resource, Map<Property, Set<RDFNode>>>();
+        collectionCLByDimByDataset = new HashMap<Resource, Map<Property, Set<RDFNode>>>();
         Set<Resource> conceptCLWithDefSet = model.listSubjectsWithProperty(RDF_type,
                 SKOS_ConceptScheme).toSet();
         Set<Resource> collectionCLWithDefSet = model.listSubjectsWithProperty(RDF_type,
@@ -36,100 +58,114 @@ public class ValidatorIC19 extends ValidatorBase {
         Map<Resource, Map<Property, Set<RDFNode>>> objBySubAndProp =
                 searchByMultipleProperty(null, objByProp, Arrays.asList(QB_codeList));
         for (Resource dataset : dimByDataset.keySet()) {
-            Set<Resource> obsSet = model.listSubjectsWithProperty(QB_dataSet, dataset).toSet();
+            Map<Property, Set<RDFNode>> conceptCLByDim = new HashMap<Property, Set<RDFNode>>();
+            Map<Property, Set<RDFNode>> collectionCLByDim = new HashMap<Property, Set<RDFNode>>();
             Set<? extends RDFNode> dimSet = dimByDataset.get(dataset);
             dimSet.retainAll(objBySubAndProp.keySet());
             for (RDFNode dim : dimSet) {
-                Set<RDFNode> conceptCLSet = objBySubAndProp.get(dim.asResource()).get(QB_codeList);
+                Set<RDFNode> conceptCLSet =
+                        new HashSet<RDFNode>(objBySubAndProp.get(dim.asResource()).get(QB_codeList));
                 Set<RDFNode> collectionCLSet = new HashSet<RDFNode>(conceptCLSet);
                 conceptCLSet.retainAll(conceptCLWithDefSet);
                 collectionCLSet.retainAll(collectionCLWithDefSet);
-                if (!conceptCLSet.isEmpty()) conceptCLByDim.put(dim, conceptCLSet);
-                if (!collectionCLSet.isEmpty()) collectionCLByDim.put(dim, collectionCLSet);
+                Property dimAsProp = ResourceFactory.createProperty(dim.asResource().getURI());
+                if (!conceptCLSet.isEmpty()) conceptCLByDim.put(dimAsProp, conceptCLSet);
+                if (!collectionCLSet.isEmpty()) collectionCLByDim.put(dimAsProp, collectionCLSet);
             }
-            valNotInCodeList.putAll(obsWithFaultyDimCheck(obsSet, conceptCLByDim,
-                    collectionCLByDim));
+            conceptCLByDimByDataset.put(dataset, conceptCLByDim);
+            collectionCLByDimByDataset.put(dataset, collectionCLByDim);
         }
-        return valNotInCodeList;
+    }
+
+    public Set<Constraint> getConstraints() {
+        return EnumSet.of(Constraint.IC19);
     }
 
     /**
-     * This function is a subtask to check if the dimension values of a set
-     * of observations match the given code lists
-     * @param obsSet a set of observations
-     * @param conceptCLByDim a map of dimensions with corresponding code lists
-     *                       of the ConceptScheme type
-     * @param collectionCLByDim a map of dimensions with corresponding code
-     *                          lists of the Collection type
-     * @return a map of values with a set of code lists not including the
-     * values
+     * This function is a subtask to check if the dimension values of an
+     * observation match the code lists of the dataset
+     * @param dataset the dataset being swept
+     * @param record the observation with its property values
      */
-    private Map<RDFNode, Set<RDFNode>> obsWithFaultyDimCheck (Set<Resource> obsSet,
-                                                              Map<RDFNode, Set<? extends RDFNode>> conceptCLByDim,
-                                                              Map<RDFNode, Set<? extends RDFNode>> collectionCLByDim) {
-        Map<RDFNode, Set<RDFNode>> valNotInCodeList = new HashMap<RDFNode, Set<RDFNode>>();
-        Set<Property> dimWithConcept = nodeToProperty(conceptCLByDim.keySet());
-        Set<Property> dimWithCollection = nodeToProperty(collectionCLByDim.keySet());
-        for (Resource obs : obsSet) {
-            Map<RDFNode, Set<RDFNode>> valNotInConceptCL =
-                    dimValueCheck(true, obs, dimWithConcept, conceptCLByDim);
-            Map<RDFNode, Set<RDFNode>> valNotInCollectionCL =
-                    dimValueCheck(false, obs, dimWithCollection, collectionCLByDim);
-            for (RDFNode value : valNotInConceptCL.keySet()) {
-                if (valNotInCodeList.containsKey(value)) {
-                    Set<RDFNode> codeList = valNotInCodeList.get(value);
-                    codeList.addAll(valNotInConceptCL.get(value));
-                    valNotInCodeList.put(value, codeList);
-                }
-                else valNotInCodeList.put(value, valNotInConceptCL.get(value));
-            }
-            for (RDFNode value : valNotInCollectionCL.keySet()) {
-                if (valNotInCodeList.containsKey(value)) {
-                    Set<RDFNode> codeList = valNotInCodeList.get(value);
-                    codeList.addAll(valNotInCollectionCL.get(value));
-                    valNotInCodeList.put(value, codeList);
-                }
-                else valNotInCodeList.put(value, valNotInCollectionCL.get(value));
-            }
+    public void check(Resource dataset, ObservationRecord record) {
+        Map<Property, Set<RDFNode>> conceptCLByDim = conceptCLByDimByDataset.get(dataset);
+        if (conceptCLByDim == null || isExhausted(Constraint.IC19) || shouldStop()) return;
+        Map<Property, Set<RDFNode>> collectionCLByDim = collectionCLByDimByDataset.get(dataset);
+        Map<RDFNode, Set<RDFNode>> valNotInCodeListOfObs =
+                countOnly ? null : new HashMap<RDFNode, Set<RDFNode>>();
+        boolean isViolated = dimValueCheck(true, dataset, record, conceptCLByDim, valNotInCodeListOfObs);
+        if (dimValueCheck(false, dataset, record, collectionCLByDim, valNotInCodeListOfObs))
+            isViolated = true;
+        if (!isViolated) return;
+        tally(Constraint.IC19, dataset, record.getObservation());
+        if (countOnly || shouldStop()) return;
+        for (RDFNode value : valNotInCodeListOfObs.keySet())
+            addValNotInCodeList(dataset, value, valNotInCodeListOfObs.get(value));
+    }
+
+    /**
+     * Records a value together with the code lists not including it, unless
+     * it has been recorded already or the budget is exhausted. A value is
+     * sent to the result sink as soon as it is first found, with the code
+     * lists of the observation it was found in, and otherwise the code lists
+     * of all observations are merged in the result map.
+     * @param dataset the dataset being swept
+     * @param value the dimension value of an observation
+     * @param codeListSet a set of code lists not including the value, or
+     *                    null if only the violations are needed
+     */
+    private void addValNotInCodeList(Resource dataset, RDFNode value, Set<RDFNode> codeListSet) {
+        if (sink == null && valNotInCodeList.containsKey(value)) {
+            Set<RDFNode> codeListForVal = valNotInCodeList.get(value);
+            if (codeListForVal != null) codeListForVal.addAll(codeListSet);
+        }
+        else if ((sink == null || !sentValSet.contains(value)) && spend(Constraint.IC19)) {
+            if (sink != null) sentValSet.add(value);
+            record(Constraint.IC19, dataset, valNotInCodeList, value, codeListSet);
         }
-        return valNotInCodeList;
+    }
+
+    public boolean needsRecord() {
+        return true;
+    }
+
+    public void finish(PresenceIndex presenceIndex) {
+        isSwept = true;
     }
 
     /**
      * This function is a subtask to check if the dimension values of an
-     * observation matches one of the given code lists
+     * observation matches one of the given code lists. If only the violations
+     * are needed, each value not in a code list is recorded at once without
+     * its code lists.
      * @param isConceptList indicates the type of code list, true for Concept
      *                      Scheme and false for Collection.
-     * @param obs an observation
-     * @param dimAsPropSet a set of properties of the given observation
-     * @param codeListByDim a set of candidate code lists for the given
-     *                      properties
-     * @return a map of values with a set of code lists not including the
-     * values
+     * @param dataset the dataset being swept
+     * @param record an observation with its property values
+     * @param codeListByDim the dimension properties of the dataset with their
+     *                      candidate code lists
+     * @param valNotInCodeList a map receiving the values with a set of code
+     *                         lists not including the values, or null if
+     *                         only the violations are needed
+     * @return true if a value is not in the code lists of its dimension
      */
-    private Map<RDFNode, Set<RDFNode>> dimValueCheck (boolean isConceptList,
-                                                      Resource obs, Set<Property> dimAsPropSet,
-                                                      Map<RDFNode, Set<? extends RDFNode>> codeListByDim) {
-        Map<RDFNode, Set<RDFNode>> valNotInCodeList = new HashMap<RDFNode, Set<RDFNode>>();
-        for (Property dimAsProp : dimAsPropSet) {
-            Set<RDFNode> valueSet = model.listObjectsOfProperty(obs, dimAsProp).toSet();
-            if (valueSet.size() == 1) {
-                RDFNode value = valueSet.iterator().next();
-                Set<RDFNode> codeList = new HashSet<RDFNode>();
-                codeList.addAll(codeListByDim.get(dimAsProp));
-                if (!value.isURIResource() || !connectedToCodeList(isConceptList,
-                        value.asResource(), codeList)) {
-                    if (valNotInCodeList.containsKey(value)) {
-                        Set<RDFNode> cl = valNotInCodeList.get(value);
-                        cl.addAll(codeList);
-                        valNotInCodeList.put(value, cl);
-                    } else {
-                        valNotInCodeList.put(value, codeList);
-                    }
-                }
-            }
+    private boolean dimValueCheck (boolean isConceptList, Resource dataset, ObservationRecord record,
+                                   Map<Property, Set<RDFNode>> codeListByDim,
+                                   Map<RDFNode, Set<RDFNode>> valNotInCodeList) {
+        boolean isViolated = false;
+        for (Map.Entry<Property, Set<RDFNode>> entry : codeListByDim.entrySet()) {
+            Set<RDFNode> valueSet = record.getValues(entry.getKey());
+            if (valueSet.size() != 1) continue;
+            RDFNode value = valueSet.iterator().next();
+            Set<RDFNode> codeList = entry.getValue();
+            if (value.isURIResource() && connectedToCodeList(isConceptList, value.asResource(), codeList))
+                continue;
+            isViolated = true;
+            if (valNotInCodeList == null) addValNotInCodeList(dataset, value, null);
+            else if (valNotInCodeList.containsKey(value)) valNotInCodeList.get(value).addAll(codeList);
+            else valNotInCodeList.put(value, new HashSet<RDFNode>(codeList));
         }
-        return valNotInCodeList;
+        return isViolated;
     }
 
     /**
@@ -143,7 +179,7 @@ public class ValidatorIC19 extends ValidatorBase {
      * list
      */
     private boolean connectedToCodeList (boolean isConceptList, Resource value,
-                                         Set<? extends RDFNode> codeListSet) {
+                                         Set<RDFNode> codeListSet) {
         boolean isConnected = false;
         if (!model.listStatements(value, RDF_type, SKOS_Concept).hasNext())
             return false;
@@ -1,5 +1,6 @@
 package cn.yyz.nospa.validator.nonsparql;
 
+import cn.yyz.nospa.validator.Constraint;
 import com.hp.hpl.jena.rdf.model.Model;
 import com.hp.hpl.jena.rdf.model.RDFNode;
 import com.hp.hpl.jena.rdf.model.Resource;
@@ -12,8 +13,20 @@ import java.util.Set;
  * Created by yyz on 11/4/14.
  */
 public class ValidatorIC2 extends ValidatorBase {
-    public ValidatorIC2 (Model model) {
+    private DsdCatalog catalog;
+
+    public ValidatorIC2(Model model) {
+        this(model, new DsdCatalog(model));
+    }
+
+    /**
+     * Constructor of a validator sharing a compiled catalog of structures
+     * @param model an RDF model
+     * @param catalog a catalog compiled from the model
+     */
+    public ValidatorIC2(Model model, DsdCatalog catalog) {
         super(model);
+        this.catalog = catalog;
     }
 
     /**
@@ -24,11 +37,11 @@ public class ValidatorIC2 extends ValidatorBase {
     public Map<Resource, Set<RDFNode>> validate() {
         Map<Resource, Set<RDFNode>> dsdByDataset =
                 new HashMap<Resource, Set<RDFNode>>();
-        Set<Resource> datasetSet = model.listSubjectsWithProperty(
-                RDF_type, QB_DataSet).toSet();
-        for (Resource dataset : datasetSet) {
-            Set<RDFNode> dsdSet = model.listObjectsOfProperty(dataset, QB_structure).toSet();
+        for (Resource dataset : catalog.getDatasetSet()) {
+            if (shouldStop()) break;
+            Set<RDFNode> dsdSet = catalog.getStructures(dataset);
             if (dsdSet.size() != 1) {
+                if (!spend(Constraint.IC2)) break;
                 dsdByDataset.put(dataset, dsdSet);
             }
         }
@@ -1,5 +1,7 @@
 package cn.yyz.nospa.validator.nonsparql;
 
+import cn.yyz.nospa.validator.Constraint;
+import cn.yyz.nospa.validator.Progress;
 import com.hp.hpl.jena.rdf.model.*;
 
 import java.util.*;
@@ -7,7 +9,16 @@ import java.util.*;
 /**
  * Created by yyz on 11/4/14.
  */
-public class ValidatorIC20_21 extends ValidatorBase {
+public class ValidatorIC20_21 extends ValidatorBase implements ObservationCheck {
+    private Map<RDFNode, Set<RDFNode>> valNotInCodeListByDirPcp;
+    private Map<RDFNode, Set<RDFNode>> valNotInCodeListByInvPcp;
+    private Set<RDFNode> sentValByDirPcp;
+    private Set<RDFNode> sentValByInvPcp;
+    private Map<Resource, List<DimCodeSets>> codeSetsByDataset;
+    private Map<Resource, Map<String, Set<RDFNode>>> codeSetByCodeList;
+    private Map<Resource, Map<String, Set<RDFNode>>> keptCodeSets;
+    private boolean isSwept = false;
+
     public ValidatorIC20_21(Model model) {
         super(model);
     }
@@ -25,16 +36,50 @@ public class ValidatorIC20_21 extends ValidatorBase {
      * the inverse qb:parentChildProperty links.
      * @return a list of two maps containing values with code lists not
      * including corresponding values with any parent child property along both
-     * direct and inverse paths
+     * direct and inverse paths, which are empty if the violations are sent to
+     * a result sink
      */
     public List<Map<RDFNode, Set<RDFNode>>> validate() {
-        Map<RDFNode, Set<RDFNode>> valNotInCodeListByDirPcp =
-                new HashMap<RDFNode, Set<RDFNode>>();
-        Map<RDFNode, Set<RDFNode>> valNotInCodeListByInvPcp =
-                new HashMap<RDFNode, Set<RDFNode>>();
+        if (!isSwept) {
+            ObservationSweep sweep = new ObservationSweep(model);
+            sweep.setBudget(budget);
+            sweep.register(this);
+            sweep.run();
+        }
         List<Map<RDFNode, Set<RDFNode>>> valNotInCodeListByPcp =
                 new ArrayList<Map<RDFNode, Set<RDFNode>>>();
-        Map<Resource, Map<String, Set<Property>>> pcpByCodeList = getPcpByCodeList();
+        valNotInCodeListByPcp.add(valNotInCodeListByDirPcp);
+        valNotInCodeListByPcp.add(valNotInCodeListByInvPcp);
+        return valNotInCodeListByPcp;
+    }
+
+    /**
+     * Keeps the code sets of the hierarchical code lists between validations
+     * of a cube whose code lists do not change, so that the hierarchies are
+     * only traversed once
+     * @param keptCodeSets the code sets of each code list, filled in by the
+     *                     first validation
+     */
+    public void keepCodeSets(Map<Resource, Map<String, Set<RDFNode>>> keptCodeSets) {
+        this.keptCodeSets = keptCodeSets;
+    }
+
+    /**
+     * Collects the dimensions with hierarchical code lists of each dataset
+     * and the code sets of these code lists, merged for each dimension and
+     * direction so that a value is checked with a single lookup.
+     */
+    public void prepare() {
+        valNotInCodeListByDirPcp = new HashMap<RDFNode, Set<RDFNode>>();
+        valNotInCodeListByInvPcp = new HashMap<RDFNode, Set<RDFNode>>();
+        sentValByDirPcp = new HashSet<RDFNode>();
+        sentValByInvPcp = new HashSet<RDFNode>();
+        codeSetsByDataset = new HashMap<Resource, List<DimCodeSets>>();
+        if (keptCodeSets != null && !keptCodeSets.isEmpty()) codeSetByCodeList = keptCodeSets;
+        else {
+            codeSetByCodeList = getCodeSetByCodeList(getPcpByCodeList());
+            if (keptCodeSets != null && !isIncomplete()) keptCodeSets.putAll(codeSetByCodeList);
+        }
         Set<Resource> codeListWithDefSet = model.listResourcesWithProperty(RDF_type,
                 QB_HierarchicalCodeList).toSet();
         Map<Resource, Set<? extends RDFNode>> dimByDataset = searchByPathVisit(null,
@@ -44,117 +89,180 @@ public class ValidatorIC20_21 extends ValidatorBase {
         Map<Resource, Map<Property, Set<RDFNode>>> objBySubAndProp =
                 searchByMultipleProperty(null, objByProp, Arrays.asList(QB_codeList));
         for (Resource dataset : dimByDataset.keySet()) {
-            Map<Property, Set<RDFNode>> codeListByDim = new HashMap<Property, Set<RDFNode>>();
-            Set<Resource> obsSet = model.listSubjectsWithProperty(QB_dataSet, dataset).toSet();
+            List<DimCodeSets> codeSetsOfDataset = new ArrayList<DimCodeSets>();
             Set<? extends RDFNode> dimSet = dimByDataset.get(dataset);
             dimSet.retainAll(objBySubAndProp.keySet());
             for (RDFNode dim : dimSet) {
-                Set<RDFNode> codeListSet = objBySubAndProp.get(dim.asResource()).get(QB_codeList);
+                Set<RDFNode> codeListSet =
+                        new HashSet<RDFNode>(objBySubAndProp.get(dim.asResource()).get(QB_codeList));
                 codeListSet.retainAll(codeListWithDefSet);
                 Property dimAsProp = ResourceFactory.createProperty(dim.asResource().getURI());
-                if (!codeListSet.isEmpty()) codeListByDim.put(dimAsProp, codeListSet);
+                if (!codeListSet.isEmpty()) codeSetsOfDataset.add(new DimCodeSets(dimAsProp, codeListSet,
+                        mergeCodeSets("DIRECT", codeListSet), mergeCodeSets("INVERSE", codeListSet)));
             }
-            valNotInCodeListByDirPcp.putAll(
-                    obsSetPcpCheck("DIRECT", obsSet, codeListByDim, pcpByCodeList));
-            valNotInCodeListByInvPcp.putAll(
-                    obsSetPcpCheck("INVERSE", obsSet, codeListByDim, pcpByCodeList));
+            if (!codeSetsOfDataset.isEmpty()) codeSetsByDataset.put(dataset, codeSetsOfDataset);
         }
-        valNotInCodeListByPcp.add(valNotInCodeListByDirPcp);
-        valNotInCodeListByPcp.add(valNotInCodeListByInvPcp);
-        return valNotInCodeListByPcp;
     }
 
     /**
-     * This function is a subtask to check if the dimension values of a set of
-     * observations are connected to their corresponding code list through a
-     * path of parent child properties
-     * @param direction indicates a direct or inverse link path
-     * @param obsSet a set of observations
-     * @param codeListByDim a map of dimensions with corresponding code lists
-     * @param pcpByCodeList a map of code lists with corresponding parent child
-     *                      properties
-     * @return a map of values with a set of code lists not including
-     * corresponding values
+     * This function is a subtask to check if the dimension values of an
+     * observation are included in the precomputed code sets of their
+     * corresponding code lists, along both direct and inverse paths
+     * @param dataset the dataset being swept
+     * @param record the observation with its property values
      */
-    public Map<RDFNode, Set<RDFNode>> obsSetPcpCheck (String direction,
-                                                      Set<Resource> obsSet, Map<Property, Set<RDFNode>> codeListByDim,
-                                                      Map<Resource, Map<String, Set<Property>>> pcpByCodeList) {
-        Map<RDFNode, Set<RDFNode>> valNotInCodeList = new HashMap<RDFNode, Set<RDFNode>>();
-        for (Resource obs : obsSet) {
-            Map<RDFNode, Set<RDFNode>> codeListByVal =
-                    valNotInCodeListCheck(direction, obs, codeListByDim, pcpByCodeList);
-            for (RDFNode val : codeListByVal.keySet()) {
-                Set<RDFNode> codeListForOneObs = codeListByVal.get(val);
-                if (valNotInCodeList.containsKey(val)) {
-                    Set<RDFNode> codeListForObsSet = valNotInCodeList.get(val);
-                    codeListForObsSet.addAll(codeListForOneObs);
-                }
-                else valNotInCodeList.put(val, codeListForOneObs);
+    public void check(Resource dataset, ObservationRecord record) {
+        List<DimCodeSets> codeSetsOfDataset = codeSetsByDataset.get(dataset);
+        if (codeSetsOfDataset == null || shouldStop()) return;
+        boolean isViolatedByDirPcp = false, isViolatedByInvPcp = false;
+        for (DimCodeSets codeSets : codeSetsOfDataset) {
+            Set<RDFNode> valueSet = record.getValues(codeSets.dim);
+            if (valueSet.size() != 1) continue;
+            RDFNode value = valueSet.iterator().next();
+            if (!codeSets.dirCodeSet.contains(value)) {
+                isViolatedByDirPcp = true;
+                addValNotInCodeList(Constraint.IC20, dataset, valNotInCodeListByDirPcp, sentValByDirPcp,
+                        value, codeSets.codeListSet);
+            }
+            if (!codeSets.invCodeSet.contains(value)) {
+                isViolatedByInvPcp = true;
+                addValNotInCodeList(Constraint.IC21, dataset, valNotInCodeListByInvPcp, sentValByInvPcp,
+                        value, codeSets.codeListSet);
             }
         }
-        return valNotInCodeList;
+        if (isViolatedByDirPcp) tally(Constraint.IC20, dataset, record.getObservation());
+        if (isViolatedByInvPcp) tally(Constraint.IC21, dataset, record.getObservation());
+    }
+
+    public Set<Constraint> getConstraints() {
+        return EnumSet.of(Constraint.IC20, Constraint.IC21);
+    }
+
+    public boolean needsRecord() {
+        return true;
+    }
+
+    public void finish(PresenceIndex presenceIndex) {
+        isSwept = true;
     }
 
     /**
-     * This function is a subtask to check if the dimension values of an
-     * observation are connected to code lists through a path of parent child
-     * properties
+     * This function is a subtask to merge the code sets of some code lists
+     * along the given direction, so that a value included in any of them is
+     * found with a single lookup
      * @param direction indicates a direct or inverse link path
-     * @param obs an observation
-     * @param codeListByDim a map of dimensions with corresponding code lists
+     * @param codeListSet a set of candidate code lists
+     * @return the set of codes of the code lists, shared with the code list
+     * if there is only one
+     */
+    private Set<RDFNode> mergeCodeSets (String direction, Set<RDFNode> codeListSet) {
+        if (codeListSet.size() == 1) {
+            Map<String, Set<RDFNode>> codeSetByDirect =
+                    codeSetByCodeList.get(codeListSet.iterator().next().asResource());
+            return codeSetByDirect == null ?
+                    Collections.<RDFNode>emptySet() : codeSetByDirect.get(direction);
+        }
+        Set<RDFNode> mergedCodeSet = new HashSet<RDFNode>();
+        for (RDFNode codeList : codeListSet) {
+            Map<String, Set<RDFNode>> codeSetByDirect = codeSetByCodeList.get(codeList.asResource());
+            if (codeSetByDirect != null) mergedCodeSet.addAll(codeSetByDirect.get(direction));
+        }
+        return mergedCodeSet;
+    }
+
+    /**
+     * Records a value together with the code lists not including it, or with
+     * null if only the violations are needed, unless it has been recorded
+     * already or the budget of the constraint is exhausted. A value is sent
+     * to the result sink as soon as it is first found, with the code lists of
+     * the dimension it was found on, and otherwise the code lists of all
+     * dimensions are merged in the result map.
+     * @param constraint the violated constraint
+     * @param dataset the dataset being swept
+     * @param valNotInCodeList a map of values with code lists
+     * @param sentValSet the values already sent to the result sink
+     * @param value the dimension value of an observation
+     * @param codeListSet a set of code lists not including the value
+     */
+    private void addValNotInCodeList (Constraint constraint, Resource dataset,
+                                      Map<RDFNode, Set<RDFNode>> valNotInCodeList,
+                                      Set<RDFNode> sentValSet, RDFNode value,
+                                      Set<RDFNode> codeListSet) {
+        if (sink == null && valNotInCodeList.containsKey(value)) {
+            Set<RDFNode> codeListForVal = valNotInCodeList.get(value);
+            if (codeListForVal != null) codeListForVal.addAll(codeListSet);
+        }
+        else if ((sink == null || !sentValSet.contains(value)) && spend(constraint)) {
+            if (sink != null) sentValSet.add(value);
+            record(constraint, dataset, valNotInCodeList, value,
+                    countOnly ? null : new HashSet<RDFNode>(codeListSet));
+        }
+    }
+
+    /**
+     * This function is a subtask to compute, for every hierarchical code list
+     * and direction, the set of codes reachable from its roots with zero or
+     * more hops along one of its parent child properties. Each code set is
+     * computed once so that checking a value becomes a single lookup
+     * regardless of the depth of the hierarchy.
      * @param pcpByCodeList a map of code lists with corresponding parent child
      *                      properties
-     * @return a map of values with a set of code lists not including
-     * corresponding values
+     * @return a map of code lists with the reachable codes in each direction
      */
-    public Map<RDFNode, Set<RDFNode>> valNotInCodeListCheck(String direction, Resource obs,
-                                                            Map<Property, Set<RDFNode>> codeListByDim,
-                                                            Map<Resource, Map<String, Set<Property>>> pcpByCodeList) {
-        Map<RDFNode, Set<RDFNode>> valNotInCodeList = new HashMap<RDFNode, Set<RDFNode>>();
-        for (Property dim : codeListByDim.keySet()) {
-            Set<RDFNode> codeListSet = codeListByDim.get(dim);
-            Set<RDFNode> valueSet = model.listObjectsOfProperty(obs, dim).toSet();
-            if (valueSet.size() != 1) continue;
-            RDFNode value = valueSet.iterator().next();
-            boolean isConnected = false;
-            for (RDFNode codeList : codeListSet) {
-                Resource codeListAsRes = codeList.asResource();
-                Set<Property> pcpSet = pcpByCodeList.get(codeListAsRes).get(direction);
-                isConnected = connectedByPcp(direction, codeListAsRes, pcpSet, value);
-                if (isConnected) break;
+    public Map<Resource, Map<String, Set<RDFNode>>> getCodeSetByCodeList (
+            Map<Resource, Map<String, Set<Property>>> pcpByCodeList) {
+        Map<Resource, Map<String, Set<RDFNode>>> codeSetByCodeList =
+                new HashMap<Resource, Map<String, Set<RDFNode>>>();
+        Progress progress = Progress.start("Collecting code sets of IC-20 and IC-21", "code lists",
+                pcpByCodeList.size());
+        try {
+            for (Resource codeList : pcpByCodeList.keySet()) {
+                if (shouldStop()) break;
+                progress.increment();
+                Set<RDFNode> rootSet = model.listObjectsOfProperty(codeList, QB_hierarchyRoot).toSet();
+                Map<String, Set<RDFNode>> codeSetByDirect = new HashMap<String, Set<RDFNode>>();
+                for (String direction : Arrays.asList("DIRECT", "INVERSE")) {
+                    Set<RDFNode> codeSet = new HashSet<RDFNode>(rootSet);
+                    for (Property pcp : pcpByCodeList.get(codeList).get(direction)) {
+                        codeSet.addAll(reachableByRepeatedProp(rootSet, pcp,
+                                direction.equals("DIRECT")));
+                    }
+                    codeSetByDirect.put(direction, codeSet);
+                }
+                codeSetByCodeList.put(codeList, codeSetByDirect);
             }
-            if (!isConnected) valNotInCodeList.put(value, codeListSet);
+        } finally {
+            progress.done();
         }
-        return valNotInCodeList;
+        return codeSetByCodeList;
     }
 
     /**
-     * This function is a subtask to check if a code list is connected to a
-     * value through one of parent child properties in the given set
-     * @param direction indicates a direct or inverse link path
-     * @param codeList a code list
-     * @param pcpSet a set of candidate parent child properties connecting the
-     *               code list to the value
-     * @param value the dimension value of an observation
-     * @return a boolean value indicating whether there is a connection or not
+     * Searches all nodes connected to a set of start nodes through one or
+     * more hops along a repetitive property. Every node is visited at most
+     * once so cyclic hierarchies terminate.
+     * @param startSet a set of start nodes
+     * @param repProp a property that could be repeated for multiple times
+     * @param isDirect indicate the direction of the property path (direct or
+     *                 inverse)
+     * @return a set of reachable nodes
      */
-    public boolean connectedByPcp (String direction, Resource codeList,
-                                   Set<Property> pcpSet, RDFNode value) {
-        boolean isConnected = false;
-        if (pcpSet.isEmpty()) {
-            isConnected = connectedByPropList(codeList, Arrays.asList(QB_hierarchyRoot), value);
-            return isConnected;
-        }
-        for (Property pcp : pcpSet) {
-            if (direction.equals("DIRECT"))
-                isConnected = connectedByRepeatedProp(codeList, Arrays.asList(QB_hierarchyRoot),
-                        pcp, value, true);
-            else
-                isConnected = connectedByRepeatedProp(codeList, Arrays.asList(QB_hierarchyRoot),
-                        pcp, value, false);
-            if (isConnected) break;
+    private Set<RDFNode> reachableByRepeatedProp (Set<RDFNode> startSet, Property repProp,
+                                                  boolean isDirect) {
+        Set<RDFNode> reachableSet = new HashSet<RDFNode>();
+        LinkedList<Resource> queue = new LinkedList<Resource>(nodeToResource(startSet));
+        while (!queue.isEmpty() && !shouldStop()) {
+            Resource node = queue.removeFirst();
+            Iterator<? extends RDFNode> nextIter = isDirect ?
+                    model.listObjectsOfProperty(node, repProp) :
+                    model.listSubjectsWithProperty(repProp, node);
+            while (nextIter.hasNext()) {
+                RDFNode next = nextIter.next();
+                if (reachableSet.add(next) && next.isResource())
+                    queue.addLast(next.asResource());
+            }
         }
-        return isConnected;
+        return reachableSet;
     }
 
     /**
@@ -190,4 +298,23 @@ public class ValidatorIC20_21 extends ValidatorBase {
         }
         return pcpByCodeList;
     }
+
+    /**
+     * A dimension with hierarchical code lists, with the codes reachable in
+     * any of them along direct and inverse paths
+     */
+    private static class DimCodeSets {
+        private Property dim;
+        private Set<RDFNode> codeListSet;
+        private Set<RDFNode> dirCodeSet;
+        private Set<RDFNode> invCodeSet;
+
+        DimCodeSets(Property dim, Set<RDFNode> codeListSet, Set<RDFNode> dirCodeSet,
+                    Set<RDFNode> invCodeSet) {
+            this.dim = dim;
+            this.codeListSet = codeListSet;
+            this.dirCodeSet = dirCodeSet;
+            this.invCodeSet = invCodeSet;
+        }
+    }
 }
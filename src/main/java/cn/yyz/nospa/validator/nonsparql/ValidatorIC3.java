@@ -1,20 +1,31 @@
 package cn.yyz.nospa.validator.nonsparql;
 
+import cn.yyz.nospa.validator.Constraint;
 import com.hp.hpl.jena.rdf.model.Model;
 import com.hp.hpl.jena.rdf.model.RDFNode;
 import com.hp.hpl.jena.rdf.model.Resource;
 
-import java.util.Arrays;
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
 
 /**
  * Created by yyz on 11/4/14.
  */
 public class ValidatorIC3 extends ValidatorBase {
-    public ValidatorIC3 (Model model) {
+    private DsdCatalog catalog;
+
+    public ValidatorIC3(Model model) {
+        this(model, new DsdCatalog(model));
+    }
+
+    /**
+     * Constructor of a validator sharing a compiled catalog of structures
+     * @param model an RDF model
+     * @param catalog a catalog compiled from the model
+     */
+    public ValidatorIC3(Model model, DsdCatalog catalog) {
         super(model);
+        this.catalog = catalog;
     }
 
     /**
@@ -24,16 +35,14 @@ public class ValidatorIC3 extends ValidatorBase {
      */
     public Set<Resource> validate() {
         Set<Resource> dsdWithoutMeasure = new HashSet<Resource>();
-        Set<Resource> dsdSet = model.listSubjectsWithProperty(RDF_type,
-                QB_DataStructureDefinition).toSet();
-        Set<Resource> measurePropSet = model.listSubjectsWithProperty(RDF_type,
-                QB_MeasureProperty).toSet();
-        for (Resource dsd : dsdSet) {
-            Map<Resource, Set<? extends RDFNode>> dsdPropertyMap = searchByPathVisit(dsd,
-                    Arrays.asList(QB_component, QB_componentProperty), null);
-            Set<? extends RDFNode> compPropSet = dsdPropertyMap.get(dsd);
-            compPropSet.retainAll(measurePropSet);
-            if (compPropSet.isEmpty()) dsdWithoutMeasure.add(dsd);
+        for (Resource dsd : catalog.getDsdSet()) {
+            if (shouldStop()) break;
+            Set<RDFNode> compPropSet = catalog.getComponentProperties(dsd);
+            compPropSet.retainAll(catalog.getMeasureSet());
+            if (compPropSet.isEmpty()) {
+                if (!spend(Constraint.IC3)) break;
+                dsdWithoutMeasure.add(dsd);
+            }
         }
         return dsdWithoutMeasure;
     }
@@ -1,5 +1,6 @@
 package cn.yyz.nospa.validator.nonsparql;
 
+import cn.yyz.nospa.validator.Constraint;
 import com.hp.hpl.jena.rdf.model.Model;
 import com.hp.hpl.jena.rdf.model.Resource;
 
@@ -10,8 +11,20 @@ import java.util.Set;
  * Created by yyz on 11/4/14.
  */
 public class ValidatorIC4 extends ValidatorBase {
+    private DsdCatalog catalog;
+
     public ValidatorIC4(Model model) {
+        this(model, new DsdCatalog(model));
+    }
+
+    /**
+     * Constructor of a validator sharing a compiled catalog of structures
+     * @param model an RDF model
+     * @param catalog a catalog compiled from the model
+     */
+    public ValidatorIC4(Model model, DsdCatalog catalog) {
         super(model);
+        this.catalog = catalog;
     }
 
     /**
@@ -20,12 +33,14 @@ public class ValidatorIC4 extends ValidatorBase {
      * @return a set of dimensions without a declared rdfs:range
      */
     public Set<Resource> validate() {
-        Set<Resource> dimSet = model.listSubjectsWithProperty(RDF_type,
-                QB_DimensionProperty).toSet();
-        Set<Resource> dimWithRangeSet = model.listSubjectsWithProperty(
-                RDFS_range).toSet();
-        Set<Resource> dimWithoutRangeSet = new HashSet<Resource>(dimSet);
-        dimWithoutRangeSet.removeAll(dimWithRangeSet);
+        Set<Resource> dimWithoutRangeSet = new HashSet<Resource>();
+        for (Resource dim : catalog.getDimensionSet()) {
+            if (shouldStop()) break;
+            if (catalog.getRanges(dim).isEmpty()) {
+                if (!spend(Constraint.IC4)) break;
+                dimWithoutRangeSet.add(dim);
+            }
+        }
         return dimWithoutRangeSet;
     }
 }
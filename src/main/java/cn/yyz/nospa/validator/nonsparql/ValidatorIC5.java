@@ -1,18 +1,30 @@
 package cn.yyz.nospa.validator.nonsparql;
 
-import com.hp.hpl.jena.rdf.model.*;
+import cn.yyz.nospa.validator.Constraint;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.Resource;
 
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
 
 /**
  * Created by yyz on 11/4/14.
  */
 public class ValidatorIC5 extends ValidatorBase {
+    private DsdCatalog catalog;
+
     public ValidatorIC5(Model model) {
+        this(model, new DsdCatalog(model));
+    }
+
+    /**
+     * Constructor of a validator sharing a compiled catalog of structures
+     * @param model an RDF model
+     * @param catalog a catalog compiled from the model
+     */
+    public ValidatorIC5(Model model, DsdCatalog catalog) {
         super(model);
+        this.catalog = catalog;
     }
 
     /**
@@ -22,13 +34,13 @@ public class ValidatorIC5 extends ValidatorBase {
      */
     public Set<Resource> validate() {
         Set<Resource> dimWithoutCodeList = new HashSet<Resource>();
-        Map<Property, RDFNode> objByProp = new HashMap<Property, RDFNode>();
-        objByProp.put(RDF_type, QB_DimensionProperty);
-        objByProp.put(RDFS_range, SKOS_Concept);
-        Set<Resource> dimSet = searchByMultipleProperty(null, objByProp);
-        for (Resource dimension : dimSet) {
-            NodeIterator codelistIterator = model.listObjectsOfProperty(dimension, QB_codeList);
-            if (!codelistIterator.hasNext()) dimWithoutCodeList.add(dimension);
+        for (Resource dimension : catalog.getDimensionSet()) {
+            if (shouldStop()) break;
+            if (catalog.getRanges(dimension).contains(SKOS_Concept) &&
+                    catalog.getCodeLists(dimension).isEmpty()) {
+                if (!spend(Constraint.IC5)) break;
+                dimWithoutCodeList.add(dimension);
+            }
         }
         return dimWithoutCodeList;
     }
@@ -1,15 +1,30 @@
 package cn.yyz.nospa.validator.nonsparql;
 
-import com.hp.hpl.jena.rdf.model.*;
+import cn.yyz.nospa.validator.Constraint;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.RDFNode;
 
-import java.util.*;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * Created by yyz on 11/4/14.
  */
 public class ValidatorIC6 extends ValidatorBase {
+    private DsdCatalog catalog;
+
     public ValidatorIC6(Model model) {
+        this(model, new DsdCatalog(model));
+    }
+
+    /**
+     * Constructor of a validator sharing a compiled catalog of structures
+     * @param model an RDF model
+     * @param catalog a catalog compiled from the model
+     */
+    public ValidatorIC6(Model model, DsdCatalog catalog) {
         super(model);
+        this.catalog = catalog;
     }
 
     /**
@@ -20,20 +35,11 @@ public class ValidatorIC6 extends ValidatorBase {
      */
     public Set<RDFNode> validate() {
         Set<RDFNode> compPropSet = new HashSet<RDFNode>();
-        Map<Property, RDFNode> objyByProp = new HashMap<Property, RDFNode>();
-        objyByProp.put(QB_componentRequired, LITERAL_FALSE);
-        Map<Resource, Map<Property, Set<RDFNode>>> compPropByCompSpec = searchByMultipleProperty(
-                null, objyByProp, Arrays.asList(QB_componentProperty));
-        Set<RDFNode> compSpecSet = model.listObjectsOfProperty(QB_component).toSet();
-        compSpecSet.retainAll(compPropByCompSpec.keySet());
-        for (RDFNode compSpec : compSpecSet) {
-            Resource compSpecAsRes = compSpec.asResource();
-            compPropSet.addAll(compPropByCompSpec
-                    .get(compSpecAsRes).get(QB_componentProperty));
+        for (ComponentSpec spec : catalog.getComponentSpecs()) {
+            if (shouldStop()) break;
+            if (spec.hasRequiredFlag(LITERAL_FALSE)) compPropSet.addAll(spec.getProperties());
         }
-        Set<Resource> AttribWithDefSet = model.listSubjectsWithProperty(
-                RDF_type, QB_AttributeProperty).toSet();
-        compPropSet.removeAll(AttribWithDefSet);
-        return compPropSet;
+        compPropSet.removeAll(catalog.getAttributeSet());
+        return spendAll(Constraint.IC6, compPropSet);
     }
 }
@@ -1,18 +1,30 @@
 package cn.yyz.nospa.validator.nonsparql;
 
+import cn.yyz.nospa.validator.Constraint;
 import com.hp.hpl.jena.rdf.model.Model;
-import com.hp.hpl.jena.rdf.model.Property;
-import com.hp.hpl.jena.rdf.model.RDFNode;
 import com.hp.hpl.jena.rdf.model.Resource;
 
-import java.util.*;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * Created by yyz on 11/4/14.
  */
 public class ValidatorIC7 extends ValidatorBase {
+    private DsdCatalog catalog;
+
     public ValidatorIC7(Model model) {
+        this(model, new DsdCatalog(model));
+    }
+
+    /**
+     * Constructor of a validator sharing a compiled catalog of structures
+     * @param model an RDF model
+     * @param catalog a catalog compiled from the model
+     */
+    public ValidatorIC7(Model model, DsdCatalog catalog) {
         super(model);
+        this.catalog = catalog;
     }
 
     /**
@@ -21,15 +33,11 @@ public class ValidatorIC7 extends ValidatorBase {
      * @return a set of Slice Keys not associated with DSDs
      */
     public Set<Resource> validate() {
-        Map<Property, RDFNode> objByProp = new HashMap<Property, RDFNode>();
-        objByProp.put(RDF_type, QB_DataStructureDefinition);
-        Map<Resource, Map<Property, Set<RDFNode>>> sliceKeyByDSD =
-                searchByMultipleProperty(null, objByProp, Arrays.asList(QB_sliceKey));
-        Set<Resource> sliceKeySet = model.listSubjectsWithProperty(RDF_type, QB_SliceKey).toSet();
-        for (Resource dsd : sliceKeyByDSD.keySet()) {
-            Set<RDFNode> sliceKeyInDSDSet = sliceKeyByDSD.get(dsd).get(QB_sliceKey);
-            sliceKeySet.removeAll(sliceKeyInDSDSet);
+        Set<Resource> sliceKeySet = new HashSet<Resource>(catalog.getSliceKeySet());
+        for (Resource dsd : catalog.getDsdSet()) {
+            if (shouldStop()) break;
+            sliceKeySet.removeAll(catalog.getSliceKeys(dsd));
         }
-        return sliceKeySet;
+        return spendAll(Constraint.IC7, sliceKeySet);
     }
 }
@@ -1,18 +1,31 @@
 package cn.yyz.nospa.validator.nonsparql;
 
+import cn.yyz.nospa.validator.Constraint;
 import com.hp.hpl.jena.rdf.model.Model;
-import com.hp.hpl.jena.rdf.model.Property;
 import com.hp.hpl.jena.rdf.model.RDFNode;
 import com.hp.hpl.jena.rdf.model.Resource;
 
-import java.util.*;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * Created by yyz on 11/4/14.
  */
 public class ValidatorIC8 extends ValidatorBase {
+    private DsdCatalog catalog;
+
     public ValidatorIC8(Model model) {
+        this(model, new DsdCatalog(model));
+    }
+
+    /**
+     * Constructor of a validator sharing a compiled catalog of structures
+     * @param model an RDF model
+     * @param catalog a catalog compiled from the model
+     */
+    public ValidatorIC8(Model model, DsdCatalog catalog) {
         super(model);
+        this.catalog = catalog;
     }
 
     /**
@@ -23,24 +36,18 @@ public class ValidatorIC8 extends ValidatorBase {
      */
     public Set<RDFNode> validate() {
         Set<RDFNode> compWithoutDSD = new HashSet<RDFNode>();
-        List<Property> propPath = Arrays.asList(QB_component, QB_componentProperty);
-        Map<Property, RDFNode> objByProp = new HashMap<Property, RDFNode>();
-        objByProp.put(RDF_type, QB_SliceKey);
-        Set<RDFNode> propSet = new HashSet<RDFNode>();
-        Map<Resource, Map<Property, Set<RDFNode>>> propBySliceKey =
-                searchByMultipleProperty(null, objByProp, Arrays.asList(QB_componentProperty));
-        Map<Resource, Set<? extends RDFNode>> sliceKeyByDSD =
-                searchByPathVisit(null, Arrays.asList(QB_sliceKey), null);
-        for (Resource dsd : sliceKeyByDSD.keySet()) {
-            Set<? extends RDFNode> sliceKeySet = sliceKeyByDSD.get(dsd);
-            for (RDFNode sliceKey : sliceKeySet) {
-                if (propBySliceKey.containsKey(sliceKey.asResource()))
-                    propSet.addAll(propBySliceKey
-                            .get(sliceKey.asResource()).get(QB_componentProperty));
+        for (Resource dsd : catalog.getDsdWithSliceKeySet()) {
+            if (shouldStop()) break;
+            Set<RDFNode> propSet = new HashSet<RDFNode>();
+            for (Resource sliceKey : nodeToResource(catalog.getSliceKeys(dsd))) {
+                if (catalog.getSliceKeySet().contains(sliceKey))
+                    propSet.addAll(catalog.getSliceKeyProperties(sliceKey));
             }
-            for (RDFNode property : propSet) {
-                if (!connectedByPropList(dsd, propPath, property))
-                    compWithoutDSD.add(property);
+            propSet.removeAll(catalog.getComponentProperties(dsd));
+            for (RDFNode prop : propSet) {
+                if (compWithoutDSD.contains(prop)) continue;
+                if (!spend(Constraint.IC8)) return compWithoutDSD;
+                compWithoutDSD.add(prop);
             }
         }
         return compWithoutDSD;
@@ -1,18 +1,32 @@
 package cn.yyz.nospa.validator.nonsparql;
 
+import cn.yyz.nospa.validator.Constraint;
 import com.hp.hpl.jena.rdf.model.Model;
-import com.hp.hpl.jena.rdf.model.Property;
 import com.hp.hpl.jena.rdf.model.RDFNode;
 import com.hp.hpl.jena.rdf.model.Resource;
 
-import java.util.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Created by yyz on 11/4/14.
  */
 public class ValidatorIC9 extends ValidatorBase {
+    private DsdCatalog catalog;
+
     public ValidatorIC9(Model model) {
+        this(model, new DsdCatalog(model));
+    }
+
+    /**
+     * Constructor of a validator sharing a compiled catalog of structures
+     * @param model an RDF model
+     * @param catalog a catalog compiled from the model
+     */
+    public ValidatorIC9(Model model, DsdCatalog catalog) {
         super(model);
+        this.catalog = catalog;
     }
 
     /**
@@ -23,12 +37,13 @@ public class ValidatorIC9 extends ValidatorBase {
     public Map<Resource, Set<RDFNode>> validate() {
         Map<Resource, Set<RDFNode>> structBySlice =
                 new HashMap<Resource, Set<RDFNode>>();
-        Set<Resource> sliceSet = model.listSubjectsWithProperty(RDF_type, QB_Slice).toSet();
-        for (Resource slice : sliceSet) {
-            Set<RDFNode> sliceStructSet = model.listObjectsOfProperty(slice,
-                    QB_sliceStructure).toSet();
-            if (sliceStructSet.size() != 1) structBySlice.put(slice,
-                    sliceStructSet);
+        for (Resource slice : catalog.getSliceSet()) {
+            if (shouldStop()) break;
+            Set<RDFNode> sliceStructSet = catalog.getSliceStructures(slice);
+            if (sliceStructSet.size() != 1) {
+                if (!spend(Constraint.IC9)) break;
+                structBySlice.put(slice, sliceStructSet);
+            }
         }
         return structBySlice;
     }
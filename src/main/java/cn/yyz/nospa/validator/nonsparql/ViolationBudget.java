@@ -0,0 +1,122 @@
+package cn.yyz.nospa.validator.nonsparql;
+
+import cn.yyz.nospa.validator.Constraint;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A limit of the number of violations reported by a validation, both in total
+ * and per constraint. Validators spend the budget for every violation they
+ * record and stop scanning once the budget of their constraints is exhausted.
+ * The counters are thread safe, but which constraints use up a global limit
+ * depends on the order in which concurrent validators find their violations.
+ * A budget is spent by one validation; use a new one for another run.
+ */
+public class ViolationBudget {
+    public static final int UNLIMITED = Integer.MAX_VALUE;
+    private final int globalLimit;
+    private final AtomicInteger globalCount = new AtomicInteger();
+    private final Map<Constraint, Integer> limitByConstraint =
+            new EnumMap<Constraint, Integer>(Constraint.class);
+    private final Map<Constraint, AtomicInteger> countByConstraint =
+            new EnumMap<Constraint, AtomicInteger>(Constraint.class);
+    private final Set<Constraint> truncatedSet =
+            Collections.synchronizedSet(EnumSet.noneOf(Constraint.class));
+
+    /**
+     * Constructor of a budget without a global limit
+     */
+    public ViolationBudget() {
+        this(UNLIMITED);
+    }
+
+    /**
+     * Constructor of a budget with a global limit
+     * @param globalLimit the maximum number of violations of all constraints
+     */
+    public ViolationBudget(int globalLimit) {
+        if (globalLimit < 1)
+            throw new IllegalArgumentException("A violation limit must be at least 1");
+        this.globalLimit = globalLimit;
+        for (Constraint constraint : Constraint.values()) {
+            limitByConstraint.put(constraint, UNLIMITED);
+            countByConstraint.put(constraint, new AtomicInteger());
+        }
+    }
+
+    /**
+     * Set the limit of a constraint. Limits must be set before the budget is
+     * handed to a validator.
+     * @param constraint an integrity constraint
+     * @param limit the maximum number of violations of the constraint
+     * @return this budget
+     */
+    public ViolationBudget setLimit(Constraint constraint, int limit) {
+        if (limit < 1)
+            throw new IllegalArgumentException("A violation limit must be at least 1");
+        limitByConstraint.put(constraint, limit);
+        return this;
+    }
+
+    /**
+     * Spend the budget for a violation of a constraint
+     * @param constraint the violated constraint
+     * @return true if the violation may be recorded, false if the budget of
+     * the constraint is exhausted
+     */
+    public boolean spend(Constraint constraint) {
+        if (isExhausted(constraint) || countByConstraint.get(constraint).incrementAndGet() >
+                limitByConstraint.get(constraint) || globalCount.incrementAndGet() > globalLimit) {
+            truncatedSet.add(constraint);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Records that a validator stopped scanning for violations of a
+     * constraint because its budget is exhausted
+     * @param constraint an integrity constraint
+     */
+    public void truncate(Constraint constraint) {
+        truncatedSet.add(constraint);
+    }
+
+    /**
+     * Check if the violations of a constraint were cut short by this budget,
+     * i.e., a violation was refused or a validator stopped scanning for them
+     * @param constraint an integrity constraint
+     * @return true if some violations of the constraint may be missing
+     */
+    public boolean isTruncated(Constraint constraint) {
+        return truncatedSet.contains(constraint);
+    }
+
+    /**
+     * Check if no more violations of a constraint may be recorded
+     * @param constraint an integrity constraint
+     * @return true if the budget of the constraint is exhausted
+     */
+    public boolean isExhausted(Constraint constraint) {
+        return globalCount.get() >= globalLimit || countByConstraint.get(constraint).get() >=
+                limitByConstraint.get(constraint);
+    }
+
+    /**
+     * Check if no more violations of any of the given constraints may be
+     * recorded
+     * @param constraintSet a set of integrity constraints
+     * @return true if the budgets of all given constraints are exhausted
+     */
+    public boolean isExhausted(Set<Constraint> constraintSet) {
+        for (Constraint constraint : constraintSet) {
+            if (!isExhausted(constraint)) return false;
+        }
+        return true;
+    }
+}
@@ -1,19 +1,23 @@
 package cn.yyz.nospa.validator.sparql;
 
+import cn.yyz.nospa.validator.AsyncReportWriter;
+import cn.yyz.nospa.validator.CancellationToken;
+import cn.yyz.nospa.validator.Constraint;
+import cn.yyz.nospa.validator.Progress;
 import cn.yyz.nospa.validator.Validator;
 import com.hp.hpl.jena.query.*;
 import com.hp.hpl.jena.rdf.model.Model;
 import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.sparql.engine.ResultSetStream;
+import com.hp.hpl.jena.sparql.engine.binding.Binding;
 import com.hp.hpl.jena.update.UpdateAction;
 import com.hp.hpl.jena.util.FileManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
-import java.util.Date;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
 
 /**
  * The class for the entry point of a SPARQL based validator
@@ -22,6 +26,11 @@ import java.util.Set;
 public class SparqlValidator implements Validator {
     private Model model;
     private Logger logger = LoggerFactory.getLogger(SparqlValidator.class);
+    private CancellationToken token = new CancellationToken();
+    private long timeLimit = 0;
+    private Map<Constraint, Long> timeLimitByConstraint = new EnumMap<Constraint, Long>(Constraint.class);
+    private int reportQueueCapacity = 4096;
+    private AsyncReportWriter asyncWriter;
 
     /**
      * Constructor of a SPARQL based validator for an RDF model
@@ -52,7 +61,12 @@ public class SparqlValidator implements Validator {
             logger.error(msg);
             throw new IllegalArgumentException(msg);
         }
-        model.read(inputStream, null, format);
+        Progress progress = Progress.start("Loading cube file", "bytes", new File(filename).length());
+        try {
+            model.read(progress.track(inputStream), null, format);
+        } finally {
+            progress.done();
+        }
     }
 
     /**
@@ -84,115 +98,122 @@ public class SparqlValidator implements Validator {
         UpdateAction.parseExecute(queryString2, model);
     }
 
+    public void setTimeLimit(long timeLimit) {
+        if (timeLimit < 0)
+            throw new IllegalArgumentException("A time limit must not be negative");
+        this.timeLimit = timeLimit;
+    }
+
+    public void setTimeLimit(Constraint constraint, long timeLimit) {
+        if (timeLimit < 0)
+            throw new IllegalArgumentException("A time limit must not be negative");
+        timeLimitByConstraint.put(constraint, timeLimit);
+    }
+
+    public void setCancellationToken(CancellationToken token) {
+        this.token = token;
+    }
+
+    /**
+     * Set the number of report records a validation may queue for the
+     * writer thread of the report. The results of the queries are queued as
+     * compact records and formatted into lines by the writer thread, and a
+     * validation waits when the queue is full. The report is written on the
+     * validating thread if the capacity is 0.
+     * @param capacity the capacity of the queue, 4096 by default
+     */
+    public void setReportQueueCapacity(int capacity) {
+        reportQueueCapacity = capacity;
+    }
+
     /**
      * A shortcut function to execute all constraint validations.
      */
     public void validateAll() {
-        String ic1 = "Integrity Constraint 1: Unique DataSet";
-        String msg1 = "The following observations are associated with more than one dataset: ";
-        logger.info("Validating " + ic1);
-        logValidationResult(ic1, validate("IC1"), msg1);
-
-        String ic2 = "Integrity Constraint 2: Unique DSD";
-        String msg2 = "The following datasets are associated with more than one DSD: ";
-        logger.info("Validating " + ic2);
-        logValidationResult(ic2, validate("IC2"), msg2);
-
-        String ic3 = "Integrity Constraint 3: DSD Includes Measure";
-        String msg3 = "The following DSDs do not include at least one declared measure: ";
-        logger.info("Validating " + ic3);
-        logValidationResult(ic3, validate("IC3"), msg3);
-
-        String ic4 = "Integrity Constraint 4: Dimensions Have Range";
-        String msg4 = "The following dimensions do not have a declared rdfs:range: ";
-        logger.info("Validating " + ic4);
-        logValidationResult(ic4, validate("IC4"), msg4);
-
-        String ic5 = "Integrity Constraint 5: Concept Dimensions Have Code Lists";
-        String msg5 = "The following concept dimensions do not have a code list: ";
-        logger.info("Validating " + ic5);
-        logValidationResult(ic5, validate("IC5"), msg5);
-
-        String ic6 = "Integrity Constraint 6: Only Attributes May Be Optional";
-        String msg6 = "The following component properties are not delared as attributes: ";
-        logger.info("Validating " + ic6);
-        logValidationResult(ic6, validate("IC6"), msg6);
-
-        String ic7 = "Integrity Constraint 7: Slice Keys Must Be Declared";
-        String msg7 = "The following slice keys are not associated with DSDs: ";
-        logger.info("Validating " + ic7);
-        logValidationResult(ic7, validate("IC7"), msg7);
-
-        String ic8 = "Integrity Constraint 8: Slice Keys Consistent With DSD";
-        String msg8 = "The following component properties on slice keys are\" +\n" +
-                "                \" not associated with DSDs: ";
-        logger.info("Validating " + ic8);
-        logValidationResult(ic8, validate("IC8"), msg8);
-
-        String ic9 = "Integrity Constraint 9: Unique Slice Structure";
-        String msg9 = "The following slice keys are associated with more than one slice structure: ";
-        logger.info("Validating " + ic9);
-        logValidationResult(ic9, validate("IC9"), msg9);
-
-        String ic10 = "Integrity Constraint 10: Slice Dimensions Complete";
-        String msg10 = " does not have values for the following dimensions: ";
-        logger.info("Validating " + ic10);
-        logValidationResult(ic10, validate("IC10"), msg10);
-
-        String ic11 = "Integrity Constraint 11: All Dimensions Required";
-        String msg11 = " does not have values for the following dimensions: ";
-        logger.info("Validating " + ic11);
-        logValidationResult(ic11, validate("IC11"), msg11);
-
-        String ic12 = "Integrity Constraint 12: No Duplicate Observations";
-        String msg12 = " has the same values as: ";
-        logger.info("Validating " + ic12);
-        logValidationResult(ic12, validate("IC12"), msg12);
-
-        String ic13 = "Integrity Constraint 13: Required Attributes";
-        String msg13 = " does not have values for the following required attributes: ";
-        logger.info("Validating " + ic13);
-        logValidationResult(ic13, validate("IC13"), msg13);
-
-        String ic14 = "Integrity Constraint 14: All Measures Present";
-        String msg14 = " does not have values for the following declared measures: ";
-        logger.info("Validating " + ic14);
-        logValidationResult(ic14, validate("IC14"), msg14);
-
-        String ic15 = "Integrity Constraint 15: Measure Dimension Consistent";
-        String msg15 = " corresponds to a wrong measure or does not have a value on: ";
-        logger.info("Validating " + ic15);
-        logValidationResult(ic15, validate("IC15"), msg15);
-
-        String ic16 = "Integrity Constraint 16: Single Measure On Measure Dimension Observation";
-        String msg16 = " has the following multiple measures: ";
-        logger.info("Validating " + ic16);
-        logValidationResult(ic16, validate("IC16"), msg16);
-
-        String ic17 = "Integrity Constraint 17: All Measures Present In Measures Dimension Cube";
-        String msg17 = " shares the same dimension values with the following number of observations: ";
-        logger.info("Validating " + ic17);
-        logValidationResult(ic17, validate("IC17"), msg17);
-
-        String ic18 = "Integrity Constraint 18: Consistent Dataset Links";
-        String msg18 = " should be associated to the following dataset: ";
-        logger.info("Validating " + ic18);
-        logValidationResult(ic18, validate("IC18"), msg18);
-
-        String ic19 = "Integrity Constraint 19: Codes From Code List";
-        String msg19 = " is not included in the following code lists: ";
-        logger.info("Validating " + ic19);
-        logValidationResult(ic19, validate("IC19"), msg19);
-
-        String ic20 = "Integrity Constraint 20: Codes From Hierarchy";
-        String msg20 = " is not connected to the following code lists along a direct path: ";
-        logger.info("Validating " + ic20);
-        logValidationResult(ic20, validateIC20_21("IC20"), msg20);
-
-        String ic21 = "Integrity Constraint 21: Codes From Hierarchy (Inverse)";
-        String msg21 = " is not connected to the following code lists along an inverse path: ";
-        logger.info("Validating " + ic21);
-        logValidationResult(ic21, validateIC20_21("IC21"), msg21);
+        validate(EnumSet.allOf(Constraint.class));
+    }
+
+    /**
+     * Validate the given constraints. Only the queries of the selected
+     * constraints are executed.
+     * @param constraintSet the constraints to be validated
+     */
+    public void validate(EnumSet<Constraint> constraintSet) {
+        boolean isWriting = asyncWriter == null && reportQueueCapacity > 0;
+        if (isWriting) asyncWriter = new AsyncReportWriter(logger, null, reportQueueCapacity);
+        try {
+            validateInOrder(constraintSet);
+        } finally {
+            if (isWriting) {
+                asyncWriter.close();
+                asyncWriter = null;
+            }
+        }
+    }
+
+    /**
+     * Validates the selected constraints in the order of the report
+     * @param constraintSet the constraints to be validated
+     */
+    private void validateInOrder(EnumSet<Constraint> constraintSet) {
+        validate(constraintSet, Constraint.IC1,
+                "The following observations are associated with more than one dataset: ");
+        validate(constraintSet, Constraint.IC2,
+                "The following datasets are associated with more than one DSD: ");
+        validate(constraintSet, Constraint.IC3,
+                "The following DSDs do not include at least one declared measure: ");
+        validate(constraintSet, Constraint.IC4,
+                "The following dimensions do not have a declared rdfs:range: ");
+        validate(constraintSet, Constraint.IC5,
+                "The following concept dimensions do not have a code list: ");
+        validate(constraintSet, Constraint.IC6,
+                "The following component properties are not delared as attributes: ");
+        validate(constraintSet, Constraint.IC7,
+                "The following slice keys are not associated with DSDs: ");
+        validate(constraintSet, Constraint.IC8,
+                "The following component properties on slice keys are" +
+                " not associated with DSDs: ");
+        validate(constraintSet, Constraint.IC9,
+                "The following slice keys are associated with more than one slice structure: ");
+        validate(constraintSet, Constraint.IC10,
+                " does not have values for the following dimensions: ");
+        validate(constraintSet, Constraint.IC11,
+                " does not have values for the following dimensions: ");
+        validate(constraintSet, Constraint.IC12,
+                " has the same values as: ");
+        validate(constraintSet, Constraint.IC13,
+                " does not have values for the following required attributes: ");
+        validate(constraintSet, Constraint.IC14,
+                " does not have values for the following declared measures: ");
+        validate(constraintSet, Constraint.IC15,
+                " corresponds to a wrong measure or does not have a value on: ");
+        validate(constraintSet, Constraint.IC16,
+                " has the following multiple measures: ");
+        validate(constraintSet, Constraint.IC17,
+                " shares the same dimension values with the following number of observations: ");
+        validate(constraintSet, Constraint.IC18,
+                " should be associated to the following dataset: ");
+        validate(constraintSet, Constraint.IC19,
+                " is not included in the following code lists: ");
+        validate(constraintSet, Constraint.IC20,
+                " is not connected to the following code lists along a direct path: ");
+        validate(constraintSet, Constraint.IC21,
+                " is not connected to the following code lists along an inverse path: ");
+    }
+
+    /**
+     * Validates a constraint if it is selected and logs its results
+     * @param constraintSet the selected constraints
+     * @param constraint a constraint
+     * @param msg a message describing validation conclusion
+     */
+    private void validate(EnumSet<Constraint> constraintSet, Constraint constraint, String msg) {
+        if (!constraintSet.contains(constraint)) return;
+        String icName = constraint.getName();
+        logger.info("Validating " + icName);
+        if (constraint == Constraint.IC20 || constraint == Constraint.IC21)
+            logValidationResult(icName, validateIC20_21(constraint.name()), msg);
+        else logValidationResult(icName, validate(constraint.name()), msg);
     }
 
     /**
@@ -204,48 +225,93 @@ public class SparqlValidator implements Validator {
     }
 
     /**
-     * The function to validate constraints by SPARQL queries
+     * The function to validate constraints by SPARQL queries. The query is
+     * aborted once the time limit of the constraint passes or the validation
+     * is cancelled, and the returned results are partial in that case.
      * @param constraint constraint defined in an enum class
      */
     public ResultSet validate(IntegrityConstraint constraint) {
-        String prefix = IntegrityConstraint.PREFIX.getValue();
-        Query query = QueryFactory.create(prefix + constraint.getValue());
-        QueryExecution qe = QueryExecutionFactory.create(query, model);
-        return qe.execSelect();
+        return execute(constraint.getValue(), tokenFor(constraint.name()),
+                getTimeLimit(constraint.name()));
     }
 
     public ResultSet validateIC20_21(String constraint) {
-        ResultSet pcpSet = validate(IntegrityConstraint.valueOf(constraint + "A"));
+        CancellationToken icToken = tokenFor(constraint);
+        long icTimeLimit = getTimeLimit(constraint);
+        GuardedResultSet pcpSet = execute(IntegrityConstraint.valueOf(constraint + "A").getValue(),
+                icToken, icTimeLimit);
         if (!pcpSet.hasNext()) return pcpSet;
         String var = pcpSet.getResultVars().get(0);
-        String prefix = IntegrityConstraint.PREFIX.getValue();
         String queryBase = IntegrityConstraint.valueOf(constraint + "B").getValue();
-        Set<QuerySolution> solutionSet = new HashSet<QuerySolution>();
+        Set<Binding> bindingSet = new LinkedHashSet<Binding>();
+        List<String> resultVars = null;
+        boolean isIncomplete = false;
         while (pcpSet.hasNext()) {
             String pcp = pcpSet.next().get(var).toString();
-            Query query = QueryFactory.create(prefix + queryBase.replace("$p", pcp));
-            QueryExecution qe = QueryExecutionFactory.create(query, model);
-            ResultSet resultSet = qe.execSelect();
+            GuardedResultSet resultSet = execute(queryBase.replace("$p", pcp), icToken, icTimeLimit);
+            resultVars = resultSet.getResultVars();
             while (resultSet.hasNext()) {
-                solutionSet.add(resultSet.next());
+                bindingSet.add(resultSet.nextBinding());
             }
+            isIncomplete |= resultSet.isIncomplete();
         }
-        return (ResultSet) (solutionSet.iterator());
+        isIncomplete |= pcpSet.isIncomplete();
+        GuardedResultSet solutionSet = new GuardedResultSet(
+                new ResultSetStream(resultVars, model, bindingSet.iterator()), null, null);
+        solutionSet.incomplete = isIncomplete;
+        return solutionSet;
+    }
+
+    /**
+     * Executes a query of a constraint under its time limit and cancellation
+     * token
+     * @param queryBody the query without the prefixes
+     * @param icToken the cancellation token of the constraint
+     * @param icTimeLimit the time limit of the constraint in milliseconds
+     * @return a result set which ends early if the query is stopped
+     */
+    private GuardedResultSet execute(String queryBody, CancellationToken icToken,
+                                     long icTimeLimit) {
+        String prefix = IntegrityConstraint.PREFIX.getValue();
+        Query query = QueryFactory.create(prefix + queryBody);
+        QueryExecution qe = QueryExecutionFactory.create(query, model);
+        if (icTimeLimit > 0) qe.setTimeout(icTimeLimit);
+        return new GuardedResultSet(qe.execSelect(), qe, icToken);
+    }
+
+    /**
+     * Gets the time limit of a constraint
+     * @param constraint name of constraint (e.g., IC1 or IC20A)
+     * @return the time limit in milliseconds, or 0 for none
+     */
+    private long getTimeLimit(String constraint) {
+        Long limit = timeLimitByConstraint.get(Constraint.valueOf(constraint.replaceAll("[AB]$", "")));
+        return limit == null ? timeLimit : limit;
+    }
+
+    /**
+     * Creates the cancellation token of a constraint
+     * @param constraint name of constraint (e.g., IC1 or IC20A)
+     * @return a token stopping the queries of the constraint
+     */
+    private CancellationToken tokenFor(String constraint) {
+        return token.withTimeLimit(getTimeLimit(constraint));
     }
 
     public void logValidationResult(String icName, ResultSet resultSet, String msg) {
-        logger.debug(icName);
-        logger.debug(new String(new char[icName.length()]).replace("\0", "-"));
-        logger.debug("");
-        if (!resultSet.hasNext()) logger.debug("Pass.");
-        else {
+        report(icName);
+        report(new String(new char[icName.length()]).replace("\0", "-"));
+        report("");
+        boolean isEmpty = !resultSet.hasNext();
+        if (isEmpty && !isIncomplete(resultSet)) report("Pass.");
+        else if (!isEmpty) {
             List<String> variables = resultSet.getResultVars();
             if (variables.size() == 1) {
-                logger.debug(msg);
+                report(msg);
                 String var = variables.get(0);
                 while (resultSet.hasNext()) {
                     QuerySolution querySolution = resultSet.next();
-                    logger.debug("    " + querySolution.get(var).toString());
+                    report(new SolutionRecord(null, null, var, querySolution.get(var)));
                 }
             }
             else if (variables.size() == 2) {
@@ -253,11 +319,134 @@ public class SparqlValidator implements Validator {
                 String var2 = variables.get(1);
                 while (resultSet.hasNext()) {
                     QuerySolution querySolution = resultSet.next();
-                    logger.debug(querySolution.get(var1).toString() + msg);
-                    logger.debug("    " + querySolution.get(var2).toString());
+                    report(new SolutionRecord(describe(querySolution, var1), msg, var2,
+                            querySolution.get(var2)));
                 }
             }
         }
-        logger.debug("");
+        if (isIncomplete(resultSet))
+            report("Incomplete: the validation was stopped before all violations were found.");
+        report("");
+    }
+
+    /**
+     * Describes the value of a variable in a solution, which may be unbound
+     * if the query does not select it, e.g., IC-12 projecting variables of
+     * its subquery
+     * @param querySolution a solution of a query
+     * @param var a variable of the query
+     * @return the value of the variable, or a note that it is unbound
+     */
+    private static String describe(QuerySolution querySolution, String var) {
+        RDFNode value = querySolution.get(var);
+        return value == null ? "?" + var + " (unbound)" : value.toString();
+    }
+
+    /**
+     * Writes a line or a violation record of the validation report to the
+     * log, through the writer thread while a validation runs
+     * @param line a line or a violation record of the report
+     */
+    private void report(Object line) {
+        if (asyncWriter != null) asyncWriter.write(line);
+        else AsyncReportWriter.writeLines(line, logger, null);
+    }
+
+    /**
+     * Checks if a result set of a constraint was stopped before completion
+     * @param resultSet a result set
+     * @return true if the results are partial
+     */
+    private boolean isIncomplete(ResultSet resultSet) {
+        return resultSet instanceof GuardedResultSet && ((GuardedResultSet) resultSet).isIncomplete();
+    }
+
+    /**
+     * A solution of a query in the report: a node with the message of its
+     * constraint followed by the node found with it, or a single node of a
+     * list of violating nodes. Unbound variables are written as such.
+     */
+    private static class SolutionRecord implements AsyncReportWriter.Record {
+        private String node;
+        private String msg;
+        private String var;
+        private RDFNode value;
+
+        SolutionRecord(String node, String msg, String var, RDFNode value) {
+            this.node = node;
+            this.msg = msg;
+            this.var = var;
+            this.value = value;
+        }
+
+        public void format(List<String> lines) {
+            if (node != null) lines.add(node + msg);
+            lines.add("    " + (value == null ? "?" + var + " (unbound)" : value.toString()));
+        }
+    }
+
+    /**
+     * A result set which ends as soon as its query times out or its
+     * cancellation token is cancelled, aborting the query
+     */
+    private static class GuardedResultSet implements ResultSet {
+        private ResultSet resultSet;
+        private QueryExecution qe;
+        private CancellationToken token;
+        private boolean incomplete = false;
+
+        GuardedResultSet(ResultSet resultSet, QueryExecution qe, CancellationToken token) {
+            this.resultSet = resultSet;
+            this.qe = qe;
+            this.token = token;
+        }
+
+        boolean isIncomplete() {
+            return incomplete;
+        }
+
+        public boolean hasNext() {
+            if (incomplete) return false;
+            if (token != null && token.isCancelled()) return stop();
+            try {
+                return resultSet.hasNext();
+            } catch (QueryCancelledException qce) {
+                return stop();
+            }
+        }
+
+        private boolean stop() {
+            incomplete = true;
+            if (qe != null) qe.abort();
+            return false;
+        }
+
+        public QuerySolution next() {
+            return resultSet.next();
+        }
+
+        public QuerySolution nextSolution() {
+            return resultSet.nextSolution();
+        }
+
+        public Binding nextBinding() {
+            return resultSet.nextBinding();
+        }
+
+        public int getRowNumber() {
+            return resultSet.getRowNumber();
+        }
+
+        public List<String> getResultVars() {
+            return resultSet.getResultVars();
+        }
+
+        public Model getResourceModel() {
+            return resultSet.getResourceModel();
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
     }
 }
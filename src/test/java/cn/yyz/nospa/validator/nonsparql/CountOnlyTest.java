@@ -0,0 +1,35 @@
+package cn.yyz.nospa.validator.nonsparql;
+
+import cn.yyz.nospa.validator.Constraint;
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the count-only validation, comparing the number of violations of
+ * each constraint with the violations reported by validateAll()
+ */
+public class CountOnlyTest {
+
+    @Test
+    public void countsMatchValidateAll() {
+        for (String name : Arrays.asList("faulty.ttl", "ic17-measure-dimension.ttl")) {
+            NospaValidator validator = new NospaValidator(TestCubes.load(name));
+            validator.setReportLogged(false);
+            validator.setReportWriter(new PrintWriter(new StringWriter()));
+            validator.setCountOnly(true);
+            validator.normalize();
+            validator.validateAll();
+            Map<Constraint, Set<String>> expected =
+                    TestCubes.violations(TestCubes.validateAll(TestCubes.load(name)));
+            for (Constraint constraint : Constraint.values()) {
+                assertEquals(name + " " + constraint, expected.get(constraint).size(),
+                        validator.getViolationCount(constraint));
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package cn.yyz.nospa.validator.nonsparql;
+
+import cn.yyz.nospa.validator.Constraint;
+import cn.yyz.nospa.validator.sparql.IntegrityConstraint;
+import cn.yyz.nospa.validator.sparql.SparqlValidator;
+import com.hp.hpl.jena.query.ResultSet;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.rdf.model.Resource;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the schema level constraints IC-2 to IC-10 validated with the
+ * catalog of structure definitions, against the SPARQL queries of the
+ * specification
+ */
+public class DsdCatalogTest {
+    private static final String EG = "http://example.org/ns#";
+
+    @Test
+    public void schemaLevelConstraintsMatchSparql() {
+        for (String name : Arrays.asList("faulty.ttl", "ic8-two-dsds.ttl")) {
+            Map<Constraint, Set<String>> violations =
+                    TestCubes.violations(TestCubes.validateAll(TestCubes.load(name)));
+            Model model = TestCubes.load(name);
+            SparqlValidator sparqlValidator = new SparqlValidator(model);
+            sparqlValidator.normalize();
+            for (Constraint constraint : EnumSet.range(Constraint.IC2, Constraint.IC10)) {
+                Set<String> expected = new TreeSet<String>();
+                ResultSet resultSet = sparqlValidator.validate(IntegrityConstraint.valueOf(constraint.name()));
+                String var = resultSet.getResultVars().get(0);
+                while (resultSet.hasNext()) expected.add(resultSet.next().get(var).toString());
+                assertEquals(name + " " + constraint, expected, violations.get(constraint));
+            }
+        }
+    }
+
+    @Test
+    public void sliceKeyIsCheckedAgainstEachDsd() {
+        Model model = TestCubes.load("ic8-two-dsds.ttl");
+        Normalizer normalizer = new Normalizer(model);
+        normalizer.normalizePhase1();
+        normalizer.normalizePhase2();
+        DsdCatalog catalog = new DsdCatalog(model);
+        Resource dsdA = model.getResource(EG + "dsdA");
+        Resource dsdB = model.getResource(EG + "dsdB");
+        RDFNode dimY = model.getResource(EG + "dimY");
+        assertEquals(new HashSet<Resource>(Arrays.asList(dsdA, dsdB)), catalog.getDsdWithSliceKeySet());
+        assertTrue(catalog.getComponentProperties(dsdA).contains(dimY));
+        assertFalse(catalog.getComponentProperties(dsdB).contains(dimY));
+        assertTrue(catalog.getSliceKeys(dsdB).contains(model.getResource(EG + "sk")));
+        assertEquals(Collections.singleton(dimY), new ValidatorIC8(model, catalog).validate());
+    }
+}
@@ -0,0 +1,73 @@
+package cn.yyz.nospa.validator.nonsparql;
+
+import cn.yyz.nospa.validator.Constraint;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.rdf.model.Resource;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the index of IC-12, and of IC-12 against the fixture cube
+ */
+public class DuplicateIndexTest {
+    private Model model = ModelFactory.createDefaultModel();
+
+    @Test
+    public void keysSeenBeforeAreDuplicates() {
+        DuplicateIndex index = new DuplicateIndex(false);
+        assertFalse(index.add(obs("o1"), key("a", "x")));
+        assertFalse(index.add(obs("o2"), key("a", "y")));
+        assertTrue(index.add(obs("o3"), key("x", "a")));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void plainIndexCannotRemove() {
+        new DuplicateIndex(false).remove(obs("o1"));
+    }
+
+    @Test
+    public void removedObservationsAreNotDuplicated() {
+        DuplicateIndex index = new DuplicateIndex(true);
+        assertFalse(index.add(obs("o1"), key("a", "x")));
+        assertTrue(index.add(obs("o2"), key("a", "x")));
+        index.remove(obs("o2"));
+        assertFalse(index.add(obs("o3"), key("a", "y")));
+        assertTrue(index.add(obs("o2"), key("a", "x")));
+        index.remove(obs("o1"));
+        index.remove(obs("o1"));
+        assertFalse(index.add(obs("o2"), key("a", "x")));
+    }
+
+    @Test
+    public void changedKeyReplacesPreviousKey() {
+        DuplicateIndex index = new DuplicateIndex(true);
+        assertFalse(index.add(obs("o1"), key("a", "x")));
+        assertFalse(index.add(obs("o1"), key("a", "y")));
+        assertFalse(index.add(obs("o2"), key("a", "x")));
+        assertTrue(index.add(obs("o3"), key("a", "y")));
+    }
+
+    @Test
+    public void oneOfDuplicatedObservationsIsReported() {
+        String report = TestCubes.validateAll(TestCubes.load("faulty.ttl"));
+        Set<String> obsSet = TestCubes.violations(report).get(Constraint.IC12);
+        assertEquals(1, obsSet.size());
+        assertTrue(Arrays.asList("http://example.org/ns#o1", "http://example.org/ns#o2")
+                .containsAll(obsSet));
+    }
+
+    private Resource obs(String name) {
+        return model.createResource("http://example.org/ns#" + name);
+    }
+
+    private Set<RDFNode> key(String... names) {
+        Set<RDFNode> key = new HashSet<RDFNode>();
+        for (String name : names) key.add(obs(name));
+        return key;
+    }
+}
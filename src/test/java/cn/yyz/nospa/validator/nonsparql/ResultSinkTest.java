@@ -0,0 +1,86 @@
+package cn.yyz.nospa.validator.nonsparql;
+
+import cn.yyz.nospa.validator.Constraint;
+import cn.yyz.nospa.validator.ValidationResultSink;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.rdf.model.Resource;
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of a validation pushing its violations into a result sink, comparing
+ * the nodes received for each constraint with the report of validateAll()
+ */
+public class ResultSinkTest {
+
+    @Test
+    public void sinkReceivesViolationsOfValidateAll() {
+        for (String name : Arrays.asList("faulty.ttl", "ic17-measure-dimension.ttl")) {
+            RecordingSink sink = new RecordingSink();
+            validate(name, sink, EnumSet.allOf(Constraint.class));
+            Map<Constraint, Set<String>> expected =
+                    TestCubes.violations(TestCubes.validateAll(TestCubes.load(name)));
+            assertEquals(name, expected.keySet(), sink.completedMap.keySet());
+            for (Constraint constraint : expected.keySet()) {
+                assertFalse(name + " " + constraint, sink.completedMap.get(constraint));
+                assertEquals(name + " " + constraint, expected.get(constraint), sink.nodes(constraint));
+            }
+        }
+    }
+
+    @Test
+    public void sinkReceivesSelectedConstraints() {
+        EnumSet<Constraint> selection = EnumSet.of(Constraint.IC4, Constraint.IC11, Constraint.IC14);
+        RecordingSink sink = new RecordingSink();
+        validate("faulty.ttl", sink, selection);
+        Map<Constraint, Set<String>> expected =
+                TestCubes.violations(TestCubes.validateAll(TestCubes.load("faulty.ttl")));
+        assertEquals(selection, sink.completedMap.keySet());
+        for (Constraint constraint : Constraint.values()) {
+            if (selection.contains(constraint))
+                assertEquals(constraint.name(), expected.get(constraint), sink.nodes(constraint));
+            else assertEquals(constraint.name(), Collections.<String>emptySet(), sink.nodes(constraint));
+        }
+    }
+
+    private void validate(String name, ValidationResultSink sink, EnumSet<Constraint> constraintSet) {
+        NospaValidator validator = new NospaValidator(TestCubes.load(name));
+        validator.setReportLogged(false);
+        validator.setReportWriter(new PrintWriter(new StringWriter()));
+        validator.setResultSink(sink);
+        validator.normalize();
+        validator.validate(constraintSet);
+    }
+
+    /**
+     * A sink keeping the violating nodes of each constraint and whether the
+     * constraint was completed as incomplete
+     */
+    private static class RecordingSink implements ValidationResultSink {
+        private final Map<Constraint, Set<String>> nodesByConstraint =
+                new EnumMap<Constraint, Set<String>>(Constraint.class);
+        private final Map<Constraint, Boolean> completedMap =
+                new EnumMap<Constraint, Boolean>(Constraint.class);
+
+        public synchronized void violation(Constraint constraint, Resource dataset, RDFNode node,
+                                           Object detail) {
+            if (!nodesByConstraint.containsKey(constraint))
+                nodesByConstraint.put(constraint, new TreeSet<String>());
+            nodesByConstraint.get(constraint).add(node.toString());
+        }
+
+        public synchronized void completed(Constraint constraint, boolean isIncomplete, long time) {
+            completedMap.put(constraint, isIncomplete);
+        }
+
+        synchronized Set<String> nodes(Constraint constraint) {
+            Set<String> nodeSet = nodesByConstraint.get(constraint);
+            return nodeSet == null ? Collections.<String>emptySet() : nodeSet;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package cn.yyz.nospa.validator.nonsparql;
+
+import cn.yyz.nospa.validator.Constraint;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the validation of frozen cubes and of cubes validated against a
+ * compiled context of structures, comparing their reports with the one of
+ * validateAll()
+ */
+public class SchemaContextTest {
+    private static final List<String> CUBES = Arrays.asList("faulty.ttl", "ic17-measure-dimension.ttl");
+
+    @Test
+    public void frozenCubeMatchesValidateAll() {
+        for (String name : CUBES) {
+            NospaValidator validator = new NospaValidator(TestCubes.load(name));
+            assertMatchesValidateAll(name + " frozen", name, validate(validator));
+        }
+    }
+
+    @Test
+    public void contextMatchesValidateAll() {
+        for (String name : CUBES) {
+            Model schemaModel = TestCubes.load(name);
+            Model obsModel = SchemaContext.extractObservations(schemaModel);
+            SchemaContext context = new SchemaContext(schemaModel);
+            for (int i = 0; i < 2; i++) {
+                NospaValidator validator = new NospaValidator(copy(obsModel), context);
+                assertMatchesValidateAll(name + " against its context, run " + i, name, validate(validator));
+            }
+        }
+    }
+
+    private String validate(NospaValidator validator) {
+        StringWriter report = new StringWriter();
+        validator.setReportLogged(false);
+        validator.setReportWriter(new PrintWriter(report));
+        validator.normalize();
+        validator.freeze();
+        validator.validateAll();
+        return report.toString();
+    }
+
+    /**
+     * Compares the violations of a report with those of validateAll(). Of
+     * duplicated observations, only the number reported for IC-12 is
+     * compared, as it depends on the order of the observations which of them
+     * are reported.
+     * @param message the message of a failure
+     * @param name the file name of the validated cube
+     * @param report the report to be compared
+     */
+    private void assertMatchesValidateAll(String message, String name, String report) {
+        Map<Constraint, Set<String>> expected =
+                TestCubes.violations(TestCubes.validateAll(TestCubes.load(name)));
+        Map<Constraint, Set<String>> actual = TestCubes.violations(report);
+        assertEquals(message, expected.keySet(), actual.keySet());
+        for (Constraint constraint : expected.keySet()) {
+            if (constraint == Constraint.IC12)
+                assertEquals(message, expected.get(constraint).size(), actual.get(constraint).size());
+            else assertEquals(message + " " + constraint, expected.get(constraint), actual.get(constraint));
+        }
+        assertEquals(message, Collections.<Constraint>emptySet(), TestCubes.incomplete(report));
+    }
+
+    private Model copy(Model model) {
+        return ModelFactory.createDefaultModel().add(model);
+    }
+}
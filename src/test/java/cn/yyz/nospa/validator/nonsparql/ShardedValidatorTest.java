@@ -0,0 +1,85 @@
+package cn.yyz.nospa.validator.nonsparql;
+
+import cn.yyz.nospa.validator.Constraint;
+import com.hp.hpl.jena.rdf.model.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the sharded validation, comparing the report merged from the
+ * results of the workers with the one of validateAll()
+ */
+public class ShardedValidatorTest {
+    private static final String EG = "http://example.org/ns#";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shardsMatchValidateAll() throws IOException {
+        assertMatchesValidateAll("faulty.ttl", 3);
+    }
+
+    @Test
+    public void measureGroupsSplitAcrossShards() throws IOException {
+        File workDir = assertMatchesValidateAll("ic17-measure-dimension.ttl", 3);
+        Map<Resource, Set<Integer>> shardsByYear = new HashMap<Resource, Set<Integer>>();
+        Property year = ResourceFactory.createProperty(EG + "year");
+        for (int i = 0; i < 3; i++) {
+            Model shardModel = ModelFactory.createDefaultModel();
+            InputStream inputStream = new FileInputStream(new File(workDir, "shard-" + i + ".nt"));
+            try {
+                shardModel.read(inputStream, null, "N-TRIPLE");
+            } finally {
+                inputStream.close();
+            }
+            StmtIterator stmtIter = shardModel.listStatements(null, year, (RDFNode) null);
+            while (stmtIter.hasNext()) {
+                Resource yearValue = ResourceFactory.createResource(stmtIter.nextStatement().getString());
+                if (!shardsByYear.containsKey(yearValue)) shardsByYear.put(yearValue, new HashSet<Integer>());
+                shardsByYear.get(yearValue).add(i);
+            }
+        }
+        int numOfSplit = 0;
+        for (Set<Integer> shardSet : shardsByYear.values()) {
+            if (shardSet.size() > 1) numOfSplit++;
+        }
+        assertTrue("no measure group is split across shards", numOfSplit > 0);
+    }
+
+    /**
+     * Validates a fixture cube in shards and compares the violations of each
+     * constraint with those of validateAll(). Of duplicated observations,
+     * only the number reported for IC-12 is compared, as it depends on the
+     * order of the observations which of them are reported.
+     * @param name the file name of the cube
+     * @param numOfShards the number of shards
+     * @return the work directory of the validation
+     * @throws IOException if the work directory cannot be written
+     */
+    private File assertMatchesValidateAll(String name, int numOfShards) throws IOException {
+        File file = TestCubes.write(TestCubes.load(name), folder.newFile(name + ".nt"));
+        File workDir = folder.newFolder();
+        StringWriter report = new StringWriter();
+        ShardedValidator validator = new ShardedValidator(workDir, numOfShards);
+        validator.setReportWriter(new PrintWriter(report));
+        validator.validate(file.getPath(), "N-TRIPLE");
+        Map<Constraint, Set<String>> expected =
+                TestCubes.violations(TestCubes.validateAll(TestCubes.load(name)));
+        Map<Constraint, Set<String>> actual = TestCubes.violations(report.toString());
+        assertEquals(name, expected.keySet(), actual.keySet());
+        for (Constraint constraint : expected.keySet()) {
+            if (constraint == Constraint.IC12)
+                assertEquals(name, expected.get(constraint).size(), actual.get(constraint).size());
+            else assertEquals(name + " " + constraint, expected.get(constraint), actual.get(constraint));
+        }
+        assertEquals(name, Collections.<Constraint>emptySet(), TestCubes.incomplete(report.toString()));
+        return workDir;
+    }
+}
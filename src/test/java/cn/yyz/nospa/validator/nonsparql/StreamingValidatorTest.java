@@ -0,0 +1,110 @@
+package cn.yyz.nospa.validator.nonsparql;
+
+import cn.yyz.nospa.validator.Constraint;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.RDFLanguages;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the streaming and the two-pass validation, comparing their
+ * reports with the one of validateAll()
+ */
+public class StreamingValidatorTest {
+    private static final List<String> CUBES = Arrays.asList("faulty.ttl", "ic17-measure-dimension.ttl");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void streamingMatchesValidateAll() throws IOException {
+        for (String name : CUBES) {
+            File file = TestCubes.writeStream(TestCubes.load(name), folder.newFile(name + ".nt"));
+            for (int queueCapacity : new int[] {0, 2}) {
+                StringWriter report = new StringWriter();
+                StreamingValidator validator = new StreamingValidator(3);
+                validator.setQueueCapacity(queueCapacity);
+                validator.setReportWriter(new PrintWriter(report));
+                validator.validate(file.getPath(), "N-TRIPLE");
+                assertMatchesValidateAll(name + " with queues of " + queueCapacity, name, report.toString());
+            }
+        }
+    }
+
+    @Test
+    public void twoPassMatchesValidateAll() throws IOException {
+        for (String name : CUBES) {
+            File file = shuffle(TestCubes.write(TestCubes.load(name), folder.newFile(name + ".nt")));
+            for (int queueCapacity : new int[] {0, 2}) {
+                SchemaCollector collector = new SchemaCollector();
+                InputStream inputStream = new FileInputStream(file);
+                try {
+                    RDFDataMgr.parse(collector, inputStream, RDFLanguages.NTRIPLES);
+                } finally {
+                    inputStream.close();
+                }
+                StringWriter report = new StringWriter();
+                StreamingValidator validator = new StreamingValidator(3, collector);
+                validator.setQueueCapacity(queueCapacity);
+                validator.setReportWriter(new PrintWriter(report));
+                validator.validate(file.getPath(), "N-TRIPLE");
+                assertMatchesValidateAll(name + " in two passes with queues of " + queueCapacity,
+                        name, report.toString());
+            }
+        }
+    }
+
+    /**
+     * Compares the violations of a report with those of validateAll(). Of
+     * duplicated observations, IC-12 reports those found after the first
+     * one, which depends on the order of the observations, so only their
+     * numbers are compared.
+     * @param message the message of a failure
+     * @param name the file name of the validated cube
+     * @param report the report to be compared
+     */
+    private void assertMatchesValidateAll(String message, String name, String report) {
+        Map<Constraint, Set<String>> expected =
+                TestCubes.violations(TestCubes.validateAll(TestCubes.load(name)));
+        Map<Constraint, Set<String>> actual = TestCubes.violations(report);
+        assertEquals(message, expected.keySet(), actual.keySet());
+        for (Constraint constraint : expected.keySet()) {
+            if (constraint == Constraint.IC12)
+                assertEquals(message, expected.get(constraint).size(), actual.get(constraint).size());
+            else assertEquals(message + " " + constraint, expected.get(constraint), actual.get(constraint));
+        }
+        assertEquals(message, Collections.<Constraint>emptySet(), TestCubes.incomplete(report));
+    }
+
+    /**
+     * Shuffles the lines of an N-Triples file, so that the triples of each
+     * observation are scattered across the file
+     * @param file an N-Triples file
+     * @return the file
+     * @throws IOException if the file cannot be read or written
+     */
+    private File shuffle(File file) throws IOException {
+        List<String> lineList = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "utf-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) lineList.add(line);
+        } finally {
+            reader.close();
+        }
+        Collections.shuffle(lineList, new Random(42));
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "utf-8"));
+        try {
+            for (String line : lineList) writer.println(line);
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,145 @@
+package cn.yyz.nospa.validator.nonsparql;
+
+import cn.yyz.nospa.validator.Constraint;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * The fixture cubes of the tests, and the violations of each constraint read
+ * back from a validation report so that the reports of the validation modes
+ * can be compared with the one of validateAll()
+ */
+class TestCubes {
+    private static final String INCOMPLETE = "Incomplete:";
+
+    private TestCubes() {
+    }
+
+    /**
+     * Reads a fixture cube
+     * @param name the file name of the cube under /cubes
+     * @return a model of the cube
+     */
+    static Model load(String name) {
+        Model model = ModelFactory.createDefaultModel();
+        InputStream inputStream = TestCubes.class.getResourceAsStream("/cubes/" + name);
+        if (inputStream == null) throw new IllegalArgumentException("Cube " + name + " not found");
+        try {
+            model.read(inputStream, null, name.endsWith(".nt") ? "N-TRIPLE" : "TURTLE");
+        } finally {
+            try {
+                inputStream.close();
+            } catch (IOException ioe) {
+                // nothing was left to read
+            }
+        }
+        return model;
+    }
+
+    /**
+     * Writes a model as N-Triples
+     * @param model an RDF model
+     * @param file the file receiving the triples
+     * @return the file
+     * @throws IOException if the file cannot be written
+     */
+    static File write(Model model, File file) throws IOException {
+        OutputStream outputStream = new FileOutputStream(file);
+        try {
+            RDFDataMgr.write(outputStream, model, Lang.NTRIPLES);
+        } finally {
+            outputStream.close();
+        }
+        return file;
+    }
+
+    /**
+     * Writes a model as N-Triples to be streamed, the triples of each
+     * subject together and the triples of observations after all others
+     * @param model an RDF model, which is left without the triples of
+     *              observations
+     * @param file the file receiving the triples
+     * @return the file
+     * @throws IOException if the file cannot be written
+     */
+    static File writeStream(Model model, File file) throws IOException {
+        Model obsModel = SchemaContext.extractObservations(model);
+        OutputStream outputStream = new FileOutputStream(file);
+        try {
+            RDFDataMgr.write(outputStream, model, Lang.NTRIPLES);
+            RDFDataMgr.write(outputStream, obsModel, Lang.NTRIPLES);
+        } finally {
+            outputStream.close();
+        }
+        return file;
+    }
+
+    /**
+     * Normalizes and validates a cube with validateAll()
+     * @param model an RDF model, which is normalized in place
+     * @return the validation report
+     */
+    static String validateAll(Model model) {
+        StringWriter report = new StringWriter();
+        NospaValidator validator = new NospaValidator(model);
+        validator.setReportLogged(false);
+        validator.setReportWriter(new PrintWriter(report));
+        validator.normalize();
+        validator.validateAll();
+        return report.toString();
+    }
+
+    /**
+     * Reads the violating nodes of each constraint from a validation report.
+     * A section starting with "The following" lists the nodes below it, and
+     * any other section starts each violation with its node.
+     * @param report a validation report
+     * @return the violating nodes of each reported constraint, empty if it
+     * passed
+     */
+    static Map<Constraint, Set<String>> violations(String report) {
+        Map<Constraint, Set<String>> nodesByConstraint =
+                new EnumMap<Constraint, Set<String>>(Constraint.class);
+        Map<String, Constraint> constraintByName = new HashMap<String, Constraint>();
+        for (Constraint constraint : Constraint.values())
+            constraintByName.put(constraint.getName(), constraint);
+        Set<String> nodeSet = null;
+        boolean isList = false;
+        for (String line : report.split("\r?\n")) {
+            Constraint constraint = constraintByName.get(line);
+            if (constraint != null) {
+                nodeSet = new TreeSet<String>();
+                nodesByConstraint.put(constraint, nodeSet);
+                isList = false;
+            }
+            else if (nodeSet == null || line.trim().length() == 0 || line.startsWith("---") ||
+                    line.equals("Pass.") || line.startsWith(INCOMPLETE)) continue;
+            else if (line.startsWith("The following")) isList = true;
+            else if (isList) nodeSet.add(line.trim());
+            else if (!line.startsWith(" ")) nodeSet.add(line.substring(0, line.indexOf(' ')));
+        }
+        return nodesByConstraint;
+    }
+
+    /**
+     * @param report a validation report
+     * @return the constraints reported as stopped before all violations were
+     * found
+     */
+    static Set<Constraint> incomplete(String report) {
+        Set<Constraint> constraintSet = EnumSet.noneOf(Constraint.class);
+        Constraint current = null;
+        for (String line : report.split("\r?\n")) {
+            for (Constraint constraint : Constraint.values()) {
+                if (line.equals(constraint.getName())) current = constraint;
+            }
+            if (current != null && line.startsWith(INCOMPLETE)) constraintSet.add(current);
+        }
+        return constraintSet;
+    }
+}
@@ -0,0 +1,119 @@
+package cn.yyz.nospa.validator.nonsparql;
+
+import cn.yyz.nospa.validator.Constraint;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of validateDelta(), comparing the violations of the touched
+ * observations with those found by validateAll() on the changed cube
+ */
+public class ValidateDeltaTest {
+    private static final String PREFIXES =
+            "@prefix qb: <http://purl.org/linked-data/cube#> .\n" +
+            "@prefix xsd: <http://www.w3.org/2001/XMLSchema#> .\n" +
+            "@prefix eg: <http://example.org/ns#> .\n";
+    private static final String EG = "http://example.org/ns#";
+    private static final EnumSet<Constraint> OBSERVATION_LEVEL = EnumSet.of(Constraint.IC11,
+            Constraint.IC13, Constraint.IC14, Constraint.IC15, Constraint.IC16, Constraint.IC18);
+
+    private StringWriter report = new StringWriter();
+
+    @Test
+    public void addedAndRemovedObservations() {
+        Model addedModel = parse(
+                "eg:o12 qb:dataSet eg:ds1 ; eg:dimA eg:a ; eg:dimB eg:x ; eg:dimH eg:r2 ; eg:dimN eg:a ;\n" +
+                "    eg:m1 1 ; eg:m2 2 ; eg:att 1 .\n" +
+                "eg:o13 qb:dataSet eg:ds1 ; eg:dimA eg:b ; eg:dimH eg:r1 ; eg:m1 7 .\n");
+        Set<String> touchedSet = new HashSet<String>(Arrays.asList(EG + "o12", EG + "o13"));
+        Map<Constraint, Set<String>> before =
+                TestCubes.violations(TestCubes.validateAll(TestCubes.load("faulty.ttl")));
+        Map<Constraint, Set<String>> after = TestCubes.violations(TestCubes.validateAll(
+                TestCubes.load("faulty.ttl").add(addedModel)));
+        NospaValidator validator = newValidator(TestCubes.load("faulty.ttl"));
+
+        Map<Constraint, Set<String>> added = validateDelta(validator, addedModel, ModelFactory.createDefaultModel());
+        for (Constraint constraint : OBSERVATION_LEVEL)
+            assertEquals(constraint.name(), restrict(after.get(constraint), touchedSet), added.get(constraint));
+        assertEquals(Collections.singleton(EG + "o12"), added.get(Constraint.IC12));
+        assertTrue(added.get(Constraint.IC11).contains(EG + "o13"));
+
+        Map<Constraint, Set<String>> removed = validateDelta(validator, ModelFactory.createDefaultModel(), addedModel);
+        for (Constraint constraint : EnumSet.range(Constraint.IC11, Constraint.IC18))
+            assertEquals(constraint.name(), Collections.<String>emptySet(), restrict(removed.get(constraint), touchedSet));
+
+        report.getBuffer().setLength(0);
+        validator.validateAll();
+        Map<Constraint, Set<String>> revalidated = TestCubes.violations(report.toString());
+        for (Constraint constraint : Constraint.values()) {
+            if (constraint == Constraint.IC12)
+                assertEquals(before.get(constraint).size(), revalidated.get(constraint).size());
+            else assertEquals(constraint.name(), before.get(constraint), revalidated.get(constraint));
+        }
+    }
+
+    @Test
+    public void changedMeasureGroups() {
+        Model addedModel = parse(
+                "eg:o2003m3 qb:dataSet eg:ds ; eg:year \"2003\"^^xsd:gYear ; qb:measureType eg:m3 ; eg:m3 1 .\n" +
+                "eg:o2004m3b qb:dataSet eg:ds ; eg:year \"2004\"^^xsd:gYear ; qb:measureType eg:m3 ; eg:m3 2 .\n");
+        Set<String> groupSet = new HashSet<String>();
+        for (String year : Arrays.asList("2003", "2004")) {
+            for (String measure : Arrays.asList("m1", "m2", "m3", "m3b")) groupSet.add(EG + "o" + year + measure);
+        }
+        Map<Constraint, Set<String>> before = TestCubes.violations(
+                TestCubes.validateAll(TestCubes.load("ic17-measure-dimension.ttl")));
+        Map<Constraint, Set<String>> after = TestCubes.violations(TestCubes.validateAll(
+                TestCubes.load("ic17-measure-dimension.ttl").add(addedModel)));
+        NospaValidator validator = newValidator(TestCubes.load("ic17-measure-dimension.ttl"));
+
+        Map<Constraint, Set<String>> added = validateDelta(validator, addedModel, ModelFactory.createDefaultModel());
+        assertEquals(restrict(after.get(Constraint.IC17), groupSet), added.get(Constraint.IC17));
+        assertEquals(Collections.singleton(EG + "o2004m3b"), added.get(Constraint.IC12));
+
+        Map<Constraint, Set<String>> removed = validateDelta(validator, ModelFactory.createDefaultModel(), addedModel);
+        assertEquals(restrict(before.get(Constraint.IC17), groupSet), removed.get(Constraint.IC17));
+        assertEquals(Collections.<String>emptySet(), removed.get(Constraint.IC12));
+    }
+
+    /**
+     * Creates a validator of a cube which has been validated once
+     * @param model the model of the cube
+     * @return the validator, writing its report into the report buffer
+     */
+    private NospaValidator newValidator(Model model) {
+        NospaValidator validator = new NospaValidator(model);
+        validator.setReportLogged(false);
+        validator.setReportWriter(new PrintWriter(report));
+        validator.normalize();
+        validator.validateAll();
+        return validator;
+    }
+
+    private Map<Constraint, Set<String>> validateDelta(NospaValidator validator, Model addedModel,
+                                                       Model removedModel) {
+        report.getBuffer().setLength(0);
+        validator.validateDelta(addedModel, removedModel);
+        return TestCubes.violations(report.toString());
+    }
+
+    private Model parse(String turtle) {
+        Model model = ModelFactory.createDefaultModel();
+        model.read(new StringReader(PREFIXES + turtle), null, "TURTLE");
+        return model;
+    }
+
+    private Set<String> restrict(Set<String> nodeSet, Set<String> scope) {
+        Set<String> restricted = new TreeSet<String>(nodeSet);
+        restricted.retainAll(scope);
+        return restricted;
+    }
+}
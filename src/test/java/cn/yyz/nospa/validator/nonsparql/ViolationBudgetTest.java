@@ -0,0 +1,71 @@
+package cn.yyz.nospa.validator.nonsparql;
+
+import cn.yyz.nospa.validator.Constraint;
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of a validation stopped by an exhausted violation budget, whose
+ * constraints are reported as incomplete with a subset of the violations
+ * found by validateAll()
+ */
+public class ViolationBudgetTest {
+
+    @Test
+    public void exhaustedConstraintsAreIncomplete() {
+        Map<Constraint, Integer> limitByConstraint = new EnumMap<Constraint, Integer>(Constraint.class);
+        limitByConstraint.put(Constraint.IC4, 1);
+        limitByConstraint.put(Constraint.IC11, 1);
+        limitByConstraint.put(Constraint.IC14, 2);
+        ViolationBudget budget = new ViolationBudget();
+        for (Map.Entry<Constraint, Integer> entry : limitByConstraint.entrySet())
+            budget.setLimit(entry.getKey(), entry.getValue());
+        StringWriter report = new StringWriter();
+        NospaValidator validator = new NospaValidator(TestCubes.load("faulty.ttl"));
+        validator.setReportLogged(false);
+        validator.setReportWriter(new PrintWriter(report));
+        validator.setViolationBudget(budget);
+        validator.normalize();
+        validator.validateAll();
+
+        Map<Constraint, Set<String>> expected =
+                TestCubes.violations(TestCubes.validateAll(TestCubes.load("faulty.ttl")));
+        Map<Constraint, Set<String>> actual = TestCubes.violations(report.toString());
+        assertEquals(limitByConstraint.keySet(), TestCubes.incomplete(report.toString()));
+        for (Constraint constraint : Constraint.values()) {
+            Integer limit = limitByConstraint.get(constraint);
+            if (limit == null) {
+                assertEquals(constraint.name(), expected.get(constraint), actual.get(constraint));
+                continue;
+            }
+            assertEquals(constraint.name(), limit.intValue(), actual.get(constraint).size());
+            assertTrue(constraint.name(), expected.get(constraint).containsAll(actual.get(constraint)));
+        }
+    }
+
+    @Test
+    public void globalLimitStopsAllConstraints() {
+        ViolationBudget budget = new ViolationBudget(3);
+        assertTrue(budget.spend(Constraint.IC1));
+        assertTrue(budget.spend(Constraint.IC2));
+        assertFalse(budget.isExhausted(Constraint.IC3));
+        assertTrue(budget.spend(Constraint.IC3));
+        assertTrue(budget.isExhausted(EnumSet.allOf(Constraint.class)));
+        assertFalse(budget.spend(Constraint.IC4));
+    }
+
+    @Test
+    public void constraintLimitLeavesOthers() {
+        ViolationBudget budget = new ViolationBudget().setLimit(Constraint.IC12, 1);
+        assertTrue(budget.spend(Constraint.IC12));
+        assertFalse(budget.spend(Constraint.IC12));
+        assertTrue(budget.isExhausted(Constraint.IC12));
+        assertFalse(budget.isExhausted(EnumSet.of(Constraint.IC11, Constraint.IC12)));
+        assertTrue(budget.spend(Constraint.IC11));
+    }
+}